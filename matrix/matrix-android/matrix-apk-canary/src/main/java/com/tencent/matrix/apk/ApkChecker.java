@@ -18,6 +18,7 @@ package com.tencent.matrix.apk;
 
 import com.tencent.matrix.apk.model.job.ApkJob;
 import com.tencent.matrix.apk.model.job.JobConstants;
+import com.tencent.matrix.apk.model.result.TaskResultFactory;
 
 /**
  * Created by jinqiuchen on 17/5/23.
@@ -39,7 +40,12 @@ public final class ApkChecker {
         "Usages:\n\n"
             + JobConstants.PARAM_CONFIG + " CONFIG-FILE-PATH\n\n"
             + "or\n\n"
-            + "[" + JobConstants.PARAM_INPUT + " INPUT-DIR-PATH] [" + JobConstants.PARAM_APK + " APK-FILE-PATH] [" + JobConstants.PARAM_UNZIP + " APK-UNZIP-PATH] [" + JobConstants.PARAM_MAPPING_TXT + " MAPPING-FILE-PATH] [" + JobConstants.PARAM_RES_MAPPING_TXT + " RESGUARD-MAPPING-FILE-PATH] [" + JobConstants.PARAM_OUTPUT + " OUTPUT-PATH] [" + JobConstants.PARAM_FORMAT + " OUTPUT-FORMAT] [" + JobConstants.PARAM_FORMAT_JAR + " OUTPUT-FORMAT-JAR] [" + JobConstants.PARAM_FORMAT_CONFIG + " OUTPUT-FORMAT-CONFIG (json-array format)] [" + JobConstants.PARAM_LOG_LEVEL + " LOG-LEVEL (v,d,i,w,e)] [Options]\n\n"
+            + "[" + JobConstants.PARAM_INPUT + " INPUT-DIR-PATH] [" + JobConstants.PARAM_APK + " APK-FILE-PATH] [" + JobConstants.PARAM_UNZIP + " APK-UNZIP-PATH] [" + JobConstants.PARAM_MAPPING_TXT + " MAPPING-FILE-PATH] [" + JobConstants.PARAM_RES_MAPPING_TXT + " RESGUARD-MAPPING-FILE-PATH] [" + JobConstants.PARAM_OUTPUT + " OUTPUT-PATH] [" + JobConstants.PARAM_FORMAT + " OUTPUT-FORMAT ('" + TaskResultFactory.TASK_RESULT_TYPE_HTML + "'|'" + TaskResultFactory.TASK_RESULT_TYPE_JSON + "'|'" + TaskResultFactory.TASK_RESULT_TYPE_NDJSON + "', split by ',')] [" + JobConstants.PARAM_FORMAT_JAR + " OUTPUT-FORMAT-JAR] [" + JobConstants.PARAM_FORMAT_CONFIG + " OUTPUT-FORMAT-CONFIG (json-array format)] [" + JobConstants.PARAM_CACHE + " RESULT-CACHE-FILE-PATH] [" + JobConstants.PARAM_STREAM_OUTPUT + " STREAM-OUTPUT (true,false)] [" + JobConstants.PARAM_LOG_LEVEL + " LOG-LEVEL (v,d,i,w,e)] [Options]\n\n"
+            + "Output formats:\n"
+                + "     '" + TaskResultFactory.TASK_RESULT_TYPE_HTML + "', '" + TaskResultFactory.TASK_RESULT_TYPE_JSON + "': write all task results into OUTPUT-PATH.html / OUTPUT-PATH.json when the job completes, '" + TaskResultFactory.TASK_RESULT_TYPE_HTML + "' by default.\n"
+                + "     '" + TaskResultFactory.TASK_RESULT_TYPE_NDJSON + "': write every task result as one line of JSON into OUTPUT-PATH.ndjson as soon as the task completes.\n"
+                + JobConstants.PARAM_STREAM_OUTPUT + " true\n"
+                + "     Write the html and json results as soon as each task completes instead of holding them until the job completes, results are then in completion order.\n\n"
             + "Options:\n"
                 + JobConstants.OPTION_MANIFEST + "\n"
                 + "     Read package info from the AndroidManifest.xml.\n"
@@ -49,8 +55,8 @@ public final class ApkChecker {
                 + "     Count methods in dex file, output results group by class name or package name.\n"
                 + JobConstants.OPTION_CHECK_RES_PROGUARD + "\n"
                 + "     Check if the resguard was applied.\n"
-                + JobConstants.OPTION_FIND_NON_ALPHA_PNG + " [" + JobConstants.PARAM_MIN_SIZE_IN_KB + " DOWN-LIMIT-SIZE (KB)]\n"
-                + "     Find out the non-alpha png-format files whose size exceed limit size in desc order.\n"
+                + JobConstants.OPTION_FIND_NON_ALPHA_PNG + " [" + JobConstants.PARAM_MIN_SIZE_IN_KB + " DOWN-LIMIT-SIZE (KB)] [" + JobConstants.PARAM_CHECK_OPAQUE_ALPHA + " ('true'|'false')]\n"
+                + "     Find out the non-alpha png-format files whose size exceed limit size in desc order, also the ones with a fully opaque alpha channel if " + JobConstants.PARAM_CHECK_OPAQUE_ALPHA + " is true.\n"
                 + JobConstants.OPTION_CHECK_MULTILIB + "\n"
                 + "     Check if there are more than one library dir in the 'lib'.\n"
                 + JobConstants.OPTION_UNCOMPRESSED_FILE + " [" + JobConstants.PARAM_SUFFIX + " FILTER-SUFFIX-LIST (split by ',')]\n"
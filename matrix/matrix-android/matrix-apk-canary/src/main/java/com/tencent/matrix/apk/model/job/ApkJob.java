@@ -30,6 +30,9 @@ import com.tencent.matrix.apk.model.result.TaskResultRegistry;
 import com.tencent.matrix.apk.model.task.ApkTask;
 import com.tencent.matrix.apk.model.task.TaskFactory;
 import com.tencent.matrix.apk.model.task.util.ApkConstants;
+import com.tencent.matrix.apk.model.task.util.ApkEntryCatalog;
+import com.tencent.matrix.apk.model.task.util.ApkResultCache;
+import com.tencent.matrix.apk.model.task.util.DexIndex;
 import com.tencent.matrix.javalib.util.FileUtil;
 import com.tencent.matrix.javalib.util.Log;
 import com.tencent.matrix.javalib.util.Util;
@@ -46,6 +49,9 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
@@ -255,6 +261,15 @@ public final class ApkJob {
                     }
                 }
 
+                if (config.has(JobConstants.PARAM_CACHE)
+                        && !Util.isNullOrNil(config.get(JobConstants.PARAM_CACHE).getAsString())) {
+                    jobConfig.setCachePath(config.get(JobConstants.PARAM_CACHE).getAsString());
+                }
+
+                if (config.has(JobConstants.PARAM_STREAM_OUTPUT)) {
+                    jobConfig.setStreamOutput(Boolean.parseBoolean(config.get(JobConstants.PARAM_STREAM_OUTPUT).getAsString()));
+                }
+
                 if (config.has(JobConstants.PARAM_FORMAT_CONFIG)) {
                     JsonArray outputConfig = config.get(JobConstants.PARAM_FORMAT_CONFIG).getAsJsonArray();
                     if (outputConfig != null) {
@@ -434,6 +449,14 @@ public final class ApkJob {
                     }
                 }
 
+                if (globalParams.containsKey(JobConstants.PARAM_CACHE)) {
+                    jobConfig.setCachePath(globalParams.get(JobConstants.PARAM_CACHE));
+                }
+
+                if (globalParams.containsKey(JobConstants.PARAM_STREAM_OUTPUT)) {
+                    jobConfig.setStreamOutput(Boolean.parseBoolean(globalParams.get(JobConstants.PARAM_STREAM_OUTPUT)));
+                }
+
                 if (globalParams.containsKey(JobConstants.PARAM_FORMAT_CONFIG)) {
                     JsonElement jsonElement = new JsonParser().parse(globalParams.get(JobConstants.PARAM_FORMAT_CONFIG));
                     jobConfig.setOutputConfig((JsonArray) jsonElement);
@@ -518,11 +541,37 @@ public final class ApkJob {
                     }
                 }
             }
+            ApkEntryCatalog catalog = jobConfig.getApkEntryCatalog();
+            for (ApkTask task : taskList) {
+                if (task.needUnzippedFiles()) {
+                    Log.i(TAG, "task %d needs unzipped files, extract the apk", task.getType());
+                    catalog.extractAll();
+                    break;
+                }
+            }
+            if (!Util.isNullOrNil(jobConfig.getCachePath())) {
+                jobConfig.setResultCache(new ApkResultCache(new File(jobConfig.getCachePath())));
+            }
+            //dex files are parsed once on demand and shared by all tasks
+            jobConfig.setDexIndex(new DexIndex(new File(jobConfig.getUnzipPath()), catalog, jobConfig.getResultCache()));
             for (ApkTask task : taskList) {
                 task.init();
             }
-            List<Future<TaskResult>> futures = executor.invokeAll(taskList, timeoutSeconds, TimeUnit.SECONDS);
-            for (Future<TaskResult> future : futures) {
+            //hand every result to the outputs as soon as its task completes, streaming outputs write it at once
+            CompletionService<TaskResult> completionService = new ExecutorCompletionService<>(executor);
+            List<Future<TaskResult>> futures = new ArrayList<>(taskList.size());
+            for (ApkTask task : taskList) {
+                futures.add(completionService.submit(task));
+            }
+            final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(timeoutSeconds);
+            for (int i = 0; i < futures.size(); i++) {
+                Future<TaskResult> future = completionService.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                if (future == null) {
+                    for (Future<TaskResult> pending : futures) {
+                        pending.cancel(true);
+                    }
+                    throw new CancellationException("tasks not finished in " + timeoutSeconds + " seconds");
+                }
                 TaskResult taskResult = future.get();
                 if (taskResult != null) {
                     TaskResult formatResult = null;
@@ -536,6 +585,14 @@ public final class ApkJob {
             }
             executor.shutdownNow();
 
+            if (jobConfig.getResultCache() != null) {
+                try {
+                    jobConfig.getResultCache().save();
+                } catch (IOException e) {
+                    Log.w(TAG, "save result cache failed: %s", e.getMessage());
+                }
+            }
+
             for (JobResult jobResult : jobResults) {
                 jobResult.output();
             }
@@ -545,6 +602,10 @@ public final class ApkJob {
         } catch (Exception e) {
             Log.e(TAG, "Task executor execute with error:" + e.getMessage());
             throw e;
+        } finally {
+            if (jobConfig.getApkEntryCatalog() != null) {
+                jobConfig.getApkEntryCatalog().close();
+            }
         }
     }
 }
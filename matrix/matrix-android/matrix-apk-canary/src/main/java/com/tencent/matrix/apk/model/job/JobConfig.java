@@ -19,6 +19,9 @@ package com.tencent.matrix.apk.model.job;
 import com.google.gson.JsonArray;
 
 import com.android.utils.Pair;
+import com.tencent.matrix.apk.model.task.util.ApkEntryCatalog;
+import com.tencent.matrix.apk.model.task.util.ApkResultCache;
+import com.tencent.matrix.apk.model.task.util.DexIndex;
 
 import java.util.List;
 import java.util.Map;
@@ -35,6 +38,8 @@ public final class JobConfig {
     private String outputPath;
     private String mappingFilePath;
     private String resMappingFilePath;
+    private String cachePath;
+    private boolean streamOutput;
     private JsonArray outputConfig;
 
     private List<String> outputFormatList;
@@ -42,6 +47,9 @@ public final class JobConfig {
     private Map<String, String> resguardMap;
     private Map<String, Pair<Long, Long>> entrySizeMap;
     private Map<String, String> entryNameMap;
+    private ApkEntryCatalog apkEntryCatalog;
+    private DexIndex dexIndex;
+    private ApkResultCache resultCache;
 
     public String getInputDir() {
         return inputDir;
@@ -99,6 +107,22 @@ public final class JobConfig {
         this.resMappingFilePath = resMappingFilePath;
     }
 
+    public String getCachePath() {
+        return cachePath;
+    }
+
+    public void setCachePath(String cachePath) {
+        this.cachePath = cachePath;
+    }
+
+    public boolean isStreamOutput() {
+        return streamOutput;
+    }
+
+    public void setStreamOutput(boolean streamOutput) {
+        this.streamOutput = streamOutput;
+    }
+
     public Map<String, String> getProguardClassMap() {
         return proguardClassMap;
     }
@@ -131,6 +155,22 @@ public final class JobConfig {
         this.entryNameMap = entryNameMap;
     }
 
+    public ApkEntryCatalog getApkEntryCatalog() {
+        return apkEntryCatalog;
+    }
+
+    public void setApkEntryCatalog(ApkEntryCatalog apkEntryCatalog) {
+        this.apkEntryCatalog = apkEntryCatalog;
+    }
+
+    public DexIndex getDexIndex() {
+        return dexIndex;
+    }
+
+    public void setDexIndex(DexIndex dexIndex) {
+        this.dexIndex = dexIndex;
+    }
+
     public JsonArray getOutputConfig() {
         return outputConfig;
     }
@@ -139,4 +179,11 @@ public final class JobConfig {
         this.outputConfig = outputConfig;
     }
 
+    public ApkResultCache getResultCache() {
+        return resultCache;
+    }
+
+    public void setResultCache(ApkResultCache resultCache) {
+        this.resultCache = resultCache;
+    }
 }
@@ -31,8 +31,11 @@ public final class JobConstants {
     public static final String PARAM_FORMAT = "--format";
     public static final String PARAM_FORMAT_JAR = "--formatJar";
     public static final String PARAM_FORMAT_CONFIG = "--formatConfig";
+    public static final String PARAM_CACHE = "--cache";
+    public static final String PARAM_STREAM_OUTPUT = "--streamOutput";
     public static final String PARAM_TOOL_NM = "--toolnm";
     public static final String PARAM_MIN_SIZE_IN_KB = "--min";
+    public static final String PARAM_CHECK_OPAQUE_ALPHA = "--checkOpaqueAlpha";
     public static final String PARAM_ORDER = "--order";
     public static final String PARAM_GROUP = "--group";
     public static final String PARAM_SUFFIX = "--suffix";
@@ -20,10 +20,12 @@ import com.tencent.matrix.javalib.util.Log;
 
 import org.w3c.dom.Document;
 
+import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Collections;
 
@@ -35,6 +37,8 @@ import javax.xml.transform.stream.StreamResult;
 
 /**
  * Created by jinqiuchen on 17/6/13.
+ *
+ * In streaming mode each document is written and dropped as soon as its task completes.
  */
 
 public class JobHtmlResult extends JobResult {
@@ -42,77 +46,80 @@ public class JobHtmlResult extends JobResult {
     private static final String TAG = "JobHtmlResult";
 
     private final File outputFile;
+    private final boolean streaming;
+    private Writer writer;
+    private Transformer transformer;
 
     public JobHtmlResult(String format, String outputPath) {
+        this(format, outputPath, false);
+    }
+
+    public JobHtmlResult(String format, String outputPath, boolean streaming) {
         this.format = format;
         outputFile = new File(outputPath + "." + TaskResultFactory.TASK_RESULT_TYPE_HTML);
-        this.resultList = new ArrayList<>();
+        this.streaming = streaming;
+        if (!streaming) {
+            this.resultList = new ArrayList<>();
+        }
     }
 
     private void writeHtmlStart() throws IOException {
-        PrintWriter printWriter = null;
-        try {
-            if (outputFile.exists() && !outputFile.delete()) {
-                Log.e(TAG, "file " + outputFile.getName() + " is already exists and delete it failed!");
-                return;
+        if (outputFile.exists() && !outputFile.delete()) {
+            throw new IOException("file " + outputFile.getName() + " is already exists and delete it failed!");
+        }
+        writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(outputFile), "UTF-8"));
+        writer.append("<html>");
+        writer.append("<body>");
+    }
+
+    private void writeTaskResult(TaskResult taskResult) throws IOException, TransformerException {
+        if (taskResult.getResult() != null && taskResult.getResult() instanceof Document) {
+            if (writer == null) {
+                writeHtmlStart();
             }
-            if (!outputFile.createNewFile()) {
-                Log.e(TAG, "create output file " + outputFile.getName() + " failed!");
-                return;
+            if (transformer == null) {
+                transformer = TransformerFactory.newInstance().newTransformer();
             }
-            printWriter = new PrintWriter(outputFile, "UTF-8");
-            printWriter.append("<html>");
-            printWriter.append("<body>");
-        } finally {
-            if (printWriter != null) {
-                printWriter.close();
+            writer.append("<br/>");
+            transformer.transform(new DOMSource((Document) taskResult.getResult()), new StreamResult(writer));
+            if (streaming) {
+                writer.flush();
             }
         }
     }
 
-    private void writeDocument(DOMSource domSource) throws Exception {
-        Transformer transformer = null;
+    private void writeHtmlEnd() throws IOException {
+        if (writer == null) {
+            writeHtmlStart();
+        }
         try {
-            transformer = TransformerFactory.newInstance().newTransformer();
-            if (outputFile.isFile() && outputFile.exists()) {
-                FileWriter writer = new FileWriter(outputFile, true);
-                writer.append("<br/>");
-                StreamResult result = new StreamResult(outputFile);
-                result.setWriter(writer);
-                transformer.transform(domSource, result);
-            }
-        } catch (TransformerException | IOException e) {
-            throw e;
+            writer.append("</body>");
+            writer.append("</html>");
+        } finally {
+            writer.close();
         }
     }
 
-    private void writeHtmlEnd() throws IOException {
+    @Override
+    public void addTaskResult(TaskResult result) {
+        if (!streaming) {
+            super.addTaskResult(result);
+            return;
+        }
         try {
-            FileWriter writer = null;
-            try {
-                writer = new FileWriter(outputFile, true);
-                writer.append("</body>");
-                writer.append("</html>");
-            } finally {
-                if (writer != null) {
-                    writer.close();
-                }
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
+            writeTaskResult(result);
+        } catch (IOException | TransformerException e) {
+            Log.e(TAG, "write task result to " + outputFile.getName() + " failed! " + e.getMessage());
         }
     }
 
     @Override
     public void output() {
         try {
-            writeHtmlStart();
-            if (!resultList.isEmpty()) {
+            if (resultList != null && !resultList.isEmpty()) {
                 Collections.sort(resultList, new TaskResultComparator());
                 for (TaskResult taskResult : resultList) {
-                    if (taskResult.getResult() != null && taskResult.getResult() instanceof Document) {
-                        writeDocument(new DOMSource((Document) taskResult.getResult()));
-                    }
+                    writeTaskResult(taskResult);
                 }
             }
             writeHtmlEnd();
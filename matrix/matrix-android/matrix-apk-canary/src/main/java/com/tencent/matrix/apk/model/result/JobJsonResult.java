@@ -17,20 +17,24 @@
 package com.tencent.matrix.apk.model.result;
 
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonWriter;
 import com.tencent.matrix.javalib.util.Log;
 
+import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.OutputStreamWriter;
 import java.util.ArrayList;
 import java.util.Collections;
 
 /**
  * Created by jinqiuchen on 17/6/13.
+ *
+ * The task results are written with one {@link JsonWriter}. In streaming mode each result is
+ * written and dropped as soon as its task completes, so the results are in the order the tasks
+ * completed instead of sorted by {@link TaskResultComparator}.
  */
 
 public class JobJsonResult extends JobResult {
@@ -38,88 +42,79 @@ public class JobJsonResult extends JobResult {
     private static final String TAG = "JobJsonResult";
 
     private final File outputFile;
-    private int elementCount;
+    private final boolean streaming;
+    private final Gson gson;
+    private JsonWriter jsonWriter;
 
     public JobJsonResult(String format, String outputPath) {
+        this(format, outputPath, false);
+    }
+
+    public JobJsonResult(String format, String outputPath, boolean streaming) {
         this.format = format;
         this.outputFile = new File(outputPath + "." + TaskResultFactory.TASK_RESULT_TYPE_JSON);
-        this.resultList = new ArrayList<>();
+        this.streaming = streaming;
+        this.gson = new Gson();
+        if (!streaming) {
+            this.resultList = new ArrayList<>();
+        }
     }
 
     private void writeJsonArrayStart() throws IOException {
-        PrintWriter printWriter = null;
-        try {
-            if (outputFile.exists() && !outputFile.delete()) {
-                Log.e(TAG, "file " + outputFile.getName() + " is already exists and delete it failed!");
-                return;
-            }
-            if (!outputFile.createNewFile()) {
-                Log.e(TAG, "create output file " + outputFile.getName() + " failed!");
-                return;
+        if (outputFile.exists() && !outputFile.delete()) {
+            throw new IOException("file " + outputFile.getName() + " is already exists and delete it failed!");
+        }
+        jsonWriter = new JsonWriter(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(outputFile), "UTF-8")));
+        jsonWriter.setIndent("  ");
+        jsonWriter.beginArray();
+    }
+
+    private void writeTaskResult(TaskResult taskResult) throws IOException {
+        if (taskResult.getResult() != null && taskResult.getResult() instanceof JsonObject) {
+            if (jsonWriter == null) {
+                writeJsonArrayStart();
             }
-            printWriter = new PrintWriter(outputFile, "UTF-8");
-            printWriter.append("[");
-        } finally {
-            if (printWriter != null) {
-                printWriter.close();
+            gson.toJson((JsonObject) taskResult.getResult(), jsonWriter);
+            if (streaming) {
+                jsonWriter.flush();
             }
         }
     }
 
-    private void writeJsonElement(JsonElement jsonElement) {
-        if (jsonElement != null) {
-            try {
-                FileWriter writer = null;
-                Gson gson = new GsonBuilder().setPrettyPrinting().create();
-                try {
-                    writer = new FileWriter(outputFile, true);
-                    if (elementCount > 0) {
-                        writer.append(",\n" + gson.toJson(jsonElement));
-                    } else {
-                        writer.append(gson.toJson(jsonElement));
-                    }
-                    elementCount++;
-                } finally {
-                    if (writer != null) {
-                        writer.close();
-                    }
-                }
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+    private void writeJsonArrayEnd() throws IOException {
+        if (jsonWriter == null) {
+            writeJsonArrayStart();
+        }
+        try {
+            jsonWriter.endArray();
+        } finally {
+            jsonWriter.close();
         }
     }
 
-    private void writeJsonArrayEnd() {
+    @Override
+    public void addTaskResult(TaskResult result) {
+        if (!streaming) {
+            super.addTaskResult(result);
+            return;
+        }
         try {
-            FileWriter writer = null;
-            try {
-                writer = new FileWriter(outputFile, true);
-                writer.append("]");
-            } finally {
-                if (writer != null) {
-                    writer.close();
-                }
-            }
+            writeTaskResult(result);
         } catch (IOException e) {
-            e.printStackTrace();
+            Log.e(TAG, "write task result to " + outputFile.getName() + " failed! " + e.getMessage());
         }
     }
 
     @Override
     public void output() {
         try {
-            writeJsonArrayStart();
-            if (!resultList.isEmpty()) {
+            if (resultList != null && !resultList.isEmpty()) {
                 Collections.sort(resultList, new TaskResultComparator());
                 for (TaskResult taskResult : resultList) {
-                    if (taskResult.getResult() != null && taskResult.getResult() instanceof JsonObject) {
-                        writeJsonElement((JsonObject) taskResult.getResult());
-                    }
+                    writeTaskResult(taskResult);
                 }
             }
             writeJsonArrayEnd();
-
         } catch (Exception e) {
             e.printStackTrace();
         }
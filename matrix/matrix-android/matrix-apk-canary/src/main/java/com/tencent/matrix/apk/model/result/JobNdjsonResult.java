@@ -0,0 +1,87 @@
+/*
+ * Tencent is pleased to support the open source community by making wechat-matrix available.
+ * Copyright (C) 2018 THL A29 Limited, a Tencent company. All rights reserved.
+ * Licensed under the BSD 3-Clause License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.matrix.apk.model.result;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonWriter;
+import com.tencent.matrix.javalib.util.Log;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * Writes every task result as one line of JSON (NDJSON) as soon as its task completes.
+ *
+ * Each line is flushed at once, so other tools can read the results while the job is still
+ * running. Nothing is kept in memory after a line is written.
+ */
+public class JobNdjsonResult extends JobResult {
+
+    private static final String TAG = "JobNdjsonResult";
+
+    private final File outputFile;
+    private final Gson gson;
+    private Writer writer;
+
+    public JobNdjsonResult(String format, String outputPath) {
+        this.format = format;
+        this.outputFile = new File(outputPath + "." + TaskResultFactory.TASK_RESULT_TYPE_NDJSON);
+        this.gson = new Gson();
+    }
+
+    private void open() throws IOException {
+        if (outputFile.exists() && !outputFile.delete()) {
+            throw new IOException("file " + outputFile.getName() + " is already exists and delete it failed!");
+        }
+        writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(outputFile), "UTF-8"));
+    }
+
+    @Override
+    public void addTaskResult(TaskResult result) {
+        if (result.getResult() == null || !(result.getResult() instanceof JsonObject)) {
+            return;
+        }
+        try {
+            if (writer == null) {
+                open();
+            }
+            //a new JsonWriter per line, it would refuse a second top-level value
+            gson.toJson((JsonObject) result.getResult(), new JsonWriter(writer));
+            writer.write('\n');
+            writer.flush();
+        } catch (IOException e) {
+            Log.e(TAG, "write task result to " + outputFile.getName() + " failed! " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void output() {
+        try {
+            if (writer == null) {
+                open();
+            }
+            writer.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
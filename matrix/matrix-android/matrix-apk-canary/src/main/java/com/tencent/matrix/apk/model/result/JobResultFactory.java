@@ -28,10 +28,12 @@ public final class JobResultFactory {
 
         JobResult jobResult = null;
         if (config != null) {
-            if (TaskResultFactory.isJsonResult(format)) {
-                jobResult = new JobJsonResult(format, config.getOutputPath());
+            if (TaskResultFactory.TASK_RESULT_TYPE_NDJSON.equals(format)) {
+                jobResult = new JobNdjsonResult(format, config.getOutputPath());
+            } else if (TaskResultFactory.isJsonResult(format)) {
+                jobResult = new JobJsonResult(format, config.getOutputPath(), config.isStreamOutput());
             } else if (TaskResultFactory.isHtmlResult(format)) {
-                jobResult = new JobHtmlResult(format, config.getOutputPath());
+                jobResult = new JobHtmlResult(format, config.getOutputPath(), config.isStreamOutput());
             }
         }
         return jobResult;
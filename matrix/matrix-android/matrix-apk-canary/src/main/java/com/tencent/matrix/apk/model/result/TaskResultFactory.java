@@ -20,7 +20,6 @@ package com.tencent.matrix.apk.model.result;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
 import com.tencent.matrix.apk.model.job.JobConfig;
 import com.tencent.matrix.apk.model.task.TaskFactory;
 import com.tencent.matrix.javalib.util.Log;
@@ -41,6 +40,7 @@ public final class TaskResultFactory {
 
     public static final String TASK_RESULT_TYPE_JSON = "json";
     public static final String TASK_RESULT_TYPE_HTML = "html";
+    public static final String TASK_RESULT_TYPE_NDJSON = "ndjson";
 
     private static Map<String, Class<? extends TaskHtmlResult>> customHtmlResultMap = new HashMap<>();
     private static Map<String, Class<? extends TaskJsonResult>> customJsonResultMap = new HashMap<>();
@@ -98,8 +98,8 @@ public final class TaskResultFactory {
     }
 
     private static void transferJsonToHtml(TaskJsonResult source, TaskHtmlResult dest) throws ParserConfigurationException {
-        JsonObject jsonObject = (JsonObject) new JsonParser().parse(source.toString());
-        dest.format(jsonObject);
+        //the html format changes the json in place, work on a copy without going through a string
+        dest.format(source.getResult().deepCopy());
     }
 
     private static void formatJson(TaskJsonResult source, TaskJsonResult dest) {
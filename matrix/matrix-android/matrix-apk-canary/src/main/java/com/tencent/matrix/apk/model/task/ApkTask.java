@@ -65,6 +65,14 @@ public abstract class ApkTask implements Callable<TaskResult> {
         }
     }
 
+    /**
+     * Whether the task reads the files under APK-UNZIP-PATH. The apk is only extracted if some task
+     * still needs them, tasks reading entries from ApkEntryCatalog should return false.
+     */
+    public boolean needUnzippedFiles() {
+        return true;
+    }
+
     public void addProgressListener(ApkTaskProgressListener listener) {
         if (listener != null) {
             progressListeners.add(listener);
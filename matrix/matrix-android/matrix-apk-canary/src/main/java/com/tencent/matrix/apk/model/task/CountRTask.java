@@ -17,10 +17,8 @@
 package com.tencent.matrix.apk.model.task;
 
 import com.android.dexdeps.ClassRef;
-import com.android.dexdeps.DexData;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
-import com.tencent.matrix.apk.model.task.util.ApkConstants;
 import com.tencent.matrix.apk.model.exception.TaskExecuteException;
 import com.tencent.matrix.apk.model.exception.TaskInitException;
 import com.tencent.matrix.apk.model.job.JobConfig;
@@ -28,12 +26,10 @@ import com.tencent.matrix.apk.model.result.TaskJsonResult;
 import com.tencent.matrix.apk.model.result.TaskResult;
 import com.tencent.matrix.apk.model.result.TaskResultFactory;
 import com.tencent.matrix.apk.model.task.util.ApkUtil;
+import com.tencent.matrix.apk.model.task.util.DexIndex;
 import com.tencent.matrix.javalib.util.Util;
 
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.RandomAccessFile;
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -49,15 +45,12 @@ public class CountRTask extends ApkTask {
     private static final String TAG = "Matrix.CountRTask";
 
     private File inputFile;
-    private final List<String> dexFileNameList;
-    private final List<RandomAccessFile> dexFileList;
+    private DexIndex dexIndex;
     private final Map<String, Integer> classesMap;
 
     public CountRTask(JobConfig config, Map<String, String> params) {
         super(config, params);
         type = TASK_TYPE_COUNT_R_CLASS;
-        dexFileNameList = new ArrayList<>();
-        dexFileList = new ArrayList<>();
         classesMap = new HashMap<>();
     }
 
@@ -78,20 +71,11 @@ public class CountRTask extends ApkTask {
             throw new TaskInitException(TAG + "---APK-UNZIP-PATH '" + inputPath + "' is not directory!");
         }
 
-        File[] files = inputFile.listFiles();
-        try {
-            if (files != null) {
-                for (File file : files) {
-                    if (file.isFile() && file.getName().endsWith(ApkConstants.DEX_FILE_SUFFIX)) {
-                        dexFileNameList.add(file.getName());
-                        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
-                        dexFileList.add(randomAccessFile);
-                    }
-                }
-            }
-        } catch (FileNotFoundException e) {
-            throw new TaskInitException(e.getMessage(), e);
+        dexIndex = config.getDexIndex();
+        if (dexIndex == null) {
+            throw new TaskInitException(TAG + "---DexIndex can not be null!");
         }
+        dexIndex.requireTables();
 
     }
 
@@ -105,17 +89,21 @@ public class CountRTask extends ApkTask {
         return className;
     }
 
+    @Override
+    public boolean needUnzippedFiles() {
+        return false;
+    }
+
     @Override
     public TaskResult call() throws TaskExecuteException {
         try {
             TaskResult taskResult = TaskResultFactory.factory(type, TaskResultFactory.TASK_RESULT_TYPE_JSON, config);
             long startTime = System.currentTimeMillis();
             Map<String, String> classProguardMap = config.getProguardClassMap();
-            for (RandomAccessFile dexFile : dexFileList) {
-                DexData dexData = new DexData(dexFile);
-                dexData.load();
-                dexFile.close();
-                ClassRef[] defClassRefs = dexData.getInternalReferences();
+            List<DexIndex.DexEntry> dexEntries = dexIndex.getDexEntries();
+            dexIndex.loadTables(dexEntries);
+            for (DexIndex.DexEntry dexEntry : dexEntries) {
+                ClassRef[] defClassRefs = dexEntry.getInternalClassRefs();
                 for (ClassRef classRef : defClassRefs) {
                     String className = ApkUtil.getNormalClassName(classRef.getName());
                     if (classProguardMap.containsKey(className)) {
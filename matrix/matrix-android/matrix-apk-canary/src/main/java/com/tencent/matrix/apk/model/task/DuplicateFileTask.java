@@ -17,6 +17,7 @@
 package com.tencent.matrix.apk.model.task;
 
 import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.tencent.matrix.apk.model.exception.TaskExecuteException;
 import com.tencent.matrix.apk.model.exception.TaskInitException;
@@ -24,13 +25,14 @@ import com.tencent.matrix.apk.model.job.JobConfig;
 import com.tencent.matrix.apk.model.result.TaskJsonResult;
 import com.tencent.matrix.apk.model.result.TaskResult;
 import com.tencent.matrix.apk.model.result.TaskResultFactory;
+import com.tencent.matrix.apk.model.task.util.ApkEntryCatalog;
+import com.tencent.matrix.apk.model.task.util.ApkResultCache;
 import com.android.utils.Pair;
+import com.tencent.matrix.javalib.util.Log;
 import com.tencent.matrix.javalib.util.Util;
 
-import java.io.BufferedInputStream;
-import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
@@ -39,6 +41,11 @@ import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Created by jinqiuchen on 17/6/27.
@@ -48,7 +55,26 @@ public class DuplicateFileTask extends ApkTask {
 
     private static final String TAG = "Matrix.DuplicateFileTask";
 
-    private File inputFile;
+    private static final ThreadLocal<MessageDigest> MD5_DIGEST = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            try {
+                return MessageDigest.getInstance("MD5");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+
+    private static final ThreadLocal<byte[]> READ_BUFFER = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[64 * 1024];
+        }
+    };
+
+    private ApkEntryCatalog catalog;
+    private ApkResultCache resultCache;
     private Map<String, List<String>> md5Map;
     private List<Pair<String, Long>> fileSizeList;
     private Map<String, Pair<Long, Long>> entrySizeMap;
@@ -62,43 +88,110 @@ public class DuplicateFileTask extends ApkTask {
     @Override
     public void init() throws TaskInitException {
         super.init();
-        String inputPath = config.getUnzipPath();
-        if (Util.isNullOrNil(inputPath)) {
-            throw new TaskInitException(TAG + "---APK-UNZIP-PATH can not be null!");
-        }
-        inputFile = new File(inputPath);
-        if (!inputFile.exists()) {
-            throw new TaskInitException(TAG + "---APK-UNZIP-PATH '" + inputPath + "'is not exists!");
-        } else if (!inputFile.isDirectory()) {
-            throw new TaskInitException(TAG + "---APK-UNZIP-PATH '" + inputPath + "' is not directory!");
+        catalog = config.getApkEntryCatalog();
+        if (catalog == null) {
+            throw new TaskInitException(TAG + "---ApkEntryCatalog can not be null!");
         }
+        resultCache = config.getResultCache();
         md5Map = new HashMap<>();
         fileSizeList = new ArrayList<>();
         entrySizeMap = config.getEntrySizeMap();
         entryNameMap = config.getEntryNameMap();
     }
 
-    private void computeMD5(File file) throws NoSuchAlgorithmException, IOException {
-        if (file != null) {
-            if (file.isDirectory()) {
-                File[] files = file.listFiles();
-                for (File resFile : files) {
-                    computeMD5(resFile);
-                }
-            } else {
-                MessageDigest msgDigest = MessageDigest.getInstance("MD5");
-                BufferedInputStream inputStream = new BufferedInputStream(new FileInputStream(file));
-                byte[] buffer = new byte[512];
-                int readSize = 0;
-                long totalRead = 0;
-                while ((readSize = inputStream.read(buffer)) > 0) {
-                    msgDigest.update(buffer, 0, readSize);
-                    totalRead += readSize;
-                }
-                inputStream.close();
+    /*
+     * Entries with different uncompressed size or CRC-32 can not have the same content, both come from
+     * the central directory for free, so only the entries sharing them with others need to be hashed.
+     */
+    private List<ApkEntryCatalog.ApkEntry> findCandidates() {
+        Map<String, Integer> keyCount = new HashMap<>();
+        for (ApkEntryCatalog.ApkEntry entry : catalog.getEntries()) {
+            String key = getGroupKey(entry);
+            if (key != null) {
+                Integer count = keyCount.get(key);
+                keyCount.put(key, count == null ? 1 : count + 1);
+            }
+        }
+        List<ApkEntryCatalog.ApkEntry> candidates = new ArrayList<>();
+        for (ApkEntryCatalog.ApkEntry entry : catalog.getEntries()) {
+            if (entry.getSize() == 0) {
+                continue;
+            }
+            String key = getGroupKey(entry);
+            if (key == null || keyCount.get(key) > 1) {
+                candidates.add(entry);
+            }
+        }
+        return candidates;
+    }
+
+    private static String getGroupKey(ApkEntryCatalog.ApkEntry entry) {
+        if (entry.getSize() < 0 || entry.getCrc() < 0) {
+            //unknown, always hash it
+            return null;
+        }
+        return entry.getSize() + ":" + entry.getCrc();
+    }
+
+    private Pair<String, Long> computeMD5(ApkEntryCatalog.ApkEntry entry) throws IOException {
+        if (resultCache != null) {
+            JsonElement cached = resultCache.get(ApkResultCache.TYPE_FILE_MD5, entry, "");
+            if (cached != null) {
+                JsonObject cachedObj = cached.getAsJsonObject();
+                return Pair.of(cachedObj.get("md5").getAsString(), cachedObj.get("size").getAsLong());
+            }
+        }
+        Pair<String, Long> result = readMD5(entry);
+        if (resultCache != null) {
+            JsonObject cachedObj = new JsonObject();
+            cachedObj.addProperty("md5", result.getFirst());
+            cachedObj.addProperty("size", result.getSecond());
+            resultCache.put(ApkResultCache.TYPE_FILE_MD5, entry, "", cachedObj);
+        }
+        return result;
+    }
+
+    private Pair<String, Long> readMD5(ApkEntryCatalog.ApkEntry entry) throws IOException {
+        MessageDigest msgDigest = MD5_DIGEST.get();
+        msgDigest.reset();
+        byte[] buffer = READ_BUFFER.get();
+        InputStream inputStream = catalog.openStream(entry);
+        int readSize = 0;
+        long totalRead = 0;
+        try {
+            while ((readSize = inputStream.read(buffer)) > 0) {
+                msgDigest.update(buffer, 0, readSize);
+                totalRead += readSize;
+            }
+        } finally {
+            inputStream.close();
+        }
+        return Pair.of(Util.byteArrayToHex(msgDigest.digest()), totalRead);
+    }
+
+    private void computeMD5(List<ApkEntryCatalog.ApkEntry> entries) throws InterruptedException, ExecutionException {
+        if (entries.isEmpty()) {
+            return;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(entries.size(), Runtime.getRuntime().availableProcessors()));
+        try {
+            List<Callable<Pair<String, Long>>> hashTasks = new ArrayList<>(entries.size());
+            for (final ApkEntryCatalog.ApkEntry entry : entries) {
+                hashTasks.add(new Callable<Pair<String, Long>>() {
+                    @Override
+                    public Pair<String, Long> call() throws Exception {
+                        return computeMD5(entry);
+                    }
+                });
+            }
+            List<Future<Pair<String, Long>>> futures = executor.invokeAll(hashTasks);
+            //collect in the order of entries to keep the output stable
+            for (int i = 0; i < entries.size(); i++) {
+                Pair<String, Long> result = futures.get(i).get();
+                final long totalRead = result.getSecond();
                 if (totalRead > 0) {
-                    final String md5 = Util.byteArrayToHex(msgDigest.digest());
-                    String filename = file.getAbsolutePath().substring(inputFile.getAbsolutePath().length() + 1);
+                    final String md5 = result.getFirst();
+                    String filename = entries.get(i).getName();
                     if (entryNameMap.containsKey(filename)) {
                         filename = entryNameMap.get(filename);
                     }
@@ -113,9 +206,16 @@ public class DuplicateFileTask extends ApkTask {
                     md5Map.get(md5).add(filename);
                 }
             }
+        } finally {
+            executor.shutdownNow();
         }
     }
 
+    @Override
+    public boolean needUnzippedFiles() {
+        return false;
+    }
+
     @Override
     public TaskResult call() throws TaskExecuteException {
         TaskResult taskResult = null;
@@ -124,7 +224,9 @@ public class DuplicateFileTask extends ApkTask {
             long startTime = System.currentTimeMillis();
             JsonArray jsonArray = new JsonArray();
 
-            computeMD5(inputFile);
+            List<ApkEntryCatalog.ApkEntry> candidates = findCandidates();
+            Log.i(TAG, "hash %d of %d entries", candidates.size(), catalog.getEntries().size());
+            computeMD5(candidates);
 
             Collections.sort(fileSizeList, new Comparator<Pair<String, Long>>() {
                 @Override
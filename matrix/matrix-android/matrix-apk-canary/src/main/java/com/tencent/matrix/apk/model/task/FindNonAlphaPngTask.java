@@ -18,8 +18,14 @@ package com.tencent.matrix.apk.model.task;
 
 
 import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
 import com.tencent.matrix.apk.model.task.util.ApkConstants;
+import com.tencent.matrix.apk.model.task.util.ApkEntryCatalog;
+import com.tencent.matrix.apk.model.task.util.ApkResultCache;
+import com.tencent.matrix.apk.model.task.util.PngAlphaReader;
 import com.tencent.matrix.apk.model.exception.TaskExecuteException;
 import com.tencent.matrix.apk.model.exception.TaskInitException;
 import com.tencent.matrix.apk.model.job.JobConfig;
@@ -30,17 +36,19 @@ import com.tencent.matrix.apk.model.result.TaskResultFactory;
 import com.tencent.matrix.javalib.util.Log;
 import com.tencent.matrix.javalib.util.Util;
 import com.android.utils.Pair;
-import java.awt.image.BufferedImage;
 
-import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
-
-import javax.imageio.ImageIO;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static com.tencent.matrix.apk.model.task.TaskFactory.TASK_TYPE_FIND_NON_ALPHA_PNG;
 
@@ -52,9 +60,11 @@ public class FindNonAlphaPngTask extends ApkTask {
 
     private static final String TAG = "Matrix.FindNonAlphaPngTask";
 
-    private File inputFile;
+    private ApkEntryCatalog catalog;
+    private ApkResultCache resultCache;
     private List<Pair<String, Long>> nonAlphaPngList;
     private long downLimitSize;
+    private boolean checkOpaqueAlpha;
     private Map<String, Pair<Long, Long>> entrySizeMap;
     private Map<String, String> entryNameMap;
 
@@ -66,15 +76,9 @@ public class FindNonAlphaPngTask extends ApkTask {
     @Override
     public void init() throws TaskInitException {
         super.init();
-        String inputPath = config.getUnzipPath();
-        if (Util.isNullOrNil(inputPath)) {
-            throw new TaskInitException(TAG + "---APK-UNZIP-PATH can not be null!");
-        }
-        inputFile = new File(inputPath);
-        if (!inputFile.exists()) {
-            throw new TaskInitException(TAG + "---APK-UNZIP-PATH '" + inputPath + "'is not exists!");
-        } else if (!inputFile.isDirectory()) {
-            throw new TaskInitException(TAG + "---APK-UNZIP-PATH '" + inputPath + "' is not directory!");
+        catalog = config.getApkEntryCatalog();
+        if (catalog == null) {
+            throw new TaskInitException(TAG + "---ApkEntryCatalog can not be null!");
         }
         if (params.containsKey(JobConstants.PARAM_MIN_SIZE_IN_KB)) {
             try {
@@ -83,51 +87,106 @@ public class FindNonAlphaPngTask extends ApkTask {
                 Log.e(TAG, "DOWN-LIMIT-SIZE '" + params.get(JobConstants.PARAM_MIN_SIZE_IN_KB) + "' is not number format!");
             }
         }
+        if (params.containsKey(JobConstants.PARAM_CHECK_OPAQUE_ALPHA)) {
+            checkOpaqueAlpha = Boolean.parseBoolean(params.get(JobConstants.PARAM_CHECK_OPAQUE_ALPHA));
+        }
+        resultCache = config.getResultCache();
         nonAlphaPngList = new ArrayList<Pair<String, Long>>();
         entrySizeMap = config.getEntrySizeMap();
         entryNameMap = config.getEntryNameMap();
     }
 
-    private void findNonAlphaPng(File file) throws IOException {
-        if (file != null) {
-            if (file.isDirectory()) {
-                File[] files = file.listFiles();
-                for (File tempFile : files) {
-                    findNonAlphaPng(tempFile);
+    private void findNonAlphaPng(String resDirName) throws InterruptedException, ExecutionException {
+        final List<ApkEntryCatalog.ApkEntry> pngEntries = new ArrayList<>();
+        final List<String> pngNames = new ArrayList<>();
+        for (ApkEntryCatalog.ApkEntry entry : catalog.getEntries(resDirName + "/")) {
+            String name = entry.getName();
+            if (name.endsWith(ApkConstants.PNG_FILE_SUFFIX) && !name.endsWith(ApkConstants.NINE_PNG)) {
+                String filename = name;
+                if (entryNameMap.containsKey(filename)) {
+                    filename = entryNameMap.get(filename);
                 }
-            } else if (file.isFile() && file.getName().endsWith(ApkConstants.PNG_FILE_SUFFIX) && !file.getName().endsWith(ApkConstants.NINE_PNG)) {
-                BufferedImage bufferedImage = ImageIO.read(file);
-                if (bufferedImage != null && bufferedImage.getColorModel() != null && !bufferedImage.getColorModel().hasAlpha()) {
-                    String filename = file.getAbsolutePath().substring(inputFile.getAbsolutePath().length() + 1);
-                    if (entryNameMap.containsKey(filename)) {
-                        filename = entryNameMap.get(filename);
-                    }
-                    long size = file.length();
-                    if (entrySizeMap.containsKey(filename)) {
-                        size = entrySizeMap.get(filename).getFirst();
-                    }
-                    if (size >= downLimitSize * ApkConstants.K1024) {
-                        nonAlphaPngList.add(Pair.of(filename, file.length()));
+                long size = entry.getSize();
+                if (entrySizeMap.containsKey(filename)) {
+                    size = entrySizeMap.get(filename).getFirst();
+                }
+                //the size is known from the zip, skip small files before reading them
+                if (size >= downLimitSize * ApkConstants.K1024) {
+                    pngEntries.add(entry);
+                    pngNames.add(filename);
+                }
+            }
+        }
+        if (pngEntries.isEmpty()) {
+            return;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(pngEntries.size(), Runtime.getRuntime().availableProcessors()));
+        try {
+            List<Callable<Boolean>> readTasks = new ArrayList<>(pngEntries.size());
+            for (final ApkEntryCatalog.ApkEntry entry : pngEntries) {
+                readTasks.add(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws Exception {
+                        return hasAlpha(entry);
                     }
+                });
+            }
+            List<Future<Boolean>> futures = executor.invokeAll(readTasks);
+            for (int i = 0; i < pngEntries.size(); i++) {
+                Boolean hasAlpha = futures.get(i).get();
+                if (hasAlpha != null && !hasAlpha) {
+                    nonAlphaPngList.add(Pair.of(pngNames.get(i), pngEntries.get(i).getSize()));
                 }
             }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @return null if the entry is not a png or can not be read.
+     */
+    private Boolean hasAlpha(ApkEntryCatalog.ApkEntry entry) throws IOException {
+        final String cacheParams = "checkOpaqueAlpha=" + checkOpaqueAlpha;
+        if (resultCache != null) {
+            JsonElement cached = resultCache.get(ApkResultCache.TYPE_PNG_ALPHA, entry, cacheParams);
+            if (cached != null) {
+                return cached.isJsonNull() ? null : cached.getAsBoolean();
+            }
+        }
+        Boolean hasAlpha;
+        InputStream inputStream = catalog.openStream(entry);
+        try {
+            hasAlpha = PngAlphaReader.hasAlpha(inputStream, checkOpaqueAlpha);
+        } catch (IOException e) {
+            Log.e(TAG, "read png %s failed: %s", entry.getName(), e.getMessage());
+            return null;
+        } finally {
+            inputStream.close();
+        }
+        if (resultCache != null) {
+            resultCache.put(ApkResultCache.TYPE_PNG_ALPHA, entry, cacheParams,
+                    hasAlpha == null ? JsonNull.INSTANCE : new JsonPrimitive(hasAlpha));
         }
+        return hasAlpha;
+    }
+
+    @Override
+    public boolean needUnzippedFiles() {
+        return false;
     }
 
     @Override
     public TaskResult call() throws TaskExecuteException {
-        File resDir = new File(inputFile, ApkConstants.RESOURCE_DIR_PROGUARD_NAME);
         TaskResult taskResult = null;
         try {
             taskResult = TaskResultFactory.factory(getType(), TaskResultFactory.TASK_RESULT_TYPE_JSON, config);
             long startTime = System.currentTimeMillis();
-            if (resDir.exists() && resDir.isDirectory()) {
-                findNonAlphaPng(resDir);
+            if (!catalog.getEntries(ApkConstants.RESOURCE_DIR_PROGUARD_NAME + "/").isEmpty()) {
+                findNonAlphaPng(ApkConstants.RESOURCE_DIR_PROGUARD_NAME);
             } else {
-                resDir = new File(inputFile, ApkConstants.RESOURCE_DIR_NAME);
-                if (resDir.exists() && resDir.isDirectory()) {
-                    findNonAlphaPng(resDir);
-                }
+                findNonAlphaPng(ApkConstants.RESOURCE_DIR_NAME);
             }
 
             Collections.sort(nonAlphaPngList, new Comparator<Pair<String, Long>>() {
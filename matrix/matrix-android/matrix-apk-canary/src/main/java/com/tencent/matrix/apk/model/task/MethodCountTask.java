@@ -17,11 +17,10 @@
 package com.tencent.matrix.apk.model.task;
 
 import com.android.dexdeps.ClassRef;
-import com.android.dexdeps.DexData;
 import com.android.dexdeps.MethodRef;
 import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
-import com.tencent.matrix.apk.model.task.util.ApkConstants;
 import com.tencent.matrix.apk.model.exception.TaskExecuteException;
 import com.tencent.matrix.apk.model.exception.TaskInitException;
 import com.tencent.matrix.apk.model.job.JobConfig;
@@ -29,14 +28,14 @@ import com.tencent.matrix.apk.model.job.JobConstants;
 import com.tencent.matrix.apk.model.result.TaskJsonResult;
 import com.tencent.matrix.apk.model.result.TaskResult;
 import com.tencent.matrix.apk.model.result.TaskResultFactory;
+import com.tencent.matrix.apk.model.task.util.ApkResultCache;
 import com.tencent.matrix.apk.model.task.util.ApkUtil;
+import com.tencent.matrix.apk.model.task.util.DexIndex;
 import com.tencent.matrix.javalib.util.Log;
 import com.tencent.matrix.javalib.util.Util;
 
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.RandomAccessFile;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
@@ -59,8 +58,9 @@ public class MethodCountTask extends ApkTask {
 
     private File inputFile;
     private String group = JobConstants.GROUP_PACKAGE;
-    private final List<String>           dexFileNameList;
-    private final List<RandomAccessFile> dexFileList;
+    private DexIndex dexIndex;
+    private ApkResultCache resultCache;
+    private String cacheParams;
     private final Map<String, Integer> classInternalMethod;
     private final Map<String, Integer> classExternalMethod;
     private final Map<String, Integer> pkgInternalRefMethod;
@@ -69,8 +69,6 @@ public class MethodCountTask extends ApkTask {
     public MethodCountTask(JobConfig config, Map<String, String> params) {
         super(config, params);
         type = TASK_TYPE_COUNT_METHOD;
-        dexFileNameList = new ArrayList<String>();
-        dexFileList = new ArrayList<RandomAccessFile>();
         classInternalMethod = new HashMap<String, Integer>();
         classExternalMethod = new HashMap<String, Integer>();
         pkgInternalRefMethod = new HashMap<String, Integer>();
@@ -91,20 +89,11 @@ public class MethodCountTask extends ApkTask {
         } else if (!inputFile.isDirectory()) {
             throw new TaskInitException(TAG + "---APK-UNZIP-PATH '" + inputPath + "' is not directory!");
         }
-        File[] files = inputFile.listFiles();
-        try {
-            if (files != null) {
-                for (File file : files) {
-                    if (file.isFile() && file.getName().endsWith(ApkConstants.DEX_FILE_SUFFIX)) {
-                        dexFileNameList.add(file.getName());
-                        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
-                        dexFileList.add(randomAccessFile);
-                    }
-                }
-            }
-        } catch (FileNotFoundException e) {
-            throw new TaskInitException(e.getMessage(), e);
+        dexIndex = config.getDexIndex();
+        if (dexIndex == null) {
+            throw new TaskInitException(TAG + "---DexIndex can not be null!");
         }
+        dexIndex.requireTables();
         if (params.containsKey(JobConstants.PARAM_GROUP)) {
             if (JobConstants.GROUP_PACKAGE.equals(params.get(JobConstants.PARAM_GROUP))) {
                 group = JobConstants.GROUP_PACKAGE;
@@ -114,17 +103,70 @@ public class MethodCountTask extends ApkTask {
                 Log.e(TAG, "GROUP-BY '" + params.get(JobConstants.PARAM_GROUP) + "' is not correct!");
             }
         }
+        resultCache = config.getResultCache();
+        if (resultCache != null) {
+            //the counts are of the classes de-obfuscated by mapping.txt
+            try {
+                cacheParams = Util.isNullOrNil(config.getMappingFilePath()) ? "" : ApkResultCache.getFileDigest(new File(config.getMappingFilePath()));
+            } catch (IOException e) {
+                throw new TaskInitException(TAG + "---read mapping file failed: " + e.getMessage());
+            }
+        }
+    }
+
+    private JsonObject getCachedCount(DexIndex.DexEntry dexEntry) {
+        if (resultCache == null) {
+            return null;
+        }
+        JsonElement cached = resultCache.get(ApkResultCache.TYPE_DEX_METHOD_COUNT, dexEntry.getApkEntry(), cacheParams);
+        return cached != null ? cached.getAsJsonObject() : null;
     }
 
-    private void countDex(RandomAccessFile dexFile) throws IOException {
+    private void putCachedCount(DexIndex.DexEntry dexEntry) {
+        if (resultCache == null) {
+            return;
+        }
+        JsonObject jsonObject = new JsonObject();
+        jsonObject.add("internal", toJson(classInternalMethod));
+        jsonObject.add("external", toJson(classExternalMethod));
+        resultCache.put(ApkResultCache.TYPE_DEX_METHOD_COUNT, dexEntry.getApkEntry(), cacheParams, jsonObject);
+    }
+
+    private static JsonObject toJson(Map<String, Integer> map) {
+        JsonObject jsonObject = new JsonObject();
+        for (Map.Entry<String, Integer> entry : map.entrySet()) {
+            jsonObject.addProperty(entry.getKey(), entry.getValue());
+        }
+        return jsonObject;
+    }
+
+    private static void fromJson(JsonObject jsonObject, Map<String, Integer> map) {
+        for (Map.Entry<String, JsonElement> entry : jsonObject.entrySet()) {
+            map.put(entry.getKey(), entry.getValue().getAsInt());
+        }
+    }
+
+    private void countDex(DexIndex.DexEntry dexEntry, JsonObject cachedCount) throws IOException {
+        if (cachedCount == null) {
+            countDex(dexEntry);
+            putCachedCount(dexEntry);
+        } else {
+            classInternalMethod.clear();
+            classExternalMethod.clear();
+            pkgInternalRefMethod.clear();
+            pkgExternalMethod.clear();
+            fromJson(cachedCount.getAsJsonObject("internal"), classInternalMethod);
+            fromJson(cachedCount.getAsJsonObject("external"), classExternalMethod);
+        }
+    }
+
+    private void countDex(DexIndex.DexEntry dexEntry) throws IOException {
         classInternalMethod.clear();
         classExternalMethod.clear();
         pkgInternalRefMethod.clear();
         pkgExternalMethod.clear();
-        DexData dexData = new DexData(dexFile);
-        dexData.load();
-        MethodRef[] methodRefs = dexData.getMethodRefs();
-        ClassRef[] externalClassRefs = dexData.getExternalReferences();
+        MethodRef[] methodRefs = dexEntry.getMethodRefs();
+        ClassRef[] externalClassRefs = dexEntry.getExternalClassRefs();
         Map<String, String> proguardClassMap = config.getProguardClassMap();
         String className = null;
         for (ClassRef classRef : externalClassRefs) {
@@ -192,6 +234,11 @@ public class MethodCountTask extends ApkTask {
         return sum;
     }
 
+    @Override
+    public boolean needUnzippedFiles() {
+        return false;
+    }
+
     @Override
     public TaskResult call() throws TaskExecuteException {
         try {
@@ -201,14 +248,24 @@ public class MethodCountTask extends ApkTask {
             }
             long startTime = System.currentTimeMillis();
             JsonArray jsonArray = new JsonArray();
-            for (int i = 0; i < dexFileList.size(); i++) {
-                RandomAccessFile dexFile = dexFileList.get(i);
-                countDex(dexFile);
-                dexFile.close();
+            List<DexIndex.DexEntry> dexEntries = dexIndex.getDexEntries();
+            Map<DexIndex.DexEntry, JsonObject> cachedCounts = new HashMap<>();
+            List<DexIndex.DexEntry> uncachedEntries = new ArrayList<>();
+            for (DexIndex.DexEntry dexEntry : dexEntries) {
+                JsonObject cachedCount = getCachedCount(dexEntry);
+                if (cachedCount != null) {
+                    cachedCounts.put(dexEntry, cachedCount);
+                } else {
+                    uncachedEntries.add(dexEntry);
+                }
+            }
+            dexIndex.loadTables(uncachedEntries);
+            for (DexIndex.DexEntry dexEntry : dexEntries) {
+                countDex(dexEntry, cachedCounts.get(dexEntry));
                 int totalInternalMethods = sumOfValue(classInternalMethod);
                 int totalExternalMethods = sumOfValue(classExternalMethod);
                 JsonObject jsonObject = new JsonObject();
-                jsonObject.addProperty("dex-file", dexFileNameList.get(i));
+                jsonObject.addProperty("dex-file", dexEntry.getName());
 
                 if (JobConstants.GROUP_CLASS.equals(group)) {
                     List<String> sortList = sortKeyByValue(classInternalMethod);
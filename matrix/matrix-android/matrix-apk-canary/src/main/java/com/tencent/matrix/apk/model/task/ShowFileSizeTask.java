@@ -106,6 +106,11 @@ public class ShowFileSizeTask extends ApkTask {
         entryList = new ArrayList<Pair<String, Long>>();
     }
 
+    @Override
+    public boolean needUnzippedFiles() {
+        return false;
+    }
+
     @Override
     public TaskResult call() throws TaskExecuteException {
         try {
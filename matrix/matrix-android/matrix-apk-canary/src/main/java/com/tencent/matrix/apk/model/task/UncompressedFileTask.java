@@ -91,6 +91,11 @@ public class UncompressedFileTask extends ApkTask {
         return "";
     }
 
+    @Override
+    public boolean needUnzippedFiles() {
+        return false;
+    }
+
     @Override
     public TaskResult call() throws TaskExecuteException {
         try {
@@ -17,7 +17,6 @@
 package com.tencent.matrix.apk.model.task;
 
 
-import com.google.common.collect.Ordering;
 import com.google.gson.JsonArray;
 import com.tencent.matrix.apk.model.exception.TaskExecuteException;
 import com.tencent.matrix.apk.model.exception.TaskInitException;
@@ -27,21 +26,13 @@ import com.tencent.matrix.apk.model.result.TaskJsonResult;
 import com.tencent.matrix.apk.model.result.TaskResult;
 import com.tencent.matrix.apk.model.result.TaskResultFactory;
 import com.tencent.matrix.apk.model.task.util.ApkConstants;
-import com.tencent.matrix.apk.model.task.util.ApkUtil;
+import com.tencent.matrix.apk.model.task.util.DexIndex;
 import com.tencent.matrix.javalib.util.Log;
 import com.tencent.matrix.javalib.util.Util;
-import org.jf.baksmali.BaksmaliOptions;
-import org.jf.dexlib2.DexFileFactory;
-import org.jf.dexlib2.Opcodes;
-import org.jf.dexlib2.dexbacked.DexBackedDexFile;
-import org.jf.dexlib2.iface.ClassDef;
-import org.jf.dexlib2.iface.MultiDexContainer;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.HashSet;
-import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -55,7 +46,7 @@ public class UnusedAssetsTask extends ApkTask {
     private static final String TAG = "Matrix.UnusedAssetsTask";
 
     private File inputFile;
-    private final List<String> dexFileNameList;
+    private DexIndex dexIndex;
     private final Set<String> ignoreSet;
     private final Set<String> assetsPathSet;
     private final Set<String> assetRefSet;
@@ -63,7 +54,6 @@ public class UnusedAssetsTask extends ApkTask {
     public UnusedAssetsTask(JobConfig config, Map<String, String> params) {
         super(config, params);
         type = TaskFactory.TASK_TYPE_UNUSED_ASSETS;
-        dexFileNameList = new ArrayList<>();
         ignoreSet = new HashSet<>();
         assetsPathSet = new HashSet<>();
         assetRefSet = new HashSet<>();
@@ -91,14 +81,11 @@ public class UnusedAssetsTask extends ApkTask {
             }
         }
 
-        File[] files = inputFile.listFiles();
-        if (files != null) {
-            for (File file : files) {
-                if (file.isFile() && file.getName().endsWith(ApkConstants.DEX_FILE_SUFFIX)) {
-                    dexFileNameList.add(file.getName());
-                }
-            }
+        dexIndex = config.getDexIndex();
+        if (dexIndex == null) {
+            throw new TaskInitException(TAG + "---DexIndex can not be null!");
         }
+        dexIndex.requireCodeRefs();
     }
 
     private void findAssetsFile(File dir) throws IOException {
@@ -116,42 +103,11 @@ public class UnusedAssetsTask extends ApkTask {
     }
 
     private void decodeCode() throws IOException {
-        for (String dexFileName : dexFileNameList) {
-            MultiDexContainer<? extends DexBackedDexFile> dexFiles = DexFileFactory.loadDexContainer(new File(inputFile, dexFileName), Opcodes.forApi(15));
-
-            for (String dexEntryName : dexFiles.getDexEntryNames()) {
-                MultiDexContainer.DexEntry<? extends DexBackedDexFile> dexEntry = dexFiles.getEntry(dexEntryName);
-                BaksmaliOptions options = new BaksmaliOptions();
-                List<? extends ClassDef> classDefs = Ordering.natural().sortedCopy(dexEntry.getDexFile().getClasses());
-
-                for (ClassDef classDef : classDefs) {
-                    String[] lines = ApkUtil.disassembleClass(classDef, options);
-                    if (lines != null) {
-                        readSmaliLines(lines);
-                    }
-                }
-            }
-
-        }
-    }
-
-    private void readSmaliLines(String[] lines) {
-        if (lines == null) {
-            return;
-        }
-        for (String line : lines) {
-            line = line.trim();
-            if (!Util.isNullOrNil(line) && line.startsWith("const-string")) {
-                String[] columns = line.split(",");
-                if (columns.length == 2) {
-                    String assetFileName = columns[1].trim();
-                    assetFileName = assetFileName.substring(1, assetFileName.length() - 1);
-                    if (!Util.isNullOrNil(assetFileName)) {
-                        for (String path : assetsPathSet) {
-                            if (assetFileName.endsWith(path)) {
-                                assetRefSet.add(path);
-                            }
-                        }
+        for (String assetFileName : dexIndex.getCodeRefs().getStrings()) {
+            if (!Util.isNullOrNil(assetFileName)) {
+                for (String path : assetsPathSet) {
+                    if (assetFileName.endsWith(path)) {
+                        assetRefSet.add(path);
                     }
                 }
             }
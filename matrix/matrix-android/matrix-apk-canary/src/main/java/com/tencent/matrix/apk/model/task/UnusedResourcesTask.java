@@ -17,7 +17,6 @@
 package com.tencent.matrix.apk.model.task;
 
 
-import com.google.common.collect.Ordering;
 import com.google.gson.JsonArray;
 import com.tencent.matrix.apk.model.task.util.ApkConstants;
 import com.tencent.matrix.apk.model.exception.TaskExecuteException;
@@ -29,26 +28,20 @@ import com.tencent.matrix.apk.model.result.TaskResult;
 import com.tencent.matrix.apk.model.result.TaskResultFactory;
 import com.tencent.matrix.apk.model.task.util.ApkResourceDecoder;
 import com.tencent.matrix.apk.model.task.util.ApkUtil;
+import com.tencent.matrix.apk.model.task.util.DexIndex;
+import com.tencent.matrix.apk.model.task.util.DexResourceRefScanner;
 import com.tencent.matrix.apk.model.task.util.ResguardUtil;
 import com.tencent.matrix.javalib.util.FileUtil;
 import com.tencent.matrix.javalib.util.Log;
 import com.tencent.matrix.javalib.util.Util;
-import org.jf.baksmali.BaksmaliOptions;
-import org.jf.dexlib2.DexFileFactory;
-import org.jf.dexlib2.Opcodes;
-import org.jf.dexlib2.dexbacked.DexBackedDexFile;
-import org.jf.dexlib2.iface.ClassDef;
-import org.jf.dexlib2.iface.MultiDexContainer;
 import org.xmlpull.v1.XmlPullParserException;
 
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Stack;
@@ -70,7 +63,7 @@ public class UnusedResourcesTask extends ApkTask {
     private File resourceTxt;
     private File mappingTxt;
     private File resMappingTxt;
-    private final List<String> dexFileNameList;
+    private DexIndex dexIndex;
     private final Map<String, String> rclassProguardMap;
     private final Map<String, String> resguardMap;
     private final Map<String, String> resourceDefMap;
@@ -84,7 +77,6 @@ public class UnusedResourcesTask extends ApkTask {
     public UnusedResourcesTask(JobConfig config, Map<String, String> params) {
         super(config, params);
         type = TaskFactory.TASK_TYPE_UNUSED_RESOURCES;
-        dexFileNameList = new ArrayList<>();
         ignoreSet = new HashSet<>();
         rclassProguardMap = new HashMap<>();
         resguardMap = new HashMap<>();
@@ -136,14 +128,11 @@ public class UnusedResourcesTask extends ApkTask {
             }
         }
 
-        File[] files = inputFile.listFiles();
-        if (files != null) {
-            for (File file : files) {
-                if (file.isFile() && file.getName().endsWith(ApkConstants.DEX_FILE_SUFFIX)) {
-                    dexFileNameList.add(file.getName());
-                }
-            }
+        dexIndex = config.getDexIndex();
+        if (dexIndex == null) {
+            throw new TaskInitException(TAG + "---DexIndex can not be null!");
         }
+        dexIndex.requireCodeRefs();
 
     }
 
@@ -290,23 +279,7 @@ public class UnusedResourcesTask extends ApkTask {
     }
 
     private void decodeCode() throws IOException {
-        for (String dexFileName : dexFileNameList) {
-            MultiDexContainer<? extends DexBackedDexFile> dexFiles = DexFileFactory.loadDexContainer(new File(inputFile, dexFileName), Opcodes.forApi(15));
-
-            for (String dexEntryName : dexFiles.getDexEntryNames()) {
-                MultiDexContainer.DexEntry<? extends DexBackedDexFile> dexEntry = dexFiles.getEntry(dexEntryName);
-                BaksmaliOptions options = new BaksmaliOptions();
-                List<? extends ClassDef> classDefs = Ordering.natural().sortedCopy(dexEntry.getDexFile().getClasses());
-
-                for (ClassDef classDef : classDefs) {
-                    String[] lines = ApkUtil.disassembleClass(classDef, options);
-                    if (lines != null) {
-                        readSmaliLines(lines);
-                    }
-                }
-            }
-
-        }
+        readResourceRefs(dexIndex.getCodeRefs());
     }
 
     /*
@@ -334,60 +307,28 @@ public class UnusedResourcesTask extends ApkTask {
 
     */
 
-    private void readSmaliLines(String[] lines) {
-        if (lines == null) {
-            return;
+    private void readResourceRefs(DexResourceRefScanner scanner) {
+        for (int literal : scanner.getLiterals()) {
+            // Negative literals are written as -0x... in smali, they have never been taken as resource ids.
+            if (literal < 0) {
+                continue;
+            }
+            final String resId = parseResourceId("0x" + Integer.toHexString(literal));
+            if (!Util.isNullOrNil(resId) && resourceDefMap.containsKey(resId)) {
+                resourceRefSet.add(resourceDefMap.get(resId));
+            }
         }
-        boolean arrayData = false;
-        for (String line : lines) {
-            line = line.trim();
-            if (!Util.isNullOrNil(line)) {
-                if (line.startsWith("const")) {
-                    String[] columns = line.split(" ");
-                    if (columns.length >= 3) {
-                        final String resId = parseResourceId(columns[2].trim());
-                        if (!Util.isNullOrNil(resId) && resourceDefMap.containsKey(resId)) {
-                            resourceRefSet.add(resourceDefMap.get(resId));
-                        }
-                    }
-                } else if (line.startsWith("sget")) {
-                    String[] columns = line.split(" ");
-                    if (columns.length >= 3) {
-                        final String resourceRef = parseResourceNameFromProguard(columns[2].trim());
-                        if (!Util.isNullOrNil(resourceRef)) {
-                            Log.d(TAG, "find resource reference %s", resourceRef);
-                            if (styleableMap.containsKey(resourceRef)) {
-                                //reference of R.styleable.XXX
-                                for (String attr : styleableMap.get(resourceRef)) {
-                                    resourceRefSet.add(resourceDefMap.get(attr));
-                                }
-                            } else {
-                                resourceRefSet.add(resourceRef);
-                            }
-                        }
-                    }
-                } else if (line.startsWith(".array-data 4")) {
-                    arrayData = true;
-                } else if (line.startsWith(".end array-data")) {
-                    arrayData = false;
-                } else  {
-                    if (arrayData) {
-                        String[] columns = line.split(" ");
-                        if (columns.length > 0) {
-                            final String resId = parseResourceId(columns[0].trim());
-                            if (!Util.isNullOrNil(resId) && resourceDefMap.containsKey(resId)) {
-                                Log.d(TAG, "array field resource, %s", resId);
-                                resourceRefSet.add(resourceDefMap.get(resId));
-                            }
-                        }
-                        if (line.trim().startsWith("0x")) {
-                            final String resId = parseResourceId(line.trim());
-                            if (!Util.isNullOrNil(resId) && resourceDefMap.containsKey(resId)) {
-                                Log.d(TAG, "array field resource, %s", resId);
-                                resourceRefSet.add(resourceDefMap.get(resId));
-                            }
-                        }
+        for (String fieldRef : scanner.getStaticFieldRefs()) {
+            final String resourceRef = parseResourceNameFromProguard(fieldRef);
+            if (!Util.isNullOrNil(resourceRef)) {
+                Log.d(TAG, "find resource reference %s", resourceRef);
+                if (styleableMap.containsKey(resourceRef)) {
+                    //reference of R.styleable.XXX
+                    for (String attr : styleableMap.get(resourceRef)) {
+                        resourceRefSet.add(resourceDefMap.get(attr));
                     }
+                } else {
+                    resourceRefSet.add(resourceRef);
                 }
             }
         }
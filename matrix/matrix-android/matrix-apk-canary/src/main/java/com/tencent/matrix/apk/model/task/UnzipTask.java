@@ -25,6 +25,7 @@ import com.tencent.matrix.apk.model.result.TaskJsonResult;
 import com.tencent.matrix.apk.model.result.TaskResult;
 import com.tencent.matrix.apk.model.result.TaskResultFactory;
 import com.android.utils.Pair;
+import com.tencent.matrix.apk.model.task.util.ApkEntryCatalog;
 import com.tencent.matrix.apk.model.task.util.ResguardUtil;
 import com.tencent.matrix.javalib.util.FileUtil;
 import com.tencent.matrix.javalib.util.Log;
@@ -32,18 +33,14 @@ import com.tencent.matrix.javalib.util.Util;
 
 import org.apache.commons.io.FileUtils;
 
-import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
-import java.io.InputStream;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
 import static com.tencent.matrix.apk.model.result.TaskResultFactory.TASK_RESULT_TYPE_JSON;
 import static com.tencent.matrix.apk.model.task.TaskFactory.TASK_TYPE_UNZIP;
 
@@ -173,72 +170,28 @@ public class UnzipTask extends ApkTask {
         return outEntryName;
     }
 
-    private String writeEntry(ZipFile zipFile, ZipEntry entry) throws IOException {
-
+    private String getOutEntryName(ZipEntry entry) {
         String entryName = entry.getName();
         if (Util.preventZipSlip(outputFile, entryName)) {
-            Log.e(TAG, "writeEntry entry %s failed!", entryName);
+            Log.e(TAG, "skip entry %s!", entryName);
             return null;
         }
-
-        int readSize;
-        byte[] readBuffer = new byte[4096];
-        BufferedOutputStream bufferedOutput = null;
-        InputStream zipInputStream = null;
-        String outEntryName = null;
-        String filename;
-        File dir;
-        File file = null;
         int index = entryName.lastIndexOf('/');
         if (index >= 0) {
-            filename = entryName.substring(index + 1);
-            String dirName = entryName.substring(0, index);
-            dir = new File(outputFile, dirName);
-            if (!dir.exists() && !dir.mkdirs()) {
-                Log.e(TAG, "%s mkdirs failed!", dir.getAbsolutePath());
+            String filename = entryName.substring(index + 1);
+            if (Util.isNullOrNil(filename)) {
                 return null;
             }
-            if (!Util.isNullOrNil(filename)) {
-                file = new File(dir, filename);
-                outEntryName = reverseResguard(dirName, filename);
-                if (Util.isNullOrNil(outEntryName)) {
-                    outEntryName = entryName;
-                }
-            }
-        } else {
-            file = new File(outputFile, entryName);
-            outEntryName = entryName;
+            String outEntryName = reverseResguard(entryName.substring(0, index), filename);
+            return Util.isNullOrNil(outEntryName) ? entryName : outEntryName;
         }
-        try {
-            if (file != null) {
-                if (!file.createNewFile()) {
-                    Log.e(TAG, "create file %s failed!", file.getAbsolutePath());
-                    return null;
-                }
-                bufferedOutput = new BufferedOutputStream(new FileOutputStream(file));
-                zipInputStream = zipFile.getInputStream(entry);
-                while ((readSize = zipInputStream.read(readBuffer)) != -1) {
-                    bufferedOutput.write(readBuffer, 0, readSize);
-                }
-            } else {
-                return null;
-            }
-        } finally {
-            if (zipInputStream != null) {
-                zipInputStream.close();
-            }
-            if (bufferedOutput != null) {
-                bufferedOutput.close();
-            }
-        }
-        return outEntryName;
+        return entryName;
     }
 
     @Override
     public TaskResult call() throws TaskExecuteException {
-        ZipFile zipFile = null;
+        ApkEntryCatalog catalog = null;
         try {
-            zipFile = new ZipFile(inputFile);
             if (outputFile.isDirectory() && outputFile.exists()) {
                 Log.i(TAG, "%s exists, delete it.", outputFile.getAbsolutePath());
                 FileUtils.deleteDirectory(outputFile);
@@ -261,13 +214,16 @@ public class UnzipTask extends ApkTask {
             ResguardUtil.readResMappingTxtFile(resMappingTxt, resDirMap, resguardMap);
             config.setResguardMap(resguardMap);
 
-            Enumeration entries = zipFile.entries();
+            //entries are read from the apk by the tasks, it is only extracted when some task needs the files
+            catalog = new ApkEntryCatalog(inputFile, outputFile);
+            Enumeration entries = catalog.getZipFile().entries();
             JsonArray jsonArray = new JsonArray();
             String outEntryName = "";
             while (entries.hasMoreElements()) {
                 ZipEntry entry = (ZipEntry) entries.nextElement();
-                outEntryName = writeEntry(zipFile, entry);
+                outEntryName = getOutEntryName(entry);
                 if (!Util.isNullOrNil(outEntryName)) {
+                    catalog.addEntry(entry, outEntryName);
                     JsonObject fileItem = new JsonObject();
                     fileItem.addProperty("entry-name", outEntryName);
                     fileItem.addProperty("entry-size", entry.getCompressedSize());
@@ -279,20 +235,20 @@ public class UnzipTask extends ApkTask {
 
             config.setEntrySizeMap(entrySizeMap);
             config.setEntryNameMap(entryNameMap);
+            config.setApkEntryCatalog(catalog);
             ((TaskJsonResult) taskResult).add("entries", jsonArray);
             taskResult.setStartTime(startTime);
             taskResult.setEndTime(System.currentTimeMillis());
             return taskResult;
         } catch (Exception e) {
-            throw new TaskExecuteException(e.getMessage(), e);
-        } finally {
-            if (zipFile != null) {
+            if (catalog != null) {
                 try {
-                    zipFile.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
+                    catalog.close();
+                } catch (IOException ioe) {
+                    ioe.printStackTrace();
                 }
             }
+            throw new TaskExecuteException(e.getMessage(), e);
         }
     }
 }
@@ -0,0 +1,210 @@
+/*
+ * Tencent is pleased to support the open source community by making wechat-matrix available.
+ * Copyright (C) 2018 THL A29 Limited, a Tencent company. All rights reserved.
+ * Licensed under the BSD 3-Clause License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.matrix.apk.model.task.util;
+
+import com.tencent.matrix.javalib.util.Log;
+import com.tencent.matrix.javalib.util.Util;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Catalog of the entries of the apk, read straight from the zip without extracting it.
+ *
+ * Entries are only inflated when a task opens them, and the underlying {@link ZipFile} can be
+ * read by several tasks at the same time. Tasks which still work on files can extract single
+ * entries with {@link #extract(ApkEntry)}, or the whole apk with {@link #extractAll()} as a fallback.
+ */
+public class ApkEntryCatalog implements Closeable {
+
+    private static final String TAG = "Matrix.ApkEntryCatalog";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final ZipFile zipFile;
+    private final File outputFile;
+    private final List<ApkEntry> entries;
+    private final Map<String, ApkEntry> entryMap;
+    private boolean extractedAll;
+
+    public ApkEntryCatalog(File apkFile, File outputFile) throws IOException {
+        this.zipFile = new ZipFile(apkFile);
+        this.outputFile = outputFile;
+        this.entries = new ArrayList<>();
+        this.entryMap = new HashMap<>();
+    }
+
+    public ZipFile getZipFile() {
+        return zipFile;
+    }
+
+    /**
+     * @param outEntryName the entry name with resguard reversed, see UnzipTask.
+     */
+    public ApkEntry addEntry(ZipEntry zipEntry, String outEntryName) {
+        ApkEntry entry = new ApkEntry(zipEntry, outEntryName);
+        entries.add(entry);
+        entryMap.put(entry.getName(), entry);
+        return entry;
+    }
+
+    public List<ApkEntry> getEntries() {
+        return Collections.unmodifiableList(entries);
+    }
+
+    /**
+     * @return entries whose name in the apk starts with {@code prefix}, e.g. "res/".
+     */
+    public List<ApkEntry> getEntries(String prefix) {
+        List<ApkEntry> result = new ArrayList<>();
+        for (ApkEntry entry : entries) {
+            if (entry.getName().startsWith(prefix)) {
+                result.add(entry);
+            }
+        }
+        return result;
+    }
+
+    public ApkEntry getEntry(String name) {
+        return entryMap.get(name);
+    }
+
+    public InputStream openStream(ApkEntry entry) throws IOException {
+        return zipFile.getInputStream(entry.zipEntry);
+    }
+
+    /**
+     * Extracts the entry to APK-UNZIP-PATH if it is not there yet.
+     *
+     * @return the extracted file, or null if the entry can not be extracted.
+     */
+    public synchronized File extract(ApkEntry entry) throws IOException {
+        if (entry.file == null) {
+            entry.file = writeEntry(entry);
+        }
+        return entry.file;
+    }
+
+    /**
+     * Extracts every entry to APK-UNZIP-PATH, for tasks that still walk the files.
+     */
+    public synchronized void extractAll() throws IOException {
+        if (extractedAll) {
+            return;
+        }
+        long startTime = System.currentTimeMillis();
+        for (ApkEntry entry : entries) {
+            extract(entry);
+        }
+        extractedAll = true;
+        Log.i(TAG, "extract %d entries in %d ms", entries.size(), System.currentTimeMillis() - startTime);
+    }
+
+    private File writeEntry(ApkEntry entry) throws IOException {
+        String entryName = entry.getName();
+        if (Util.preventZipSlip(outputFile, entryName)) {
+            Log.e(TAG, "writeEntry entry %s failed!", entryName);
+            return null;
+        }
+        File file = new File(outputFile, entryName);
+        File dir = file.getParentFile();
+        if (!dir.exists() && !dir.mkdirs()) {
+            Log.e(TAG, "%s mkdirs failed!", dir.getAbsolutePath());
+            return null;
+        }
+        if (!file.createNewFile()) {
+            Log.e(TAG, "create file %s failed!", file.getAbsolutePath());
+            return null;
+        }
+        InputStream inputStream = null;
+        OutputStream outputStream = null;
+        try {
+            inputStream = zipFile.getInputStream(entry.zipEntry);
+            outputStream = new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int readSize;
+            while ((readSize = inputStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, readSize);
+            }
+        } finally {
+            if (inputStream != null) {
+                inputStream.close();
+            }
+            if (outputStream != null) {
+                outputStream.close();
+            }
+        }
+        return file;
+    }
+
+    @Override
+    public void close() throws IOException {
+        zipFile.close();
+    }
+
+    public static final class ApkEntry {
+        private final ZipEntry zipEntry;
+        private final String outEntryName;
+        private File file;
+
+        ApkEntry(ZipEntry zipEntry, String outEntryName) {
+            this.zipEntry = zipEntry;
+            this.outEntryName = outEntryName;
+        }
+
+        /**
+         * @return name of the entry in the apk.
+         */
+        public String getName() {
+            return zipEntry.getName();
+        }
+
+        /**
+         * @return name of the entry with resguard reversed.
+         */
+        public String getOutEntryName() {
+            return outEntryName;
+        }
+
+        public long getSize() {
+            return zipEntry.getSize();
+        }
+
+        public long getCompressedSize() {
+            return zipEntry.getCompressedSize();
+        }
+
+        /**
+         * @return CRC-32 of the uncompressed data from the central directory, or -1 if unknown.
+         */
+        public long getCrc() {
+            return zipEntry.getCrc();
+        }
+    }
+}
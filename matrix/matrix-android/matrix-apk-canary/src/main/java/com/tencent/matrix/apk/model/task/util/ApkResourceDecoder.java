@@ -66,6 +66,8 @@ public class ApkResourceDecoder {
     public static final String PROPERTY_SERIALIZER_LINE_SEPARATOR = "http://xmlpull.org/v1/doc/properties.html#serializer-line-separator";
     public static final String PROPERTY_DEFAULT_ENCNDING = "DEFAULT_ENCODING";
 
+    private static ResPackage[] frameworkPackages;
+
     public static AXmlResourceParser createAXmlParser() {
         AXmlResourceParser resourceParser = new AXmlResourceParser();
         ResTable resTable =  new ResTable();
@@ -92,8 +94,7 @@ public class ApkResourceDecoder {
                     if (mainPackage != null) {
                         resTable.addPackage(mainPackage, true);
                     }
-                    ResPackage[] frameworkPackages = loadFrameworkPackage(resTable);
-                    for (ResPackage sysPackage : frameworkPackages) {
+                    for (ResPackage sysPackage : getFrameworkPackages()) {
                         resTable.addPackage(sysPackage, false);
                     }
                 } finally {
@@ -105,28 +106,41 @@ public class ApkResourceDecoder {
         }
     }
 
+    /**
+     * The framework resources are the same for every apk, so they are decoded once per JVM.
+     * The packages belong to a ResTable of their own and are only read afterwards, which lets
+     * the tables of ManifestParser and UnusedResourcesTask share them, even concurrently.
+     * That table holds the packages as well, since framework values (e.g. enum and flag items
+     * of attrs) resolve their references through the table of their own package.
+     */
+    static synchronized ResPackage[] getFrameworkPackages() throws IOException, AndrolibException {
+        if (frameworkPackages == null) {
+            long startTime = System.currentTimeMillis();
+            ResTable frameworkTable = new ResTable();
+            ResPackage[] resPackages = loadFrameworkPackage(frameworkTable);
+            for (ResPackage sysPackage : resPackages) {
+                frameworkTable.addPackage(sysPackage, false);
+            }
+            frameworkPackages = resPackages;
+            Log.i(TAG, "decode framework resources in %d ms", System.currentTimeMillis() - startTime);
+        }
+        return frameworkPackages;
+    }
+
     private static ResPackage[] loadFrameworkPackage(ResTable resTable) throws IOException, AndrolibException {
         ResPackage[] resPackages = new ResPackage[0];
         ZipInputStream zipInputStream = new ZipInputStream(ApkResourceDecoder.class.getResourceAsStream("/android/android-framework.jar"));
-        ZipEntry entry = zipInputStream.getNextEntry();
-        BufferedInputStream bufInputStream = null;
         try {
-            try {
-                while (entry != null) {
-                    if (entry.getName().equals("resources.arsc")) {
-                        bufInputStream = new BufferedInputStream(zipInputStream);
-                        resPackages = ARSCDecoder.decode(bufInputStream, false, true, resTable).getPackages();
-                        break;
-                    }
-                    entry = zipInputStream.getNextEntry();
-                }
-            } finally {
-                if (bufInputStream != null) {
-                    bufInputStream.close();
+            ZipEntry entry = zipInputStream.getNextEntry();
+            while (entry != null) {
+                if (entry.getName().equals("resources.arsc")) {
+                    resPackages = ARSCDecoder.decode(new BufferedInputStream(zipInputStream), false, true, resTable).getPackages();
+                    break;
                 }
+                entry = zipInputStream.getNextEntry();
             }
-        } catch (IOException e) {
-            throw e;
+        } finally {
+            zipInputStream.close();
         }
         return resPackages;
     }
@@ -228,7 +242,9 @@ public class ApkResourceDecoder {
             ResTable resTable = new ResTable();
             decodeArscFile(arscFile, resTable);
 
-            AXmlResourceParser aXmlResourceParser = createAXmlParser(arscFile);
+            //share the table decoded above instead of decoding the arsc file once more
+            AXmlResourceParser aXmlResourceParser = createAXmlParser();
+            aXmlResourceParser.getAttrDecoder().setCurrentPackage(resTable.listMainPackages().iterator().next());
             XmlPullParser xmlPullParser = XmlPullParserFactory.newInstance().newPullParser();
             ExtMXSerializer serializer = createXmlSerializer();
             for (ResPackage pkg : resTable.listMainPackages()) {
@@ -0,0 +1,214 @@
+/*
+ * Tencent is pleased to support the open source community by making wechat-matrix available.
+ * Copyright (C) 2018 THL A29 Limited, a Tencent company. All rights reserved.
+ * Licensed under the BSD 3-Clause License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.matrix.apk.model.task.util;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonWriter;
+import com.tencent.matrix.javalib.util.Log;
+import com.tencent.matrix.javalib.util.Util;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * On-disk cache of per-entry results, shared by the runs of ApkChecker on successive builds.
+ *
+ * A result is keyed by (type, entry name, CRC-32, size, params): the type names what was computed,
+ * the CRC-32 and size come from the central directory of the apk, and params holds the options
+ * of the task which change the result. So an entry whose content did not change since the last
+ * run is not read again. Entries with unknown CRC-32 or size are never cached.
+ *
+ * Only the results used by this run are saved, which drops the entries removed from the apk.
+ */
+public class ApkResultCache {
+
+    private static final String TAG = "Matrix.ApkResultCache";
+
+    private static final int VERSION = 1;
+    private static final String KEY_VERSION = "version";
+    private static final String KEY_RESULTS = "results";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final Gson GSON = new GsonBuilder().disableHtmlEscaping().create();
+
+    public static final String TYPE_DEX_CODE_REFS = "dex-code-refs";
+    public static final String TYPE_DEX_METHOD_COUNT = "dex-method-count";
+    public static final String TYPE_PNG_ALPHA = "png-alpha";
+    public static final String TYPE_FILE_MD5 = "file-md5";
+
+    private final File cacheFile;
+    private final Map<String, JsonElement> loadedResults;
+    private final Map<String, JsonElement> usedResults;
+    private final AtomicInteger hitCount;
+    private final AtomicInteger missCount;
+
+    public ApkResultCache(File cacheFile) {
+        this.cacheFile = cacheFile;
+        this.loadedResults = new ConcurrentHashMap<>();
+        this.usedResults = new ConcurrentHashMap<>();
+        this.hitCount = new AtomicInteger();
+        this.missCount = new AtomicInteger();
+        load();
+    }
+
+    private void load() {
+        if (!cacheFile.isFile()) {
+            return;
+        }
+        Reader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(cacheFile), UTF_8));
+            JsonElement root = new JsonParser().parse(reader);
+            if (!root.isJsonObject()) {
+                return;
+            }
+            JsonObject rootObj = root.getAsJsonObject();
+            if (!rootObj.has(KEY_VERSION) || rootObj.get(KEY_VERSION).getAsInt() != VERSION
+                    || !rootObj.has(KEY_RESULTS)) {
+                Log.w(TAG, "cache file %s is of another version, ignore it", cacheFile.getAbsolutePath());
+                return;
+            }
+            for (Map.Entry<String, JsonElement> entry : rootObj.getAsJsonObject(KEY_RESULTS).entrySet()) {
+                loadedResults.put(entry.getKey(), entry.getValue());
+            }
+            Log.i(TAG, "load %d results from %s", loadedResults.size(), cacheFile.getAbsolutePath());
+        } catch (Exception e) {
+            //a broken cache only costs a full run
+            Log.w(TAG, "load cache file %s failed: %s", cacheFile.getAbsolutePath(), e.getMessage());
+            loadedResults.clear();
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    Log.w(TAG, "close cache file failed: %s", e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * @param params options of the task the result depends on, may be empty.
+     * @return the cached result, or null if there is none for the current content of the entry.
+     */
+    public JsonElement get(String type, ApkEntryCatalog.ApkEntry entry, String params) {
+        String key = getKey(type, entry, params);
+        if (key == null) {
+            return null;
+        }
+        JsonElement result = loadedResults.get(key);
+        if (result == null) {
+            missCount.incrementAndGet();
+            return null;
+        }
+        hitCount.incrementAndGet();
+        usedResults.put(key, result);
+        return result;
+    }
+
+    public void put(String type, ApkEntryCatalog.ApkEntry entry, String params, JsonElement result) {
+        String key = getKey(type, entry, params);
+        if (key != null && result != null) {
+            usedResults.put(key, result);
+        }
+    }
+
+    private static String getKey(String type, ApkEntryCatalog.ApkEntry entry, String params) {
+        if (entry == null || entry.getCrc() < 0 || entry.getSize() < 0) {
+            return null;
+        }
+        return type + '|' + entry.getName() + '|' + Long.toHexString(entry.getCrc()) + '|' + entry.getSize()
+                + '|' + (params == null ? "" : params);
+    }
+
+    public synchronized void save() throws IOException {
+        File dir = cacheFile.getAbsoluteFile().getParentFile();
+        if (dir != null && !dir.exists() && !dir.mkdirs()) {
+            throw new IOException("mkdirs " + dir.getAbsolutePath() + " failed");
+        }
+        File tmpFile = new File(cacheFile.getAbsolutePath() + ".tmp");
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmpFile), UTF_8));
+        try {
+            JsonWriter jsonWriter = new JsonWriter(writer);
+            jsonWriter.beginObject();
+            jsonWriter.name(KEY_VERSION).value(VERSION);
+            jsonWriter.name(KEY_RESULTS).beginObject();
+            for (Map.Entry<String, JsonElement> entry : usedResults.entrySet()) {
+                jsonWriter.name(entry.getKey());
+                GSON.toJson(entry.getValue(), jsonWriter);
+            }
+            jsonWriter.endObject();
+            jsonWriter.endObject();
+            jsonWriter.flush();
+        } finally {
+            writer.close();
+        }
+        //replace the old cache at once, a crash while writing must not leave half a file
+        if (cacheFile.exists() && !cacheFile.delete()) {
+            throw new IOException("delete " + cacheFile.getAbsolutePath() + " failed");
+        }
+        if (!tmpFile.renameTo(cacheFile)) {
+            throw new IOException("rename " + tmpFile.getAbsolutePath() + " failed");
+        }
+        Log.i(TAG, "save %d results to %s, hit %d, miss %d", usedResults.size(), cacheFile.getAbsolutePath(),
+                hitCount.get(), missCount.get());
+    }
+
+    /**
+     * @return md5 of the file, for params which depend on the content of a file like mapping.txt.
+     */
+    public static String getFileDigest(File file) throws IOException {
+        if (file == null || !file.isFile()) {
+            return "";
+        }
+        MessageDigest msgDigest;
+        try {
+            msgDigest = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        byte[] buffer = new byte[64 * 1024];
+        InputStream inputStream = new FileInputStream(file);
+        try {
+            int readSize;
+            while ((readSize = inputStream.read(buffer)) > 0) {
+                msgDigest.update(buffer, 0, readSize);
+            }
+        } finally {
+            inputStream.close();
+        }
+        return Util.byteArrayToHex(msgDigest.digest());
+    }
+}
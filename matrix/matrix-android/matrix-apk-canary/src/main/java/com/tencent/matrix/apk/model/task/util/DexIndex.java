@@ -0,0 +1,315 @@
+/*
+ * Tencent is pleased to support the open source community by making wechat-matrix available.
+ * Copyright (C) 2018 THL A29 Limited, a Tencent company. All rights reserved.
+ * Licensed under the BSD 3-Clause License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.matrix.apk.model.task.util;
+
+import com.android.dexdeps.ClassRef;
+import com.android.dexdeps.DexData;
+import com.android.dexdeps.MethodRef;
+import com.google.gson.JsonElement;
+import com.tencent.matrix.javalib.util.Log;
+
+import org.jf.dexlib2.Opcodes;
+import org.jf.dexlib2.dexbacked.DexBackedDexFile;
+import org.jf.dexlib2.util.DexUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Index of the dex files of the apk, shared by all the tasks of an ApkJob.
+ *
+ * Each dex is read once, and only for what the tasks ask: the id tables (defined classes, referenced
+ * classes and methods) come from {@link DexData} with {@link #loadTables(Collection)}, the code references
+ * (literals, sget fields and strings) from {@link DexResourceRefScanner} over dexlib2 with
+ * {@link #getCodeRefs()}. Both load the dex files in parallel. Tasks declare what they need with
+ * {@link #requireTables()} and {@link #requireCodeRefs()} on init, so whichever is asked first builds
+ * both from the same bytes of the dex.
+ * The code references of a dex whose CRC-32 did not change since the last run come from the
+ * {@link ApkResultCache} if any, without reading the dex for them.
+ */
+public class DexIndex {
+
+    private static final String TAG = "Matrix.DexIndex";
+
+    private final File inputFile;
+    private final ApkEntryCatalog catalog;
+    private final ApkResultCache resultCache;
+    private List<DexEntry> dexEntries;
+    private DexResourceRefScanner codeRefs;
+    private volatile boolean tablesRequired;
+    private volatile boolean codeRefsRequired;
+
+    /**
+     * @param catalog     if not null, only the dex entries of it are extracted to {@code inputFile}
+     *                    instead of expecting the whole apk there.
+     * @param resultCache may be null.
+     */
+    public DexIndex(File inputFile, ApkEntryCatalog catalog, ApkResultCache resultCache) {
+        this.inputFile = inputFile;
+        this.catalog = catalog;
+        this.resultCache = resultCache;
+    }
+
+    /**
+     * Declares that a task of the job will load the id tables, call it before any dex is loaded.
+     */
+    public void requireTables() {
+        tablesRequired = true;
+    }
+
+    /**
+     * Declares that a task of the job will read the code references, call it before any dex is loaded.
+     */
+    public void requireCodeRefs() {
+        codeRefsRequired = true;
+    }
+
+    /**
+     * @return the dex files, whose content is loaded on first access.
+     */
+    public synchronized List<DexEntry> getDexEntries() {
+        if (dexEntries == null) {
+            List<DexEntry> result = new ArrayList<>();
+            if (catalog != null) {
+                for (ApkEntryCatalog.ApkEntry entry : catalog.getEntries()) {
+                    if (entry.getName().indexOf('/') < 0 && entry.getName().endsWith(ApkConstants.DEX_FILE_SUFFIX)) {
+                        result.add(new DexEntry(this, entry.getName(), entry, null));
+                    }
+                }
+            } else {
+                File[] files = inputFile.listFiles();
+                if (files != null) {
+                    for (File file : files) {
+                        if (file.isFile() && file.getName().endsWith(ApkConstants.DEX_FILE_SUFFIX)) {
+                            result.add(new DexEntry(this, file.getName(), null, file));
+                        }
+                    }
+                }
+            }
+            dexEntries = Collections.unmodifiableList(result);
+        }
+        return dexEntries;
+    }
+
+    /**
+     * Loads the id tables of the given dex files in parallel, so the tasks iterating all of them
+     * do not read the dex files one by one.
+     */
+    public void loadTables(Collection<DexEntry> entries) throws IOException {
+        List<Callable<Void>> loadTasks = new ArrayList<>(entries.size());
+        for (final DexEntry dexEntry : entries) {
+            loadTasks.add(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    dexEntry.loadTables();
+                    return null;
+                }
+            });
+        }
+        long startTime = System.currentTimeMillis();
+        runParallel(loadTasks);
+        Log.i(TAG, "load tables of %d dex files in %d ms", entries.size(), System.currentTimeMillis() - startTime);
+    }
+
+    /**
+     * @return code references of all the dex files.
+     */
+    public synchronized DexResourceRefScanner getCodeRefs() throws IOException {
+        if (codeRefs == null) {
+            List<DexEntry> entries = getDexEntries();
+            List<Callable<Void>> loadTasks = new ArrayList<>(entries.size());
+            for (final DexEntry dexEntry : entries) {
+                loadTasks.add(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        dexEntry.getCodeRefs();
+                        return null;
+                    }
+                });
+            }
+            long startTime = System.currentTimeMillis();
+            runParallel(loadTasks);
+            DexResourceRefScanner merged = new DexResourceRefScanner();
+            for (DexEntry dexEntry : entries) {
+                merged.merge(dexEntry.getCodeRefs());
+            }
+            Log.i(TAG, "load code refs of %d dex files in %d ms", entries.size(), System.currentTimeMillis() - startTime);
+            codeRefs = merged;
+        }
+        return codeRefs;
+    }
+
+    private static void runParallel(List<Callable<Void>> tasks) throws IOException {
+        if (tasks.isEmpty()) {
+            return;
+        }
+        final int threadNum = Math.min(tasks.size(), Runtime.getRuntime().availableProcessors());
+        ExecutorService executor = Executors.newFixedThreadPool(threadNum);
+        try {
+            for (Future<Void> future : executor.invokeAll(tasks)) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    throw new IOException("load dex failed", e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("load dex interrupted", e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private File getDexFile(DexEntry dexEntry) throws IOException {
+        if (dexEntry.file != null) {
+            return dexEntry.file;
+        }
+        File file = catalog.extract(dexEntry.apkEntry);
+        if (file == null) {
+            throw new IOException("extract " + dexEntry.name + " failed");
+        }
+        return file;
+    }
+
+    public static final class DexEntry {
+        private final DexIndex dexIndex;
+        private final String name;
+        private final ApkEntryCatalog.ApkEntry apkEntry;
+        private final File file;
+        private ClassRef[] internalClassRefs;
+        private ClassRef[] externalClassRefs;
+        private MethodRef[] methodRefs;
+        private DexResourceRefScanner codeRefs;
+
+        DexEntry(DexIndex dexIndex, String name, ApkEntryCatalog.ApkEntry apkEntry, File file) {
+            this.dexIndex = dexIndex;
+            this.name = name;
+            this.apkEntry = apkEntry;
+            this.file = file;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the entry in the apk, or null if the dex is not read from an ApkEntryCatalog.
+         */
+        public ApkEntryCatalog.ApkEntry getApkEntry() {
+            return apkEntry;
+        }
+
+        private void loadTables() throws IOException {
+            load(true, dexIndex.codeRefsRequired);
+        }
+
+        /**
+         * Reads the dex once for all the parts asked or required, the parts loaded already are skipped.
+         */
+        private synchronized void load(boolean withTables, boolean withCodeRefs) throws IOException {
+            boolean needTables = withTables && methodRefs == null;
+            boolean needCodeRefs = withCodeRefs && codeRefs == null && !loadCachedCodeRefs();
+            if (!needTables && !needCodeRefs) {
+                return;
+            }
+            byte[] dexBytes = readFully(dexIndex.getDexFile(this));
+            if (needTables) {
+                DexData dexData = new DexData(ByteBuffer.wrap(dexBytes));
+                dexData.load();
+                internalClassRefs = dexData.getInternalReferences();
+                externalClassRefs = dexData.getExternalReferences();
+                methodRefs = dexData.getMethodRefs();
+            }
+            if (needCodeRefs) {
+                DexUtil.verifyDexHeader(dexBytes, 0);
+                DexResourceRefScanner scanner = new DexResourceRefScanner();
+                scanner.scan(new DexBackedDexFile(Opcodes.forApi(15), dexBytes));
+                ApkResultCache resultCache = dexIndex.resultCache;
+                if (resultCache != null) {
+                    resultCache.put(ApkResultCache.TYPE_DEX_CODE_REFS, apkEntry, "", scanner.toJson());
+                }
+                codeRefs = scanner;
+            }
+        }
+
+        private static byte[] readFully(File file) throws IOException {
+            RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+            try {
+                long length = randomAccessFile.length();
+                if (length > Integer.MAX_VALUE) {
+                    throw new IOException(file.getName() + " is too large: " + length);
+                }
+                byte[] bytes = new byte[(int) length];
+                randomAccessFile.readFully(bytes);
+                return bytes;
+            } finally {
+                randomAccessFile.close();
+            }
+        }
+
+        private boolean loadCachedCodeRefs() {
+            ApkResultCache resultCache = dexIndex.resultCache;
+            if (resultCache == null) {
+                return false;
+            }
+            JsonElement cached = resultCache.get(ApkResultCache.TYPE_DEX_CODE_REFS, apkEntry, "");
+            if (cached == null) {
+                return false;
+            }
+            codeRefs = DexResourceRefScanner.fromJson(cached.getAsJsonObject());
+            return true;
+        }
+
+        /**
+         * @return classes defined in this dex.
+         */
+        public ClassRef[] getInternalClassRefs() throws IOException {
+            loadTables();
+            return internalClassRefs;
+        }
+
+        /**
+         * @return classes referenced but not defined in this dex.
+         */
+        public ClassRef[] getExternalClassRefs() throws IOException {
+            loadTables();
+            return externalClassRefs;
+        }
+
+        public MethodRef[] getMethodRefs() throws IOException {
+            loadTables();
+            return methodRefs;
+        }
+
+        public DexResourceRefScanner getCodeRefs() throws IOException {
+            load(dexIndex.tablesRequired, true);
+            return codeRefs;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Tencent is pleased to support the open source community by making wechat-matrix available.
+ * Copyright (C) 2018 THL A29 Limited, a Tencent company. All rights reserved.
+ * Licensed under the BSD 3-Clause License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.matrix.apk.model.task.util;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.tencent.matrix.javalib.util.Log;
+
+import org.jf.dexlib2.Opcode;
+import org.jf.dexlib2.iface.ClassDef;
+import org.jf.dexlib2.iface.DexFile;
+import org.jf.dexlib2.iface.Method;
+import org.jf.dexlib2.iface.MethodImplementation;
+import org.jf.dexlib2.iface.instruction.Instruction;
+import org.jf.dexlib2.iface.instruction.NarrowLiteralInstruction;
+import org.jf.dexlib2.iface.instruction.ReferenceInstruction;
+import org.jf.dexlib2.iface.instruction.formats.ArrayPayload;
+import org.jf.dexlib2.iface.reference.FieldReference;
+import org.jf.dexlib2.iface.reference.Reference;
+import org.jf.dexlib2.iface.reference.StringReference;
+import org.jf.dexlib2.util.ReferenceUtil;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Collects the candidates of resource references by walking the instructions of a dex directly,
+ * instead of disassembling every class to smali and parsing the text.
+ *
+ * It picks up the same things the smali parsers of UnusedResourcesTask and UnusedAssetsTask did:
+ * 1. literals of const, const/4, const/16 and const/high16
+ * 2. field references of sget-*, as descriptors like Lcom/tencent/mm/R$string;->app_name:I
+ * 3. elements of 4 bytes array payloads (fill-array-data)
+ * 4. strings of const-string and const-string/jumbo, which may be paths of assets
+ *
+ * An instance is not thread safe, use one per dex and merge the results.
+ */
+public class DexResourceRefScanner {
+
+    private static final String TAG = "Matrix.DexResourceRefScanner";
+
+    private final Set<Integer> literals = new HashSet<>();
+    private final Set<String> staticFieldRefs = new HashSet<>();
+    private final Set<String> strings = new HashSet<>();
+
+    public void scan(DexFile dexFile) {
+        for (ClassDef classDef : dexFile.getClasses()) {
+            try {
+                scanClass(classDef);
+            } catch (Exception e) {
+                Log.e(TAG, "scan class %s failed: %s", classDef.getType(), e.getMessage());
+            }
+        }
+    }
+
+    private void scanClass(ClassDef classDef) {
+        for (Method method : classDef.getMethods()) {
+            MethodImplementation implementation = method.getImplementation();
+            if (implementation == null) {
+                continue;
+            }
+            for (Instruction instruction : implementation.getInstructions()) {
+                Opcode opcode = instruction.getOpcode();
+                switch (opcode) {
+                    case CONST_4:
+                    case CONST_16:
+                    case CONST:
+                    case CONST_HIGH16:
+                        literals.add(((NarrowLiteralInstruction) instruction).getNarrowLiteral());
+                        break;
+                    case ARRAY_PAYLOAD:
+                        ArrayPayload payload = (ArrayPayload) instruction;
+                        if (payload.getElementWidth() == 4) {
+                            for (Number element : payload.getArrayElements()) {
+                                literals.add(element.intValue());
+                            }
+                        }
+                        break;
+                    case CONST_STRING:
+                    case CONST_STRING_JUMBO:
+                        Reference string = ((ReferenceInstruction) instruction).getReference();
+                        if (string instanceof StringReference) {
+                            strings.add(((StringReference) string).getString());
+                        }
+                        break;
+                    default:
+                        if (opcode.name.startsWith("sget") && instruction instanceof ReferenceInstruction) {
+                            Reference reference = ((ReferenceInstruction) instruction).getReference();
+                            if (reference instanceof FieldReference) {
+                                staticFieldRefs.add(ReferenceUtil.getFieldDescriptor((FieldReference) reference));
+                            }
+                        }
+                        break;
+                }
+            }
+        }
+    }
+
+    public Set<Integer> getLiterals() {
+        return literals;
+    }
+
+    public Set<String> getStaticFieldRefs() {
+        return staticFieldRefs;
+    }
+
+    public Set<String> getStrings() {
+        return strings;
+    }
+
+    public void merge(DexResourceRefScanner other) {
+        literals.addAll(other.literals);
+        staticFieldRefs.addAll(other.staticFieldRefs);
+        strings.addAll(other.strings);
+    }
+
+    /**
+     * @return the collected references, to be kept in ApkResultCache.
+     */
+    public JsonObject toJson() {
+        JsonObject jsonObject = new JsonObject();
+        JsonArray literalArray = new JsonArray();
+        for (Integer literal : literals) {
+            literalArray.add(literal);
+        }
+        jsonObject.add("literals", literalArray);
+        JsonArray fieldArray = new JsonArray();
+        for (String field : staticFieldRefs) {
+            fieldArray.add(field);
+        }
+        jsonObject.add("static-fields", fieldArray);
+        JsonArray stringArray = new JsonArray();
+        for (String string : strings) {
+            stringArray.add(string);
+        }
+        jsonObject.add("strings", stringArray);
+        return jsonObject;
+    }
+
+    public static DexResourceRefScanner fromJson(JsonObject jsonObject) {
+        DexResourceRefScanner scanner = new DexResourceRefScanner();
+        for (JsonElement literal : jsonObject.getAsJsonArray("literals")) {
+            scanner.literals.add(literal.getAsInt());
+        }
+        for (JsonElement field : jsonObject.getAsJsonArray("static-fields")) {
+            scanner.staticFieldRefs.add(field.getAsString());
+        }
+        for (JsonElement string : jsonObject.getAsJsonArray("strings")) {
+            scanner.strings.add(string.getAsString());
+        }
+        return scanner;
+    }
+}
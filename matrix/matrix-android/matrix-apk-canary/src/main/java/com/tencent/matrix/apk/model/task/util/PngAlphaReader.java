@@ -0,0 +1,228 @@
+/*
+ * Tencent is pleased to support the open source community by making wechat-matrix available.
+ * Copyright (C) 2018 THL A29 Limited, a Tencent company. All rights reserved.
+ * Licensed under the BSD 3-Clause License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.matrix.apk.model.task.util;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Tells whether a png has alpha from its chunks, without decoding the image.
+ *
+ * The alpha is declared by the IHDR color type (gray + alpha, rgba) or by a tRNS chunk.
+ * For palette images only a tRNS with some entry below 255 counts, the same as the color
+ * model ImageIO would build. Optionally the IDAT of gray + alpha and rgba images is inflated
+ * to find images that declare alpha but are fully opaque.
+ */
+public final class PngAlphaReader {
+
+    private static final byte[] PNG_SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+
+    private static final int CHUNK_IHDR = 0x49484452;
+    private static final int CHUNK_TRNS = 0x74524E53;
+    private static final int CHUNK_IDAT = 0x49444154;
+    private static final int CHUNK_IEND = 0x49454E44;
+
+    private static final int COLOR_TYPE_GRAY = 0;
+    private static final int COLOR_TYPE_RGB = 2;
+    private static final int COLOR_TYPE_PALETTE = 3;
+    private static final int COLOR_TYPE_GRAY_ALPHA = 4;
+    private static final int COLOR_TYPE_RGBA = 6;
+
+    //Adam7 passes: start x, start y, step x, step y
+    private static final int[][] ADAM7 = {
+            {0, 0, 8, 8}, {4, 0, 8, 8}, {0, 4, 4, 8}, {2, 0, 4, 4}, {0, 2, 2, 4}, {1, 0, 2, 2}, {0, 1, 1, 2}
+    };
+
+    private PngAlphaReader() {
+    }
+
+    /**
+     * @param checkOpaque if true, images declaring an alpha channel whose pixels are all opaque
+     *                    are reported as without alpha.
+     * @return null if the stream is not a png.
+     */
+    public static Boolean hasAlpha(InputStream inputStream, boolean checkOpaque) throws IOException {
+        DataInputStream input = new DataInputStream(new BufferedInputStream(inputStream));
+        byte[] signature = new byte[PNG_SIGNATURE.length];
+        try {
+            input.readFully(signature);
+        } catch (EOFException e) {
+            return null;
+        }
+        if (!Arrays.equals(signature, PNG_SIGNATURE)) {
+            return null;
+        }
+
+        int width = 0;
+        int height = 0;
+        int bitDepth = 0;
+        int colorType = -1;
+        int interlace = 0;
+        boolean declaredAlpha = false;
+        ByteArrayOutputStream idat = null;
+        while (true) {
+            final int length = input.readInt();
+            final int chunkType = input.readInt();
+            if (length < 0) {
+                throw new IOException("bad png chunk length " + length);
+            }
+            if (chunkType == CHUNK_IHDR) {
+                width = input.readInt();
+                height = input.readInt();
+                bitDepth = input.readUnsignedByte();
+                colorType = input.readUnsignedByte();
+                skipFully(input, 2);                                        //compression, filter
+                interlace = input.readUnsignedByte();
+                skipFully(input, length - 13);
+                declaredAlpha = colorType == COLOR_TYPE_GRAY_ALPHA || colorType == COLOR_TYPE_RGBA;
+            } else if (chunkType == CHUNK_TRNS) {
+                if (colorType == COLOR_TYPE_PALETTE) {
+                    for (int i = 0; i < length; i++) {
+                        if (input.readUnsignedByte() != 0xFF) {
+                            declaredAlpha = true;
+                        }
+                    }
+                } else {
+                    //a transparent color key of gray or rgb images
+                    declaredAlpha = true;
+                    skipFully(input, length);
+                }
+            } else if (chunkType == CHUNK_IDAT) {
+                //tRNS must come before IDAT, so the answer is known here
+                if (!declaredAlpha || !checkOpaque || (colorType != COLOR_TYPE_GRAY_ALPHA && colorType != COLOR_TYPE_RGBA)) {
+                    return declaredAlpha;
+                }
+                if (idat == null) {
+                    idat = new ByteArrayOutputStream(length);
+                }
+                byte[] data = new byte[length];
+                input.readFully(data);
+                idat.write(data);
+            } else if (chunkType == CHUNK_IEND) {
+                break;
+            } else {
+                if (idat != null) {
+                    //IDAT chunks are consecutive
+                    break;
+                }
+                skipFully(input, length);
+            }
+            skipFully(input, 4);                                            //crc
+        }
+        if (idat == null) {
+            return declaredAlpha;
+        }
+        return hasTranslucentPixel(idat.toByteArray(), width, height, bitDepth, colorType == COLOR_TYPE_RGBA ? 4 : 2, interlace == 1);
+    }
+
+    private static boolean hasTranslucentPixel(byte[] idat, int width, int height, int bitDepth, int channels,
+                                               boolean interlaced) throws IOException {
+        if (bitDepth != 8 && bitDepth != 16) {
+            throw new IOException("bad png bit depth " + bitDepth);
+        }
+        final int sampleBytes = bitDepth / 8;
+        final int pixelBytes = channels * sampleBytes;
+        final int alphaOffset = (channels - 1) * sampleBytes;
+        DataInputStream pixels = new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(idat)));
+        int[][] passes = interlaced ? ADAM7 : new int[][]{{0, 0, 1, 1}};
+        for (int[] pass : passes) {
+            final int passWidth = (width - pass[0] + pass[2] - 1) / pass[2];
+            final int passHeight = (height - pass[1] + pass[3] - 1) / pass[3];
+            if (passWidth <= 0 || passHeight <= 0) {
+                continue;
+            }
+            final int rowBytes = passWidth * pixelBytes;
+            byte[] prevRow = new byte[rowBytes];
+            byte[] row = new byte[rowBytes];
+            for (int y = 0; y < passHeight; y++) {
+                final int filter = pixels.readUnsignedByte();
+                pixels.readFully(row);
+                unfilter(filter, row, prevRow, pixelBytes);
+                for (int x = alphaOffset; x < rowBytes; x += pixelBytes) {
+                    for (int i = 0; i < sampleBytes; i++) {
+                        if (row[x + i] != (byte) 0xFF) {
+                            return true;
+                        }
+                    }
+                }
+                byte[] tmp = prevRow;
+                prevRow = row;
+                row = tmp;
+            }
+        }
+        return false;
+    }
+
+    private static void unfilter(int filter, byte[] row, byte[] prevRow, int pixelBytes) throws IOException {
+        switch (filter) {
+            case 0:
+                break;
+            case 1:
+                for (int i = pixelBytes; i < row.length; i++) {
+                    row[i] += row[i - pixelBytes];
+                }
+                break;
+            case 2:
+                for (int i = 0; i < row.length; i++) {
+                    row[i] += prevRow[i];
+                }
+                break;
+            case 3:
+                for (int i = 0; i < row.length; i++) {
+                    final int left = i >= pixelBytes ? row[i - pixelBytes] & 0xFF : 0;
+                    row[i] += (left + (prevRow[i] & 0xFF)) >> 1;
+                }
+                break;
+            case 4:
+                for (int i = 0; i < row.length; i++) {
+                    final int left = i >= pixelBytes ? row[i - pixelBytes] & 0xFF : 0;
+                    final int up = prevRow[i] & 0xFF;
+                    final int upLeft = i >= pixelBytes ? prevRow[i - pixelBytes] & 0xFF : 0;
+                    row[i] += paeth(left, up, upLeft);
+                }
+                break;
+            default:
+                throw new IOException("bad png filter type " + filter);
+        }
+    }
+
+    private static int paeth(int left, int up, int upLeft) {
+        final int p = left + up - upLeft;
+        final int pa = Math.abs(p - left);
+        final int pb = Math.abs(p - up);
+        final int pc = Math.abs(p - upLeft);
+        if (pa <= pb && pa <= pc) {
+            return left;
+        } else if (pb <= pc) {
+            return up;
+        }
+        return upLeft;
+    }
+
+    private static void skipFully(DataInputStream input, int count) throws IOException {
+        if (input.skipBytes(count) != count) {
+            throw new EOFException();
+        }
+    }
+}
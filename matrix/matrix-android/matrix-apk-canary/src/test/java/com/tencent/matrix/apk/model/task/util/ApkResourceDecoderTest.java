@@ -0,0 +1,70 @@
+/*
+ * Tencent is pleased to support the open source community by making wechat-matrix available.
+ * Copyright (C) 2018 THL A29 Limited, a Tencent company. All rights reserved.
+ * Licensed under the BSD 3-Clause License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.matrix.apk.model.task.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import brut.androlib.res.data.ResPackage;
+import brut.androlib.res.decoder.AXmlResourceParser;
+import brut.androlib.res.decoder.ResAttrDecoder;
+
+
+public class ApkResourceDecoderTest {
+
+    private static final int TYPE_INT_DEC = 0x10;
+    private static final int TYPE_INT_HEX = 0x11;
+
+    private static final int ATTR_ORIENTATION = 0x010100c4;
+    private static final int ATTR_GRAVITY     = 0x010100af;
+
+    private static ResPackage getAndroidPackage() throws Exception {
+        for (ResPackage pkg : ApkResourceDecoder.getFrameworkPackages()) {
+            if ("android".equals(pkg.getName())) {
+                return pkg;
+            }
+        }
+        throw new AssertionError("no android package in the framework resources");
+    }
+
+    @Test
+    public void testFrameworkTableHoldsItsPackages() throws Exception {
+        ResPackage android = getAndroidPackage();
+        Assert.assertSame(android, android.getResTable().getPackage(android.getId()));
+        Assert.assertSame(ApkResourceDecoder.getFrameworkPackages(), ApkResourceDecoder.getFrameworkPackages());
+    }
+
+    @Test
+    public void testDecodeAndroidAttrEnum() throws Exception {
+        AXmlResourceParser parser = ApkResourceDecoder.createAXmlParser();
+        ResAttrDecoder attrDecoder = parser.getAttrDecoder();
+        attrDecoder.setCurrentPackage(getAndroidPackage());
+
+        // android:orientation="vertical"
+        Assert.assertEquals("vertical", attrDecoder.decode(TYPE_INT_DEC, 1, null, ATTR_ORIENTATION));
+    }
+
+    @Test
+    public void testDecodeAndroidAttrFlags() throws Exception {
+        AXmlResourceParser parser = ApkResourceDecoder.createAXmlParser();
+        ResAttrDecoder attrDecoder = parser.getAttrDecoder();
+        attrDecoder.setCurrentPackage(getAndroidPackage());
+
+        // android:gravity="center"
+        Assert.assertEquals("center", attrDecoder.decode(TYPE_INT_HEX, 0x11, null, ATTR_GRAVITY));
+    }
+}
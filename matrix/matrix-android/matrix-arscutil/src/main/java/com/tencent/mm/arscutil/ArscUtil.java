@@ -32,6 +32,8 @@ import java.nio.CharBuffer;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -103,22 +105,93 @@ public class ArscUtil {
         return resTypeList;
     }
 
+    /**
+     * Index the ResType chunks of a package by type id, so that the ResTypes of many resources
+     * can be found without scanning the whole type array for each of them.
+     */
+    public static Map<Integer, List<ResType>> indexResTypes(ResPackage resPackage) {
+        Map<Integer, List<ResType>> resTypeIndex = new HashMap<>();
+        List<ResChunk> resTypeArray = resPackage.getResTypeArray();
+        if (resTypeArray != null) {
+            for (ResChunk resChunk : resTypeArray) {
+                if (resChunk.getType() == ArscConstants.RES_TABLE_TYPE_TYPE) {
+                    int typeId = ((ResType) resChunk).getId() & 0xFF;
+                    List<ResType> resTypeList = resTypeIndex.get(typeId);
+                    if (resTypeList == null) {
+                        resTypeList = new ArrayList<>();
+                        resTypeIndex.put(typeId, resTypeList);
+                    }
+                    resTypeList.add((ResType) resChunk);
+                }
+            }
+        }
+        return resTypeIndex;
+    }
+
+    public static List<ResType> findResType(Map<Integer, List<ResType>> resTypeIndex, int resourceId) {
+        int entryId = getResourceEntryId(resourceId);
+        List<ResType> resTypeList = new ArrayList<ResType>();
+        List<ResType> typesOfId = resTypeIndex.get(getResourceTypeId(resourceId));
+        if (typesOfId != null) {
+            for (ResType resType : typesOfId) {
+                if (entryId < resType.getEntryCount()
+                        && resType.getEntryOffsets().get(entryId) != ArscConstants.NO_ENTRY_INDEX) {
+                    resTypeList.add(resType);
+                }
+            }
+        }
+        return resTypeList;
+    }
+
+    private static Map<Integer, List<ResType>> getResTypeIndex(Map<ResPackage, Map<Integer, List<ResType>>> packageIndex, ResPackage resPackage) {
+        Map<Integer, List<ResType>> resTypeIndex = packageIndex.get(resPackage);
+        if (resTypeIndex == null) {
+            resTypeIndex = indexResTypes(resPackage);
+            packageIndex.put(resPackage, resTypeIndex);
+        }
+        return resTypeIndex;
+    }
+
     public static void removeResource(ResTable resTable, int resourceId, String resourceName) throws IOException {
-        ResPackage resPackage = findResPackage(resTable, getPackageId(resourceId));
-        if (resPackage != null) {
-            List<ResType> resTypeList = findResType(resPackage, resourceId);
+        Map<Integer, String> resources = new HashMap<>();
+        resources.put(resourceId, resourceName);
+        removeResources(resTable, resources);
+    }
+
+    /**
+     * Remove a batch of resources, the name string pools and chunk sizes are only rebuilt once at the end.
+     *
+     * @param resources resource id -> resource name, the name is only used by log.
+     */
+    public static void removeResources(ResTable resTable, Map<Integer, String> resources) throws IOException {
+        Map<ResPackage, Map<Integer, List<ResType>>> packageIndex = new LinkedHashMap<>();
+        Set<ResType> updateTypes = new LinkedHashSet<>();
+        for (Map.Entry<Integer, String> resource : resources.entrySet()) {
+            int resourceId = resource.getKey();
+            ResPackage resPackage = findResPackage(resTable, getPackageId(resourceId));
+            if (resPackage == null) {
+                continue;
+            }
+            List<ResType> resTypeList = findResType(getResTypeIndex(packageIndex, resPackage), resourceId);
+            int entryId = getResourceEntryId(resourceId);
             int resNameStringPoolIndex = -1;
             for (ResType resType : resTypeList) {
-                int entryId = getResourceEntryId(resourceId);
                 resNameStringPoolIndex = resType.getEntryTable().get(entryId).getStringPoolIndex();
                 resType.removeEntry(entryId);
-                resType.refresh();
+                updateTypes.add(resType);
             }
             if (resNameStringPoolIndex != -1) {
-                Log.d(TAG, "try to remove %s (%H), find resource %s", resourceName, resourceId, ResStringBlock.resolveStringPoolEntry(resPackage.getResNamePool().getStrings().get(resNameStringPoolIndex).array(), resPackage.getResNamePool().getCharSet()));
+                Log.d(TAG, "try to remove %s (%H), find resource %s", resource.getValue(), resourceId, resPackage.getResNamePool().getString(resNameStringPoolIndex));
             }
+        }
+        for (ResType resType : updateTypes) {
+            resType.refresh();
+        }
+        for (ResPackage resPackage : packageIndex.keySet()) {
             resPackage.shrinkResNameStringPool();
             resPackage.refresh();
+        }
+        if (!packageIndex.isEmpty()) {
             resTable.refresh();
         }
     }
@@ -139,7 +212,7 @@ public class ArscUtil {
                     boolean isComplex = (resEntry.getFlag() & ArscConstants.RES_TABLE_ENTRY_FLAG_COMPLEX) != 0;
                     if (!isComplex && resEntry.getResValue() != null) {
                         if (resEntry.getResValue().getDataType() == ArscConstants.RES_VALUE_DATA_TYPE_STRING) {
-                            String filePath = ResStringBlock.resolveStringPoolEntry(resTable.getGlobalStringPool().getStrings().get(resEntry.getResValue().getData()).array(), resTable.getGlobalStringPool().getCharSet());
+                            String filePath = resTable.getGlobalStringPool().getString(resEntry.getResValue().getData());
                             if (filePath.equals(targetFile)) {
                                 targetFileIndex = resEntry.getResValue().getData();
                                 break;
@@ -163,7 +236,7 @@ public class ArscUtil {
                     boolean isComplex = (resEntry.getFlag() & ArscConstants.RES_TABLE_ENTRY_FLAG_COMPLEX) != 0;
                     if (!isComplex && resEntry.getResValue() != null) {
                         if (resEntry.getResValue().getDataType() == ArscConstants.RES_VALUE_DATA_TYPE_STRING) {
-                            String filePath = ResStringBlock.resolveStringPoolEntry(resTable.getGlobalStringPool().getStrings().get(resEntry.getResValue().getData()).array(), resTable.getGlobalStringPool().getCharSet());
+                            String filePath = resTable.getGlobalStringPool().getString(resEntry.getResValue().getData());
                             if (filePath.equals(sourceFile)) {
                                 sourceFileIndex = resEntry.getResValue().getData();
                                 resEntry.getResValue().setData(targetFileIndex);
@@ -187,6 +260,7 @@ public class ArscUtil {
 
     public static void replaceResEntryName(ResTable resTable, Map<Integer, String> resIdProguard) {
         Set<ResPackage> updatePackages = new HashSet<>();
+        Map<ResPackage, Map<Integer, List<ResType>>> packageIndex = new HashMap<>();
         for (int resId : resIdProguard.keySet()) {
             ResPackage resPackage = findResPackage(resTable, getPackageId(resId));
             if (resPackage != null) {
@@ -205,22 +279,18 @@ public class ArscUtil {
                     resProguardBlock.setStringStart(resPackage.getResNamePool().getStringStart());
                     resProguardBlock.setStyleOffsets(resPackage.getResNamePool().getStyleOffsets());
                     resProguardBlock.setStyles(resPackage.getResNamePool().getStyles());
-                    resProguardBlock.setStrings(new ArrayList<>());
-                    resProguardBlock.setStringOffsets(new ArrayList<>());
-                    resProguardBlock.setStringIndexMap(new HashMap<>());
+                    resProguardBlock.setStrings(new ArrayList<ByteBuffer>());
                     resPackage.setResProguardPool(resProguardBlock);
                 }
 
-                List<ResType> resTypeList = findResType(resPackage, resId);
+                List<ResType> resTypeList = findResType(getResTypeIndex(packageIndex, resPackage), resId);
                 for (ResType resType : resTypeList) {
                     int entryId = getResourceEntryId(resId);
                     ResEntry resEntry = resType.getEntryTable().get(entryId);
                     resEntry.setEntryName(resIdProguard.get(resId));
 
-                    if (!resPackage.getResProguardPool().getStringIndexMap().containsKey(resEntry.getEntryName())) {
-                        resPackage.getResProguardPool().getStrings().add(ByteBuffer.wrap(ResStringBlock.encodeStringPoolEntry(resEntry.getEntryName(), resPackage.getResProguardPool().getCharSet())));
-                        resPackage.getResProguardPool().setStringCount(resPackage.getResProguardPool().getStrings().size());
-                        resPackage.getResProguardPool().getStringIndexMap().put(resEntry.getEntryName(), resPackage.getResProguardPool().getStringCount() - 1);
+                    if (resPackage.getResProguardPool().getStringIndex(resEntry.getEntryName()) == -1) {
+                        resPackage.getResProguardPool().addString(resEntry.getEntryName());
                     }
                 }
                 updatePackages.add(resPackage);
@@ -235,12 +305,11 @@ public class ArscUtil {
                         ResType resType = ((ResType) resChunk);
                         for (ResEntry resEntry : resType.getEntryTable()) {
                             if (resEntry != null) {
-                                if (!resPackage.getResProguardPool().getStringIndexMap().containsKey(resEntry.getEntryName())) {
-                                    resPackage.getResProguardPool().getStrings().add(ByteBuffer.wrap(ResStringBlock.encodeStringPoolEntry(resEntry.getEntryName(), resPackage.getResProguardPool().getCharSet())));
-                                    resPackage.getResProguardPool().setStringCount(resPackage.getResProguardPool().getStrings().size());
-                                    resPackage.getResProguardPool().getStringIndexMap().put(resEntry.getEntryName(), resPackage.getResProguardPool().getStringCount() - 1);
+                                int stringIndex = resPackage.getResProguardPool().getStringIndex(resEntry.getEntryName());
+                                if (stringIndex == -1) {
+                                    stringIndex = resPackage.getResProguardPool().addString(resEntry.getEntryName());
                                 }
-                                resEntry.setStringPoolIndex(resPackage.getResProguardPool().getStringIndexMap().get(resEntry.getEntryName()));
+                                resEntry.setStringPoolIndex(stringIndex);
                             }
                         }
                     }
@@ -252,31 +321,54 @@ public class ArscUtil {
     }
 
     public static boolean replaceResFileName(ResTable resTable, int resId, String srcFileName, String targetFileName) {
-        Log.d(TAG, "try to replace resource (%H) file %s with %s", resId, srcFileName, targetFileName);
-        ResPackage resPackage = findResPackage(resTable, getPackageId(resId));
-        boolean result = false;
-        if (resPackage != null) {
-            List<ResType> resTypeList = findResType(resPackage, resId);
+        Map<String, String> fileNames = new HashMap<>();
+        fileNames.put(srcFileName, targetFileName);
+        Map<Integer, Map<String, String>> resFileNames = new HashMap<>();
+        resFileNames.put(resId, fileNames);
+        return replaceResFileNames(resTable, resFileNames).contains(srcFileName);
+    }
+
+    /**
+     * Replace the file names of a batch of resources, the global string pool and chunk sizes are only rebuilt once at the end.
+     *
+     * @param resFileNames resource id -> (source file name -> target file name)
+     * @return the source file names which are replaced
+     */
+    public static Set<String> replaceResFileNames(ResTable resTable, Map<Integer, Map<String, String>> resFileNames) {
+        Set<String> replacedFiles = new HashSet<>();
+        Map<ResPackage, Map<Integer, List<ResType>>> packageIndex = new HashMap<>();
+        ResStringBlock globalStringPool = resTable.getGlobalStringPool();
+        for (Map.Entry<Integer, Map<String, String>> resFileName : resFileNames.entrySet()) {
+            int resId = resFileName.getKey();
+            Map<String, String> fileNames = resFileName.getValue();
+            ResPackage resPackage = findResPackage(resTable, getPackageId(resId));
+            if (resPackage == null) {
+                continue;
+            }
+            List<ResType> resTypeList = findResType(getResTypeIndex(packageIndex, resPackage), resId);
+            int entryId = getResourceEntryId(resId);
             for (ResType resType : resTypeList) {
-                int entryId = getResourceEntryId(resId);
                 ResEntry resEntry = resType.getEntryTable().get(entryId);
-                if (resEntry.getResValue().getDataType() == ArscConstants.RES_VALUE_DATA_TYPE_STRING) {
-                    String filePath = ResStringBlock.resolveStringPoolEntry(resTable.getGlobalStringPool().getStrings().get(resEntry.getResValue().getData()).array(), resTable.getGlobalStringPool().getCharSet());
-                    if (filePath.equals(srcFileName)) {
-                        resTable.getGlobalStringPool().getStrings().set(resEntry.getResValue().getData(), ByteBuffer.wrap(ResStringBlock.encodeStringPoolEntry(targetFileName, resTable.getGlobalStringPool().getCharSet())));
-                        result = true;
-                        break;
+                if (resEntry.getResValue() != null && resEntry.getResValue().getDataType() == ArscConstants.RES_VALUE_DATA_TYPE_STRING) {
+                    String filePath = globalStringPool.getString(resEntry.getResValue().getData());
+                    if (fileNames.containsKey(filePath) && !replacedFiles.contains(filePath)) {
+                        Log.d(TAG, "try to replace resource (%H) file %s with %s", resId, filePath, fileNames.get(filePath));
+                        globalStringPool.setString(resEntry.getResValue().getData(), fileNames.get(filePath));
+                        replacedFiles.add(filePath);
                     }
                 }
             }
-            if (result) {
-                resTable.getGlobalStringPool().refresh();
-                resTable.refresh();
-            } else {
-                Log.w(TAG, "srcFile %s not referenced by resource (%H)", srcFileName, resId);
+            for (String srcFileName : fileNames.keySet()) {
+                if (!replacedFiles.contains(srcFileName)) {
+                    Log.w(TAG, "srcFile %s not referenced by resource (%H)", srcFileName, resId);
+                }
             }
         }
-        return result;
+        if (!replacedFiles.isEmpty()) {
+            globalStringPool.refresh();
+            resTable.refresh();
+        }
+        return replacedFiles;
     }
 
 }
@@ -142,7 +142,7 @@ public class ResPackage extends ResChunk {
 
         for (int index = 0; index < resNamePool.getStringCount(); index++) {
             if (!countMap.containsKey(index)) {
-                resNamePool.getStrings().set(index, ByteBuffer.wrap(ResStringBlock.encodeStringPoolEntry("", resNamePool.getCharSet())));
+                resNamePool.setString(index, "");
             }
         }
         resNamePool.refresh();
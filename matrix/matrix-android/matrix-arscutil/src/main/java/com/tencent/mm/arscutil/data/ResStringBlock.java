@@ -20,11 +20,17 @@ import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 /**
  * Created by jinqiuchen on 18/7/29.
+ *
+ * Strings read from a file stay as one slice of the file buffer until the pool is modified,
+ * entries are decoded and indexed on demand.
  */
 
 public class ResStringBlock extends ResChunk {
@@ -34,11 +40,13 @@ public class ResStringBlock extends ResChunk {
     private int flag; // 4 bytes
     private int stringStart; // string列表的起始位置, 4 bytes
     private int styleStart; // style列表的起始位置, 4 bytes
-    private List<Integer> stringOffsets; // 记录每个string相对于string列表起始位置的offset
-    private List<Integer> styleOffsets; // 记录每个style相对于style列表起始位置的offset
-    private List<ByteBuffer> strings; // string列表
+    private int[] stringOffsets; // 记录每个string相对于string列表起始位置的offset
+    private int[] styleOffsets; // 记录每个style相对于style列表起始位置的offset
+    private ByteBuffer stringData; // 读入的string列表，未修改前不拆分
+    private List<ByteBuffer> strings; // string列表，修改时才从stringData拆分
     private byte[] styles; // 所有的style
 
+    private String[] decodedStrings;
     private Map<String, Integer> stringIndexMap;
 
     public int getStringCount() {
@@ -81,44 +89,133 @@ public class ResStringBlock extends ResChunk {
         this.styleStart = styleStart;
     }
 
-    public List<Integer> getStringOffsets() {
-        return stringOffsets;
+    public int[] getStyleOffsets() {
+        return styleOffsets;
+    }
+
+    public void setStyleOffsets(int[] styleOffsets) {
+        this.styleOffsets = styleOffsets;
     }
 
-    public void setStringOffsets(List<Integer> stringOffsets) {
+    /**
+     * @param stringOffsets offset of each string from the start of stringData
+     * @param stringData    the string list as read from the file, the last string takes the rest of it
+     */
+    public void setStringData(int[] stringOffsets, ByteBuffer stringData) {
         this.stringOffsets = stringOffsets;
+        this.stringData = stringData;
+        this.strings = null;
+        this.decodedStrings = null;
+        this.stringIndexMap = null;
     }
 
-    public Map<String, Integer> getStringIndexMap() {
-        return stringIndexMap;
+    public void setStrings(List<ByteBuffer> strings) {
+        this.strings = strings;
+        this.stringData = null;
+        this.stringOffsets = null;
+        this.decodedStrings = null;
+        this.stringIndexMap = null;
     }
 
-    public void setStringIndexMap(Map<String, Integer> stringIndexMap) {
-        this.stringIndexMap = stringIndexMap;
+    public byte[] getStyles() {
+        return styles;
     }
 
-    public List<Integer> getStyleOffsets() {
-        return styleOffsets;
+    public void setStyles(byte[] styles) {
+        this.styles = styles;
     }
 
-    public void setStyleOffsets(List<Integer> styleOffsets) {
-        this.styleOffsets = styleOffsets;
+    /**
+     * @return the encoded entry of the string, read only.
+     */
+    public ByteBuffer getStringEntry(int index) {
+        if (strings != null) {
+            return strings.get(index).asReadOnlyBuffer();
+        }
+        if (stringData == null || index < 0 || index >= stringOffsets.length) {
+            throw new IndexOutOfBoundsException("string index " + index + ", count " + stringCount);
+        }
+        int end = index < stringOffsets.length - 1 ? stringOffsets[index + 1] : stringData.limit();
+        ByteBuffer entry = stringData.duplicate();
+        entry.limit(end);
+        entry.position(stringOffsets[index]);
+        return entry.slice().asReadOnlyBuffer();
     }
 
-    public List<ByteBuffer> getStrings() {
-        return strings;
+    public String getString(int index) {
+        if (decodedStrings == null || decodedStrings.length < stringCount) {
+            decodedStrings = decodedStrings == null ? new String[stringCount] : Arrays.copyOf(decodedStrings, stringCount);
+        }
+        String str = decodedStrings[index];
+        if (str == null) {
+            ByteBuffer entry = getStringEntry(index);
+            byte[] buffer = new byte[entry.remaining()];
+            entry.get(buffer);
+            str = resolveStringPoolEntry(buffer, getCharSet());
+            decodedStrings[index] = str;
+        }
+        return str;
     }
 
-    public void setStrings(List<ByteBuffer> strings) {
-        this.strings = strings;
+    public void setString(int index, String str) {
+        ensureStrings();
+        strings.set(index, ByteBuffer.wrap(encodeStringPoolEntry(str, getCharSet())));
+        if (decodedStrings != null && index < decodedStrings.length) {
+            decodedStrings[index] = str;
+        }
+        stringIndexMap = null;
     }
 
-    public byte[] getStyles() {
-        return styles;
+    /**
+     * @return index of the new string.
+     */
+    public int addString(String str) {
+        ensureStrings();
+        strings.add(ByteBuffer.wrap(encodeStringPoolEntry(str, getCharSet())));
+        stringCount = strings.size();
+        if (stringIndexMap != null) {
+            stringIndexMap.put(str, stringCount - 1);
+        }
+        return stringCount - 1;
     }
 
-    public void setStyles(byte[] styles) {
-        this.styles = styles;
+    /**
+     * @return index of the string, or -1 if it is not in the pool.
+     */
+    public int getStringIndex(String str) {
+        if (stringIndexMap == null) {
+            Map<String, Integer> indexMap = new HashMap<>();
+            for (int i = 0; i < stringCount; i++) {
+                indexMap.put(getString(i), i);
+            }
+            stringIndexMap = indexMap;
+        }
+        Integer index = stringIndexMap.get(str);
+        return index == null ? -1 : index;
+    }
+
+    private void ensureStrings() {
+        if (strings == null) {
+            List<ByteBuffer> entries = new ArrayList<>(stringCount);
+            if (stringData != null) {
+                for (int i = 0; i < stringOffsets.length; i++) {
+                    entries.add(getStringEntry(i));
+                }
+            }
+            strings = entries;
+            stringData = null;
+        }
+    }
+
+    private int getStringDataSize() {
+        if (strings != null) {
+            int size = 0;
+            for (ByteBuffer buffer : strings) {
+                size += buffer.limit();
+            }
+            return size;
+        }
+        return stringData == null ? 0 : stringData.limit();
     }
 
     public Charset getCharSet() {
@@ -188,37 +285,27 @@ public class ResStringBlock extends ResChunk {
     }
 
     public void refresh() {
-        int oldChunkSize = chunkSize;
         chunkSize = 0;
         chunkSize += headSize;
         chunkSize += stringCount * 4;
         chunkSize += styleCount * 4;
 
-        if (strings != null) {
+        if (strings != null || stringData != null) {
 
             stringStart = headSize + styleCount * 4 + stringCount * 4;
 
-            //regenerate stringIndexMap
-            if (stringIndexMap != null) {
-                stringIndexMap.clear();
-                for (int i = 0; i < stringCount; i++) {
-                    stringIndexMap.put(resolveStringPoolEntry(strings.get(i).array(), getCharSet()), i);
+            if (strings != null) {
+                stringOffsets = new int[stringCount];
+                for (int i = 1; i < stringCount; i++) {
+                    stringOffsets[i] = stringOffsets[i - 1] + strings.get(i - 1).limit();
                 }
             }
-
-            stringOffsets.clear();
             if (stringCount > 0) {
-                stringOffsets.add(0);
-                for (int i = 1; i < stringCount; i++) {
-                    stringOffsets.add(stringOffsets.get(i - 1) + strings.get(i - 1).limit());
-                }
+                int stringDataSize = getStringDataSize();
                 if (styleCount > 0) {
-                    styleStart = stringStart + stringOffsets.get(stringCount - 1) + strings.get(stringCount - 1).limit();
-                }
-                for (ByteBuffer buffer : strings) {
-                    int strLen = buffer.limit();
-                    chunkSize += strLen;
+                    styleStart = stringStart + stringDataSize;
                 }
+                chunkSize += stringDataSize;
             }
         }
 
@@ -250,19 +337,21 @@ public class ResStringBlock extends ResChunk {
             byteBuffer.put(new byte[headPadding]);
         }
         if (stringOffsets != null) {
-            for (int i = 0; i < stringOffsets.size(); i++) {
-                byteBuffer.putInt(stringOffsets.get(i));
+            for (int i = 0; i < stringOffsets.length; i++) {
+                byteBuffer.putInt(stringOffsets[i]);
             }
         }
         if (styleOffsets != null) {
-            for (int i = 0; i < styleOffsets.size(); i++) {
-                byteBuffer.putInt(styleOffsets.get(i));
+            for (int i = 0; i < styleOffsets.length; i++) {
+                byteBuffer.putInt(styleOffsets[i]);
             }
         }
         if (strings != null) {
             for (int i = 0; i < strings.size(); i++) {
-                byteBuffer.put(strings.get(i).array());
+                byteBuffer.put(strings.get(i).duplicate());
             }
+        } else if (stringData != null) {
+            byteBuffer.put(stringData.duplicate());
         }
         if (styles != null) {
             byteBuffer.put(styles);
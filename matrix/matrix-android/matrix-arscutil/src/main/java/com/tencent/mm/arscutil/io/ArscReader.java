@@ -32,12 +32,8 @@ import com.tencent.mm.arscutil.data.ResValue;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 /**
  * Created by jinqiuchen on 18/7/29.
@@ -236,7 +232,7 @@ public class ArscReader {
         Log.d(TAG, "resEntry flag %d", resEntry.getFlag());
         resEntry.setStringPoolIndex(dataInput.readInt());
 
-        String entryName = ResStringBlock.resolveStringPoolEntry(resPackage.getResNamePool().getStrings().get(resEntry.getStringPoolIndex()).array(), resPackage.getResNamePool().getCharSet());
+        String entryName = resPackage.getResNamePool().getString(resEntry.getStringPoolIndex());
         Log.d(TAG, "entryName %s", entryName);
         resEntry.setEntryName(entryName);
 
@@ -268,7 +264,7 @@ public class ArscReader {
         //Log.d(TAG, "resValue data %d", resValue.getData());
 
         if (resValue.getDataType() == ArscConstants.RES_VALUE_DATA_TYPE_STRING) {
-            Log.d(TAG, "resValue string %s", ResStringBlock.resolveStringPoolEntry(globalResTable.getGlobalStringPool().getStrings().get(resValue.getData()).array(), globalResTable.getGlobalStringPool().getCharSet()));
+            Log.d(TAG, "resValue string index %d", resValue.getData());
         } else {
             Log.d(TAG, "resValue %s", resValue.printData());
         }
@@ -322,44 +318,30 @@ public class ArscReader {
         Log.d(TAG, "head padding size %d", headPaddingSize);
         stringPool.setHeadPadding(headPaddingSize);
         dataInput.seek(headStart + stringPool.getHeadSize());
+        int[] stringOffsets = null;
         if (stringPool.getStringCount() > 0) {
-            List<Integer> stringOffsets = new ArrayList<Integer>();
+            stringOffsets = new int[stringPool.getStringCount()];
             for (int i = 0; i < stringPool.getStringCount(); i++) {
-                stringOffsets.add(dataInput.readInt());
+                stringOffsets[i] = dataInput.readInt();
             }
-            stringPool.setStringOffsets(stringOffsets);
         }
         if (stringPool.getStyleCount() > 0) {
-            List<Integer> styleOffsets = new ArrayList<Integer>();
+            int[] styleOffsets = new int[stringPool.getStyleCount()];
             for (int i = 0; i < stringPool.getStyleCount(); i++) {
-                styleOffsets.add(dataInput.readInt());
+                styleOffsets[i] = dataInput.readInt();
             }
             stringPool.setStyleOffsets(styleOffsets);
         }
         dataInput.seek(headStart + stringPool.getStringStart());
         if (stringPool.getStringCount() > 0) {
-            List<ByteBuffer> strings = new ArrayList<ByteBuffer>();
-            Map<String, Integer> stringIndexMap = new HashMap<>();
-            for (int i = 0; i < stringPool.getStringCount(); i++) {
-                byte[] buffer = null;
-                if (i < stringPool.getStringCount() - 1) {
-                    buffer = new byte[stringPool.getStringOffsets().get(i + 1) - stringPool.getStringOffsets().get(i)];
-                } else {
-                    if (stringPool.getStyleCount() > 0) {
-                        buffer = new byte[stringPool.getStyleStart() - (stringPool.getStringOffsets().get(i) + stringPool.getStringStart())];
-                    } else {
-                        buffer = new byte[stringPool.getChunkSize() - stringPool.getStringStart() - stringPool.getStringOffsets().get(i)];
-                    }
-                }
-                dataInput.read(buffer);
-                strings.add(ByteBuffer.allocate(buffer.length));
-                strings.get(i).order(ByteOrder.LITTLE_ENDIAN);
-                strings.get(i).clear();
-                strings.get(i).put(buffer);
-                stringIndexMap.put(ResStringBlock.resolveStringPoolEntry(buffer, stringPool.getCharSet()), i);
+            //the strings are kept as one slice of the file, and decoded when they are used
+            int stringDataSize;
+            if (stringPool.getStyleCount() > 0) {
+                stringDataSize = stringPool.getStyleStart() - stringPool.getStringStart();
+            } else {
+                stringDataSize = stringPool.getChunkSize() - stringPool.getStringStart();
             }
-            stringPool.setStrings(strings);
-            stringPool.setStringIndexMap(stringIndexMap);
+            stringPool.setStringData(stringOffsets, dataInput.readSlice(stringDataSize));
         }
         if (stringPool.getStyleCount() > 0) {
             byte[] styleBytes = new byte[stringPool.getChunkSize() - stringPool.getStyleStart()];
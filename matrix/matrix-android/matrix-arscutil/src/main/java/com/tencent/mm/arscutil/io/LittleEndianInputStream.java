@@ -16,20 +16,28 @@
 
 package com.tencent.mm.arscutil.io;
 
+import java.io.EOFException;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 
 /**
  * Created by jinqiuchen on 18/7/29.
+ *
+ * The whole file is read into a little-endian buffer on the first access, so the primitives
+ * are read from memory instead of one syscall per byte. The file is read rather than mapped,
+ * a mapping would keep it open until the buffer is collected.
  */
 
 public class LittleEndianInputStream extends InputStream {
 
     private RandomAccessFile original;
+    private ByteBuffer buffer;
 
 
     public LittleEndianInputStream(String file) throws FileNotFoundException {
@@ -41,35 +49,66 @@ public class LittleEndianInputStream extends InputStream {
         this.original = original;
     }
 
+    private ByteBuffer getBuffer() throws IOException {
+        if (buffer == null) {
+            FileChannel channel = original.getChannel();
+            long position = original.getFilePointer();
+            ByteBuffer byteBuffer = ByteBuffer.allocate((int) channel.size());
+            while (byteBuffer.hasRemaining()) {
+                if (channel.read(byteBuffer, byteBuffer.position()) < 0) {
+                    throw new EOFException();
+                }
+            }
+            byteBuffer.flip();
+            byteBuffer.order(ByteOrder.LITTLE_ENDIAN);
+            byteBuffer.position((int) position);
+            buffer = byteBuffer;
+        }
+        return buffer;
+    }
+
     @Override
     public int read() throws IOException {
-        // TODO Auto-generated method stub
-        return original.read();
+        ByteBuffer byteBuffer = getBuffer();
+        return byteBuffer.hasRemaining() ? byteBuffer.get() & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        ByteBuffer byteBuffer = getBuffer();
+        if (len == 0) {
+            return 0;
+        }
+        if (!byteBuffer.hasRemaining()) {
+            return -1;
+        }
+        int count = Math.min(len, byteBuffer.remaining());
+        byteBuffer.get(b, off, count);
+        return count;
     }
 
     public short readShort() throws IOException {
-        ByteBuffer byteBuffer = ByteBuffer.allocate(2);
-        byteBuffer.clear();
-        byteBuffer.order(ByteOrder.LITTLE_ENDIAN);
-        byteBuffer.put(original.readByte());
-        byteBuffer.put(original.readByte());
-        byteBuffer.flip();
-        return byteBuffer.getShort();
+        try {
+            return getBuffer().getShort();
+        } catch (BufferUnderflowException e) {
+            throw new EOFException();
+        }
     }
 
     public int readInt() throws IOException {
-        ByteBuffer byteBuffer = ByteBuffer.allocate(4);
-        byteBuffer.order(ByteOrder.LITTLE_ENDIAN);
-        byteBuffer.clear();
-        for (int i = 1; i <= 4; i++) {
-            byteBuffer.put(original.readByte());
+        try {
+            return getBuffer().getInt();
+        } catch (BufferUnderflowException e) {
+            throw new EOFException();
         }
-        byteBuffer.flip();
-        return byteBuffer.getInt();
     }
 
     public byte readByte() throws IOException {
-        return original.readByte();
+        try {
+            return getBuffer().get();
+        } catch (BufferUnderflowException e) {
+            throw new EOFException();
+        }
     }
 
     public void readByte(byte[] buffer) throws IOException {
@@ -77,31 +116,49 @@ public class LittleEndianInputStream extends InputStream {
     }
 
     public void readByte(byte[] buffer, int offset, int length) throws IOException {
-        ByteBuffer byteBuffer = ByteBuffer.allocate(length);
-        byteBuffer.clear();
-        for (int i = 1; i <= length; i++) {
-            byteBuffer.put(original.readByte());
+        try {
+            getBuffer().get(buffer, offset, length);
+        } catch (BufferUnderflowException e) {
+            throw new EOFException();
         }
-        byteBuffer.flip();
-        byteBuffer.get(buffer, offset, length);
+    }
+
+    /**
+     * @return the next {@code length} bytes as a read only little-endian view of the file buffer, without copying.
+     */
+    public ByteBuffer readSlice(int length) throws IOException {
+        ByteBuffer byteBuffer = getBuffer();
+        if (length < 0 || length > byteBuffer.remaining()) {
+            throw new EOFException();
+        }
+        ByteBuffer slice = byteBuffer.slice();
+        slice.limit(length);
+        byteBuffer.position(byteBuffer.position() + length);
+        return slice.asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
     }
 
     public void seek(long pos) throws IOException {
-        original.seek(pos);
+        if (pos < 0) {
+            throw new IOException("Negative seek offset");
+        }
+        ByteBuffer byteBuffer = getBuffer();
+        //RandomAccessFile allows seeking past the end, the next read fails
+        byteBuffer.position((int) Math.min(pos, byteBuffer.limit()));
     }
 
     public long getFilePointer() throws IOException {
-        return original.getFilePointer();
+        return getBuffer().position();
     }
 
     public long getFileLength() throws IOException {
-        return original.length();
+        return getBuffer().limit();
     }
 
     @Override
     public void close() throws IOException {
         // TODO Auto-generated method stub
         super.close();
+        buffer = null;
         original.close();
     }
 
@@ -25,11 +25,17 @@ import java.nio.ByteOrder;
 
 /**
  * Created by jinqiuchen on 18/7/29.
+ *
+ * Writes go through a little-endian buffer, which is written to the file when it is full,
+ * before a seek and on flush or close.
  */
 
 public class LittleEndianOutputStream extends OutputStream {
 
+    private static final int BUFFER_SIZE = 64 * 1024;
+
     private RandomAccessFile original;
+    private final ByteBuffer buffer;
 
 
     public LittleEndianOutputStream(String file) throws FileNotFoundException {
@@ -39,59 +45,90 @@ public class LittleEndianOutputStream extends OutputStream {
 
     public LittleEndianOutputStream(RandomAccessFile original) {
         this.original = original;
+        this.buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        this.buffer.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private void ensureRemaining(int size) throws IOException {
+        if (buffer.remaining() < size) {
+            flushBuffer();
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        if (buffer.position() > 0) {
+            original.write(buffer.array(), 0, buffer.position());
+            buffer.clear();
+        }
     }
 
     @Override
     public void write(int b) throws IOException {
-        original.write(b);
+        ensureRemaining(1);
+        buffer.put((byte) b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (len >= buffer.capacity()) {
+            //too large to be worth copying
+            flushBuffer();
+            original.write(b, off, len);
+        } else {
+            ensureRemaining(len);
+            buffer.put(b, off, len);
+        }
     }
 
     public void writeShort(short data) throws IOException {
-        ByteBuffer byteBuffer = ByteBuffer.allocate(2);
-        byteBuffer.clear();
-        byteBuffer.order(ByteOrder.LITTLE_ENDIAN);
-        byteBuffer.putShort(data);
-        byteBuffer.flip();
-        original.write(byteBuffer.array());
+        ensureRemaining(2);
+        buffer.putShort(data);
     }
 
     public void writeInt(int data) throws IOException {
-        ByteBuffer byteBuffer = ByteBuffer.allocate(4);
-        byteBuffer.clear();
-        byteBuffer.order(ByteOrder.LITTLE_ENDIAN);
-        byteBuffer.putInt(data);
-        byteBuffer.flip();
-        original.write(byteBuffer.array());
+        ensureRemaining(4);
+        buffer.putInt(data);
     }
 
     public void writeByte(byte data) throws IOException {
-        original.write(data);
+        write(data);
     }
 
     public void writeByte(byte[] buffer) throws IOException {
-        original.write(buffer);
+        write(buffer, 0, buffer.length);
     }
 
     public void writeByte(byte[] buffer, int offset, int length) throws IOException {
-        original.write(buffer, offset, length);
+        write(buffer, offset, length);
     }
 
     public void seek(long pos) throws IOException {
+        flushBuffer();
         original.seek(pos);
     }
 
     public long getFilePointer() throws IOException {
-        return original.getFilePointer();
+        return original.getFilePointer() + buffer.position();
     }
 
     public long getFileLength() throws IOException {
+        flushBuffer();
         return original.length();
     }
 
+    @Override
+    public void flush() throws IOException {
+        flushBuffer();
+    }
+
     @Override
     public void close() throws IOException {
-        super.close();
-        original.close();
+        try {
+            flushBuffer();
+        } finally {
+            super.close();
+            original.close();
+        }
     }
 
 }
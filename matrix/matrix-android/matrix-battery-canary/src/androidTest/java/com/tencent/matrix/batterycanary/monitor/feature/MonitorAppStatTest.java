@@ -24,7 +24,6 @@ import androidx.test.ext.junit.runners.AndroidJUnit4;
 import com.tencent.matrix.Matrix;
 import com.tencent.matrix.batterycanary.monitor.BatteryMonitorConfig;
 import com.tencent.matrix.batterycanary.monitor.BatteryMonitorCore;
-import com.tencent.matrix.batterycanary.utils.TimeBreaker;
 
 import org.junit.After;
 import org.junit.Assert;
@@ -118,8 +117,7 @@ public class MonitorAppStatTest {
         Assert.assertEquals(50, snapshot.bgRatio.get(), 5);
         Assert.assertEquals(0L, (long) snapshot.fgSrvRatio.get());
 
-        TimeBreaker.Stamp stamp = new TimeBreaker.Stamp("3");
-        feature.mStampList.add(0, stamp);
+        feature.onStatAppStat(3);
         Assert.assertEquals(3, feature.mStampList.size());
         Assert.assertEquals(3, Integer.valueOf(feature.mStampList.get(0).key).intValue());
 
@@ -36,6 +36,7 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -262,6 +263,53 @@ public class BatteryRecorderTest {
         Assert.assertEquals(0, records.size());
     }
 
+    @Test
+    public void testFileRecorder() {
+        File rootDir = new File(mContext.getFilesDir(), "battery-records-test");
+        BatteryRecorder.FileRecorder recorder = new BatteryRecorder.FileRecorder(rootDir);
+        String date = BatteryRecorder.MMKVRecorder.getDateString(0);
+        String expiredDate = BatteryRecorder.MMKVRecorder.getDateString(-1);
+        recorder.clean(date, "");
+        recorder.clean(expiredDate, "");
+        Assert.assertTrue(recorder.read(date, "main").isEmpty());
+
+        recorder.updateProc("main");
+        recorder.updateProc("sub");
+        Assert.assertTrue(recorder.getProcSet().containsAll(Arrays.asList("main", "sub")));
+
+        for (int i = 0; i < 10; i++) {
+            BatteryRecord.EventStatRecord record = new BatteryRecord.EventStatRecord();
+            record.millis = 1000L * i;
+            record.id = i;
+            record.event = "EVENT";
+            recorder.write(date, record, "main");
+        }
+        recorder.write(expiredDate, new BatteryRecord.EventStatRecord(), "main");
+        Assert.assertEquals(10, recorder.count(date, "main"));
+
+        List<BatteryRecord> records = recorder.read(date, "main");
+        Assert.assertEquals(10, records.size());
+        for (int i = 0; i < records.size(); i++) {
+            Assert.assertEquals(i, ((BatteryRecord.EventStatRecord) records.get(i)).id);
+        }
+
+        records = recorder.readRange(date, "main", 2500L, 6000L);
+        Assert.assertEquals(4, records.size());
+        Assert.assertEquals(3, ((BatteryRecord.EventStatRecord) records.get(0)).id);
+        Assert.assertEquals(6, ((BatteryRecord.EventStatRecord) records.get(3)).id);
+
+        records = recorder.readPage(date, "main", 8, 5);
+        Assert.assertEquals(2, records.size());
+        Assert.assertEquals(8, ((BatteryRecord.EventStatRecord) records.get(0)).id);
+
+        recorder.clean(1);
+        Assert.assertTrue(recorder.read(expiredDate, "main").isEmpty());
+        Assert.assertEquals(10, recorder.read(date, "main").size());
+
+        recorder.clean(date, "main");
+        Assert.assertTrue(recorder.read(date, "main").isEmpty());
+    }
+
     @Test
     public void testUniversalRecords() throws InterruptedException {
         MMKV mmkv = MMKV.defaultMMKV();
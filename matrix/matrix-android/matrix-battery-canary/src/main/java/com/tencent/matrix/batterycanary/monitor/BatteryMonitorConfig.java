@@ -34,6 +34,9 @@ public class BatteryMonitorConfig {
     public static final long DEF_JIFFIES_DELAY = 30 * 1000L; // 30s
     public static final long DEF_FOREGROUND_SCHEDULE_TIME = 20 * 60 * 1000L; // 10min
     public static final long DEF_BACKGROUND_SCHEDULE_TIME = 10 * 60 * 1000L; // 10min
+    public static final long DEF_FOREGROUND_JIFFIES_SERIES_PERIOD = 10 * 1000L; // 10s
+    public static final long DEF_BACKGROUND_JIFFIES_SERIES_PERIOD = 60 * 1000L; // 1min
+    public static final int DEF_JIFFIES_SERIES_CAPACITY = 360;
 
     public static final int AMS_HOOK_FLAG_BT = 0b00000001;
 
@@ -64,6 +67,11 @@ public class BatteryMonitorConfig {
     public int amsHookEnableFlag = 0;
     public boolean isAggressiveMode = BuildConfig.DEBUG;
     public boolean isUseThreadClock = BuildConfig.DEBUG;
+    public boolean isUseThreadStatSampler = false;
+    public boolean isJiffiesTimeSeriesEnabled = false;
+    public long fgJiffiesSeriesPeriod = DEF_FOREGROUND_JIFFIES_SERIES_PERIOD;
+    public long bgJiffiesSeriesPeriod = DEF_BACKGROUND_JIFFIES_SERIES_PERIOD;
+    public int jiffiesSeriesCapacity = DEF_JIFFIES_SERIES_CAPACITY;
     public List<String> tagWhiteList = Collections.emptyList();
     public List<String> tagBlackList = Collections.emptyList();
     public List<String> looperWatchList = Collections.emptyList();
@@ -176,6 +184,39 @@ public class BatteryMonitorConfig {
             return this;
         }
 
+        /**
+         * Keep the stat files of all threads open to sample jiffies, see {@link com.tencent.matrix.batterycanary.utils.ThreadStatSampler}.
+         */
+        public Builder useThreadStatSampler(boolean isEnable) {
+            config.isUseThreadStatSampler = isEnable;
+            return this;
+        }
+
+        /**
+         * Sample jiffies continuously into a ring buffer, see {@link com.tencent.matrix.batterycanary.utils.JiffiesTimeSeries}.
+         */
+        public Builder enableJiffiesTimeSeries(boolean isEnable) {
+            config.isJiffiesTimeSeriesEnabled = isEnable;
+            return this;
+        }
+
+        public Builder jiffiesTimeSeriesPeriod(long fgPeriod, long bgPeriod) {
+            if (fgPeriod > 0) {
+                config.fgJiffiesSeriesPeriod = fgPeriod;
+            }
+            if (bgPeriod > 0) {
+                config.bgJiffiesSeriesPeriod = bgPeriod;
+            }
+            return this;
+        }
+
+        public Builder jiffiesTimeSeriesCapacity(int capacity) {
+            if (capacity > 1) {
+                config.jiffiesSeriesCapacity = capacity;
+            }
+            return this;
+        }
+
         public Builder foregroundLoopCheckTime(long time) {
             if (time > 0) {
                 config.foregroundLoopCheckTime = time;
@@ -6,7 +6,6 @@ import android.os.Looper;
 import android.os.Process;
 import android.os.SystemClock;
 import android.util.Pair;
-import android.util.SparseArray;
 
 import androidx.annotation.AnyThread;
 import androidx.annotation.NonNull;
@@ -31,6 +30,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import static com.tencent.matrix.batterycanary.monitor.BatteryMonitorConfig.DEF_STAMP_OVERHEAT;
 
@@ -42,14 +42,17 @@ public abstract class AbsTaskMonitorFeature extends AbsMonitorFeature {
 
     public static final String IDLE_TASK = "thread_pool@idle";
 
+    /**
+     * Written only when a traced task finishes, which is rare compared to reading it.
+     */
     @NonNull
-    final protected List<Delta<TaskJiffiesSnapshot>> mDeltaList = new ArrayList<>();
+    final protected List<Delta<TaskJiffiesSnapshot>> mDeltaList = new CopyOnWriteArrayList<>();
     @NonNull
     final protected Map<Integer, TaskJiffiesSnapshot> mTaskJiffiesTrace = new ConcurrentHashMap<>();
     @NonNull
     final protected Map<String, Pair<? extends List<Integer>, Long>> mTaskConcurrentTrace = new ConcurrentHashMap<>();
     @NonNull
-    final protected SparseArray<List<TimeBreaker.Stamp>> mTaskStampList = new SparseArray<>();
+    final protected ConcurrentHashMap<Integer, TaskStamps> mTaskStamps = new ConcurrentHashMap<>();
     @NonNull
     protected TimeBreaker.Stamp mFirstTaskStamp;
 
@@ -96,12 +99,8 @@ public abstract class AbsTaskMonitorFeature extends AbsMonitorFeature {
         synchronized (mTaskConcurrentTrace) {
             mTaskConcurrentTrace.clear();
         }
-        synchronized (mDeltaList) {
-            mDeltaList.clear();
-        }
-        synchronized (mTaskStampList) {
-            mTaskStampList.clear();
-        }
+        mDeltaList.clear();
+        mTaskStamps.clear();
     }
 
     public List<Delta<TaskJiffiesSnapshot>> currentJiffies(long windowMsFromNow) {
@@ -115,16 +114,14 @@ public abstract class AbsTaskMonitorFeature extends AbsMonitorFeature {
         // }
 
         ArrayList<Delta<TaskJiffiesSnapshot>> list;
-        synchronized (mDeltaList) {
-            if (windowMsFromNow <= 0) {
-                list = new ArrayList<>(mDeltaList);
-            } else {
-                list = new ArrayList<>();
-                long bgnMillis = SystemClock.uptimeMillis() - windowMsFromNow;
-                for (Delta<TaskJiffiesSnapshot> item : mDeltaList) {
-                    if (item.bgn.time >= bgnMillis) {
-                        list.add(item);
-                    }
+        if (windowMsFromNow <= 0) {
+            list = new ArrayList<>(mDeltaList);
+        } else {
+            list = new ArrayList<>();
+            long bgnMillis = SystemClock.uptimeMillis() - windowMsFromNow;
+            for (Delta<TaskJiffiesSnapshot> item : mDeltaList) {
+                if (item.bgn.time >= bgnMillis) {
+                    list.add(item);
                 }
             }
         }
@@ -161,44 +158,42 @@ public abstract class AbsTaskMonitorFeature extends AbsMonitorFeature {
     }
 
     public void clearFinishedJiffies() {
-        synchronized (mDeltaList) {
-            // Iterator<Delta<TaskJiffiesSnapshot>> iterator = mDeltaList.iterator();
-            // while (iterator.hasNext()) {
-            //     Delta<TaskJiffiesSnapshot> item = iterator.next();
-            //     if (item.dlt.isFinished) {
-            //         iterator.remove();
-            //     }
-            // }
-            mDeltaList.clear();
-        }
+        // Iterator<Delta<TaskJiffiesSnapshot>> iterator = mDeltaList.iterator();
+        // while (iterator.hasNext()) {
+        //     Delta<TaskJiffiesSnapshot> item = iterator.next();
+        //     if (item.dlt.isFinished) {
+        //         iterator.remove();
+        //     }
+        // }
+        mDeltaList.clear();
     }
 
+    /**
+     * @return stamps of the thread, the latest first.
+     */
     @Nullable
     public ArrayList<TimeBreaker.Stamp> getTaskStamps(int tid) {
-        synchronized (mTaskStampList) {
-            List<TimeBreaker.Stamp> stamps = mTaskStampList.get(tid);
-            if (stamps != null) {
-                return new ArrayList<>(stamps);
-            }
-            return null;
+        TaskStamps stamps = mTaskStamps.get(tid);
+        if (stamps != null) {
+            return stamps.toList(mFirstTaskStamp);
         }
+        return null;
     }
 
     @SuppressLint("RestrictedApi")
     public TimeBreaker.TimePortions getTaskPortions(int tid, long jiffiesDelta, final long jiffiesEnd) {
-        synchronized (mTaskStampList) {
-            if (jiffiesDelta < 0L || mTaskStampList.get(tid) == null) {
-                return TimeBreaker.TimePortions.ofInvalid();
-            }
-
-            List<TimeBreaker.Stamp> stampList = mTaskStampList.get(tid);
-            return TimeBreaker.configurePortions(stampList, jiffiesDelta, JIFFIES_PORTIONING_DELTA, new TimeBreaker.Stamp.Stamper() {
-                @Override
-                public TimeBreaker.Stamp stamp(String name) {
-                    return new TimeBreaker.Stamp(name, jiffiesEnd);
-                }
-            });
+        TaskStamps stamps = mTaskStamps.get(tid);
+        if (jiffiesDelta < 0L || stamps == null) {
+            return TimeBreaker.TimePortions.ofInvalid();
         }
+
+        List<TimeBreaker.Stamp> stampList = stamps.toList(mFirstTaskStamp);
+        return TimeBreaker.configurePortions(stampList, jiffiesDelta, JIFFIES_PORTIONING_DELTA, new TimeBreaker.Stamp.Stamper() {
+            @Override
+            public TimeBreaker.Stamp stamp(String name) {
+                return new TimeBreaker.Stamp(name, jiffiesEnd);
+            }
+        });
     }
 
     @WorkerThread
@@ -299,18 +294,20 @@ public abstract class AbsTaskMonitorFeature extends AbsMonitorFeature {
         });
     }
 
+    /**
+     * Must be called on the thread of {@code tid}, whose stamps are only written by itself.
+     */
     protected void onStatTask(int tid, @NonNull String taskName, long currJiffies) {
-        synchronized (mTaskStampList) {
-            List<TimeBreaker.Stamp> stampList = mTaskStampList.get(tid);
-            if (stampList == null) {
-                stampList = new ArrayList<>();
-                stampList.add(0, mFirstTaskStamp);
-                mTaskStampList.put(tid, stampList);
+        TaskStamps stamps = mTaskStamps.get(tid);
+        if (stamps == null) {
+            stamps = new TaskStamps(mOverHeatCount);
+            TaskStamps prev = mTaskStamps.putIfAbsent(tid, stamps);
+            if (prev != null) {
+                stamps = prev;
             }
-            stampList.add(0, new TimeBreaker.Stamp(taskName, currJiffies));
         }
-
-        checkOverHeat();
+        // Bounded, no cooling down needed
+        stamps.add(new TimeBreaker.Stamp(taskName, currJiffies));
     }
 
     protected void updateDeltas(TaskJiffiesSnapshot bgn, TaskJiffiesSnapshot end) {
@@ -384,19 +381,20 @@ public abstract class AbsTaskMonitorFeature extends AbsMonitorFeature {
     }
 
     protected void updateDeltas(Delta<TaskJiffiesSnapshot> delta) {
-        synchronized (mDeltaList) {
-            // remove pre records of current task
-            Iterator<Delta<TaskJiffiesSnapshot>> iterator = mDeltaList.iterator();
-            while (iterator.hasNext()) {
-                Delta<TaskJiffiesSnapshot> item = iterator.next();
-                if (item.dlt.name.equals(delta.dlt.name) && item.dlt.tid == delta.dlt.tid) {
-                    if (!item.dlt.isFinished) {
-                        iterator.remove();
-                    }
+        // remove pre records of current task
+        List<Delta<TaskJiffiesSnapshot>> unfinished = null;
+        for (Delta<TaskJiffiesSnapshot> item : mDeltaList) {
+            if (!item.dlt.isFinished && item.dlt.tid == delta.dlt.tid && item.dlt.name.equals(delta.dlt.name)) {
+                if (unfinished == null) {
+                    unfinished = new ArrayList<>(1);
                 }
+                unfinished.add(item);
             }
-            mDeltaList.add(delta);
         }
+        if (unfinished != null) {
+            mDeltaList.removeAll(unfinished);
+        }
+        mDeltaList.add(delta);
     }
 
     protected void checkOverHeat() {
@@ -405,16 +403,6 @@ public abstract class AbsTaskMonitorFeature extends AbsMonitorFeature {
     }
 
     protected void onCoolingDown() {
-        // task stamp list overheat
-        synchronized (mTaskStampList) {
-            for (int i = 0; i < mTaskStampList.size(); i++) {
-                List<TimeBreaker.Stamp> stampList = mTaskStampList.valueAt(i);
-                if (stampList != null && stampList.size() > mOverHeatCount) {
-                    TimeBreaker.gcList(stampList);
-                }
-            }
-        }
-
         // task jiffies list overheat
         if (mDeltaList.size() > mOverHeatCount) {
             MatrixLog.w(TAG, "cooling task jiffies list, before = " + mDeltaList.size());
@@ -471,6 +459,45 @@ public abstract class AbsTaskMonitorFeature extends AbsMonitorFeature {
         return snapshot;
     }
 
+    /**
+     * Ring of the latest stamps of one thread. Only the thread itself adds stamps, so adding is a plain
+     * write published by the volatile count; readers drop the slots overwritten while they were reading.
+     */
+    protected static final class TaskStamps {
+        private final TimeBreaker.Stamp[] mStamps;
+        private volatile long mCount = 0;
+
+        TaskStamps(int capacity) {
+            mStamps = new TimeBreaker.Stamp[Math.max(1, capacity)];
+        }
+
+        void add(TimeBreaker.Stamp stamp) {
+            long count = mCount;
+            mStamps[(int) (count % mStamps.length)] = stamp;
+            mCount = count + 1;
+        }
+
+        /**
+         * @param firstStamp the stamp before all, appended as the earliest one.
+         */
+        ArrayList<TimeBreaker.Stamp> toList(TimeBreaker.Stamp firstStamp) {
+            long count = mCount;
+            long from = Math.max(0, count - mStamps.length);
+            TimeBreaker.Stamp[] copy = new TimeBreaker.Stamp[(int) (count - from)];
+            for (long i = count - 1; i >= from; i--) {
+                copy[(int) (count - 1 - i)] = mStamps[(int) (i % mStamps.length)];
+            }
+            // Slots reused by the stamps added meanwhile, including the one being added, are dropped
+            long valid = Math.min(copy.length, mStamps.length - 1 - (mCount - count));
+            ArrayList<TimeBreaker.Stamp> list = new ArrayList<>((int) Math.max(0, valid) + 1);
+            for (int i = 0; i < valid; i++) {
+                list.add(copy[i]);
+            }
+            list.add(firstStamp);
+            return list;
+        }
+    }
+
     public static class TaskJiffiesSnapshot extends Snapshot<TaskJiffiesSnapshot> {
         public int tid;
         public String name;
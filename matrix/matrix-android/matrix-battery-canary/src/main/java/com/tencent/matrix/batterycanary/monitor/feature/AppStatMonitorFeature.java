@@ -7,6 +7,7 @@ import android.os.Looper;
 import android.text.TextUtils;
 
 import com.tencent.matrix.batterycanary.BatteryEventDelegate;
+import com.tencent.matrix.batterycanary.monitor.BatteryMonitorConfig;
 import com.tencent.matrix.batterycanary.monitor.BatteryMonitorCore;
 import com.tencent.matrix.batterycanary.stats.BatteryRecord;
 import com.tencent.matrix.batterycanary.stats.BatteryStatsFeature;
@@ -55,6 +56,11 @@ public final class AppStatMonitorFeature extends AbsMonitorFeature {
     List<TimeBreaker.Stamp> mStampList = Collections.emptyList();
     @NonNull
     List<TimeBreaker.Stamp> mSceneStampList = Collections.emptyList();
+    // Portions of the stamps above, which are queried for every traced task, sized by overHeatCount on turning on
+    @NonNull
+    volatile TimeBreaker.PortionAccumulator mStampPortions = new TimeBreaker.PortionAccumulator(BatteryMonitorConfig.DEF_STAMP_OVERHEAT);
+    @NonNull
+    volatile TimeBreaker.PortionAccumulator mSceneStampPortions = new TimeBreaker.PortionAccumulator(BatteryMonitorConfig.DEF_STAMP_OVERHEAT);
     @NonNull
     Runnable coolingTask = new Runnable() {
         @Override
@@ -144,11 +150,16 @@ public final class AppStatMonitorFeature extends AbsMonitorFeature {
         super.onTurnOn();
         TimeBreaker.Stamp firstStamp = new TimeBreaker.Stamp(String.valueOf(APP_STAT_FOREGROUND));
         TimeBreaker.Stamp firstSceneStamp = new TimeBreaker.Stamp(mCore.getScene());
+        int capacity = Math.max(2, mCore.getConfig().overHeatCount);
         synchronized (TAG) {
             mStampList = new ArrayList<>();
             mStampList.add(0, firstStamp);
             mSceneStampList = new ArrayList<>();
             mSceneStampList.add(0, firstSceneStamp);
+            mStampPortions = new TimeBreaker.PortionAccumulator(capacity);
+            mStampPortions.append(firstStamp);
+            mSceneStampPortions = new TimeBreaker.PortionAccumulator(capacity);
+            mSceneStampPortions.append(firstSceneStamp);
         }
 
         ForegroundServiceLifecycleOwner.INSTANCE.observeForever(mFgSrvObserver);
@@ -163,6 +174,8 @@ public final class AppStatMonitorFeature extends AbsMonitorFeature {
         synchronized (TAG) {
             mStampList.clear();
             mSceneStampList.clear();
+            mStampPortions.clear();
+            mSceneStampPortions.clear();
         }
     }
 
@@ -232,7 +245,9 @@ public final class AppStatMonitorFeature extends AbsMonitorFeature {
         synchronized (TAG) {
             if (mStampList != Collections.EMPTY_LIST) {
                 MatrixLog.i(BatteryEventDelegate.TAG, "onStat >> " + BatteryCanaryUtil.convertAppStat(appStat));
-                mStampList.add(0, new TimeBreaker.Stamp(String.valueOf(appStat)));
+                TimeBreaker.Stamp stamp = new TimeBreaker.Stamp(String.valueOf(appStat));
+                mStampList.add(0, stamp);
+                mStampPortions.append(stamp);
                 checkOverHeat();
             }
         }
@@ -249,7 +264,9 @@ public final class AppStatMonitorFeature extends AbsMonitorFeature {
 
         synchronized (TAG) {
             if (mSceneStampList != Collections.EMPTY_LIST) {
-                mSceneStampList.add(0, new TimeBreaker.Stamp(scene));
+                TimeBreaker.Stamp stamp = new TimeBreaker.Stamp(scene);
+                mSceneStampList.add(0, stamp);
+                mSceneStampPortions.append(stamp);
                 checkOverHeat();
             }
         }
@@ -367,13 +384,7 @@ public final class AppStatMonitorFeature extends AbsMonitorFeature {
 
     public AppStatSnapshot currentAppStatSnapshot(long windowMillis) {
         try {
-            TimeBreaker.TimePortions timePortions = TimeBreaker.configurePortions(mStampList, windowMillis, 10L, new TimeBreaker.Stamp.Stamper() {
-                @Override
-                public TimeBreaker.Stamp stamp(String key) {
-                    int appStat = BatteryCanaryUtil.getAppStat(mCore.getContext(), mCore.isForeground());
-                    return new TimeBreaker.Stamp(String.valueOf(appStat));
-                }
-            });
+            TimeBreaker.TimePortions timePortions = mStampPortions.query(windowMillis);
             AppStatSnapshot snapshot = new AppStatSnapshot();
             snapshot.setValid(timePortions.isValid());
             snapshot.uptime = Snapshot.Entry.DigitEntry.of(timePortions.totalUptime);
@@ -397,12 +408,7 @@ public final class AppStatMonitorFeature extends AbsMonitorFeature {
 
     public TimeBreaker.TimePortions currentSceneSnapshot(long windowMillis) {
         try {
-            return TimeBreaker.configurePortions(mSceneStampList, windowMillis, 10L, new TimeBreaker.Stamp.Stamper() {
-                @Override
-                public TimeBreaker.Stamp stamp(String key) {
-                    return new TimeBreaker.Stamp(mCore.getScene());
-                }
-            });
+            return mSceneStampPortions.query(windowMillis);
         } catch (Throwable e) {
             MatrixLog.w(TAG, "currentSceneSnapshot fail: " + e.getMessage());
             return TimeBreaker.TimePortions.ofInvalid();
@@ -20,6 +20,7 @@ import com.tencent.matrix.batterycanary.stats.HealthStatsHelper;
 import com.tencent.matrix.batterycanary.utils.BatteryCanaryUtil;
 import com.tencent.matrix.batterycanary.utils.Consumer;
 import com.tencent.matrix.batterycanary.utils.Function;
+import com.tencent.matrix.batterycanary.utils.JiffiesTimeSeries;
 import com.tencent.matrix.batterycanary.utils.PowerProfile;
 import com.tencent.matrix.batterycanary.utils.RadioStatUtil;
 import com.tencent.matrix.util.MatrixLog;
@@ -29,9 +30,21 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import androidx.annotation.CallSuper;
 import androidx.annotation.NonNull;
@@ -56,6 +69,8 @@ public class CompositeMonitors {
     protected final List<Class<? extends Snapshot<?>>> mMetrics = new ArrayList<>();
     protected final Map<Class<? extends Snapshot<?>>, Snapshot<?>> mBgnSnapshots = new HashMap<>();
     protected final Map<Class<? extends Snapshot<?>>, Delta<?>> mDeltas = new HashMap<>();
+    // Uptime spans of capturing the bgn & end snapshots: {bgnCaptureBgn, bgnCaptureEnd, endCaptureBgn, endCaptureEnd}
+    protected final Map<Class<? extends Snapshot<?>>, long[]> mCaptureSpans = new HashMap<>();
 
     // Sampling
     protected final Map<Class<? extends Snapshot<?>>, Long> mSampleRegs = new HashMap<>();
@@ -83,6 +98,13 @@ public class CompositeMonitors {
 
     protected long mBgnMillis = SystemClock.uptimeMillis();
     protected String mScope;
+    // Capture snapshots on sSnapshotExecutor if > 0, the timeout of each metric from when its capture starts
+    protected long mSnapshotTimeout = 0;
+    // Metrics still being captured on sSnapshotExecutor, possibly after timeout
+    private final Set<Class<? extends Snapshot<?>>> mCapturingMetrics = new HashSet<>();
+
+    @Nullable
+    private static ThreadPoolExecutor sSnapshotExecutor;
 
     public CompositeMonitors(@Nullable BatteryMonitorCore core) {
         mMonitor = core;
@@ -103,6 +125,7 @@ public class CompositeMonitors {
         MatrixLog.i(TAG, hashCode() + " #clear: " + mScope);
         mBgnSnapshots.clear();
         mDeltas.clear();
+        mCaptureSpans.clear();
         mSamplers.clear();
         mSampleResults.clear();
         mTaskDeltas.clear();
@@ -126,6 +149,10 @@ public class CompositeMonitors {
         that.mMetrics.addAll(mMetrics);
         that.mBgnSnapshots.putAll(mBgnSnapshots);
         that.mDeltas.putAll(mDeltas);
+        for (Map.Entry<Class<? extends Snapshot<?>>, long[]> item : mCaptureSpans.entrySet()) {
+            that.mCaptureSpans.put(item.getKey(), item.getValue().clone());
+        }
+        that.mSnapshotTimeout = this.mSnapshotTimeout;
 
         // Sampler can not be cloned.
         // that.mSampleRegs.putAll(mSampleRegs);
@@ -326,6 +353,29 @@ public class CompositeMonitors {
         mDeltas.put(snapshotClass, delta);
     }
 
+    /**
+     * @return millis between the middles of capturing the bgn & end snapshot of the metric, which excludes
+     * the time spent capturing the other metrics. -1 if the metric has not been captured twice.
+     */
+    public long getCaptureWindowMillis(Class<? extends Snapshot<?>> snapshotClass) {
+        long[] span = mCaptureSpans.get(snapshotClass);
+        if (span == null || span[2] <= 0) {
+            return -1;
+        }
+        return (span[2] + span[3]) / 2 - (span[0] + span[1]) / 2;
+    }
+
+    /**
+     * @return millis spent capturing the bgn & end snapshot of the metric, -1 if it has not been captured twice.
+     */
+    public long getCaptureCostMillis(Class<? extends Snapshot<?>> snapshotClass) {
+        long[] span = mCaptureSpans.get(snapshotClass);
+        if (span == null || span[2] <= 0) {
+            return -1;
+        }
+        return (span[1] - span[0]) + (span[3] - span[2]);
+    }
+
     public Snapshot.Sampler.Result getSamplingResult(Class<? extends Snapshot<?>> snapshotClass) {
         return mSampleResults.get(snapshotClass);
     }
@@ -337,6 +387,41 @@ public class CompositeMonitors {
         }
     }
 
+    /**
+     * @return jiffies of this process sampled in the background between {@link #start()} and {@link #finish()},
+     * or up to now if not finished yet. Null if the time series is not enabled or has not enough samples.
+     */
+    @Nullable
+    public JiffiesTimeSeries.Window getJiffiesWindow() {
+        JiffiesTimeSeries series = getJiffiesTimeSeries();
+        if (series == null) {
+            return null;
+        }
+        return series.query(mBgnMillis, getEndMillis());
+    }
+
+    /**
+     * @param avgJiffiesThreshold jiffies per minute, see {@link #computeAvgJiffies(long, long)}.
+     */
+    @NonNull
+    public List<JiffiesTimeSeries.Burst> getJiffiesBursts(long avgJiffiesThreshold) {
+        JiffiesTimeSeries series = getJiffiesTimeSeries();
+        if (series == null) {
+            return Collections.emptyList();
+        }
+        return series.findBursts(mBgnMillis, getEndMillis(), avgJiffiesThreshold);
+    }
+
+    @Nullable
+    private JiffiesTimeSeries getJiffiesTimeSeries() {
+        JiffiesMonitorFeature feature = getFeature(JiffiesMonitorFeature.class);
+        return feature == null ? null : feature.getJiffiesTimeSeries();
+    }
+
+    private long getEndMillis() {
+        return mAppStats != null ? mBgnMillis + mAppStats.duringMillis : SystemClock.uptimeMillis();
+    }
+
     @CallSuper
     public CompositeMonitors metricAll() {
         metric(JiffiesSnapshot.class);
@@ -381,6 +466,17 @@ public class CompositeMonitors {
         return this;
     }
 
+    /**
+     * Capture the snapshots of all metrics concurrently on a small shared pool. A metric whose snapshot
+     * is not ready in {@code timeoutMillis} since its capture starts is skipped, and so is a metric whose
+     * previous capture is still running. Make sure {@link #statCurrSnapshot(Class)} of subclasses is
+     * thread-safe before enabling it.
+     */
+    public CompositeMonitors parallel(long timeoutMillis) {
+        mSnapshotTimeout = timeoutMillis;
+        return this;
+    }
+
     public void start() {
         MatrixLog.i(TAG, hashCode() + " #start: " + mScope);
         mAppStats = null;
@@ -401,8 +497,10 @@ public class CompositeMonitors {
     }
 
     protected void configureBgnSnapshots() {
+        mCaptureSpans.clear();
+        Map<Class<? extends Snapshot<?>>, Snapshot<?>> snapshots = captureSnapshots(mMetrics, 0);
         for (Class<? extends Snapshot<?>> item : mMetrics) {
-            Snapshot<?> currSnapshot = statCurrSnapshot(item);
+            Snapshot<?> currSnapshot = snapshots.get(item);
             if (currSnapshot != null) {
                 mBgnSnapshots.put(item, currSnapshot);
 
@@ -418,11 +516,12 @@ public class CompositeMonitors {
 
     @SuppressWarnings({"unchecked", "rawtypes"})
     protected void configureEndDeltas() {
+        Map<Class<? extends Snapshot<?>>, Snapshot<?>> snapshots = captureSnapshots(new ArrayList<>(mBgnSnapshots.keySet()), 2);
         for (Map.Entry<Class<? extends Snapshot<?>>, Snapshot<?>> item : mBgnSnapshots.entrySet()) {
             Snapshot lastSnapshot = item.getValue();
             if (lastSnapshot != null) {
                 Class<? extends Snapshot<?>> snapshotClass = item.getKey();
-                Snapshot currSnapshot = statCurrSnapshot(snapshotClass);
+                Snapshot currSnapshot = snapshots.get(snapshotClass);
                 if (currSnapshot != null && currSnapshot.getClass() == lastSnapshot.getClass()) {
                     Delta delta;
                     if (lastSnapshot instanceof HealthStatsSnapshot && ((HealthStatsSnapshot) lastSnapshot).accCollector != null) {
@@ -436,6 +535,144 @@ public class CompositeMonitors {
         }
     }
 
+    /**
+     * @param spanIdx 0 for bgn snapshots, 2 for end snapshots, see {@link #mCaptureSpans}.
+     */
+    private Map<Class<? extends Snapshot<?>>, Snapshot<?>> captureSnapshots(List<Class<? extends Snapshot<?>>> metrics, int spanIdx) {
+        Map<Class<? extends Snapshot<?>>, Snapshot<?>> snapshots = new HashMap<>();
+        if (mSnapshotTimeout <= 0 || metrics.size() <= 1) {
+            for (Class<? extends Snapshot<?>> item : metrics) {
+                long bgnMillis = SystemClock.uptimeMillis();
+                Snapshot<?> snapshot = statCurrSnapshot(item);
+                putCaptureSpan(item, spanIdx, bgnMillis, SystemClock.uptimeMillis());
+                if (snapshot != null) {
+                    snapshots.put(item, snapshot);
+                }
+            }
+            return snapshots;
+        }
+
+        final long[][] spans = new long[metrics.size()][2];
+        // Uptime when each capture starts running, 0 while queued, -1 if given up before running
+        final AtomicLongArray startMillis = new AtomicLongArray(metrics.size());
+        List<Future<Snapshot<?>>> futures = new ArrayList<>(metrics.size());
+        ThreadPoolExecutor executor = getSnapshotExecutor();
+        for (int i = 0; i < metrics.size(); i++) {
+            final Class<? extends Snapshot<?>> item = metrics.get(i);
+            synchronized (mCapturingMetrics) {
+                if (!mCapturingMetrics.add(item)) {
+                    MatrixLog.w(TAG, "capture snapshot skipped, previous one still running: " + item.getSimpleName());
+                    futures.add(null);
+                    continue;
+                }
+            }
+            final long[] span = spans[i];
+            final int idx = i;
+            futures.add(executor.submit(new Callable<Snapshot<?>>() {
+                @Override
+                public Snapshot<?> call() {
+                    long now = SystemClock.uptimeMillis();
+                    if (!startMillis.compareAndSet(idx, 0, now)) {
+                        // Given up while queued
+                        return null;
+                    }
+                    try {
+                        span[0] = now;
+                        Snapshot<?> snapshot = statCurrSnapshot(item);
+                        span[1] = SystemClock.uptimeMillis();
+                        return snapshot;
+                    } finally {
+                        synchronized (mCapturingMetrics) {
+                            mCapturingMetrics.remove(item);
+                        }
+                    }
+                }
+            }));
+        }
+        // A capture still queued gives up once all the captures before it could have run out their timeouts
+        long queueDeadline = SystemClock.uptimeMillis() + mSnapshotTimeout * metrics.size();
+        for (int i = 0; i < metrics.size(); i++) {
+            Class<? extends Snapshot<?>> item = metrics.get(i);
+            Future<Snapshot<?>> future = futures.get(i);
+            if (future == null) {
+                continue;
+            }
+            try {
+                Snapshot<?> snapshot;
+                while (true) {
+                    long started = startMillis.get(i);
+                    // Poll a queued capture for when it starts, then wait for its own timeout
+                    long deadline = started > 0 ? started + mSnapshotTimeout
+                            : Math.min(queueDeadline, SystemClock.uptimeMillis() + Math.max(1, mSnapshotTimeout / 10));
+                    try {
+                        snapshot = future.get(Math.max(0, deadline - SystemClock.uptimeMillis()), TimeUnit.MILLISECONDS);
+                        break;
+                    } catch (TimeoutException e) {
+                        if (started > 0 || (SystemClock.uptimeMillis() >= queueDeadline && giveUpQueued(item, startMillis, i))) {
+                            throw e;
+                        }
+                    }
+                }
+                // Visible after Future#get
+                putCaptureSpan(item, spanIdx, spans[i][0], spans[i][1]);
+                if (snapshot != null) {
+                    snapshots.put(item, snapshot);
+                }
+            } catch (TimeoutException e) {
+                MatrixLog.w(TAG, "capture snapshot timeout: " + item.getSimpleName());
+                future.cancel(true);
+            } catch (ExecutionException e) {
+                MatrixLog.printErrStackTrace(TAG, e, "capture snapshot fail: " + item.getSimpleName());
+            } catch (InterruptedException e) {
+                MatrixLog.w(TAG, "capture snapshot interrupted: " + item.getSimpleName());
+                giveUpQueued(item, startMillis, i);
+                future.cancel(true);
+                Thread.currentThread().interrupt();
+            }
+        }
+        return snapshots;
+    }
+
+    /**
+     * @return false if the capture has started running meanwhile, which then removes itself from
+     * {@link #mCapturingMetrics} when done.
+     */
+    private boolean giveUpQueued(Class<? extends Snapshot<?>> snapshotClass, AtomicLongArray startMillis, int idx) {
+        if (startMillis.compareAndSet(idx, 0, -1)) {
+            synchronized (mCapturingMetrics) {
+                mCapturingMetrics.remove(snapshotClass);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private void putCaptureSpan(Class<? extends Snapshot<?>> snapshotClass, int spanIdx, long bgnMillis, long endMillis) {
+        long[] span = mCaptureSpans.get(snapshotClass);
+        if (span == null) {
+            span = new long[4];
+            mCaptureSpans.put(snapshotClass, span);
+        }
+        span[spanIdx] = bgnMillis;
+        span[spanIdx + 1] = endMillis;
+    }
+
+    private static synchronized ThreadPoolExecutor getSnapshotExecutor() {
+        if (sSnapshotExecutor == null) {
+            final AtomicInteger count = new AtomicInteger();
+            sSnapshotExecutor = new ThreadPoolExecutor(3, 3, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                @Override
+                public Thread newThread(@NonNull Runnable runnable) {
+                    Thread thread = new Thread(runnable, "matrix_snapshot_" + count.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            sSnapshotExecutor.allowCoreThreadTimeOut(true);
+        }
+        return sSnapshotExecutor;
+    }
+
     protected void collectStacks() {
         if (mMonitor == null) {
             return;
@@ -8,6 +8,7 @@ import android.os.Parcelable;
 import android.os.Process;
 import android.os.SystemClock;
 import android.text.TextUtils;
+import android.util.SparseIntArray;
 
 import com.tencent.matrix.Matrix;
 import com.tencent.matrix.batterycanary.monitor.BatteryMonitorConfig;
@@ -17,7 +18,9 @@ import com.tencent.matrix.batterycanary.monitor.feature.MonitorFeature.Snapshot.
 import com.tencent.matrix.batterycanary.shell.TopThreadFeature;
 import com.tencent.matrix.batterycanary.shell.ui.TopThreadIndicator;
 import com.tencent.matrix.batterycanary.utils.BatteryCanaryUtil;
+import com.tencent.matrix.batterycanary.utils.JiffiesTimeSeries;
 import com.tencent.matrix.batterycanary.utils.ProcStatUtil;
+import com.tencent.matrix.batterycanary.utils.ThreadStatSampler;
 import com.tencent.matrix.util.MatrixLog;
 import com.tencent.matrix.util.MatrixUtil;
 
@@ -49,6 +52,10 @@ public final class JiffiesMonitorFeature extends AbsMonitorFeature {
 
     private final ThreadWatchDog mFgThreadWatchDog = new ThreadWatchDog();
     private final ThreadWatchDog mBgThreadWatchDog = new ThreadWatchDog();
+    @Nullable
+    private ThreadStatSampler mThreadStatSampler;
+    @Nullable
+    private JiffiesSeriesSampler mJiffiesSeriesSampler;
 
     @Override
     protected String getTag() {
@@ -59,6 +66,26 @@ public final class JiffiesMonitorFeature extends AbsMonitorFeature {
     public void onTurnOn() {
         super.onTurnOn();
         sSkipNewAdded = mCore.getConfig().isSkipNewAddedPidTid;
+        if (mCore.getConfig().isUseThreadStatSampler) {
+            mThreadStatSampler = new ThreadStatSampler(Process.myPid());
+        }
+        if (mCore.getConfig().isJiffiesTimeSeriesEnabled) {
+            mJiffiesSeriesSampler = new JiffiesSeriesSampler(mThreadStatSampler, mCore.getConfig().jiffiesSeriesCapacity);
+            mJiffiesSeriesSampler.start(mCore.isForeground());
+        }
+    }
+
+    @Override
+    public void onTurnOff() {
+        super.onTurnOff();
+        if (mJiffiesSeriesSampler != null) {
+            mJiffiesSeriesSampler.stop();
+            mJiffiesSeriesSampler = null;
+        }
+        if (mThreadStatSampler != null) {
+            mThreadStatSampler.close();
+            mThreadStatSampler = null;
+        }
     }
 
     @Override
@@ -76,6 +103,9 @@ public final class JiffiesMonitorFeature extends AbsMonitorFeature {
             mBgThreadWatchDog.start();
             mFgThreadWatchDog.stop();
         }
+        if (mJiffiesSeriesSampler != null) {
+            mJiffiesSeriesSampler.start(isForeground);
+        }
     }
 
     public void watchBackThreadSate(boolean isForeground, int pid, int tid) {
@@ -86,13 +116,28 @@ public final class JiffiesMonitorFeature extends AbsMonitorFeature {
         }
     }
 
+    /**
+     * @return jiffies of this process sampled in the background, or null if
+     * {@link BatteryMonitorConfig#isJiffiesTimeSeriesEnabled} is off.
+     */
+    @Nullable
+    public JiffiesTimeSeries getJiffiesTimeSeries() {
+        JiffiesSeriesSampler sampler = mJiffiesSeriesSampler;
+        return sampler == null ? null : sampler.mSeries;
+    }
+
     @WorkerThread
     public JiffiesSnapshot currentJiffiesSnapshot() {
-        return JiffiesSnapshot.currentJiffiesSnapshot(ProcessInfo.getProcessInfo(), mCore.getConfig().isStatPidProc);
+        ThreadStatSampler sampler = mThreadStatSampler;
+        ProcessInfo processInfo = sampler != null ? ProcessInfo.getProcessInfo(sampler) : ProcessInfo.getProcessInfo();
+        return JiffiesSnapshot.currentJiffiesSnapshot(processInfo, mCore.getConfig().isStatPidProc);
     }
 
     @WorkerThread
     public JiffiesSnapshot currentJiffiesSnapshot(int pid) {
+        if (pid == Process.myPid()) {
+            return currentJiffiesSnapshot();
+        }
         return JiffiesSnapshot.currentJiffiesSnapshot(ProcessInfo.getProcessInfo(pid), mCore.getConfig().isStatPidProc);
     }
 
@@ -135,6 +180,24 @@ public final class JiffiesMonitorFeature extends AbsMonitorFeature {
             return processInfo;
         }
 
+        /**
+         * Same as {@link #getProcessInfo()}, with the stat of all threads read by the sampler.
+         */
+        static ProcessInfo getProcessInfo(ThreadStatSampler sampler) {
+            ProcessInfo processInfo = new ProcessInfo();
+            processInfo.pid = sampler.getPid();
+            processInfo.name = Matrix.isInstalled() ? MatrixUtil.getProcessName(Matrix.with().getApplication()) : "default";
+            try {
+                processInfo.threadInfo = ThreadInfo.ofSample(sampler.sample());
+            } catch (IOException e) {
+                MatrixLog.printErrStackTrace(TAG, e, "sample threads fail");
+                processInfo.threadInfo = ThreadInfo.parseThreadsInfo(processInfo.pid);
+            }
+            processInfo.upTime = SystemClock.uptimeMillis();
+            processInfo.time = System.currentTimeMillis();
+            return processInfo;
+        }
+
         static ProcessInfo getProcessInfo(int pid) {
             if (pid == Process.myPid()) {
                 return getProcessInfo();
@@ -203,6 +266,19 @@ public final class JiffiesMonitorFeature extends AbsMonitorFeature {
                 return Collections.emptyList();
             }
 
+            private static List<ThreadInfo> ofSample(ThreadStatSampler.Sample sample) {
+                List<ThreadInfo> threadInfoList = new ArrayList<>(sample.size());
+                for (int i = 0; i < sample.size(); i++) {
+                    ThreadInfo threadInfo = of(sample.pid, sample.tids[i]);
+                    threadInfo.name = sample.names[i];
+                    threadInfo.stat = String.valueOf(sample.states[i]);
+                    threadInfo.jiffies = sample.getJiffies(i);
+                    threadInfo.isSampled = true;
+                    threadInfoList.add(threadInfo);
+                }
+                return threadInfoList;
+            }
+
             private static ThreadInfo of(int pid, int tid) {
                 ThreadInfo threadInfo = new ThreadInfo();
                 threadInfo.pid = pid;
@@ -215,8 +291,16 @@ public final class JiffiesMonitorFeature extends AbsMonitorFeature {
             public String name;
             public String stat;
             public long jiffies;
+            // stat already read by ThreadStatSampler
+            boolean isSampled;
 
             public void loadProcStat() throws IOException {
+                if (isSampled) {
+                    if (TextUtils.isEmpty(name)) {
+                        throw new IOException("parse fail: sampled thread " + tid);
+                    }
+                    return;
+                }
                 ProcStatUtil.ProcStat stat = ProcStatUtil.of(pid, tid);
                 if (stat != null && !TextUtils.isEmpty(stat.comm)) {
                     this.name = stat.comm;
@@ -237,6 +321,16 @@ public final class JiffiesMonitorFeature extends AbsMonitorFeature {
 
     @SuppressWarnings({"SpellCheckingInspection", "deprecation"})
     public static class JiffiesSnapshot extends Snapshot<JiffiesSnapshot> {
+        static final Comparator<ThreadJiffiesSnapshot> THREAD_JIFFIES_DESC = new Comparator<ThreadJiffiesSnapshot>() {
+            @Override
+            public int compare(ThreadJiffiesSnapshot o1, ThreadJiffiesSnapshot o2) {
+                long minus = o1.get() - o2.get();
+                if (minus == 0) return 0;
+                if (minus > 0) return -1;
+                return 1;
+            }
+        };
+
         public static JiffiesSnapshot currentJiffiesSnapshot(ProcessInfo processInfo, boolean isStatPidProc) {
             JiffiesSnapshot snapshot = new JiffiesSnapshot();
             snapshot.pid = processInfo.pid;
@@ -306,17 +400,27 @@ public final class JiffiesMonitorFeature extends AbsMonitorFeature {
                     delta.threadNum = Differ.DigitDiffer.globalDiff(bgn.threadNum, end.threadNum);
                     delta.threadEntries = ListEntry.ofEmpty();
 
+                    // Match threads by tid with one lookup each, tids are unique within a snapshot
+                    List<ThreadJiffiesSnapshot> bgnThreads = bgn.threadEntries.getList();
+                    SparseIntArray bgnIndexes = new SparseIntArray(bgnThreads.size());
+                    for (int i = 0; i < bgnThreads.size(); i++) {
+                        // Threads are listed in the order of the task dir, which is not guaranteed to be sorted
+                        bgnIndexes.put(bgnThreads.get(i).tid, i);
+                    }
+                    boolean[] bgnAlive = new boolean[bgnThreads.size()];
+
                     // for Existing threads
                     if (end.threadEntries.getList().size() > 0) {
                         List<ThreadJiffiesSnapshot> deltaThreadEntries = new ArrayList<>();
                         for (ThreadJiffiesSnapshot endRecord : end.threadEntries.getList()) {
                             boolean isNewAdded = true;
                             long jiffiesConsumed = endRecord.value;
-                            for (ThreadJiffiesSnapshot bgnRecord : bgn.threadEntries.getList()) {
-                                if (bgnRecord.name.equals(endRecord.name) && bgnRecord.tid == endRecord.tid) {
+                            int bgnIndex = bgnIndexes.get(endRecord.tid, -1);
+                            if (bgnIndex >= 0) {
+                                ThreadJiffiesSnapshot bgnRecord = bgnThreads.get(bgnIndex);
+                                if (bgnRecord.name.equals(endRecord.name)) {
                                     isNewAdded = false;
                                     jiffiesConsumed = Differ.DigitDiffer.globalDiff(bgnRecord, endRecord).value;
-                                    break;
                                 }
                             }
                             if (jiffiesConsumed > 0) {
@@ -328,45 +432,31 @@ public final class JiffiesMonitorFeature extends AbsMonitorFeature {
                                 if (!isNewAdded || !sSkipNewAdded) {
                                     // Skip new added tid for now
                                     deltaThreadEntries.add(deltaThreadJiffies);
+                                    if (bgnIndex >= 0) {
+                                        bgnAlive[bgnIndex] = true;
+                                    }
                                 }
                             }
                         }
                         if (deltaThreadEntries.size() > 0) {
-                            Collections.sort(deltaThreadEntries, new Comparator<ThreadJiffiesSnapshot>() {
-                                @Override
-                                public int compare(ThreadJiffiesSnapshot o1, ThreadJiffiesSnapshot o2) {
-                                    long minus = o1.get() - o2.get();
-                                    if (minus == 0) return 0;
-                                    if (minus > 0) return -1;
-                                    return 1;
-                                }
-                            });
-                            delta.threadEntries = ListEntry.of(deltaThreadEntries);
+                            // Sorted only when the thread list is read
+                            delta.threadEntries = ListEntry.ofSorted(deltaThreadEntries, THREAD_JIFFIES_DESC);
                         }
                     }
 
-                    // for Dead threads
-                    if (bgn.threadEntries.getList().size() > 0) {
-                        List<ThreadJiffiesSnapshot> deadThreadEntries = Collections.emptyList();
-                        for (ThreadJiffiesSnapshot bgn : bgn.threadEntries.getList()) {
-                            boolean isDead = true;
-                            for (ThreadJiffiesSnapshot exist : delta.threadEntries.getList()) {
-                                if (exist.tid == bgn.tid) {
-                                    isDead = false;
-                                    break;
-                                }
+                    // for Dead threads: begin threads left without a delta entry
+                    List<ThreadJiffiesSnapshot> deadThreadEntries = Collections.emptyList();
+                    for (int i = 0; i < bgnAlive.length; i++) {
+                        if (!bgnAlive[i]) {
+                            if (deadThreadEntries.isEmpty()) {
+                                deadThreadEntries = new ArrayList<>();
                             }
-                            if (isDead) {
-                                if (deadThreadEntries.isEmpty()) {
-                                    deadThreadEntries = new ArrayList<>();
-                                }
-                                deadThreadEntries.add(bgn);
-                            }
-                        }
-                        if (!deadThreadEntries.isEmpty()) {
-                            delta.deadThreadEntries = ListEntry.of(deadThreadEntries);
+                            deadThreadEntries.add(bgnThreads.get(i));
                         }
                     }
+                    if (!deadThreadEntries.isEmpty()) {
+                        delta.deadThreadEntries = ListEntry.of(deadThreadEntries);
+                    }
 
                     return delta;
                 }
@@ -511,6 +601,82 @@ public final class JiffiesMonitorFeature extends AbsMonitorFeature {
         }
     }
 
+    /**
+     * Samples the jiffies of this process into a {@link JiffiesTimeSeries} on the canary thread, at
+     * {@link BatteryMonitorConfig#fgJiffiesSeriesPeriod} or {@link BatteryMonitorConfig#bgJiffiesSeriesPeriod}.
+     * Only the last {@link ThreadStatSampler.Sample} is kept to compute the jiffies of threads between samples.
+     */
+    class JiffiesSeriesSampler implements Runnable {
+        final JiffiesTimeSeries mSeries;
+        private final ThreadStatSampler mStatSampler;
+        private final boolean mOwnStatSampler;
+        @Nullable
+        private ThreadStatSampler.Sample mLastSample;
+        private volatile long mPeriod;
+        private volatile boolean mStopped;
+
+        /**
+         * Reschedules on the canary thread, so it never races with a {@link #run()} in progress re-posting itself.
+         */
+        private final Runnable mRestart = new Runnable() {
+            @Override
+            public void run() {
+                mCore.getHandler().removeCallbacks(JiffiesSeriesSampler.this);
+                JiffiesSeriesSampler.this.run();
+            }
+        };
+
+        JiffiesSeriesSampler(@Nullable ThreadStatSampler statSampler, int capacity) {
+            mSeries = new JiffiesTimeSeries(capacity);
+            mOwnStatSampler = statSampler == null;
+            mStatSampler = statSampler != null ? statSampler : new ThreadStatSampler(Process.myPid());
+        }
+
+        @Override
+        public void run() {
+            if (mStopped) {
+                return;
+            }
+            try {
+                ThreadStatSampler.Sample sample = mStatSampler.sample();
+                long[] threadJiffies = mLastSample == null ? new long[sample.size()] : sample.diffJiffies(mLastSample);
+                mSeries.append(sample.uptimeMillis, sample.procJiffies, sample.tids, sample.names, threadJiffies);
+                mLastSample = sample;
+            } catch (IOException e) {
+                MatrixLog.printErrStackTrace(TAG, e, "sample jiffies series fail");
+            } finally {
+                if (!mStopped) {
+                    mCore.getHandler().postDelayed(this, mPeriod);
+                }
+            }
+        }
+
+        /**
+         * Samples at once and goes on with the period of the current app state.
+         */
+        void start(boolean isForeground) {
+            mPeriod = isForeground ? mCore.getConfig().fgJiffiesSeriesPeriod : mCore.getConfig().bgJiffiesSeriesPeriod;
+            MatrixLog.i(TAG, "JiffiesSeriesSampler start, period = " + mPeriod);
+            mCore.getHandler().removeCallbacks(mRestart);
+            mCore.getHandler().post(mRestart);
+        }
+
+        void stop() {
+            mStopped = true;
+            mCore.getHandler().removeCallbacks(mRestart);
+            mCore.getHandler().removeCallbacks(this);
+            if (mOwnStatSampler) {
+                // Close after the sampling in progress, if any
+                mCore.getHandler().post(new Runnable() {
+                    @Override
+                    public void run() {
+                        mStatSampler.close();
+                    }
+                });
+            }
+        }
+    }
+
     public static class UidJiffiesSnapshot extends Snapshot<UidJiffiesSnapshot> {
         public static UidJiffiesSnapshot of(Context context, BatteryMonitorConfig config) {
             UidJiffiesSnapshot curr = new UidJiffiesSnapshot();
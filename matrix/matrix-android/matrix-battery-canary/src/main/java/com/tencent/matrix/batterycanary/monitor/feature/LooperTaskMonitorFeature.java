@@ -8,6 +8,7 @@ import android.text.TextUtils;
 
 import com.tencent.matrix.batterycanary.BuildConfig;
 import com.tencent.matrix.batterycanary.monitor.feature.MonitorFeature.Snapshot.Delta;
+import com.tencent.matrix.batterycanary.utils.BatteryCanaryUtil;
 import com.tencent.matrix.trace.core.LooperMonitor;
 import com.tencent.matrix.trace.listeners.ILooperListener;
 import com.tencent.matrix.util.MatrixLog;
@@ -224,8 +225,8 @@ public final class LooperTaskMonitorFeature extends AbsTaskMonitorFeature {
     }
 
     private Collection<Thread> getAllThreads() {
-        Map<Thread, StackTraceElement[]> stackTraces = Thread.getAllStackTraces();
-        return stackTraces == null ? Collections.<Thread>emptyList() : stackTraces.keySet();
+        // Only the threads are needed, Thread#getAllStackTraces suspends all of them to collect stacks
+        return BatteryCanaryUtil.getAllThreads();
     }
 
     void stopWatching() {
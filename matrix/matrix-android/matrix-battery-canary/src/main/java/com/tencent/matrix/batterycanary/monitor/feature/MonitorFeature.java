@@ -10,6 +10,8 @@ import com.tencent.matrix.util.MatrixLog;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Objects;
 import java.util.concurrent.Callable;
@@ -315,6 +317,16 @@ public interface MonitorFeature {
                     return listEntry;
                 }
 
+                /**
+                 * The items are sorted on the first {@link #getList()}, so that lists nobody reads are never sorted.
+                 */
+                public static <ITEM extends Entry> ListEntry<ITEM> ofSorted(List<ITEM> items, Comparator<? super ITEM> comparator) {
+                    ListEntry<ITEM> listEntry = new ListEntry<>();
+                    listEntry.list = items;
+                    listEntry.pendingComparator = comparator;
+                    return listEntry;
+                }
+
                 public static <ITEM extends Entry> ListEntry<ITEM> ofEmpty() {
                     ListEntry<ITEM> listEntry = new ListEntry<>();
                     listEntry.list = new ArrayList<>();
@@ -323,6 +335,7 @@ public interface MonitorFeature {
 
 
                 List<ITEM> list;
+                private volatile Comparator<? super ITEM> pendingComparator;
 
                 private ListEntry() {
                 }
@@ -336,6 +349,14 @@ public interface MonitorFeature {
                 }
 
                 public List<ITEM> getList() {
+                    if (pendingComparator != null) {
+                        synchronized (this) {
+                            if (pendingComparator != null) {
+                                Collections.sort(list, pendingComparator);
+                                pendingComparator = null;
+                            }
+                        }
+                    }
                     return list;
                 }
             }
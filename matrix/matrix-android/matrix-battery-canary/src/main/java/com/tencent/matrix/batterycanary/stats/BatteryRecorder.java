@@ -8,9 +8,16 @@ import com.tencent.matrix.batterycanary.utils.ThreadSafeReference;
 import com.tencent.matrix.util.MatrixLog;
 import com.tencent.mmkv.MMKV;
 
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collections;
 import java.util.Comparator;
@@ -20,6 +27,8 @@ import java.util.Locale;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import androidx.annotation.Nullable;
+
 /**
  * @author Kaede
  * @since 2021/12/10
@@ -214,4 +223,348 @@ public interface BatteryRecorder {
 
     }
 
+    /**
+     * Keeps the records of each date and process in an append-only segment file, along with a time index.
+     *
+     * Layout under the root dir: {@code <date>/<proc>.seg} holds the encoded records, each one prefixed with its
+     * length, and {@code <date>/<proc>.idx} holds a (millis, offset) pair of longs per record. The index is
+     * mapped to read records in time order, by range or by page, without decoding the rest of the day.
+     * Records are appended in the order they are written, which is the time order as long as the wall clock
+     * does not go back. A record becomes visible once its index entry is written, so a torn append is ignored.
+     * Cleaning a date removes its dir at once.
+     */
+    class FileRecorder implements BatteryRecorder {
+        protected static final String SEGMENT_SUFFIX = ".seg";
+        protected static final String INDEX_SUFFIX = ".idx";
+        protected static final String PROC_SET_DIR = "proc-set";
+        protected static final int INDEX_ENTRY_SIZE = 16;
+
+        protected final File rootDir;
+        @Nullable
+        private String mWritingDate;
+        @Nullable
+        private String mWritingProc;
+        @Nullable
+        private FileChannel mSegmentChannel;
+        @Nullable
+        private FileChannel mIndexChannel;
+        private final ByteBuffer mIndexEntry = ByteBuffer.allocate(INDEX_ENTRY_SIZE);
+        private final ByteBuffer mLength = ByteBuffer.allocate(4);
+
+        public FileRecorder(File rootDir) {
+            this.rootDir = rootDir;
+        }
+
+        protected File getSegmentFile(String date, String proc) {
+            return new File(new File(rootDir, date), proc + SEGMENT_SUFFIX);
+        }
+
+        protected File getIndexFile(String date, String proc) {
+            return new File(new File(rootDir, date), proc + INDEX_SUFFIX);
+        }
+
+        @Override
+        public void updateProc(String proc) {
+            if (!TextUtils.isEmpty(proc)) {
+                File file = new File(new File(rootDir, PROC_SET_DIR), proc);
+                if (!file.exists()) {
+                    try {
+                        File dir = file.getParentFile();
+                        if (dir != null && !dir.exists() && !dir.mkdirs()) {
+                            throw new IOException("mkdirs fail: " + dir);
+                        }
+                        if (!file.createNewFile()) {
+                            MatrixLog.w(TAG, "proc already exists: " + proc);
+                        }
+                    } catch (IOException e) {
+                        MatrixLog.w(TAG, "update proc failed: " + e.getMessage());
+                    }
+                }
+            }
+        }
+
+        @Override
+        public Set<String> getProcSet() {
+            String[] procs = new File(rootDir, PROC_SET_DIR).list();
+            if (procs == null || procs.length == 0) {
+                return Collections.emptySet();
+            }
+            return new HashSet<>(Arrays.asList(procs));
+        }
+
+        @Override
+        public void write(String date, BatteryRecord record) {
+            write(date, record, MMKVRecorder.getProcNameSuffix());
+        }
+
+        public synchronized void write(String date, BatteryRecord record, String proc) {
+            try {
+                byte[] bytes = BatteryRecord.encode(record);
+                if (!date.equals(mWritingDate) || !proc.equals(mWritingProc) || mSegmentChannel == null || mIndexChannel == null) {
+                    closeWriting();
+                    File segmentFile = getSegmentFile(date, proc);
+                    File dir = segmentFile.getParentFile();
+                    if (dir != null && !dir.exists() && !dir.mkdirs()) {
+                        throw new IOException("mkdirs fail: " + dir);
+                    }
+                    mSegmentChannel = new RandomAccessFile(segmentFile, "rw").getChannel();
+                    mIndexChannel = new RandomAccessFile(getIndexFile(date, proc), "rw").getChannel();
+                    mWritingDate = date;
+                    mWritingProc = proc;
+                }
+
+                // Drop the torn entry left by a crash, if any
+                long indexPos = mIndexChannel.size() / INDEX_ENTRY_SIZE * INDEX_ENTRY_SIZE;
+                long offset = mSegmentChannel.size();
+                mLength.clear();
+                mLength.putInt(bytes.length).flip();
+                writeFully(mSegmentChannel, mLength, offset);
+                writeFully(mSegmentChannel, ByteBuffer.wrap(bytes), offset + 4);
+                mIndexEntry.clear();
+                mIndexEntry.putLong(record.millis).putLong(offset).flip();
+                writeFully(mIndexChannel, mIndexEntry, indexPos);
+            } catch (Exception e) {
+                MatrixLog.w(TAG, "record write failed: " + e.getMessage());
+                closeWriting();
+            }
+        }
+
+        @Override
+        public List<BatteryRecord> read(String date, String proc) {
+            return readPage(date, proc, 0, Integer.MAX_VALUE);
+        }
+
+        /**
+         * @return records of the page in time order.
+         */
+        public List<BatteryRecord> readPage(String date, String proc, int offset, int count) {
+            Segment segment = Segment.open(getSegmentFile(date, proc), getIndexFile(date, proc));
+            if (segment == null) {
+                return Collections.emptyList();
+            }
+            try {
+                int bgn = Math.max(0, offset);
+                int end = (int) Math.min(segment.size(), (long) bgn + Math.max(0, count));
+                return segment.decode(bgn, end);
+            } finally {
+                segment.close();
+            }
+        }
+
+        /**
+         * @return records within [bgnMillis, endMillis] in time order.
+         */
+        public List<BatteryRecord> readRange(String date, String proc, long bgnMillis, long endMillis) {
+            Segment segment = Segment.open(getSegmentFile(date, proc), getIndexFile(date, proc));
+            if (segment == null) {
+                return Collections.emptyList();
+            }
+            try {
+                return segment.decode(segment.lowerBound(bgnMillis), segment.lowerBound(endMillis + 1));
+            } finally {
+                segment.close();
+            }
+        }
+
+        /**
+         * @return count of the records, without reading them.
+         */
+        public int count(String date, String proc) {
+            long length = getIndexFile(date, proc).length();
+            return (int) (length / INDEX_ENTRY_SIZE);
+        }
+
+        @Override
+        public synchronized void clean(String date, String proc) {
+            if (TextUtils.isEmpty(proc)) {
+                if (date.equals(mWritingDate)) {
+                    closeWriting();
+                }
+                deleteDir(new File(rootDir, date));
+                return;
+            }
+            if (date.equals(mWritingDate) && proc.equals(mWritingProc)) {
+                closeWriting();
+            }
+            File segmentFile = getSegmentFile(date, proc);
+            File indexFile = getIndexFile(date, proc);
+            if ((indexFile.exists() && !indexFile.delete()) || (segmentFile.exists() && !segmentFile.delete())) {
+                MatrixLog.w(TAG, "record clean failed: " + date + "-" + proc);
+            }
+        }
+
+        @Override
+        public synchronized void clean(int dayToKeepOnly) {
+            if (dayToKeepOnly > 0) {
+                Set<String> datesToKeep = new HashSet<>();
+                for (int i = 0; i < dayToKeepOnly; i++) {
+                    datesToKeep.add(MMKVRecorder.getDateString(-i));
+                }
+                File[] dirs = rootDir.listFiles();
+                if (dirs == null) {
+                    return;
+                }
+                for (File item : dirs) {
+                    String name = item.getName();
+                    if (PROC_SET_DIR.equals(name) || datesToKeep.contains(name) || !item.isDirectory()) {
+                        continue;
+                    }
+                    if (name.equals(mWritingDate)) {
+                        closeWriting();
+                    }
+                    deleteDir(item);
+                }
+            }
+        }
+
+        public synchronized void flush() {
+            try {
+                if (mSegmentChannel != null) {
+                    mSegmentChannel.force(false);
+                }
+                if (mIndexChannel != null) {
+                    mIndexChannel.force(false);
+                }
+            } catch (IOException e) {
+                MatrixLog.w(TAG, "record flush failed: " + e.getMessage());
+            }
+        }
+
+        private void closeWriting() {
+            closeQuietly(mSegmentChannel);
+            closeQuietly(mIndexChannel);
+            mSegmentChannel = null;
+            mIndexChannel = null;
+            mWritingDate = null;
+            mWritingProc = null;
+        }
+
+        private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+        }
+
+        private static void deleteDir(File dir) {
+            File[] files = dir.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    if (!file.delete()) {
+                        MatrixLog.w(TAG, "record clean failed: " + file);
+                    }
+                }
+            }
+            if (dir.exists() && !dir.delete()) {
+                MatrixLog.w(TAG, "record clean failed: " + dir);
+            }
+        }
+
+        private static void closeQuietly(@Nullable Closeable closeable) {
+            if (closeable != null) {
+                try {
+                    closeable.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+
+        /**
+         * Read-only view of the segment and the mapped index of one date and process.
+         */
+        static final class Segment implements Closeable {
+            final RandomAccessFile segmentFile;
+            final ByteBuffer index;
+            final long segmentLength;
+
+            @Nullable
+            static Segment open(File segmentFile, File indexFile) {
+                if (!segmentFile.exists() || !indexFile.exists()) {
+                    return null;
+                }
+                RandomAccessFile segment = null;
+                RandomAccessFile index = null;
+                try {
+                    segment = new RandomAccessFile(segmentFile, "r");
+                    index = new RandomAccessFile(indexFile, "r");
+                    long length = index.length() / INDEX_ENTRY_SIZE * INDEX_ENTRY_SIZE;
+                    ByteBuffer mapped = index.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+                    return new Segment(segment, mapped);
+                } catch (IOException e) {
+                    MatrixLog.w(TAG, "record open failed: " + e.getMessage());
+                    closeQuietly(segment);
+                    return null;
+                } finally {
+                    // The mapping stays valid after the file is closed
+                    closeQuietly(index);
+                }
+            }
+
+            private Segment(RandomAccessFile segmentFile, ByteBuffer index) throws IOException {
+                this.segmentFile = segmentFile;
+                this.index = index;
+                this.segmentLength = segmentFile.length();
+            }
+
+            int size() {
+                return index.limit() / INDEX_ENTRY_SIZE;
+            }
+
+            long getMillis(int i) {
+                return index.getLong(i * INDEX_ENTRY_SIZE);
+            }
+
+            long getOffset(int i) {
+                return index.getLong(i * INDEX_ENTRY_SIZE + 8);
+            }
+
+            /**
+             * @return index of the first record not earlier than {@code millis}.
+             */
+            int lowerBound(long millis) {
+                int low = 0;
+                int high = size();
+                while (low < high) {
+                    int mid = (low + high) >>> 1;
+                    if (getMillis(mid) < millis) {
+                        low = mid + 1;
+                    } else {
+                        high = mid;
+                    }
+                }
+                return low;
+            }
+
+            List<BatteryRecord> decode(int bgn, int end) {
+                if (bgn >= end) {
+                    return Collections.emptyList();
+                }
+                List<BatteryRecord> records = new ArrayList<>(end - bgn);
+                for (int i = bgn; i < end; i++) {
+                    try {
+                        long offset = getOffset(i);
+                        if (offset < 0 || offset + 4 > segmentLength) {
+                            throw new IOException("bad offset " + offset);
+                        }
+                        segmentFile.seek(offset);
+                        int length = segmentFile.readInt();
+                        if (length < 0 || offset + 4 + length > segmentLength) {
+                            throw new IOException("bad length " + length);
+                        }
+                        byte[] bytes = new byte[length];
+                        segmentFile.readFully(bytes);
+                        records.add(BatteryRecord.decode(bytes));
+                    } catch (Exception e) {
+                        MatrixLog.w(TAG, "record decode failed: " + e.getMessage());
+                    }
+                }
+                return records;
+            }
+
+            @Override
+            public void close() {
+                closeQuietly(segmentFile);
+            }
+        }
+    }
+
 }
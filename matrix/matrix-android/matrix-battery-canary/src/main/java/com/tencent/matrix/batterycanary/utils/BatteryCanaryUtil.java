@@ -39,6 +39,7 @@ import java.io.FileFilter;
 import java.io.RandomAccessFile;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.LinkedHashMap;
@@ -308,6 +309,27 @@ public final class BatteryCanaryUtil {
         return stackTraceToString(throwable.getStackTrace(), true);
     }
 
+    /**
+     * Lists the live threads through the root {@link ThreadGroup}, unlike {@link Thread#getAllStackTraces()}
+     * no thread is suspended and no stack is collected.
+     */
+    public static List<Thread> getAllThreads() {
+        ThreadGroup root = Thread.currentThread().getThreadGroup();
+        if (root == null) {
+            return Collections.emptyList();
+        }
+        while (root.getParent() != null) {
+            root = root.getParent();
+        }
+        Thread[] threads = new Thread[root.activeCount() + 16];
+        int count;
+        while ((count = root.enumerate(threads, true)) == threads.length) {
+            // Threads were started meanwhile, try again with more room
+            threads = new Thread[threads.length * 2];
+        }
+        return Arrays.asList(threads).subList(0, count);
+    }
+
     public static long getUTCTriggerAtMillis(final long triggerAtMillis, final int type) {
         if (type == AlarmManager.RTC || type == AlarmManager.RTC_WAKEUP) {
             return triggerAtMillis;
@@ -0,0 +1,285 @@
+package com.tencent.matrix.batterycanary.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Fixed-size ring buffer of the jiffies of a process sampled in the background.
+ *
+ * Each sample keeps the uptime, the accumulated jiffies of the process, and the top {@link #TOP_THREAD_NUM}
+ * threads by the jiffies consumed since the previous sample. Everything lives in primitive arrays allocated
+ * up front, so recording never allocates and any window still in the buffer can be queried afterwards.
+ * The oldest samples are overwritten once the buffer is full.
+ */
+@SuppressWarnings("SpellCheckingInspection")
+public final class JiffiesTimeSeries {
+    public static final int TOP_THREAD_NUM = 3;
+
+    private final int mCapacity;
+    private final long[] mUptimes;
+    private final long[] mProcJiffies;
+    private final int[] mTopTids;
+    private final String[] mTopNames;
+    private final long[] mTopJiffies;
+    private int mHead = 0;
+    private int mSize = 0;
+
+    public JiffiesTimeSeries(int capacity) {
+        if (capacity < 2) {
+            throw new IllegalArgumentException("Illegal capacity: " + capacity);
+        }
+        mCapacity = capacity;
+        mUptimes = new long[capacity];
+        mProcJiffies = new long[capacity];
+        mTopTids = new int[capacity * TOP_THREAD_NUM];
+        mTopNames = new String[capacity * TOP_THREAD_NUM];
+        mTopJiffies = new long[capacity * TOP_THREAD_NUM];
+    }
+
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    public synchronized int size() {
+        return mSize;
+    }
+
+    public synchronized void clear() {
+        mHead = 0;
+        mSize = 0;
+        for (int i = 0; i < mTopNames.length; i++) {
+            mTopNames[i] = null;
+        }
+    }
+
+    /**
+     * @param procJiffies   accumulated jiffies of the process.
+     * @param tids          threads of the process.
+     * @param names         names of the threads, in the order of {@code tids}.
+     * @param threadJiffies jiffies of the threads since the previous sample, in the order of {@code tids}.
+     */
+    public synchronized void append(long uptimeMillis, long procJiffies, int[] tids, String[] names, long[] threadJiffies) {
+        int slot = mHead;
+        mUptimes[slot] = uptimeMillis;
+        mProcJiffies[slot] = procJiffies;
+
+        // Keep the top threads in descending order by insertion, TOP_THREAD_NUM is tiny
+        int base = slot * TOP_THREAD_NUM;
+        int count = 0;
+        for (int i = 0; i < tids.length; i++) {
+            long jiffies = threadJiffies[i];
+            if (jiffies <= 0 || (count == TOP_THREAD_NUM && jiffies <= mTopJiffies[base + count - 1])) {
+                continue;
+            }
+            int pos = count < TOP_THREAD_NUM ? count++ : count - 1;
+            while (pos > 0 && mTopJiffies[base + pos - 1] < jiffies) {
+                mTopTids[base + pos] = mTopTids[base + pos - 1];
+                mTopNames[base + pos] = mTopNames[base + pos - 1];
+                mTopJiffies[base + pos] = mTopJiffies[base + pos - 1];
+                pos--;
+            }
+            mTopTids[base + pos] = tids[i];
+            mTopNames[base + pos] = names[i];
+            mTopJiffies[base + pos] = jiffies;
+        }
+        for (int i = count; i < TOP_THREAD_NUM; i++) {
+            mTopTids[base + i] = 0;
+            mTopNames[base + i] = null;
+            mTopJiffies[base + i] = 0;
+        }
+
+        mHead = (mHead + 1) % mCapacity;
+        if (mSize < mCapacity) {
+            mSize++;
+        }
+    }
+
+    /**
+     * @return the window covered by the buffer within [bgnMillis, endMillis], or null if there are less than
+     * two samples in it. The window starts later than {@code bgnMillis} if its beginning has been overwritten.
+     */
+    @Nullable
+    public synchronized Window query(long bgnMillis, long endMillis) {
+        int bgn = indexAtOrBefore(bgnMillis);
+        if (bgn < 0) {
+            bgn = 0;
+        }
+        int end = indexAtOrBefore(endMillis);
+        if (end <= bgn) {
+            return null;
+        }
+        Window window = new Window();
+        window.bgnMillis = mUptimes[slotOf(bgn)];
+        window.endMillis = mUptimes[slotOf(end)];
+        window.jiffies = mProcJiffies[slotOf(end)] - mProcJiffies[slotOf(bgn)];
+        window.sampleCount = end - bgn;
+        for (int i = bgn + 1; i <= end; i++) {
+            int base = slotOf(i) * TOP_THREAD_NUM;
+            for (int j = 0; j < TOP_THREAD_NUM && mTopJiffies[base + j] > 0; j++) {
+                window.addThreadJiffies(mTopTids[base + j], mTopNames[base + j], mTopJiffies[base + j]);
+            }
+        }
+        Collections.sort(window.threadJiffies, ThreadJiffies.DESC);
+        return window;
+    }
+
+    /**
+     * Finds the runs of consecutive samples within [bgnMillis, endMillis] whose average jiffies per minute,
+     * as {@code CompositeMonitors#computeAvgJiffies}, reach {@code avgJiffiesThreshold}.
+     */
+    @NonNull
+    public synchronized List<Burst> findBursts(long bgnMillis, long endMillis, long avgJiffiesThreshold) {
+        int bgn = indexAtOrBefore(bgnMillis);
+        if (bgn < 0) {
+            bgn = 0;
+        }
+        int end = indexAtOrBefore(endMillis);
+        if (end <= bgn) {
+            return Collections.emptyList();
+        }
+        List<Burst> bursts = new ArrayList<>();
+        Burst curr = null;
+        for (int i = bgn + 1; i <= end; i++) {
+            int slot = slotOf(i);
+            int prevSlot = slotOf(i - 1);
+            long millis = mUptimes[slot] - mUptimes[prevSlot];
+            long jiffies = mProcJiffies[slot] - mProcJiffies[prevSlot];
+            if (millis > 0 && jiffies * 60000L / millis >= avgJiffiesThreshold) {
+                if (curr == null) {
+                    curr = new Burst();
+                    curr.bgnMillis = mUptimes[prevSlot];
+                    bursts.add(curr);
+                }
+                curr.endMillis = mUptimes[slot];
+                curr.jiffies += jiffies;
+                int base = slot * TOP_THREAD_NUM;
+                if (mTopJiffies[base] > curr.peakThreadJiffies) {
+                    curr.peakTid = mTopTids[base];
+                    curr.peakThreadName = mTopNames[base];
+                    curr.peakThreadJiffies = mTopJiffies[base];
+                }
+            } else {
+                curr = null;
+            }
+        }
+        return bursts;
+    }
+
+    /**
+     * @param index 0 for the oldest sample in the buffer.
+     */
+    private int slotOf(int index) {
+        return (mHead - mSize + index + mCapacity) % mCapacity;
+    }
+
+    /**
+     * @return index of the latest sample taken at or before {@code uptimeMillis}, or -1 if there is none.
+     */
+    private int indexAtOrBefore(long uptimeMillis) {
+        int low = 0;
+        int high = mSize - 1;
+        int found = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (mUptimes[slotOf(mid)] <= uptimeMillis) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    public static final class Window {
+        public long bgnMillis;
+        public long endMillis;
+        public long jiffies;
+        public int sampleCount;
+        /**
+         * Jiffies of the threads which have been the top of some sample, only those samples are counted.
+         */
+        public final List<ThreadJiffies> threadJiffies = new ArrayList<>();
+
+        public long getDuringMillis() {
+            return endMillis - bgnMillis;
+        }
+
+        void addThreadJiffies(int tid, String name, long jiffies) {
+            for (ThreadJiffies item : threadJiffies) {
+                if (item.tid == tid) {
+                    item.jiffies += jiffies;
+                    if (name != null) {
+                        item.name = name;
+                    }
+                    return;
+                }
+            }
+            ThreadJiffies item = new ThreadJiffies();
+            item.tid = tid;
+            item.name = name;
+            item.jiffies = jiffies;
+            threadJiffies.add(item);
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return "Window{" +
+                    "bgnMillis=" + bgnMillis +
+                    ", endMillis=" + endMillis +
+                    ", jiffies=" + jiffies +
+                    ", sampleCount=" + sampleCount +
+                    ", threadJiffies=" + threadJiffies +
+                    '}';
+        }
+    }
+
+    public static final class ThreadJiffies {
+        static final Comparator<ThreadJiffies> DESC = new Comparator<ThreadJiffies>() {
+            @Override
+            public int compare(ThreadJiffies o1, ThreadJiffies o2) {
+                return Long.compare(o2.jiffies, o1.jiffies);
+            }
+        };
+
+        public int tid;
+        public String name;
+        public long jiffies;
+
+        @NonNull
+        @Override
+        public String toString() {
+            return name + "(" + tid + ") " + jiffies;
+        }
+    }
+
+    public static final class Burst {
+        public long bgnMillis;
+        public long endMillis;
+        public long jiffies;
+        public int peakTid;
+        public String peakThreadName;
+        public long peakThreadJiffies;
+
+        public long getDuringMillis() {
+            return endMillis - bgnMillis;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return "Burst{" +
+                    "bgnMillis=" + bgnMillis +
+                    ", endMillis=" + endMillis +
+                    ", jiffies=" + jiffies +
+                    ", peakThread=" + peakThreadName + "(" + peakTid + ") " + peakThreadJiffies +
+                    '}';
+        }
+    }
+}
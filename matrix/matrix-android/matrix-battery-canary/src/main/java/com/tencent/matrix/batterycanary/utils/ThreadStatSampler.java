@@ -0,0 +1,396 @@
+package com.tencent.matrix.batterycanary.utils;
+
+import android.os.SystemClock;
+
+import com.tencent.matrix.util.MatrixLog;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+/**
+ * Samples the stat of all threads of a process for continuous monitoring.
+ *
+ * Unlike {@link ProcStatUtil}, which opens and closes /proc/[pid]/task/[tid]/stat on every read,
+ * the sampler keeps the stat files open and re-reads them from offset 0 into one buffer. The task
+ * dir is only listed again when /proc/[pid]/stat reports another thread count or a thread has gone.
+ * Call {@link #close()} to release the files, the sampler can not sample anymore then.
+ */
+@SuppressWarnings("SpellCheckingInspection")
+public final class ThreadStatSampler implements Closeable {
+    private static final String TAG = "Matrix.battery.ThreadStatSampler";
+
+    // Field numbers of /proc/[pid]/stat, see proc(5)
+    private static final int FIELD_STATE = 3;
+    private static final int FIELD_UTIME = 14;
+    private static final int FIELD_STIME = 15;
+    private static final int FIELD_CUTIME = 16;
+    private static final int FIELD_CSTIME = 17;
+    private static final int FIELD_NUM_THREADS = 20;
+    private static final int FIELD_START_TIME = 22;
+
+    private final int mPid;
+    private final ByteBuffer mBuffer = ByteBuffer.allocate(1024);
+    private final Sample.Row mRow = new Sample.Row();
+    @Nullable
+    private FileChannel mProcStat;
+    private int[] mTids = new int[0];
+    private FileChannel[] mChannels = new FileChannel[0];
+    private String[] mNames = new String[0];
+    private int mStaleIdx = -1;
+    private boolean mClosed = false;
+
+    public ThreadStatSampler(int pid) {
+        mPid = pid;
+    }
+
+    public int getPid() {
+        return mPid;
+    }
+
+    @WorkerThread
+    @NonNull
+    public synchronized Sample sample() throws IOException {
+        if (mClosed) {
+            throw new IOException("sampler of " + mPid + " has been closed");
+        }
+        if (mProcStat == null) {
+            mProcStat = open("/proc/" + mPid + "/stat");
+            if (mProcStat == null) {
+                throw new IOException("open /proc/" + mPid + "/stat fail");
+            }
+        }
+        if (!read(mProcStat) || !parse(mRow)) {
+            throw new IOException("read /proc/" + mPid + "/stat fail");
+        }
+        long procJiffies = mRow.utime + mRow.stime + mRow.cutime + mRow.cstime;
+        if (mRow.numThreads != mTids.length) {
+            refreshTids(-1);
+        }
+        Sample sample = readThreads();
+        if (sample == null) {
+            // Some thread has gone with the thread count unchanged, or its tid has been taken by a new thread
+            // while the file of the old one was still open
+            refreshTids(mStaleIdx);
+            sample = readThreads();
+            if (sample == null) {
+                throw new IOException("read /proc/" + mPid + "/task fail");
+            }
+        }
+        sample.procJiffies = procJiffies;
+        return sample;
+    }
+
+    @Override
+    public synchronized void close() {
+        mClosed = true;
+        closeQuietly(mProcStat);
+        mProcStat = null;
+        for (FileChannel channel : mChannels) {
+            closeQuietly(channel);
+        }
+        mTids = new int[0];
+        mChannels = new FileChannel[0];
+        mNames = new String[0];
+    }
+
+    /**
+     * @return null if some thread can not be read anymore, with its index in {@link #mStaleIdx}.
+     */
+    @Nullable
+    private Sample readThreads() {
+        mStaleIdx = -1;
+        Sample sample = new Sample(mPid, mTids.length);
+        for (int i = 0; i < mTids.length; i++) {
+            if (!read(mChannels[i]) || !parse(mRow)) {
+                mStaleIdx = i;
+                return null;
+            }
+            sample.tids[i] = mTids[i];
+            sample.names[i] = mNames[i] = mRow.getName(mNames[i]);
+            sample.states[i] = mRow.state;
+            sample.utimes[i] = mRow.utime;
+            sample.stimes[i] = mRow.stime;
+            sample.cutimes[i] = mRow.cutime;
+            sample.cstimes[i] = mRow.cstime;
+            sample.startTimes[i] = mRow.startTime;
+        }
+        return sample;
+    }
+
+    /**
+     * Lists the task dir again, files of the threads still alive are kept open.
+     *
+     * @param staleIdx index of the file failed to read, which is opened again if its tid is still listed, or -1.
+     */
+    private void refreshTids(int staleIdx) throws IOException {
+        String[] names = new File("/proc/" + mPid + "/task").list();
+        if (names == null) {
+            throw new IOException("list /proc/" + mPid + "/task fail");
+        }
+        int[] tids = new int[names.length];
+        int count = 0;
+        for (String name : names) {
+            try {
+                tids[count] = Integer.parseInt(name);
+                count++;
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        Arrays.sort(tids, 0, count);
+
+        int[] newTids = new int[count];
+        FileChannel[] newChannels = new FileChannel[count];
+        String[] newNames = new String[count];
+        int newCount = 0;
+        int oldIdx = 0;
+        for (int i = 0; i < count; i++) {
+            int tid = tids[i];
+            while (oldIdx < mTids.length && mTids[oldIdx] < tid) {
+                closeQuietly(mChannels[oldIdx++]);
+            }
+            FileChannel channel;
+            String name = null;
+            if (oldIdx < mTids.length && mTids[oldIdx] == tid && oldIdx != staleIdx) {
+                channel = mChannels[oldIdx];
+                name = mNames[oldIdx];
+                oldIdx++;
+            } else {
+                if (oldIdx < mTids.length && mTids[oldIdx] == tid) {
+                    // The file still points at the dead thread the tid belonged to
+                    closeQuietly(mChannels[oldIdx++]);
+                }
+                channel = open("/proc/" + mPid + "/task/" + tid + "/stat");
+            }
+            if (channel != null) {
+                newTids[newCount] = tid;
+                newChannels[newCount] = channel;
+                newNames[newCount] = name;
+                newCount++;
+            }
+        }
+        while (oldIdx < mTids.length) {
+            closeQuietly(mChannels[oldIdx++]);
+        }
+        mTids = Arrays.copyOf(newTids, newCount);
+        mChannels = Arrays.copyOf(newChannels, newCount);
+        mNames = Arrays.copyOf(newNames, newCount);
+    }
+
+    private boolean read(FileChannel channel) {
+        mBuffer.clear();
+        try {
+            // Positional read from 0 makes procfs generate the content again
+            while (mBuffer.hasRemaining()) {
+                int read = channel.read(mBuffer, mBuffer.position());
+                if (read <= 0) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            return false;
+        }
+        mBuffer.flip();
+        return mBuffer.hasRemaining();
+    }
+
+    private boolean parse(Sample.Row row) {
+        byte[] bytes = mBuffer.array();
+        int limit = mBuffer.limit();
+        // comm may contain spaces and parentheses, it ends at the last ')'
+        int commBgn = -1;
+        int commEnd = -1;
+        for (int i = 0; i < limit; i++) {
+            if (bytes[i] == '(' && commBgn < 0) {
+                commBgn = i + 1;
+            } else if (bytes[i] == ')') {
+                commEnd = i;
+            }
+        }
+        if (commBgn < 0 || commEnd < commBgn) {
+            return false;
+        }
+        row.comm = bytes;
+        row.commOffset = commBgn;
+        row.commLength = commEnd - commBgn;
+
+        int field = FIELD_STATE;
+        int pos = commEnd + 2;
+        while (pos < limit && field <= FIELD_START_TIME) {
+            int end = pos;
+            while (end < limit && bytes[end] != ' ' && bytes[end] != '\n') {
+                end++;
+            }
+            if (end == pos) {
+                return false;
+            }
+            switch (field) {
+                case FIELD_STATE:
+                    row.state = (char) bytes[pos];
+                    break;
+                case FIELD_UTIME:
+                    row.utime = parseLong(bytes, pos, end);
+                    break;
+                case FIELD_STIME:
+                    row.stime = parseLong(bytes, pos, end);
+                    break;
+                case FIELD_CUTIME:
+                    row.cutime = parseLong(bytes, pos, end);
+                    break;
+                case FIELD_CSTIME:
+                    row.cstime = parseLong(bytes, pos, end);
+                    break;
+                case FIELD_NUM_THREADS:
+                    row.numThreads = (int) parseLong(bytes, pos, end);
+                    break;
+                case FIELD_START_TIME:
+                    row.startTime = parseLong(bytes, pos, end);
+                    break;
+                default:
+                    break;
+            }
+            field++;
+            pos = end + 1;
+        }
+        return field > FIELD_START_TIME;
+    }
+
+    private static long parseLong(byte[] bytes, int bgn, int end) {
+        boolean negative = bytes[bgn] == '-';
+        long value = 0;
+        for (int i = negative ? bgn + 1 : bgn; i < end; i++) {
+            int digit = bytes[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    @Nullable
+    private static FileChannel open(String path) {
+        try {
+            return new RandomAccessFile(path, "r").getChannel();
+        } catch (IOException e) {
+            MatrixLog.w(TAG, "open fail: " + path + ", " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static void closeQuietly(@Nullable Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Columnar stat of all threads, sorted by tid. Jiffies of a thread are utime + stime + cutime + cstime,
+     * the same as {@link ProcStatUtil.ProcStat#getJiffies()}.
+     */
+    public static final class Sample {
+        public final int pid;
+        public final long uptimeMillis;
+        public final int[] tids;
+        public final String[] names;
+        public final char[] states;
+        public final long[] utimes;
+        public final long[] stimes;
+        public final long[] cutimes;
+        public final long[] cstimes;
+        public final long[] startTimes;
+        // jiffies of the process read from /proc/[pid]/stat, including the threads that have exited
+        public long procJiffies;
+
+        Sample(int pid, int count) {
+            this.pid = pid;
+            this.uptimeMillis = SystemClock.uptimeMillis();
+            this.tids = new int[count];
+            this.names = new String[count];
+            this.states = new char[count];
+            this.utimes = new long[count];
+            this.stimes = new long[count];
+            this.cutimes = new long[count];
+            this.cstimes = new long[count];
+            this.startTimes = new long[count];
+        }
+
+        public int size() {
+            return tids.length;
+        }
+
+        public long getJiffies(int index) {
+            return utimes[index] + stimes[index] + cutimes[index] + cstimes[index];
+        }
+
+        /**
+         * @return index of the thread, or a negative value if it is not in the sample.
+         */
+        public int indexOf(int tid) {
+            return Arrays.binarySearch(tids, tid);
+        }
+
+        /**
+         * @return jiffies consumed by each thread of this sample since {@code bgn}, in the order of {@link #tids}.
+         * Threads not in {@code bgn}, or whose tid has been reused by a new thread, count from their start.
+         */
+        public long[] diffJiffies(Sample bgn) {
+            long[] delta = new long[tids.length];
+            int bgnIdx = 0;
+            for (int i = 0; i < tids.length; i++) {
+                while (bgnIdx < bgn.tids.length && bgn.tids[bgnIdx] < tids[i]) {
+                    bgnIdx++;
+                }
+                delta[i] = getJiffies(i);
+                if (bgnIdx < bgn.tids.length && bgn.tids[bgnIdx] == tids[i] && bgn.startTimes[bgnIdx] == startTimes[i]) {
+                    delta[i] -= bgn.getJiffies(bgnIdx);
+                }
+            }
+            return delta;
+        }
+
+        static final class Row {
+            byte[] comm;
+            int commOffset;
+            int commLength;
+            char state;
+            long utime;
+            long stime;
+            long cutime;
+            long cstime;
+            int numThreads;
+            long startTime;
+
+            /**
+             * @return the name of the thread, {@code last} if it has not changed.
+             */
+            String getName(@Nullable String last) {
+                if (last != null && last.length() == commLength) {
+                    boolean same = true;
+                    for (int i = 0; i < commLength; i++) {
+                        if (last.charAt(i) != comm[commOffset + i]) {
+                            same = false;
+                            break;
+                        }
+                    }
+                    if (same) {
+                        return last;
+                    }
+                }
+                return new String(comm, commOffset, commLength, StandardCharsets.UTF_8);
+            }
+        }
+    }
+}
@@ -3,6 +3,7 @@ package com.tencent.matrix.batterycanary.utils;
 import android.os.SystemClock;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
@@ -140,20 +141,22 @@ public final class TimeBreaker {
                 portion.totalStatMillis = value.millis;
                 portions.add(portion);
             }
-            Collections.sort(portions, new Comparator<TimePortions.Portion>() {
-                @Override
-                public int compare(TimePortions.Portion o1, TimePortions.Portion o2) {
-                    long minus = o1.ratio - o2.ratio;
-                    if (minus == 0) return 0;
-                    if (minus > 0) return -1;
-                    return 1;
-                }
-            });
+            Collections.sort(portions, PORTION_DESC);
             timePortions.portions = portions;
         }
         return timePortions;
     }
 
+    static final Comparator<TimePortions.Portion> PORTION_DESC = new Comparator<TimePortions.Portion>() {
+        @Override
+        public int compare(TimePortions.Portion o1, TimePortions.Portion o2) {
+            long minus = o1.ratio - o2.ratio;
+            if (minus == 0) return 0;
+            if (minus > 0) return -1;
+            return 1;
+        }
+    };
+
     static int configureRatio(long my, long total) {
         long round = Math.round(((double) my / total) * 100);
         if (round >= 100) return 100;
@@ -166,6 +169,288 @@ public final class TimeBreaker {
         long millis;
     }
 
+    /**
+     * Incremental version of {@link #configurePortions}: keeps the weight and stat millis of each key
+     * as the stamps are appended, so a query costs O(keys * log(stamps)) instead of copying and walking
+     * the whole stamp list.
+     *
+     * Keys are interned into ids. For each stamp the accumulator records the accumulated weight & millis
+     * of its own key by then, the weight of a key at any time T is looked up from the latest stamp of that
+     * key before T, and the portions of a window are the difference between its two ends.
+     *
+     * Half of the oldest stamps are dropped once the capacity is reached, the accumulated values of all
+     * keys are kept, so querying all the uptime is still exact while windows can only reach back to the
+     * oldest stamp kept. An appended stamp older than the latest one resets the accumulator, as
+     * {@link #configurePortions} stops walking there.
+     */
+    public static final class PortionAccumulator {
+        private final int mCapacity;
+        private final Map<String, Integer> mKeyIds = new HashMap<>();
+        private final List<String> mKeys = new ArrayList<>();
+
+        // Of each key id: accumulated values till the latest stamp & till the oldest stamp kept
+        private long[] mKeyWeights = new long[4];
+        private long[] mKeyMillis = new long[4];
+        private long[] mBaseWeights = new long[4];
+        private long[] mBaseMillis = new long[4];
+        // Of each key id: indexes of its stamps, in ascending order
+        private int[][] mKeyStamps = new int[4][];
+        private int[] mKeyStampCounts = new int[4];
+
+        // Of each stamp, the oldest first
+        private final long[] mUpTimes;
+        private final long[] mStatMillis;
+        private final int[] mStampKeys;
+        private final long[] mWeightsBefore;
+        private final long[] mMillisBefore;
+        private int mSize = 0;
+        private long mOriginUpTime = Long.MIN_VALUE;
+
+        public PortionAccumulator(int capacity) {
+            if (capacity < 2) {
+                throw new IllegalArgumentException("Illegal capacity: " + capacity);
+            }
+            mCapacity = capacity;
+            mUpTimes = new long[capacity];
+            mStatMillis = new long[capacity];
+            mStampKeys = new int[capacity];
+            mWeightsBefore = new long[capacity];
+            mMillisBefore = new long[capacity];
+        }
+
+        public synchronized int size() {
+            return mSize;
+        }
+
+        public synchronized void clear() {
+            for (int i = 0; i < mKeys.size(); i++) {
+                mKeyWeights[i] = 0;
+                mKeyMillis[i] = 0;
+                mBaseWeights[i] = 0;
+                mBaseMillis[i] = 0;
+                mKeyStampCounts[i] = 0;
+            }
+            mSize = 0;
+            mOriginUpTime = Long.MIN_VALUE;
+        }
+
+        public void append(Stamp stamp) {
+            append(stamp.key, stamp.upTime, stamp.statMillis);
+        }
+
+        public synchronized void append(String key, long upTime, long statMillis) {
+            if (mSize > 0) {
+                int last = mSize - 1;
+                if (upTime < mUpTimes[last]) {
+                    // invalid data
+                    clear();
+                } else {
+                    int lastKey = mStampKeys[last];
+                    mKeyWeights[lastKey] += upTime - mUpTimes[last];
+                    mKeyMillis[lastKey] += statMillis - mStatMillis[last];
+                }
+            }
+            if (mSize == 0) {
+                mOriginUpTime = upTime;
+            } else if (mSize == mCapacity) {
+                dropOldest(mSize / 2);
+            }
+
+            int keyId = intern(key);
+            int idx = mSize++;
+            mUpTimes[idx] = upTime;
+            mStatMillis[idx] = statMillis;
+            mStampKeys[idx] = keyId;
+            mWeightsBefore[idx] = mKeyWeights[keyId];
+            mMillisBefore[idx] = mKeyMillis[keyId];
+            int[] stamps = mKeyStamps[keyId];
+            if (stamps == null || mKeyStampCounts[keyId] == stamps.length) {
+                stamps = Arrays.copyOf(stamps == null ? new int[0] : stamps, Math.max(8, mKeyStampCounts[keyId] * 2));
+                mKeyStamps[keyId] = stamps;
+            }
+            stamps[mKeyStampCounts[keyId]++] = idx;
+        }
+
+        public TimePortions query(long windowToCurr) {
+            return query(windowToCurr, 10L, SystemClock.uptimeMillis(), System.currentTimeMillis());
+        }
+
+        /**
+         * Same as {@link #configurePortions(List, long, long, Stamp.Stamper)} with the stamp list appended
+         * so far and a stamper returning {@code currUpTime} & {@code currStatMillis}.
+         */
+        public synchronized TimePortions query(long windowToCurr, long delta, long currUpTime, long currStatMillis) {
+            TimePortions timePortions = new TimePortions();
+            if (mSize == 0) {
+                timePortions.mIsValid = false;
+                return timePortions;
+            }
+
+            int last = mSize - 1;
+            long endUpTime = mUpTimes[last];
+            long endStatMillis = mStatMillis[last];
+            if (currUpTime - endUpTime > delta) {
+                endUpTime = currUpTime;
+                endStatMillis = currStatMillis;
+            }
+
+            long bgnUpTime = windowToCurr <= 0L ? mOriginUpTime : endUpTime - windowToCurr;
+            int bgnIdx;
+            if (bgnUpTime <= mOriginUpTime) {
+                bgnUpTime = mOriginUpTime;
+                bgnIdx = -2;
+            } else if (bgnUpTime <= mUpTimes[0]) {
+                // the stamps before have been dropped
+                bgnUpTime = mUpTimes[0];
+                bgnIdx = -1;
+            } else {
+                bgnIdx = indexAtOrBefore(bgnUpTime);
+            }
+
+            long totalMillis = endUpTime - bgnUpTime;
+            if (totalMillis <= 0L) {
+                timePortions.mIsValid = false;
+                return timePortions;
+            }
+            if (windowToCurr > totalMillis) {
+                timePortions.mIsValid = false;
+            }
+
+            timePortions.totalUptime = totalMillis;
+            List<TimePortions.Portion> portions = new ArrayList<>();
+            for (int keyId = 0; keyId < mKeys.size(); keyId++) {
+                long weight = mKeyWeights[keyId];
+                long millis = mKeyMillis[keyId];
+                if (mStampKeys[last] == keyId) {
+                    weight += endUpTime - mUpTimes[last];
+                    millis += endStatMillis - mStatMillis[last];
+                }
+                if (bgnIdx == -1) {
+                    weight -= mBaseWeights[keyId];
+                    millis -= mBaseMillis[keyId];
+                } else if (bgnIdx >= 0) {
+                    int idx = lastStampOf(keyId, bgnIdx);
+                    if (idx < 0) {
+                        weight -= mBaseWeights[keyId];
+                        millis -= mBaseMillis[keyId];
+                    } else if (idx < bgnIdx) {
+                        weight -= mWeightsBefore[idx] + (mUpTimes[idx + 1] - mUpTimes[idx]);
+                        millis -= mMillisBefore[idx] + (mStatMillis[idx + 1] - mStatMillis[idx]);
+                    } else {
+                        // window edge is within the interval of this stamp
+                        long nextUpTime = idx + 1 < mSize ? mUpTimes[idx + 1] : endUpTime;
+                        long nextStatMillis = idx + 1 < mSize ? mStatMillis[idx + 1] : endStatMillis;
+                        long interval = nextUpTime - mUpTimes[idx];
+                        long lastInterval = nextUpTime - bgnUpTime;
+                        weight -= mWeightsBefore[idx] + (bgnUpTime - mUpTimes[idx]);
+                        millis -= mMillisBefore[idx] + (nextStatMillis - mStatMillis[idx]);
+                        if (interval > 0) {
+                            millis += (long) ((nextStatMillis - mStatMillis[idx]) * (((float) lastInterval) / interval));
+                        }
+                    }
+                }
+                if (weight > 0) {
+                    TimePortions.Portion portion = new TimePortions.Portion(mKeys.get(keyId), configureRatio(weight, totalMillis));
+                    portion.totalStatMillis = millis;
+                    portions.add(portion);
+                }
+            }
+            Collections.sort(portions, PORTION_DESC);
+            timePortions.portions = portions;
+            return timePortions;
+        }
+
+        private int intern(String key) {
+            Integer keyId = mKeyIds.get(key);
+            if (keyId != null) {
+                return keyId;
+            }
+            keyId = mKeys.size();
+            if (keyId == mKeyWeights.length) {
+                int newLength = keyId * 2;
+                mKeyWeights = Arrays.copyOf(mKeyWeights, newLength);
+                mKeyMillis = Arrays.copyOf(mKeyMillis, newLength);
+                mBaseWeights = Arrays.copyOf(mBaseWeights, newLength);
+                mBaseMillis = Arrays.copyOf(mBaseMillis, newLength);
+                mKeyStamps = Arrays.copyOf(mKeyStamps, newLength);
+                mKeyStampCounts = Arrays.copyOf(mKeyStampCounts, newLength);
+            }
+            mKeyIds.put(key, keyId);
+            mKeys.add(key);
+            return keyId;
+        }
+
+        /**
+         * Drops the oldest {@code count} stamps, the accumulated values of each key by the new oldest
+         * stamp go to the base.
+         */
+        private void dropOldest(int count) {
+            for (int keyId = 0; keyId < mKeys.size(); keyId++) {
+                int[] stamps = mKeyStamps[keyId];
+                int stampCount = mKeyStampCounts[keyId];
+                int kept = 0;
+                while (kept < stampCount && stamps[kept] < count) {
+                    kept++;
+                }
+                if (kept > 0) {
+                    int idx = stamps[kept - 1];
+                    mBaseWeights[keyId] = mWeightsBefore[idx] + (mUpTimes[idx + 1] - mUpTimes[idx]);
+                    mBaseMillis[keyId] = mMillisBefore[idx] + (mStatMillis[idx + 1] - mStatMillis[idx]);
+                }
+                for (int i = kept; i < stampCount; i++) {
+                    stamps[i - kept] = stamps[i] - count;
+                }
+                mKeyStampCounts[keyId] = stampCount - kept;
+            }
+            int remain = mSize - count;
+            System.arraycopy(mUpTimes, count, mUpTimes, 0, remain);
+            System.arraycopy(mStatMillis, count, mStatMillis, 0, remain);
+            System.arraycopy(mStampKeys, count, mStampKeys, 0, remain);
+            System.arraycopy(mWeightsBefore, count, mWeightsBefore, 0, remain);
+            System.arraycopy(mMillisBefore, count, mMillisBefore, 0, remain);
+            mSize = remain;
+        }
+
+        /**
+         * @return index of the latest stamp at or before {@code upTime}, {@code upTime} must not be before
+         * the oldest stamp.
+         */
+        private int indexAtOrBefore(long upTime) {
+            int low = 0;
+            int high = mSize - 1;
+            while (low < high) {
+                int mid = (low + high + 1) >>> 1;
+                if (mUpTimes[mid] <= upTime) {
+                    low = mid;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return low;
+        }
+
+        /**
+         * @return index of the latest stamp of the key at or before the stamp of {@code idx}, or -1 if
+         * there is none.
+         */
+        private int lastStampOf(int keyId, int idx) {
+            int[] stamps = mKeyStamps[keyId];
+            int low = 0;
+            int high = mKeyStampCounts[keyId] - 1;
+            int found = -1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (stamps[mid] <= idx) {
+                    found = stamps[mid];
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return found;
+        }
+    }
+
     public static class Stamp {
         public interface Stamper {
             Stamp stamp(String key);
@@ -0,0 +1,164 @@
+/*
+ * Tencent is pleased to support the open source community by making wechat-matrix available.
+ * Copyright (C) 2018 THL A29 Limited, a Tencent company. All rights reserved.
+ * Licensed under the BSD 3-Clause License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.matrix.batterycanary;
+
+import com.tencent.matrix.batterycanary.utils.JiffiesTimeSeries;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.List;
+
+
+@RunWith(JUnit4.class)
+public class JiffiesTimeSeriesTest {
+
+    private static final int[] TIDS = {1, 2, 3, 4};
+    private static final String[] NAMES = {"main", "worker-1", "worker-2", "worker-3"};
+
+    private static void append(JiffiesTimeSeries series, long uptime, long procJiffies, long... threadJiffies) {
+        series.append(uptime, procJiffies, TIDS, NAMES, threadJiffies);
+    }
+
+    @Test
+    public void testWrapAround() {
+        JiffiesTimeSeries series = new JiffiesTimeSeries(4);
+        Assert.assertNull(series.query(0, Long.MAX_VALUE));
+        append(series, 1000L, 10L, 0, 0, 0, 0);
+        Assert.assertNull(series.query(0, Long.MAX_VALUE));
+
+        for (int i = 2; i <= 6; i++) {
+            append(series, i * 1000L, i * 10L, 0, 0, 0, 0);
+        }
+        Assert.assertEquals(4, series.getCapacity());
+        Assert.assertEquals(4, series.size());
+
+        // Samples of 1000 & 2000 have been overwritten
+        JiffiesTimeSeries.Window window = series.query(0, Long.MAX_VALUE);
+        Assert.assertNotNull(window);
+        Assert.assertEquals(3000L, window.bgnMillis);
+        Assert.assertEquals(6000L, window.endMillis);
+        Assert.assertEquals(30L, window.jiffies);
+        Assert.assertEquals(3, window.sampleCount);
+
+        // Wrap around once more
+        for (int i = 7; i <= 9; i++) {
+            append(series, i * 1000L, i * 10L, 0, 0, 0, 0);
+        }
+        window = series.query(0, Long.MAX_VALUE);
+        Assert.assertNotNull(window);
+        Assert.assertEquals(6000L, window.bgnMillis);
+        Assert.assertEquals(9000L, window.endMillis);
+        Assert.assertEquals(30L, window.jiffies);
+
+        series.clear();
+        Assert.assertEquals(0, series.size());
+        Assert.assertNull(series.query(0, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testQueryOverwrittenStart() {
+        JiffiesTimeSeries series = new JiffiesTimeSeries(4);
+        for (int i = 1; i <= 6; i++) {
+            append(series, i * 1000L, i * 10L, 0, 0, 0, 0);
+        }
+
+        // Starts at the oldest sample kept instead
+        JiffiesTimeSeries.Window window = series.query(1500L, 5000L);
+        Assert.assertNotNull(window);
+        Assert.assertEquals(3000L, window.bgnMillis);
+        Assert.assertEquals(5000L, window.endMillis);
+        Assert.assertEquals(20L, window.jiffies);
+        Assert.assertEquals(2, window.sampleCount);
+        Assert.assertEquals(2000L, window.getDuringMillis());
+
+        // Edges between samples fall back to the samples before
+        window = series.query(3500L, 5999L);
+        Assert.assertNotNull(window);
+        Assert.assertEquals(3000L, window.bgnMillis);
+        Assert.assertEquals(5000L, window.endMillis);
+
+        // Less than two samples in the window
+        Assert.assertNull(series.query(4000L, 4500L));
+        Assert.assertNull(series.query(0L, 2000L));
+    }
+
+    @Test
+    public void testTopThreads() {
+        JiffiesTimeSeries series = new JiffiesTimeSeries(4);
+        append(series, 1000L, 0L, 0, 0, 0, 0);
+        append(series, 2000L, 100L, 5, 40, 20, 30);
+        append(series, 3000L, 200L, 50, 1, 0, 30);
+
+        JiffiesTimeSeries.Window window = series.query(0, Long.MAX_VALUE);
+        Assert.assertNotNull(window);
+        List<JiffiesTimeSeries.ThreadJiffies> threads = window.threadJiffies;
+        // tid 1 (5 jiffies) is not in the top 3 of the first sample, tid 3 (0 jiffies) not counted in the second
+        Assert.assertEquals(4, threads.size());
+        Assert.assertEquals(4, threads.get(0).tid);
+        Assert.assertEquals(60L, threads.get(0).jiffies);
+        Assert.assertEquals(1, threads.get(1).tid);
+        Assert.assertEquals(50L, threads.get(1).jiffies);
+        Assert.assertEquals("main", threads.get(1).name);
+        Assert.assertEquals(2, threads.get(2).tid);
+        Assert.assertEquals(41L, threads.get(2).jiffies);
+        Assert.assertEquals(3, threads.get(3).tid);
+        Assert.assertEquals(20L, threads.get(3).jiffies);
+    }
+
+    @Test
+    public void testFindBursts() {
+        JiffiesTimeSeries series = new JiffiesTimeSeries(5);
+        // Overwritten by the wrap-around, never a burst
+        append(series, 0L, 0L, 0, 0, 0, 0);
+        append(series, 1000L, 100L, 100, 0, 0, 0);
+        // 10 jiffies per second, i.e. 600 per minute, is a burst with threshold 300
+        append(series, 2000L, 110L, 0, 0, 0, 0);
+        append(series, 3000L, 120L, 2, 8, 0, 0);
+        append(series, 4000L, 130L, 3, 0, 7, 0);
+        append(series, 5000L, 131L, 1, 0, 0, 0);
+        append(series, 6000L, 141L, 0, 0, 0, 10);
+
+        List<JiffiesTimeSeries.Burst> bursts = series.findBursts(0, Long.MAX_VALUE, 300L);
+        Assert.assertEquals(2, bursts.size());
+
+        JiffiesTimeSeries.Burst burst = bursts.get(0);
+        Assert.assertEquals(2000L, burst.bgnMillis);
+        Assert.assertEquals(4000L, burst.endMillis);
+        Assert.assertEquals(2000L, burst.getDuringMillis());
+        Assert.assertEquals(20L, burst.jiffies);
+        Assert.assertEquals(2, burst.peakTid);
+        Assert.assertEquals("worker-1", burst.peakThreadName);
+        Assert.assertEquals(8L, burst.peakThreadJiffies);
+
+        burst = bursts.get(1);
+        Assert.assertEquals(5000L, burst.bgnMillis);
+        Assert.assertEquals(6000L, burst.endMillis);
+        Assert.assertEquals(10L, burst.jiffies);
+        Assert.assertEquals(4, burst.peakTid);
+
+        // Runs are cut by the edges of the window
+        bursts = series.findBursts(3000L, 5000L, 300L);
+        Assert.assertEquals(1, bursts.size());
+        Assert.assertEquals(3000L, bursts.get(0).bgnMillis);
+        Assert.assertEquals(4000L, bursts.get(0).endMillis);
+
+        Assert.assertTrue(series.findBursts(0, Long.MAX_VALUE, 601L).isEmpty());
+    }
+}
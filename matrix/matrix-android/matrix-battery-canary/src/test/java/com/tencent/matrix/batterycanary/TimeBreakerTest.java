@@ -32,6 +32,7 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
+import java.util.Random;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -379,4 +380,96 @@ public class TimeBreakerTest {
             Assert.assertEquals("0", list.get(list.size() - 1).key);
         }
     }
+
+    @Test
+    public void testPortionAccumulator() {
+        Random random = new Random(2333);
+        for (int round = 0; round < 20; round++) {
+            final List<TimeBreaker.Stamp> stampList = new ArrayList<>();
+            TimeBreaker.PortionAccumulator accumulator = new TimeBreaker.PortionAccumulator(1024);
+            long upTime = random.nextInt(1000);
+            long statMillis = 1600000000000L;
+            for (int i = 0; i < 200; i++) {
+                upTime += random.nextInt(1000);
+                statMillis += random.nextInt(2000);
+                TimeBreaker.Stamp stamp = new TimeBreaker.Stamp(String.valueOf(random.nextInt(5)), upTime, statMillis);
+                stampList.add(0, stamp);
+                accumulator.append(stamp);
+                if (i % 10 == 0) {
+                    final long currUpTime = upTime + random.nextInt(20);
+                    final long currStatMillis = statMillis + random.nextInt(40);
+                    for (long window : Arrays.asList(0L, 1L, 100L, 999L, 5000L, 50000L, currUpTime, Long.MAX_VALUE)) {
+                        TimeBreaker.TimePortions expected = configurePortions(stampList, window, 10L, new TimeBreaker.Stamp.Stamper() {
+                            @Override
+                            public TimeBreaker.Stamp stamp(String key) {
+                                return new TimeBreaker.Stamp(key, currUpTime, currStatMillis);
+                            }
+                        });
+                        TimeBreaker.TimePortions actual = accumulator.query(window, 10L, currUpTime, currStatMillis);
+                        assertPortionsEquals(expected, actual);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testPortionAccumulatorDropOldest() {
+        Random random = new Random(2333);
+        final List<TimeBreaker.Stamp> stampList = new ArrayList<>();
+        TimeBreaker.PortionAccumulator accumulator = new TimeBreaker.PortionAccumulator(16);
+        long upTime = 0;
+        long statMillis = 0;
+        for (int i = 0; i < 100; i++) {
+            upTime += 1 + random.nextInt(1000);
+            statMillis += random.nextInt(2000);
+            TimeBreaker.Stamp stamp = new TimeBreaker.Stamp(String.valueOf(random.nextInt(5)), upTime, statMillis);
+            stampList.add(0, stamp);
+            accumulator.append(stamp);
+        }
+        Assert.assertTrue(accumulator.size() <= 16);
+
+        final long currUpTime = upTime + 100;
+        final long currStatMillis = statMillis + 100;
+        TimeBreaker.Stamp.Stamper stamper = new TimeBreaker.Stamp.Stamper() {
+            @Override
+            public TimeBreaker.Stamp stamp(String key) {
+                return new TimeBreaker.Stamp(key, currUpTime, currStatMillis);
+            }
+        };
+        // all the uptime is still exact
+        assertPortionsEquals(configurePortions(stampList, 0L, 10L, stamper), accumulator.query(0L, 10L, currUpTime, currStatMillis));
+        // so are the windows within the stamps kept
+        long window = currUpTime - stampList.get(accumulator.size() - 1).upTime;
+        assertPortionsEquals(configurePortions(stampList, window, 10L, stamper), accumulator.query(window, 10L, currUpTime, currStatMillis));
+        // while the windows beyond are invalid
+        Assert.assertFalse(accumulator.query(window + 1, 10L, currUpTime, currStatMillis).isValid());
+
+        // reset by a stamp going backwards
+        accumulator.append(new TimeBreaker.Stamp("1", upTime - 1, statMillis));
+        Assert.assertEquals(1, accumulator.size());
+        Assert.assertEquals(101L, accumulator.query(0L, 10L, currUpTime, currStatMillis).totalUptime);
+        Assert.assertEquals(100, accumulator.query(0L, 10L, currUpTime, currStatMillis).getRatio("1"));
+    }
+
+    private static void assertPortionsEquals(TimeBreaker.TimePortions expected, TimeBreaker.TimePortions actual) {
+        Assert.assertEquals(expected.isValid(), actual.isValid());
+        Assert.assertEquals(expected.totalUptime, actual.totalUptime);
+        for (TimeBreaker.TimePortions.Portion item : expected.portions) {
+            Assert.assertEquals(item.ratio, actual.getRatio(item.key));
+            if (item.ratio > 0) {
+                TimeBreaker.TimePortions.Portion found = null;
+                for (TimeBreaker.TimePortions.Portion portion : actual.portions) {
+                    if (portion.key.equals(item.key)) {
+                        found = portion;
+                    }
+                }
+                Assert.assertNotNull(found);
+                Assert.assertEquals(item.totalStatMillis, found.totalStatMillis, 2);
+            }
+        }
+        if (!actual.portions.isEmpty()) {
+            Assert.assertEquals(Objects.requireNonNull(expected.top1()).ratio, Objects.requireNonNull(actual.top1()).ratio);
+        }
+    }
 }
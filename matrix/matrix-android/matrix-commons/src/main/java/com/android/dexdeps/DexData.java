@@ -16,35 +16,52 @@
 
 package com.android.dexdeps;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 
 /**
  * Data extracted from a DEX file.
+ *
+ * The whole file is read into a buffer at once, or taken from a caller's
+ * buffer (which may be memory-mapped), instead of seeking and reading a
+ * few bytes at a time.  Only the strings the queries need are decoded.
  */
 @SuppressWarnings("PMD")
 public class DexData {
     private RandomAccessFile mDexFile;
+    private ByteBuffer mBuffer;
     private HeaderItem mHeaderItem;
-    private String[] mStrings;              // strings from string_data_*
+    private int[] mStringOffsets;           // offsets of string_data_*
+    private String[] mStrings;              // strings decoded on demand
     private TypeIdItem[] mTypeIds;
     private ProtoIdItem[] mProtoIds;
     private FieldIdItem[] mFieldIds;
     private MethodIdItem[] mMethodIds;
     private ClassDefItem[] mClassDefs;
 
-    private byte[] tmpBuf = new byte[4];
-    private boolean isBigEndian = false;
-
     /**
-     * Constructs a new DexData for this file.
+     * Constructs a new DexData for this file.  The file may be closed
+     * once {@link #load()} returns.
      */
     public DexData(RandomAccessFile raf) {
         mDexFile = raf;
     }
 
+    /**
+     * Constructs a new DexData for the DEX in this buffer, from its
+     * position to its limit.
+     */
+    public DexData(ByteBuffer buffer) {
+        mBuffer = buffer.slice();
+    }
+
     /**
      * Loads the contents of the DEX file into our data structures.
      *
@@ -52,16 +69,43 @@ public class DexData {
      * @throws DexDataException if the DEX contents look bad
      */
     public void load() throws IOException {
-        parseHeaderItem();
+        if (mBuffer == null) {
+            mBuffer = readFully(mDexFile.getChannel());
+        }
+        mBuffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        try {
+            parseHeaderItem();
+
+            loadStrings();
+            loadTypeIds();
+            loadProtoIds();
+            loadFieldIds();
+            loadMethodIds();
+            loadClassDefs();
+
+            markInternalClasses();
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            // read past the end, what RandomAccessFile.readFully reported as EOF
+            throw new IOException("DEX file is truncated", e);
+        }
+    }
 
-        loadStrings();
-        loadTypeIds();
-        loadProtoIds();
-        loadFieldIds();
-        loadMethodIds();
-        loadClassDefs();
 
-        markInternalClasses();
+    /**
+     * Reads the whole file with one bulk read.  It is not mapped, a mapping
+     * would keep the file open until the buffer is collected, and the
+     * callers delete the unzipped DEX files right after the job.
+     */
+    private static ByteBuffer readFully(FileChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, buffer.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+        buffer.flip();
+        return buffer;
     }
 
     /**
@@ -101,7 +145,7 @@ public class DexData {
             /* do nothing */
         } else if (mHeaderItem.endianTag == HeaderItem.REVERSE_ENDIAN_CONSTANT) {
             /* file is big-endian (!), reverse future reads */
-            isBigEndian = true;
+            mBuffer.order(ByteOrder.BIG_ENDIAN);
         } else {
             System.err.println("Endian constant has unexpected value "
                     + Integer.toHexString(mHeaderItem.endianTag));
@@ -134,28 +178,39 @@ public class DexData {
     /**
      * Loads the string table out of the DEX.
      *
-     * First we read all of the string_id_items, then we read all of the
-     * string_data_item.  Doing it this way should allow us to avoid
-     * seeking around in the file.
+     * Only the string_id_items are read here.  Most of the strings are
+     * literals of the code which no query needs, so a string_data_item is
+     * decoded by {@link #getString(int)} the first time it is asked for.
      */
     void loadStrings() throws IOException {
         int count = mHeaderItem.stringIdsSize;
-        int[] stringOffsets = new int[count];
+        mStringOffsets = new int[count];
 
         //System.out.println("reading " + count + " strings");
 
         seek(mHeaderItem.stringIdsOff);
-        for (int i = 0; i < count; i++) {
-            stringOffsets[i] = readInt();
-        }
+        mBuffer.asIntBuffer().get(mStringOffsets);
 
         mStrings = new String[count];
+    }
 
-        for (int i = 0; i < count; i++) {
-            seek(stringOffsets[i]);         // should be a no-op
-            mStrings[i] = readString();
-            //System.out.println("STR: " + i + ": " + mStrings[i]);
+    /**
+     * Returns the string at the given index into the string_ids table,
+     * decoding it on first use.
+     */
+    private String getString(int idx) {
+        String str = mStrings[idx];
+        if (str == null) {
+            try {
+                seek(mStringOffsets[idx]);
+                str = readString();
+            } catch (IOException | BufferUnderflowException | IndexOutOfBoundsException e) {
+                // the string_data_item is past the end of the file
+                throw new DexDataException();
+            }
+            mStrings[idx] = str;
         }
+        return str;
     }
 
     /**
@@ -298,7 +353,7 @@ public class DexData {
         }
 
         for (int i = 0; i < mTypeIds.length; i++) {
-            String className = mStrings[mTypeIds[i].descriptorIdx];
+            String className = getString(mTypeIds[i].descriptorIdx);
 
             if (className.length() == 1) {
                 // primitive class
@@ -324,7 +379,7 @@ public class DexData {
      * Returns the class name, given an index into the type_ids table.
      */
     private String classNameFromTypeIndex(int idx) {
-        return mStrings[mTypeIds[idx].descriptorIdx];
+        return getString(mTypeIds[idx].descriptorIdx);
     }
 
     /**
@@ -336,7 +391,7 @@ public class DexData {
         String[] result = new String[protoId.types.length];
 
         for (int i = 0; i < protoId.types.length; i++) {
-            result[i] = mStrings[mTypeIds[protoId.types[i]].descriptorIdx];
+            result[i] = getString(mTypeIds[protoId.types[i]].descriptorIdx);
         }
 
         return result;
@@ -348,7 +403,7 @@ public class DexData {
      */
     private String returnTypeFromProtoIndex(int idx) {
         ProtoIdItem protoId = mProtoIds[idx];
-        return mStrings[mTypeIds[protoId.returnTypeIdx].descriptorIdx];
+        return getString(mTypeIds[protoId.returnTypeIdx].descriptorIdx);
     }
 
     /**
@@ -366,7 +421,7 @@ public class DexData {
         for (int i = 0; i < mTypeIds.length; i++) {
             if (!mTypeIds[i].internal) {
                 sparseRefs[i] =
-                    new ClassRef(mStrings[mTypeIds[i].descriptorIdx]);
+                    new ClassRef(getString(mTypeIds[i].descriptorIdx));
                 count++;
             }
         }
@@ -400,7 +455,7 @@ public class DexData {
                 FieldRef newFieldRef = new FieldRef(
                         classNameFromTypeIndex(fieldId.classIdx),
                         classNameFromTypeIndex(fieldId.typeIdx),
-                        mStrings[fieldId.nameIdx]);
+                        getString(fieldId.nameIdx));
                 sparseRefs[mFieldIds[i].classIdx].addField(newFieldRef);
             }
         }
@@ -418,7 +473,7 @@ public class DexData {
                         classNameFromTypeIndex(methodId.classIdx),
                         argArrayFromProtoIndex(methodId.protoIdx),
                         returnTypeFromProtoIndex(methodId.protoIdx),
-                        mStrings[methodId.nameIdx]);
+                        getString(methodId.nameIdx));
                 sparseRefs[mMethodIds[i].classIdx].addMethod(newMethodRef);
             }
         }
@@ -440,7 +495,7 @@ public class DexData {
         for (int i = 0; i < mTypeIds.length; i++) {
             if (mTypeIds[i].internal) {
                 sparseRefs[i] =
-                        new ClassRef(mStrings[mTypeIds[i].descriptorIdx]);
+                        new ClassRef(getString(mTypeIds[i].descriptorIdx));
                 count++;
             }
         }
@@ -474,7 +529,7 @@ public class DexData {
                 FieldRef newFieldRef = new FieldRef(
                         classNameFromTypeIndex(fieldId.classIdx),
                         classNameFromTypeIndex(fieldId.typeIdx),
-                        mStrings[fieldId.nameIdx]);
+                        getString(fieldId.nameIdx));
                 sparseRefs[mFieldIds[i].classIdx].addField(newFieldRef);
             }
         }
@@ -492,7 +547,7 @@ public class DexData {
                         classNameFromTypeIndex(methodId.classIdx),
                         argArrayFromProtoIndex(methodId.protoIdx),
                         returnTypeFromProtoIndex(methodId.protoIdx),
-                        mStrings[methodId.nameIdx]);
+                        getString(methodId.nameIdx));
                 sparseRefs[mMethodIds[i].classIdx].addMethod(newMethodRef);
             }
         }
@@ -511,7 +566,7 @@ public class DexData {
                     classNameFromTypeIndex(methodId.classIdx),
                     argArrayFromProtoIndex(methodId.protoIdx),
                     returnTypeFromProtoIndex(methodId.protoIdx),
-                    mStrings[methodId.nameIdx]);
+                    getString(methodId.nameIdx));
         }
         return methodRefs;
     }
@@ -526,7 +581,7 @@ public class DexData {
             fieldRefs[i] = new FieldRef(
                     classNameFromTypeIndex(fieldId.classIdx),
                     classNameFromTypeIndex(fieldId.typeIdx),
-                    mStrings[fieldId.nameIdx]);
+                    getString(fieldId.nameIdx));
         }
         return fieldRefs;
     }
@@ -541,64 +596,56 @@ public class DexData {
      * Seeks the DEX file to the specified absolute position.
      */
     void seek(int position) throws IOException {
-        mDexFile.seek(position);
+        mBuffer.position(position);
     }
 
     /**
      * Fills the buffer by reading bytes from the DEX file.
      */
     void readBytes(byte[] buffer) throws IOException {
-        mDexFile.readFully(buffer);
+        mBuffer.get(buffer);
     }
 
     /**
      * Reads a single signed byte value.
      */
     byte readByte() throws IOException {
-        mDexFile.readFully(tmpBuf, 0, 1);
-        return tmpBuf[0];
+        return mBuffer.get();
     }
 
     /**
      * Reads a signed 16-bit integer, byte-swapping if necessary.
      */
     short readShort() throws IOException {
-        mDexFile.readFully(tmpBuf, 0, 2);
-        if (isBigEndian) {
-            return (short) ((tmpBuf[1] & 0xff) | ((tmpBuf[0] & 0xff) << 8));
-        } else {
-            return (short) ((tmpBuf[0] & 0xff) | ((tmpBuf[1] & 0xff) << 8));
-        }
+        return mBuffer.getShort();
     }
 
     /**
      * Reads a signed 32-bit integer, byte-swapping if necessary.
      */
     int readInt() throws IOException {
-        mDexFile.readFully(tmpBuf, 0, 4);
-
-        if (isBigEndian) {
-            return (tmpBuf[3] & 0xff) | ((tmpBuf[2] & 0xff) << 8)
-                    | ((tmpBuf[1] & 0xff) << 16) | ((tmpBuf[0] & 0xff) << 24);
-        } else {
-            return (tmpBuf[0] & 0xff) | ((tmpBuf[1] & 0xff) << 8)
-                    | ((tmpBuf[2] & 0xff) << 16) | ((tmpBuf[3] & 0xff) << 24);
-        }
+        return mBuffer.getInt();
     }
 
     /**
      * Reads a variable-length unsigned LEB128 value.  Does not attempt to
      * verify that the value is valid.
      *
-     * @throws EOFException if we run off the end of the file
+     * The 7-bit groups come low-order first.  A DEX uleb128 holds 32 bits
+     * in at most 5 bytes, the bits of any longer encoding are consumed but
+     * dropped.
      */
     int readUnsignedLeb128() throws IOException {
         int result = 0;
+        int shift = 0;
         byte val;
 
         do {
             val = readByte();
-            result = (result << 7) | (val & 0x7f);
+            if (shift < 32) {
+                result |= (val & 0x7f) << shift;
+            }
+            shift += 7;
         } while (val < 0);
 
         return result;
@@ -607,25 +654,21 @@ public class DexData {
     /**
      * Reads a UTF-8 string.
      *
-     * We don't know how long the UTF-8 string is, so we have to read one
-     * byte at a time.  We could make an educated guess based on the
-     * utf16_size and seek back if we get it wrong, but seeking backward
-     * may cause the underlying implementation to reload I/O buffers.
+     * The utf16_size only bounds the length, so the end is found by
+     * looking for the terminating zero, then the bytes are copied at once.
      */
     String readString() throws IOException {
         int utf16len = readUnsignedLeb128();
-        byte[] inBuf = new byte[utf16len * 3];      // worst case
-        int idx;
-
-        for (idx = 0; idx < inBuf.length; idx++) {
-            byte val = readByte();
-            if (val == 0) {
-                break;
-            }
-            inBuf[idx] = val;
+        int start = mBuffer.position();
+        int limit = (int) Math.min(mBuffer.limit(), start + (long) utf16len * 3);      // worst case
+        int end = start;
+        while (end < limit && mBuffer.get(end) != 0) {
+            end++;
         }
 
-        return new String(inBuf, 0, idx, "UTF-8");
+        byte[] inBuf = new byte[end - start];
+        readBytes(inBuf);
+        return new String(inBuf, StandardCharsets.UTF_8);
     }
 
 
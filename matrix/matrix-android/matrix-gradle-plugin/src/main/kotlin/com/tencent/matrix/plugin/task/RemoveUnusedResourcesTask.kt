@@ -208,9 +208,11 @@ abstract class RemoveUnusedResourcesTask : DefaultTask() {
 
                                 val reader = ArscReader(srcArscFile.absolutePath)
                                 val resTable = reader.readResourceTable()
+                                val resourcesGonnaRemoved = HashMap<Int, String>()
                                 for (resName in removeResources.keys) {
-                                    ArscUtil.removeResource(resTable, removeResources[resName]!!, resName)
+                                    resourcesGonnaRemoved[removeResources[resName]!!] = resName
                                 }
+                                ArscUtil.removeResources(resTable, resourcesGonnaRemoved)
                                 val writer = ArscWriter(destArscFile.absolutePath)
                                 writer.writeResTable(resTable)
                                 Log.i(TAG, "Shrink resources.arsc size %f KB", (srcArscFile.length() - destArscFile.length()) / 1024.0)
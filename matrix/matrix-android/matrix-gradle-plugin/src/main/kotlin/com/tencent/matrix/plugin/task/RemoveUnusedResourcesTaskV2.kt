@@ -207,12 +207,14 @@ abstract class RemoveUnusedResourcesTaskV2 : DefaultTask() {
 
                 //remove unused resources
                 if (rmUnused && isShrinkArscEnabled) {
+                    val resourcesGonnaRemoved = HashMap<Int, String>()
                     for (resName in mapOfResourcesGonnaRemoved.keys) {
                         val resourceId = mapOfResourcesGonnaRemoved[resName]
                         if (resourceId != null) {
-                            ArscUtil.removeResource(resTable, resourceId, resName)
+                            resourcesGonnaRemoved[resourceId] = resName
                         }
                     }
+                    ArscUtil.removeResources(resTable, resourcesGonnaRemoved)
                 }
 
                 //remove duplicated resources
@@ -254,6 +256,34 @@ abstract class RemoveUnusedResourcesTaskV2 : DefaultTask() {
 
                 val compressedEntry = HashSet<String>()
 
+                //proguard resource file name, all the files are replaced in resources.arsc at once
+                var replacedResFiles: Set<String> = HashSet()
+                if (arsc != null && isResGuardEnabled) {
+                    val resFileNames = HashMap<Int, MutableMap<String, String>>()
+                    for (zipEntry in zipInputFile.entries()) {
+                        if (zipEntry.isDirectory || !zipEntry.name.startsWith(obfuscatedResourcesDirectoryName ?: "res/")) continue
+                        val resourceName = ApkUtil.entryToResourceName(zipEntry.name, resguardMapping)
+                        if (Util.isNullOrNil(resourceName)
+                                || mapOfResourcesGonnaRemoved.containsKey(resourceName)
+                                || mapOfDuplicatesReplacements.containsKey(zipEntry.name)
+                                || !mapOfResources.containsKey(resourceName)) {
+                            continue
+                        }
+                        val dir = zipEntry.name.substring(0, zipEntry.name.lastIndexOf("/"))
+                        val suffix = zipEntry.name.substring(zipEntry.name.indexOf("."))
+                        Log.d(TAG, "resource %s dir %s", resourceName, dir)
+                        if (!resultOfObfuscatedDirs.containsKey(dir)) {
+                            val proguardDir = dirProguard.generateNextProguardFileName()
+                            resultOfObfuscatedDirs[dir] = "$RES_DIR_PROGUARD_NAME/$proguardDir"
+                            dirFileProguard[dir] = ProguardStringBuilder()
+                            Log.d(TAG, "dir %s, proguard builder", dir)
+                        }
+                        resultOfObfuscatedFiles[zipEntry.name] = resultOfObfuscatedDirs[dir] + "/" + dirFileProguard[dir]!!.generateNextProguardFileName() + suffix
+                        resFileNames.getOrPut(mapOfResources[resourceName]!!) { HashMap() }[zipEntry.name] = resultOfObfuscatedFiles[zipEntry.name]!!
+                    }
+                    replacedResFiles = ArscUtil.replaceResFileNames(resTable, resFileNames)
+                }
+
                 for (zipEntry in zipInputFile.entries()) {
                     if (zipEntry.isDirectory) continue
 
@@ -269,23 +299,8 @@ abstract class RemoveUnusedResourcesTaskV2 : DefaultTask() {
                                 Log.d(TAG, "remove duplicated resource file %s", zipEntry.name)
                                 continue
                             } else {
-                                if (arsc != null && isResGuardEnabled) {
-                                    if (mapOfResources.containsKey(resourceName)) {
-                                        val dir = zipEntry.name.substring(0, zipEntry.name.lastIndexOf("/"))
-                                        val suffix = zipEntry.name.substring(zipEntry.name.indexOf("."))
-                                        Log.d(TAG, "resource %s dir %s", resourceName, dir)
-                                        if (!resultOfObfuscatedDirs.containsKey(dir)) {
-                                            val proguardDir = dirProguard.generateNextProguardFileName()
-                                            resultOfObfuscatedDirs[dir] = "$RES_DIR_PROGUARD_NAME/$proguardDir"
-                                            dirFileProguard[dir] = ProguardStringBuilder()
-                                            Log.d(TAG, "dir %s, proguard builder", dir)
-                                        }
-                                        resultOfObfuscatedFiles[zipEntry.name] = resultOfObfuscatedDirs[dir] + "/" + dirFileProguard[dir]!!.generateNextProguardFileName() + suffix
-                                        val success = ArscUtil.replaceResFileName(resTable, mapOfResources[resourceName]!!, zipEntry.name, resultOfObfuscatedFiles[zipEntry.name])
-                                        if (success) {
-                                            destFile = unzipDir.canonicalPath + File.separator + resultOfObfuscatedFiles[zipEntry.name]!!.replace('/', File.separatorChar)
-                                        }
-                                    }
+                                if (replacedResFiles.contains(zipEntry.name)) {
+                                    destFile = unzipDir.canonicalPath + File.separator + resultOfObfuscatedFiles[zipEntry.name]!!.replace('/', File.separatorChar)
                                 }
                                 if (zipEntry.method == ZipEntry.DEFLATED) {
                                     compressedEntry.add(destFile)
@@ -0,0 +1,252 @@
+/*
+ * Tencent is pleased to support the open source community by making wechat-matrix available.
+ * Copyright (C) 2018 THL A29 Limited, a Tencent company. All rights reserved.
+ * Licensed under the BSD 3-Clause License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.matrix.resource.analyzer;
+
+import com.tencent.matrix.resource.analyzer.CLIMain.CanaryResultInfo;
+import com.tencent.matrix.resource.analyzer.model.ActivityLeakResult;
+import com.tencent.matrix.resource.analyzer.model.AndroidExcludedBmpRefs;
+import com.tencent.matrix.resource.analyzer.model.AndroidExcludedRefs;
+import com.tencent.matrix.resource.analyzer.model.DuplicatedBitmapResult;
+import com.tencent.matrix.resource.analyzer.model.ExcludedBmps;
+import com.tencent.matrix.resource.analyzer.model.ExcludedRefs;
+import com.tencent.matrix.resource.analyzer.model.HeapSnapshot;
+import com.tencent.matrix.resource.common.utils.StreamUtil;
+
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Analyzes many resource canary results in one JVM.
+ *
+ * Results are analyzed concurrently on a bounded pool and every finished dump is appended
+ * to the output as one JSON line (NDJSON), so downstream consumers can start before the
+ * whole batch is done. Excluded refs are built once per (sdkVersion, manufacturer) and
+ * shared by all dumps.
+ */
+public final class BatchAnalyzer {
+    private static final long ONE_MB = 1024L * 1024L;
+
+    /**
+     * Rough ratio between the heap perflib needs to index a dump and the size of the hprof itself.
+     */
+    private static final int HEAP_COST_PER_HPROF_BYTE = 2;
+
+    private final int mMinBmpLeakSize;
+    private final int mThreadCount;
+    private final int mMemoryBudgetMb;
+    private final Semaphore mMemoryPermits;
+    private final ExcludedBmps mExcludedBmps;
+    private final ConcurrentMap<String, ExcludedRefs> mExcludedRefsCache = new ConcurrentHashMap<>();
+
+    private PrintWriter mResultWriter = null;
+
+    public BatchAnalyzer(int minBmpLeakSize, int threadCount, int memoryBudgetMb) {
+        mMinBmpLeakSize = minBmpLeakSize;
+        mThreadCount = Math.max(1, threadCount);
+        mMemoryBudgetMb = Math.max(1, memoryBudgetMb);
+        mMemoryPermits = new Semaphore(mMemoryBudgetMb, true);
+        mExcludedBmps = AndroidExcludedBmpRefs.createDefaults().build();
+    }
+
+    /**
+     * @param input a directory containing result zips, or a text file listing one result path per line.
+     */
+    public static List<File> collectInputs(File input) throws IOException {
+        final List<File> inputs = new ArrayList<>();
+        if (input.isDirectory()) {
+            final File[] files = input.listFiles();
+            if (files != null) {
+                Arrays.sort(files);
+                for (File file : files) {
+                    if (file.isFile() && (file.getName().endsWith(".zip") || file.getName().endsWith(".jar"))) {
+                        inputs.add(file);
+                    }
+                }
+            }
+        } else {
+            BufferedReader br = null;
+            try {
+                br = new BufferedReader(new FileReader(input));
+                String line = null;
+                while ((line = br.readLine()) != null) {
+                    line = line.trim();
+                    if (line.isEmpty() || line.startsWith("#")) {
+                        continue;
+                    }
+                    inputs.add(new File(line));
+                }
+            } finally {
+                StreamUtil.closeQuietly(br);
+            }
+        }
+        return inputs;
+    }
+
+    public void analyze(List<File> inputs, File outputFile) throws IOException, InterruptedException {
+        final File outputDir = outputFile.getAbsoluteFile().getParentFile();
+        if (outputDir != null && !outputDir.exists()) {
+            outputDir.mkdirs();
+        }
+
+        final long[] latenciesMs = new long[inputs.size()];
+        final AtomicInteger failedCount = new AtomicInteger(0);
+        final ExecutorService executor = Executors.newFixedThreadPool(mThreadCount);
+        final long batchStartNanoTime = System.nanoTime();
+        try {
+            mResultWriter = new PrintWriter(new BufferedWriter(new FileWriter(outputFile)));
+            for (int i = 0; i < inputs.size(); ++i) {
+                final int index = i;
+                final File input = inputs.get(i);
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        final long startNanoTime = System.nanoTime();
+                        final JSONObject line = new JSONObject();
+                        line.put("input", input.getPath());
+                        try {
+                            line.put("result", analyzeOne(input));
+                            line.put("succeeded", true);
+                        } catch (Throwable thr) {
+                            failedCount.incrementAndGet();
+                            line.put("succeeded", false);
+                            line.put("error", String.valueOf(thr));
+                        }
+                        latenciesMs[index] = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanoTime);
+                        line.put("analyzeDurationMs", latenciesMs[index]);
+                        writeResultLine(line);
+                    }
+                });
+            }
+            executor.shutdown();
+            while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                System.out.println(" + Waiting for batch analysis to finish...");
+            }
+        } finally {
+            executor.shutdownNow();
+            StreamUtil.closeQuietly(mResultWriter);
+        }
+
+        printStatistics(latenciesMs, failedCount.get(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - batchStartNanoTime));
+    }
+
+    private JSONObject analyzeOne(File input) throws IOException, InterruptedException {
+        ZipFile zf = null;
+        File tempHprofFile = null;
+        int acquiredPermits = 0;
+        HeapSnapshot heapSnapshot = null;
+        try {
+            zf = new ZipFile(input);
+            final CanaryResultInfo resultInfo = CLIMain.readCanaryResultInfo(zf);
+            final ZipEntry hprofEntry = zf.getEntry(resultInfo.hprofEntry.getName());
+            if (hprofEntry == null) {
+                throw new IllegalStateException("hprof entry " + resultInfo.hprofEntry.getName() + " is absent.");
+            }
+
+            // Block until there is enough budget left for perflib to index this dump.
+            final int permits = estimateMemoryPermits(CLIMain.getHprofLength(zf, hprofEntry));
+            mMemoryPermits.acquire(permits);
+            acquiredPermits = permits;
+
+            tempHprofFile = File.createTempFile("temp_", ".hprof", new File("").getAbsoluteFile());
+            heapSnapshot = CLIMain.openHeapSnapshot(zf, hprofEntry, tempHprofFile);
+            final ActivityLeakResult activityLeakResult = new ActivityLeakAnalyzer(resultInfo.leakedActivityKey,
+                    getExcludedRefs(resultInfo.sdkVersion, resultInfo.manufacturer)).analyze(heapSnapshot);
+
+            DuplicatedBitmapResult duplicatedBmpResult = DuplicatedBitmapResult.noDuplicatedBitmap(0);
+            if (resultInfo.sdkVersion < 26) {
+                duplicatedBmpResult = new DuplicatedBitmapAnalyzer(mMinBmpLeakSize, mExcludedBmps).analyze(heapSnapshot);
+            }
+            return CLIMain.buildResultJson(activityLeakResult, duplicatedBmpResult, resultInfo.extraInfo);
+        } finally {
+            if (acquiredPermits > 0) {
+                mMemoryPermits.release(acquiredPermits);
+            }
+            StreamUtil.closeQuietly(heapSnapshot);
+            if (tempHprofFile != null) {
+                tempHprofFile.delete();
+            }
+            StreamUtil.closeQuietly(zf);
+        }
+    }
+
+    private ExcludedRefs getExcludedRefs(int sdkVersion, String manufacturer) {
+        final String key = sdkVersion + ":" + manufacturer;
+        ExcludedRefs excludedRefs = mExcludedRefsCache.get(key);
+        if (excludedRefs == null) {
+            excludedRefs = AndroidExcludedRefs.createAppDefaults(sdkVersion, manufacturer).build();
+            final ExcludedRefs existing = mExcludedRefsCache.putIfAbsent(key, excludedRefs);
+            if (existing != null) {
+                excludedRefs = existing;
+            }
+        }
+        return excludedRefs;
+    }
+
+    private int estimateMemoryPermits(long hprofSize) {
+        if (hprofSize < 0) {
+            // Unknown size, assume the dump takes an even share of the budget.
+            return Math.max(1, mMemoryBudgetMb / mThreadCount);
+        }
+        final long costMb = (hprofSize * HEAP_COST_PER_HPROF_BYTE + ONE_MB - 1) / ONE_MB;
+        return (int) Math.max(1, Math.min(costMb, mMemoryBudgetMb));
+    }
+
+    private synchronized void writeResultLine(JSONObject line) {
+        mResultWriter.println(line.toString());
+        mResultWriter.flush();
+    }
+
+    private static void printStatistics(long[] latenciesMs, int failedCount, long wallTimeMs) {
+        final int total = latenciesMs.length;
+        final long[] sorted = Arrays.copyOf(latenciesMs, total);
+        Arrays.sort(sorted);
+        final double throughput = wallTimeMs > 0 ? total * 1000.0 / wallTimeMs : total;
+        System.out.println("\nBatch analysis finished.");
+        System.out.println(" + total: " + total + ", succeeded: " + (total - failedCount) + ", failed: " + failedCount);
+        System.out.println(" + wall time: " + wallTimeMs + "ms, throughput: "
+                + String.format("%.2f", throughput) + " dumps/s");
+        if (total > 0) {
+            System.out.println(" + latency p50: " + percentile(sorted, 50) + "ms, p90: " + percentile(sorted, 90)
+                    + "ms, p99: " + percentile(sorted, 99) + "ms, max: " + sorted[total - 1] + "ms");
+        }
+    }
+
+    private static long percentile(long[] sorted, int percent) {
+        final int index = (int) Math.ceil(percent / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+}
@@ -25,6 +25,7 @@ import com.tencent.matrix.resource.analyzer.model.ExcludedRefs;
 import com.tencent.matrix.resource.analyzer.model.HeapSnapshot;
 import com.tencent.matrix.resource.analyzer.model.HprofBitmapProvider;
 import com.tencent.matrix.resource.analyzer.utils.BitmapDecoder;
+import com.tencent.matrix.resource.common.utils.ChunkedHprofFile;
 import com.tencent.matrix.resource.common.utils.StreamUtil;
 
 import org.apache.commons.cli.CommandLine;
@@ -58,11 +59,14 @@ import java.util.zip.ZipOutputStream;
 
 import javax.imageio.ImageIO;
 
+import static com.tencent.matrix.resource.analyzer.CLIMain.AnalyzerOptions.OPTION_BATCH;
 import static com.tencent.matrix.resource.analyzer.CLIMain.AnalyzerOptions.OPTION_COMPRESS_OUTPUT;
 import static com.tencent.matrix.resource.analyzer.CLIMain.AnalyzerOptions.OPTION_HELP;
 import static com.tencent.matrix.resource.analyzer.CLIMain.AnalyzerOptions.OPTION_INPUT;
+import static com.tencent.matrix.resource.analyzer.CLIMain.AnalyzerOptions.OPTION_MEMORY_BUDGET;
 import static com.tencent.matrix.resource.analyzer.CLIMain.AnalyzerOptions.OPTION_MIN_BMPLEAK_SIZE;
 import static com.tencent.matrix.resource.analyzer.CLIMain.AnalyzerOptions.OPTION_OUTPUT;
+import static com.tencent.matrix.resource.analyzer.CLIMain.AnalyzerOptions.OPTION_THREADS;
 import static com.tencent.matrix.resource.analyzer.model.DuplicatedBitmapResult.DuplicatedBitmapEntry;
 
 /**
@@ -80,6 +84,9 @@ public final class CLIMain {
     private static File    mOutputFile     = null;
     private static boolean mCompressOutput = false;
     private static int     mMinBmpLeakSize = 5000;
+    private static boolean mBatchMode      = false;
+    private static int     mThreadCount    = Runtime.getRuntime().availableProcessors();
+    private static int     mMemoryBudgetMb = (int) (Runtime.getRuntime().maxMemory() / 4 * 3 / (1024 * 1024));
 
     private static final String EXTRA_INFO_NAME = "extra.info";
 
@@ -90,7 +97,8 @@ public final class CLIMain {
             Option build() {
                 return Option.builder("i")
                         .longOpt("input")
-                        .desc("Required. Path to read result generated by resource canary module.")
+                        .desc("Required. Path to read result generated by resource canary module."
+                                + " In batch mode, a directory of results or a text file listing one result path per line.")
                         .numberOfArgs(1)
                         .argName("inputPath")
                         .optionalArg(false)
@@ -103,7 +111,7 @@ public final class CLIMain {
             Option build() {
                 return Option.builder("o")
                         .longOpt("output")
-                        .desc("Required. Path to store analyze result directory.")
+                        .desc("Required. Path to store analyze result directory. In batch mode, path of the NDJSON result file.")
                         .numberOfArgs(1)
                         .argName("outputPath")
                         .optionalArg(false)
@@ -135,6 +143,43 @@ public final class CLIMain {
                         .build();
             }
         },
+        OPTION_BATCH {
+            @Override
+            Option build() {
+                return Option.builder("b")
+                        .longOpt("batch")
+                        .desc("Optional. Analyze all results referred by input concurrently and stream them as NDJSON.")
+                        .required(false)
+                        .build();
+            }
+        },
+        OPTION_THREADS {
+            @Override
+            Option build() {
+                return Option.builder("t")
+                        .longOpt("threads")
+                        .desc("Optional. Worker count used in batch mode. Defaults to the number of processors.")
+                        .numberOfArgs(1)
+                        .argName("threadCount")
+                        .optionalArg(false)
+                        .required(false)
+                        .build();
+            }
+        },
+        OPTION_MEMORY_BUDGET {
+            @Override
+            Option build() {
+                return Option.builder("mm")
+                        .longOpt("memory-budget-mb")
+                        .desc("Optional. Heap budget in MB shared by the dumps analyzed concurrently in batch mode."
+                                + " Defaults to 3/4 of the max heap size.")
+                        .numberOfArgs(1)
+                        .argName("memoryBudgetMb")
+                        .optionalArg(false)
+                        .required(false)
+                        .build();
+            }
+        },
         OPTION_HELP {
             @Override
             Option build() {
@@ -178,7 +223,11 @@ public final class CLIMain {
         final String inputPath = cmdline.getOptionValue(OPTION_INPUT.mOption.getLongOpt());
         mInputFile = new File(inputPath);
 
-        if (cmdline.hasOption(OPTION_COMPRESS_OUTPUT.mOption.getLongOpt())) {
+        if (cmdline.hasOption(OPTION_BATCH.mOption.getLongOpt())) {
+            mBatchMode = true;
+        }
+
+        if (!mBatchMode && cmdline.hasOption(OPTION_COMPRESS_OUTPUT.mOption.getLongOpt())) {
             mCompressOutput = true;
         }
 
@@ -192,14 +241,38 @@ public final class CLIMain {
         if (minBmpLeakSizeVal != null) {
             mMinBmpLeakSize = Integer.parseInt(minBmpLeakSizeVal);
         }
+
+        final String threadCountVal = cmdline.getOptionValue(OPTION_THREADS.mOption.getLongOpt());
+        if (threadCountVal != null) {
+            mThreadCount = Integer.parseInt(threadCountVal);
+        }
+
+        final String memoryBudgetVal = cmdline.getOptionValue(OPTION_MEMORY_BUDGET.mOption.getLongOpt());
+        if (memoryBudgetVal != null) {
+            mMemoryBudgetMb = Integer.parseInt(memoryBudgetVal);
+        }
     }
 
-    private static void doAnalyze() throws IOException {
-        ZipFile zf = null;
+    static final class CanaryResultInfo {
+        final int sdkVersion;
+        final String manufacturer;
+        final ZipEntry hprofEntry;
+        final String leakedActivityKey;
+        final JSONObject extraInfo;
+
+        CanaryResultInfo(int sdkVersion, String manufacturer, ZipEntry hprofEntry,
+                         String leakedActivityKey, JSONObject extraInfo) {
+            this.sdkVersion = sdkVersion;
+            this.manufacturer = manufacturer;
+            this.hprofEntry = hprofEntry;
+            this.leakedActivityKey = leakedActivityKey;
+            this.extraInfo = extraInfo;
+        }
+    }
+
+    static CanaryResultInfo readCanaryResultInfo(ZipFile zf) throws IOException {
         BufferedReader br = null;
-        File tempHprofFile = null;
         try {
-            zf = new ZipFile(mInputFile);
             final ZipEntry canaryResultInfoEntry = new ZipEntry("result.info");
             final Map<String, String> resultInfoMap = new HashMap<>();
             br = new BufferedReader(new InputStreamReader(zf.getInputStream(canaryResultInfoEntry)));
@@ -241,10 +314,6 @@ public final class CLIMain {
                 throw new IllegalStateException("leakedActivityKey is absent in result.info.");
             }
 
-            // We would extract hprof entry into a temporary file.
-            tempHprofFile = new File(new File("").getAbsoluteFile(), "temp_" + System.currentTimeMillis() + ".hprof");
-            StreamUtil.extractZipEntry(zf, hprofEntry, tempHprofFile);
-
             // Parse extra info if exists.
             final JSONObject extraInfo = new JSONObject();
             final ZipEntry extraInfoEntry = zf.getEntry(EXTRA_INFO_NAME);
@@ -271,21 +340,90 @@ public final class CLIMain {
                 }
             }
 
+            return new CanaryResultInfo(sdkVersion, manufacturer, hprofEntry, leakedActivityKey, extraInfo);
+        } finally {
+            StreamUtil.closeQuietly(br);
+        }
+    }
+
+    static JSONObject buildResultJson(ActivityLeakResult activityLeakResult, DuplicatedBitmapResult duplicatedBmpResult,
+                                      JSONObject extraInfo) {
+        final JSONObject resultJson = new JSONObject();
+        final JSONObject activityLeakResultJson = new JSONObject();
+        activityLeakResult.encodeToJSON(activityLeakResultJson);
+        final JSONObject duplicatedBmpResultJson = new JSONObject();
+        duplicatedBmpResult.encodeToJSON(duplicatedBmpResultJson);
+
+        resultJson.put("activityLeakResult", activityLeakResultJson)
+                  .put("duplicatedBitmapResult", duplicatedBmpResultJson);
+
+        if (extraInfo != null && extraInfo.length() > 0) {
+            resultJson.put("extraInfo", extraInfo);
+        }
+        return resultJson;
+    }
+
+    private static void doAnalyze() throws IOException {
+        ZipFile zf = null;
+        File tempHprofFile = null;
+        HeapSnapshot heapSnapshot = null;
+        try {
+            zf = new ZipFile(mInputFile);
+            final CanaryResultInfo resultInfo = readCanaryResultInfo(zf);
+
+            // We would extract hprof entry into a temporary file unless it can be read in place.
+            tempHprofFile = new File(new File("").getAbsoluteFile(), "temp_" + System.currentTimeMillis() + ".hprof");
+            heapSnapshot = openHeapSnapshot(zf, resultInfo.hprofEntry, tempHprofFile);
+
             // Then do analyzing works and output into directory or zip according to the option. Besides,
             // store extra info into the result json by the way.
-            analyzeAndStoreResult(tempHprofFile, sdkVersion, manufacturer, leakedActivityKey, extraInfo);
+            analyzeAndStoreResult(heapSnapshot, resultInfo.sdkVersion, resultInfo.manufacturer,
+                    resultInfo.leakedActivityKey, resultInfo.extraInfo);
         } finally {
+            StreamUtil.closeQuietly(heapSnapshot);
             if (tempHprofFile != null) {
                 tempHprofFile.delete();
             }
-            StreamUtil.closeQuietly(br);
             StreamUtil.closeQuietly(zf);
         }
     }
 
-    private static void analyzeAndStoreResult(File hprofFile, int sdkVersion, String manufacturer,
+    private static void doBatchAnalyze() throws IOException, InterruptedException {
+        final List<File> inputs = BatchAnalyzer.collectInputs(mInputFile);
+        System.out.println("Analyzing " + inputs.size() + " results with " + mThreadCount
+                + " workers, memory budget: " + mMemoryBudgetMb + "MB.");
+        new BatchAnalyzer(mMinBmpLeakSize, mThreadCount, mMemoryBudgetMb).analyze(inputs, mOutputFile);
+    }
+
+    /**
+     * Chunked hprofs stored without compression are parsed straight from the zip, other hprof
+     * entries are extracted into {@code tempHprofFile} first.
+     */
+    static HeapSnapshot openHeapSnapshot(ZipFile zf, ZipEntry hprofEntry, File tempHprofFile) throws IOException {
+        if (hprofEntry.getMethod() == ZipEntry.STORED && ChunkedHprofFile.isChunkedHprof(zf, hprofEntry)) {
+            return new HeapSnapshot(new ChunkedHprofFile(zf, hprofEntry));
+        }
+        StreamUtil.extractZipEntry(zf, hprofEntry, tempHprofFile);
+        return new HeapSnapshot(tempHprofFile);
+    }
+
+    /**
+     * @return length of the hprof held by the entry, or -1 if unknown.
+     */
+    static long getHprofLength(ZipFile zf, ZipEntry hprofEntry) throws IOException {
+        if (hprofEntry.getMethod() == ZipEntry.STORED && ChunkedHprofFile.isChunkedHprof(zf, hprofEntry)) {
+            final ChunkedHprofFile chunkedHprofFile = new ChunkedHprofFile(zf, hprofEntry);
+            try {
+                return chunkedHprofFile.length();
+            } finally {
+                StreamUtil.closeQuietly(chunkedHprofFile);
+            }
+        }
+        return hprofEntry.getSize();
+    }
+
+    private static void analyzeAndStoreResult(HeapSnapshot heapSnapshot, int sdkVersion, String manufacturer,
                                               String leakedActivityKey, JSONObject extraInfo) throws IOException {
-        final HeapSnapshot heapSnapshot = new HeapSnapshot(hprofFile);
         final ExcludedRefs excludedRefs = AndroidExcludedRefs.createAppDefaults(sdkVersion, manufacturer).build();
         final ActivityLeakResult activityLeakResult
                 = new ActivityLeakAnalyzer(leakedActivityKey, excludedRefs).analyze(heapSnapshot);
@@ -300,7 +438,6 @@ public final class CLIMain {
         }
         final String resultJsonName = "result.json";
         final String bufferContentsRootDirName = "buffer_contents";
-        final String extralInfoKey = "extraInfo";
         if (mCompressOutput) {
             ZipOutputStream zos = null;
             try {
@@ -309,19 +446,7 @@ public final class CLIMain {
                 zos.putNextEntry(analyzeResultEntry);
                 try {
                     final PrintWriter pw = new PrintWriter(zos);
-                    final JSONObject resultJson = new JSONObject();
-                    final JSONObject activityLeakResultJson = new JSONObject();
-                    activityLeakResult.encodeToJSON(activityLeakResultJson);
-                    final JSONObject duplicatedBmpResultJson = new JSONObject();
-                    duplicatedBmpResult.encodeToJSON(duplicatedBmpResultJson);
-
-                    resultJson.put("activityLeakResult", activityLeakResultJson)
-                              .put("duplicatedBitmapResult", duplicatedBmpResultJson);
-
-                    if (extraInfo != null && extraInfo.length() > 0) {
-                        resultJson.put(extralInfoKey, extraInfo);
-                    }
-
+                    final JSONObject resultJson = buildResultJson(activityLeakResult, duplicatedBmpResult, extraInfo);
                     pw.println(resultJson.toString());
                     pw.flush();
                 } finally {
@@ -365,19 +490,7 @@ public final class CLIMain {
             try {
                 final File resultJsonFile = new File(outputDir, resultJsonName);
                 resultJsonPW = new PrintWriter(new BufferedWriter(new FileWriter(resultJsonFile)));
-                final JSONObject resultJson = new JSONObject();
-                final JSONObject activityLeakResultJson = new JSONObject();
-                activityLeakResult.encodeToJSON(activityLeakResultJson);
-                final JSONObject duplicatedBmpResultJson = new JSONObject();
-                duplicatedBmpResult.encodeToJSON(duplicatedBmpResultJson);
-
-                resultJson.put("activityLeakResult", activityLeakResultJson)
-                          .put("duplicatedBitmapResult", duplicatedBmpResultJson);
-
-                if (extraInfo != null && extraInfo.length() > 0) {
-                    resultJson.put(extralInfoKey, extraInfo);
-                }
-
+                final JSONObject resultJson = buildResultJson(activityLeakResult, duplicatedBmpResult, extraInfo);
                 resultJsonPW.println(resultJson.toString());
                 resultJsonPW.flush();
             } finally {
@@ -423,7 +536,11 @@ public final class CLIMain {
 
             parseArguments(cmdline);
 
-            doAnalyze();
+            if (mBatchMode) {
+                doBatchAnalyze();
+            } else {
+                doAnalyze();
+            }
 
             System.exit(ERROR_SUCCESS);
         } catch (MissingOptionException e) {
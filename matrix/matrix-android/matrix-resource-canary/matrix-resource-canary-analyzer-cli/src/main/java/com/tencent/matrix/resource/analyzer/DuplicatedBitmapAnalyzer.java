@@ -24,7 +24,6 @@ import com.squareup.haha.perflib.HahaHelper;
 import com.squareup.haha.perflib.Heap;
 import com.squareup.haha.perflib.Instance;
 import com.squareup.haha.perflib.Snapshot;
-import com.squareup.haha.perflib.StackTrace;
 import com.squareup.haha.perflib.analysis.ShortestDistanceVisitor;
 import com.tencent.matrix.resource.analyzer.model.DuplicatedBitmapResult;
 import com.tencent.matrix.resource.analyzer.model.DuplicatedBitmapResult.DuplicatedBitmapEntry;
@@ -35,13 +34,11 @@ import com.tencent.matrix.resource.analyzer.model.ReferenceNode;
 import com.tencent.matrix.resource.analyzer.utils.AnalyzeUtil;
 import com.tencent.matrix.resource.analyzer.utils.ShortestPathFinder;
 
-import java.lang.reflect.Field;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 import static com.tencent.matrix.resource.analyzer.utils.ShortestPathFinder.Result;
 
@@ -50,11 +47,12 @@ import static com.tencent.matrix.resource.analyzer.utils.ShortestPathFinder.Resu
  */
 
 public class DuplicatedBitmapAnalyzer implements HeapSnapshotAnalyzer<DuplicatedBitmapResult> {
+    private static final int HASH_CHUNK_SIZE = 64 * 1024;
+    private static final long FNV64_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV64_PRIME = 0x100000001b3L;
+
     private final int mMinBmpLeakSize;
     private final ExcludedBmps mExcludedBmps;
-    private Field mMStackField = null;
-    private Field mMLengthField = null;
-    private Field mMValueOffsetField = null;
 
     public DuplicatedBitmapAnalyzer(int minBmpLeakSize, ExcludedBmps excludedBmps) {
         mMinBmpLeakSize = minBmpLeakSize;
@@ -81,10 +79,10 @@ public class DuplicatedBitmapAnalyzer implements HeapSnapshotAnalyzer<Duplicated
             return DuplicatedBitmapResult.noDuplicatedBitmap(AnalyzeUtil.since(analysisStartNanoTime));
         }
 
-        final Map<ArrayInstance, Instance> byteArrayToBitmapMap = new HashMap<>();
-        final Set<ArrayInstance> byteArrays = new HashSet<>();
-
-        final List<Instance> reachableInstances = new ArrayList<>();
+        // Bitmaps sharing one buffer instance are still reported as duplicates, so we keep
+        // (buffer, bitmap) pairs instead of keying anything by the ArrayInstance itself.
+        final List<ArrayInstance> buffers = new ArrayList<>();
+        final List<Instance> bitmaps = new ArrayList<>();
         for (Heap heap : snapshot.getHeaps()) {
             if (!"default".equals(heap.getName()) && !"app".equals(heap.getName())) {
                 continue;
@@ -95,10 +93,7 @@ public class DuplicatedBitmapAnalyzer implements HeapSnapshotAnalyzer<Duplicated
                 if (bitmapInstance.getDistanceToGcRoot() == Integer.MAX_VALUE) {
                     continue;
                 }
-                reachableInstances.add(bitmapInstance);
-            }
-            for (Instance bitmapInstance : reachableInstances) {
-                ArrayInstance buffer = HahaHelper.fieldValue(((ClassInstance) bitmapInstance).getValues(), "mBuffer");
+                final ArrayInstance buffer = HahaHelper.fieldValue(((ClassInstance) bitmapInstance).getValues(), "mBuffer");
                 if (buffer != null) {
                     // sizeof(byte) * bufferLength -> bufferSize
                     final int bufferSize = buffer.getSize();
@@ -107,174 +102,211 @@ public class DuplicatedBitmapAnalyzer implements HeapSnapshotAnalyzer<Duplicated
                         System.out.println(" + Skiped a bitmap with size: " + bufferSize);
                         continue;
                     }
-                    if (byteArrayToBitmapMap.containsKey(buffer)) {
-                        buffer = cloneArrayInstance(buffer);
-                    }
-                    byteArrayToBitmapMap.put(buffer, bitmapInstance);
+                    buffers.add(buffer);
+                    bitmaps.add(bitmapInstance);
                 } else {
                     System.out.println(" + Skiped a no-data bitmap");
                 }
             }
-            byteArrays.addAll(byteArrayToBitmapMap.keySet());
         }
 
-        if (byteArrays.size() <= 1) {
+        if (buffers.size() <= 1) {
             return DuplicatedBitmapResult.noDuplicatedBitmap(AnalyzeUtil.since(analysisStartNanoTime));
         }
 
-        final List<DuplicatedBitmapEntry> duplicatedBitmapEntries = new ArrayList<>();
-
-        final List<Set<ArrayInstance>> commonPrefixSets = new ArrayList<>();
-        final List<Set<ArrayInstance>> reducedPrefixSets = new ArrayList<>();
-        commonPrefixSets.add(byteArrays);
-
-        // Cache the values since instance.getValues() recreates the array on every invocation.
-        final Map<ArrayInstance, Object[]> cachedValues = new HashMap<>();
-        for (ArrayInstance instance : byteArrays) {
-            cachedValues.put(instance, instance.getValues());
+        // Pass 1: buffers of a unique size can never be duplicated, drop them without reading a byte.
+        final Map<Integer, List<Integer>> sizeBuckets = new HashMap<>();
+        for (int i = 0; i < buffers.size(); ++i) {
+            final int bufferSize = buffers.get(i).getSize();
+            List<Integer> bucket = sizeBuckets.get(bufferSize);
+            if (bucket == null) {
+                bucket = new ArrayList<>(2);
+                sizeBuckets.put(bufferSize, bucket);
+            }
+            bucket.add(i);
         }
 
-        int columnIndex = 0;
-        while (!commonPrefixSets.isEmpty()) {
-            for (Set<ArrayInstance> commonPrefixArrays : commonPrefixSets) {
-                Map<Object, Set<ArrayInstance>> entryClassifier = new HashMap<>(
-                        commonPrefixArrays.size());
+        final byte[] chunk = new byte[HASH_CHUNK_SIZE];
+        final byte[] otherChunk = new byte[HASH_CHUNK_SIZE];
+        final List<List<Integer>> duplicatedGroups = new ArrayList<>();
+        for (List<Integer> sizeBucket : sizeBuckets.values()) {
+            if (sizeBucket.size() <= 1) {
+                continue;
+            }
 
-                for (ArrayInstance arrayInstance : commonPrefixArrays) {
-                    final Object element = cachedValues.get(arrayInstance)[columnIndex];
-                    if (entryClassifier.containsKey(element)) {
-                        entryClassifier.get(element).add(arrayInstance);
-                    } else {
-                        Set<ArrayInstance> instanceSet = new HashSet<>();
-                        instanceSet.add(arrayInstance);
-                        entryClassifier.put(element, instanceSet);
-                    }
+            // Pass 2: stream each candidate buffer through a 64-bit hash and group by digest.
+            final Map<Long, List<Integer>> hashGroups = new HashMap<>();
+            for (Integer index : sizeBucket) {
+                final long hash = hashBuffer(buffers.get(index), chunk);
+                List<Integer> group = hashGroups.get(hash);
+                if (group == null) {
+                    group = new ArrayList<>(2);
+                    hashGroups.put(hash, group);
                 }
+                group.add(index);
+            }
 
-                for (Set<ArrayInstance> branch : entryClassifier.values()) {
-                    if (branch.size() <= 1) {
-                        // Unique branch, ignore it and it won't be counted towards duplication.
-                        continue;
-                    }
-
-                    final Set<ArrayInstance> terminatedArrays = new HashSet<>();
-
-                    // Move all ArrayInstance that we have hit the end of to the candidate result list.
-                    for (ArrayInstance instance : branch) {
-                        if (HahaHelper.getArrayInstanceLength(instance) == columnIndex + 1) {
-                            terminatedArrays.add(instance);
-                        }
+            // Pass 3: confirm byte-exact equality inside each collision group.
+            for (List<Integer> hashGroup : hashGroups.values()) {
+                if (hashGroup.size() <= 1) {
+                    continue;
+                }
+                for (List<Integer> duplicatedGroup : splitByContent(buffers, hashGroup, chunk, otherChunk)) {
+                    if (duplicatedGroup.size() > 1) {
+                        duplicatedGroups.add(duplicatedGroup);
                     }
-                    branch.removeAll(terminatedArrays);
-
-                    // Exact duplicated arrays found.
-                    if (terminatedArrays.size() > 1) {
-                        byte[] rawBuffer = null;
-                        int width = 0;
-                        int height = 0;
-                        final List<Instance> duplicateBitmaps = new ArrayList<>();
-                        for (ArrayInstance terminatedArray : terminatedArrays) {
-                            final Instance bmpInstance = byteArrayToBitmapMap.get(terminatedArray);
-                            duplicateBitmaps.add(bmpInstance);
-                            if (rawBuffer == null) {
-                                final List<FieldValue> fieldValues = ((ClassInstance) bmpInstance).getValues();
-                                width = HahaHelper.fieldValue(fieldValues, "mWidth");
-                                height = HahaHelper.fieldValue(fieldValues, "mHeight");
-                                final int byteArraySize = HahaHelper.getArrayInstanceLength(terminatedArray);
-                                rawBuffer = HahaHelper.asRawByteArray(terminatedArray, 0, byteArraySize);
-                            }
-                        }
+                }
+            }
+        }
 
-                        final Map<Instance, Result> results = new ShortestPathFinder(mExcludedBmps)
-                                .findPath(snapshot, duplicateBitmaps);
-                        final List<ReferenceChain> referenceChains = new ArrayList<>();
-                        for (Result result : results.values()) {
-                            if (result.excludingKnown) {
-                                continue;
-                            }
-                            ReferenceNode currRefChainNode = result.referenceChainHead;
-                            while (currRefChainNode.parent != null) {
-                                final ReferenceNode tempNode = currRefChainNode.parent;
-                                if (tempNode.instance == null) {
-                                    currRefChainNode = tempNode;
-                                    continue;
-                                }
-                                final Heap heap = tempNode.instance.getHeap();
-                                if (heap != null && !"app".equals(heap.getName())) {
-                                    break;
-                                } else {
-                                    currRefChainNode = tempNode;
-                                }
-                            }
-                            final Instance gcRootHolder = currRefChainNode.instance;
-                            if (!(gcRootHolder instanceof ClassObj)) {
-                                continue;
-                            }
-                            final String holderClassName = ((ClassObj) gcRootHolder).getClassName();
-                            boolean isExcluded = false;
-                            for (ExcludedBmps.PatternInfo patternInfo : mExcludedBmps.mClassNamePatterns) {
-                                if (!patternInfo.mForGCRootOnly) {
-                                    continue;
-                                }
-                                if (patternInfo.mPattern.matcher(holderClassName).matches()) {
-                                    System.out.println(" + Skipped a bitmap with gc root class: "
-                                            + holderClassName + " by pattern: " + patternInfo.mPattern.toString());
-                                    isExcluded = true;
-                                    break;
-                                }
-                            }
-                            if (!isExcluded) {
-                                referenceChains.add(result.buildReferenceChain());
-                            }
-                        }
-                        if (referenceChains.size() > 1) {
-                            duplicatedBitmapEntries.add(new DuplicatedBitmapEntry(width, height, rawBuffer, referenceChains));
-                        }
-                    }
+        if (duplicatedGroups.isEmpty()) {
+            return DuplicatedBitmapResult.noDuplicatedBitmap(AnalyzeUtil.since(analysisStartNanoTime));
+        }
 
-                    // If there are ArrayInstances that have identical prefixes and haven't hit the
-                    // end, add it back for the next iteration.
-                    if (branch.size() > 1) {
-                        reducedPrefixSets.add(branch);
-                    }
-                }
+        // Reference chains of all duplicated bitmaps come from one traversal from the gc roots.
+        final List<Instance> duplicatedBitmaps = new ArrayList<>();
+        for (List<Integer> duplicatedGroup : duplicatedGroups) {
+            for (Integer index : duplicatedGroup) {
+                duplicatedBitmaps.add(bitmaps.get(index));
             }
+        }
+        final Map<Instance, Result> pathResults = new ShortestPathFinder(mExcludedBmps)
+                .findPath(snapshot, duplicatedBitmaps);
 
-            commonPrefixSets.clear();
-            commonPrefixSets.addAll(reducedPrefixSets);
-            reducedPrefixSets.clear();
-            columnIndex++;
+        final List<DuplicatedBitmapEntry> duplicatedBitmapEntries = new ArrayList<>();
+        for (List<Integer> duplicatedGroup : duplicatedGroups) {
+            final DuplicatedBitmapEntry entry = buildDuplicatedBitmapEntry(buffers, bitmaps, duplicatedGroup, pathResults);
+            if (entry != null) {
+                duplicatedBitmapEntries.add(entry);
+            }
         }
 
         return DuplicatedBitmapResult.duplicatedBitmapDetected(duplicatedBitmapEntries, AnalyzeUtil.since(analysisStartNanoTime));
     }
 
-    private ArrayInstance cloneArrayInstance(ArrayInstance orig) {
-        try {
-            if (mMStackField == null) {
-                mMStackField = Instance.class.getDeclaredField("mStack");
-                mMStackField.setAccessible(true);
+    private DuplicatedBitmapEntry buildDuplicatedBitmapEntry(List<ArrayInstance> buffers, List<Instance> bitmaps,
+                                                             List<Integer> duplicatedGroup, Map<Instance, Result> pathResults) {
+        final int firstIndex = duplicatedGroup.get(0);
+        final List<FieldValue> fieldValues = ((ClassInstance) bitmaps.get(firstIndex)).getValues();
+        final int width = HahaHelper.fieldValue(fieldValues, "mWidth");
+        final int height = HahaHelper.fieldValue(fieldValues, "mHeight");
+        final ArrayInstance firstBuffer = buffers.get(firstIndex);
+        final int byteArraySize = HahaHelper.getArrayInstanceLength(firstBuffer);
+
+        final List<ReferenceChain> referenceChains = new ArrayList<>();
+        for (Integer index : duplicatedGroup) {
+            final Result result = pathResults.get(bitmaps.get(index));
+            if (result == null || result.excludingKnown) {
+                continue;
+            }
+            ReferenceNode currRefChainNode = result.referenceChainHead;
+            while (currRefChainNode.parent != null) {
+                final ReferenceNode tempNode = currRefChainNode.parent;
+                if (tempNode.instance == null) {
+                    currRefChainNode = tempNode;
+                    continue;
+                }
+                final Heap heap = tempNode.instance.getHeap();
+                if (heap != null && !"app".equals(heap.getName())) {
+                    break;
+                } else {
+                    currRefChainNode = tempNode;
+                }
+            }
+            final Instance gcRootHolder = currRefChainNode.instance;
+            if (!(gcRootHolder instanceof ClassObj)) {
+                continue;
+            }
+            final String holderClassName = ((ClassObj) gcRootHolder).getClassName();
+            boolean isExcluded = false;
+            for (ExcludedBmps.PatternInfo patternInfo : mExcludedBmps.mClassNamePatterns) {
+                if (!patternInfo.mForGCRootOnly) {
+                    continue;
+                }
+                if (patternInfo.mPattern.matcher(holderClassName).matches()) {
+                    System.out.println(" + Skipped a bitmap with gc root class: "
+                            + holderClassName + " by pattern: " + patternInfo.mPattern.toString());
+                    isExcluded = true;
+                    break;
+                }
+            }
+            if (!isExcluded) {
+                referenceChains.add(result.buildReferenceChain());
             }
-            final StackTrace stack = (StackTrace) mMStackField.get(orig);
+        }
+        if (referenceChains.size() <= 1) {
+            return null;
+        }
+        // Only materialize the pixels of buffers that are actually reported.
+        final byte[] rawBuffer = HahaHelper.asRawByteArray(firstBuffer, 0, byteArraySize);
+        return new DuplicatedBitmapEntry(width, height, rawBuffer, referenceChains);
+    }
 
-            if (mMLengthField == null) {
-                mMLengthField = ArrayInstance.class.getDeclaredField("mLength");
-                mMLengthField.setAccessible(true);
+    /**
+     * FNV-1a over the raw buffer content, read chunk by chunk so that memory usage does not
+     * depend on the size of the bitmap.
+     */
+    private static long hashBuffer(ArrayInstance buffer, byte[] chunk) {
+        final int bufferSize = buffer.getSize();
+        long hash = FNV64_OFFSET_BASIS;
+        int offset = 0;
+        while (offset < bufferSize) {
+            final byte[] dest = prepareChunk(chunk, bufferSize - offset);
+            HahaHelper.readRawBytes(buffer, offset, dest);
+            for (byte b : dest) {
+                hash ^= (b & 0xFF);
+                hash *= FNV64_PRIME;
             }
-            final int length = mMLengthField.getInt(orig);
+            offset += dest.length;
+        }
+        return hash;
+    }
 
-            if (mMValueOffsetField == null) {
-                mMValueOffsetField = ArrayInstance.class.getDeclaredField("mValuesOffset");
-                mMValueOffsetField.setAccessible(true);
+    /**
+     * Splits buffers whose size and hash are equal into groups of byte-exact identical content.
+     * Hash collisions are rare, so this is expected to produce one group per call.
+     */
+    private static List<List<Integer>> splitByContent(List<ArrayInstance> buffers, List<Integer> candidates,
+                                                      byte[] chunk, byte[] otherChunk) {
+        final List<List<Integer>> groups = new ArrayList<>();
+        for (Integer candidate : candidates) {
+            List<Integer> matchedGroup = null;
+            for (List<Integer> group : groups) {
+                if (isSameContent(buffers.get(group.get(0)), buffers.get(candidate), chunk, otherChunk)) {
+                    matchedGroup = group;
+                    break;
+                }
+            }
+            if (matchedGroup == null) {
+                matchedGroup = new ArrayList<>(candidates.size());
+                groups.add(matchedGroup);
             }
-            final long valueOffset = mMValueOffsetField.getLong(orig);
+            matchedGroup.add(candidate);
+        }
+        return groups;
+    }
 
-            final ArrayInstance result = new ArrayInstance(orig.getId(), stack, orig.getArrayType(), length, valueOffset);
-            result.setHeap(orig.getHeap());
-            return result;
-        } catch (Throwable thr) {
-            thr.printStackTrace();
-            return null;
+    private static boolean isSameContent(ArrayInstance left, ArrayInstance right, byte[] chunk, byte[] otherChunk) {
+        final int bufferSize = left.getSize();
+        if (bufferSize != right.getSize()) {
+            return false;
         }
+        int offset = 0;
+        while (offset < bufferSize) {
+            final int remaining = bufferSize - offset;
+            final byte[] leftDest = prepareChunk(chunk, remaining);
+            final byte[] rightDest = prepareChunk(otherChunk, remaining);
+            HahaHelper.readRawBytes(left, offset, leftDest);
+            HahaHelper.readRawBytes(right, offset, rightDest);
+            if (!Arrays.equals(leftDest, rightDest)) {
+                return false;
+            }
+            offset += leftDest.length;
+        }
+        return true;
+    }
+
+    private static byte[] prepareChunk(byte[] chunk, int remaining) {
+        return remaining >= chunk.length ? chunk : new byte[remaining];
     }
 }
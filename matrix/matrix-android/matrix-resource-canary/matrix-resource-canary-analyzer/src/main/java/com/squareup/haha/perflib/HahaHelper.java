@@ -15,6 +15,8 @@
  */
 package com.squareup.haha.perflib;
 
+import com.squareup.haha.perflib.io.HprofBuffer;
+
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.nio.charset.Charset;
@@ -28,6 +30,8 @@ import static java.util.Arrays.asList;
 
 public final class HahaHelper {
 
+    private static volatile java.lang.reflect.Field sArrayValuesOffsetField = null;
+
     private static final Set<String> WRAPPER_TYPES = new HashSet<>(
             asList(Boolean.class.getName(), Character.class.getName(), Float.class.getName(),
                     Double.class.getName(), Byte.class.getName(), Short.class.getName(),
@@ -194,6 +198,28 @@ public final class HahaHelper {
         }
     }
 
+    /**
+     * Reads {@code dest.length} raw bytes of the array's values starting at {@code byteOffset}
+     * into {@code dest} without boxing them or allocating a new array.
+     */
+    public static void readRawBytes(ArrayInstance instance, long byteOffset, byte[] dest) {
+        try {
+            java.lang.reflect.Field valuesOffsetField = sArrayValuesOffsetField;
+            if (valuesOffsetField == null) {
+                valuesOffsetField = ArrayInstance.class.getDeclaredField("mValuesOffset");
+                valuesOffsetField.setAccessible(true);
+                sArrayValuesOffsetField = valuesOffsetField;
+            }
+            final HprofBuffer buffer = instance.getBuffer();
+            buffer.setPosition(valuesOffsetField.getLong(instance) + byteOffset);
+            buffer.read(dest);
+        } catch (NoSuchFieldException e) {
+            throw new RuntimeException(e);
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     public static StackTrace getInstanceStack(Instance instance) {
         try {
             final java.lang.reflect.Field mStackField = Instance.class.getDeclaredField("mStack");
@@ -28,7 +28,10 @@ import com.tencent.matrix.resource.analyzer.utils.AnalyzeUtil;
 import com.tencent.matrix.resource.analyzer.utils.ShortestPathFinder;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import static com.squareup.haha.perflib.HahaHelper.asString;
 import static com.squareup.haha.perflib.HahaHelper.classInstanceValues;
@@ -59,6 +62,66 @@ public class ActivityLeakAnalyzer implements HeapSnapshotAnalyzer<ActivityLeakRe
         return checkForLeak(heapSnapshot, mRefKey);
     }
 
+    /**
+     * Same as {@link #analyze(HeapSnapshot)} but checks several destroyed activities at once,
+     * the reference chains of all of them are computed by a single shortest path search.
+     *
+     * @param refKeys keys of the activities to check, or null to check every
+     *                <code>DestroyedActivityInfo</code> found in the heap dump.
+     * @return analyze results keyed by the keys of activities. If the analysis fails, every key not analyzed yet
+     * is mapped to a failure, unless <code>refKeys</code> is null and no key has been found, then the error is thrown.
+     */
+    public Map<String, ActivityLeakResult> analyze(HeapSnapshot heapSnapshot, Collection<String> refKeys) {
+        final long analysisStartNanoTime = System.nanoTime();
+        final Map<String, ActivityLeakResult> results = new LinkedHashMap<>();
+        Collection<String> keysToCheck = refKeys;
+
+        try {
+            final Snapshot snapshot = heapSnapshot.getSnapshot();
+            final Map<String, Instance> leakingRefs = findLeakingReferences(snapshot);
+            if (keysToCheck == null) {
+                keysToCheck = leakingRefs.keySet();
+            }
+
+            final List<Instance> targets = new ArrayList<>(keysToCheck.size());
+            for (String refKey : keysToCheck) {
+                final Instance leakingRef = leakingRefs.get(refKey);
+                if (leakingRef != null) {
+                    targets.add(leakingRef);
+                }
+            }
+            final Map<Instance, ShortestPathFinder.Result> pathResults
+                    = new ShortestPathFinder(mExcludedRefs).findPath(snapshot, targets);
+
+            for (String refKey : keysToCheck) {
+                if (!leakingRefs.containsKey(refKey)) {
+                    results.put(refKey, ActivityLeakResult.failure(new IllegalStateException(
+                            "Could not find weak reference with key " + refKey + " in " + leakingRefs.keySet()),
+                            AnalyzeUtil.since(analysisStartNanoTime)));
+                    continue;
+                }
+                final Instance leakingRef = leakingRefs.get(refKey);
+                // False alarm, weak reference was cleared in between key check and heap dump.
+                if (leakingRef == null) {
+                    results.put(refKey, ActivityLeakResult.noLeak(AnalyzeUtil.since(analysisStartNanoTime)));
+                    continue;
+                }
+                results.put(refKey, buildLeakResult(analysisStartNanoTime, leakingRef, pathResults.get(leakingRef)));
+            }
+        } catch (Throwable e) {
+            if (keysToCheck == null) {
+                throw e;
+            }
+            e.printStackTrace();
+            for (String refKey : keysToCheck) {
+                if (!results.containsKey(refKey)) {
+                    results.put(refKey, ActivityLeakResult.failure(e, AnalyzeUtil.since(analysisStartNanoTime)));
+                }
+            }
+        }
+        return results;
+    }
+
     /**
      * Searches the heap dump for a <code>DestroyedActivityInfo</code> instance with the corresponding key,
      * and then computes the shortest strong reference path from the leaked activity that instance holds
@@ -107,14 +170,48 @@ public class ActivityLeakAnalyzer implements HeapSnapshotAnalyzer<ActivityLeakRe
                 "Could not find weak reference with key " + key + " in " + keysFound);
     }
 
+    /**
+     * @return leaked activities keyed by the keys of <code>DestroyedActivityInfo</code>, an activity
+     * whose weak reference has been cleared is mapped to null.
+     */
+    private Map<String, Instance> findLeakingReferences(Snapshot snapshot) {
+        final ClassObj infoClass = snapshot.findClass(DESTROYED_ACTIVITY_INFO_CLASSNAME);
+        if (infoClass == null) {
+            throw new IllegalStateException("Unabled to find destroy activity info class with name: "
+                    + DESTROYED_ACTIVITY_INFO_CLASSNAME);
+        }
+        final Map<String, Instance> leakingRefs = new LinkedHashMap<>();
+        for (Instance infoInstance : infoClass.getInstancesList()) {
+            final List<ClassInstance.FieldValue> values = classInstanceValues(infoInstance);
+            final String keyCandidate = asString(fieldValue(values, ACTIVITY_REFERENCE_KEY_FIELDNAME));
+            final Instance weakRefObj = fieldValue(values, ACTIVITY_REFERENCE_FIELDNAME);
+            if (weakRefObj == null) {
+                if (!leakingRefs.containsKey(keyCandidate)) {
+                    leakingRefs.put(keyCandidate, null);
+                }
+                continue;
+            }
+            final List<ClassInstance.FieldValue> activityRefs = classInstanceValues(weakRefObj);
+            final Instance referent = fieldValue(activityRefs, "referent");
+            if (referent != null || !leakingRefs.containsKey(keyCandidate)) {
+                leakingRefs.put(keyCandidate, referent);
+            }
+        }
+        return leakingRefs;
+    }
+
     private ActivityLeakResult findLeakTrace(long analysisStartNanoTime, Snapshot snapshot,
                                          Instance leakingRef) {
 
         ShortestPathFinder pathFinder = new ShortestPathFinder(mExcludedRefs);
         ShortestPathFinder.Result result = pathFinder.findPath(snapshot, leakingRef);
+        return buildLeakResult(analysisStartNanoTime, leakingRef, result);
+    }
 
+    private ActivityLeakResult buildLeakResult(long analysisStartNanoTime, Instance leakingRef,
+                                               ShortestPathFinder.Result result) {
         // False alarm, no strong reference path to GC Roots.
-        if (result.referenceChainHead == null) {
+        if (result == null || result.referenceChainHead == null) {
             return ActivityLeakResult.noLeak(AnalyzeUtil.since(analysisStartNanoTime));
         }
 
@@ -20,7 +20,10 @@ import com.squareup.haha.perflib.Snapshot;
 import com.squareup.haha.perflib.io.HprofBuffer;
 import com.squareup.haha.perflib.io.MemoryMappedFileBuffer;
 import com.tencent.matrix.resource.analyzer.utils.AnalyzeUtil;
+import com.tencent.matrix.resource.analyzer.utils.ChunkedHprofBuffer;
+import com.tencent.matrix.resource.common.utils.ChunkedHprofFile;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 
@@ -29,16 +32,38 @@ import static com.tencent.matrix.resource.common.utils.Preconditions.checkNotNul
 
 /**
  * Created by tangyinsheng on 2017/7/4.
+ *
+ * Close it when done with the snapshot, a chunked hprof is read through an open file.
  */
 
-public class HeapSnapshot {
+public class HeapSnapshot implements Closeable {
 
     private final File mHprofFile;
     private final Snapshot mSnapshot;
+    private final ChunkedHprofFile mChunkedHprofFile;
 
+    /**
+     * @param hprofFile a plain hprof, or a chunked one written by ChunkedHprofOutputStream.
+     */
     public HeapSnapshot(File hprofFile) throws IOException {
         mHprofFile = checkNotNull(hprofFile, "hprofFile");
-        mSnapshot = initSnapshot(hprofFile);
+        if (ChunkedHprofFile.isChunkedHprof(hprofFile)) {
+            mChunkedHprofFile = new ChunkedHprofFile(hprofFile);
+            mSnapshot = initSnapshot(mChunkedHprofFile);
+        } else {
+            mChunkedHprofFile = null;
+            mSnapshot = initSnapshot(new MemoryMappedFileBuffer(hprofFile));
+        }
+    }
+
+    /**
+     * Parses a chunked hprof in place, e.g. straight from a result zip. {@link #getHprofFile()} returns null then.
+     * The snapshot takes over {@code chunkedHprofFile} and closes it in {@link #close()}.
+     */
+    public HeapSnapshot(ChunkedHprofFile chunkedHprofFile) throws IOException {
+        mHprofFile = null;
+        mChunkedHprofFile = checkNotNull(chunkedHprofFile, "chunkedHprofFile");
+        mSnapshot = initSnapshot(mChunkedHprofFile);
     }
 
     public File getHprofFile() {
@@ -49,8 +74,23 @@ public class HeapSnapshot {
         return mSnapshot;
     }
 
-    private static Snapshot initSnapshot(File hprofFile) throws IOException {
-        final HprofBuffer buffer = new MemoryMappedFileBuffer(hprofFile);
+    @Override
+    public void close() throws IOException {
+        if (mChunkedHprofFile != null) {
+            mChunkedHprofFile.close();
+        }
+    }
+
+    private static Snapshot initSnapshot(ChunkedHprofFile chunkedHprofFile) throws IOException {
+        try {
+            return initSnapshot(new ChunkedHprofBuffer(chunkedHprofFile));
+        } catch (RuntimeException | Error e) {
+            chunkedHprofFile.close();
+            throw e;
+        }
+    }
+
+    private static Snapshot initSnapshot(HprofBuffer buffer) {
         final HprofParser parser = new HprofParser(buffer);
         final Snapshot result = parser.parse();
         AnalyzeUtil.deduplicateGcRoots(result);
@@ -0,0 +1,228 @@
+/*
+ * Tencent is pleased to support the open source community by making wechat-matrix available.
+ * Copyright (C) 2018 THL A29 Limited, a Tencent company. All rights reserved.
+ * Licensed under the BSD 3-Clause License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.matrix.resource.analyzer.utils;
+
+import com.squareup.haha.perflib.io.HprofBuffer;
+import com.tencent.matrix.resource.common.utils.ChunkedHprofFile;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link HprofBuffer} over a {@link ChunkedHprofFile}, so perflib can parse a chunked hprof without
+ * inflating it to a temporary file first.
+ *
+ * Inflated blocks are kept in a LRU cache. Sequential reads, like the parsing pass, inflate the
+ * following blocks ahead on a shared pool. Like other HprofBuffers, it is not thread safe.
+ */
+public class ChunkedHprofBuffer implements HprofBuffer {
+    public static final int DEFAULT_CACHED_BLOCK_COUNT = 256;
+
+    private static final int READ_AHEAD_BLOCK_COUNT = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+    private static final ExecutorService sInflateExecutor = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+                private final AtomicInteger mThreadId = new AtomicInteger(0);
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    final Thread thread = new Thread(r, "ChunkedHprofInflater-" + mThreadId.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private final ChunkedHprofFile mFile;
+    private final long mLength;
+    private final int mBlockSize;
+    private final Map<Integer, Future<byte[]>> mBlockCache;
+
+    private long mPosition = 0;
+    private byte[] mCurrBlock = null;
+    private int mCurrBlockIndex = -1;
+    private long mCurrBlockStart = 0;
+
+    public ChunkedHprofBuffer(ChunkedHprofFile file) {
+        this(file, DEFAULT_CACHED_BLOCK_COUNT);
+    }
+
+    public ChunkedHprofBuffer(ChunkedHprofFile file, final int cachedBlockCount) {
+        mFile = file;
+        mLength = file.length();
+        mBlockSize = file.getBlockSize();
+        mBlockCache = new LinkedHashMap<Integer, Future<byte[]>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Future<byte[]>> eldest) {
+                return size() > Math.max(cachedBlockCount, READ_AHEAD_BLOCK_COUNT + 1);
+            }
+        };
+    }
+
+    @Override
+    public byte readByte() {
+        ensureCurrentBlock();
+        return mCurrBlock[(int) (mPosition++ - mCurrBlockStart)];
+    }
+
+    @Override
+    public void read(byte[] b) {
+        readBytes(b, 0, b.length);
+    }
+
+    @Override
+    public void readSubSequence(byte[] b, int sourceStart, int length) {
+        // Same contract as MemoryMappedFileBuffer: skip sourceStart bytes then fill b.
+        mPosition += sourceStart;
+        readBytes(b, 0, Math.min(b.length, length));
+    }
+
+    @Override
+    public char readChar() {
+        return (char) readShort();
+    }
+
+    @Override
+    public short readShort() {
+        if (remainingInCurrentBlock() >= 2) {
+            final int off = (int) (mPosition - mCurrBlockStart);
+            mPosition += 2;
+            return (short) (((mCurrBlock[off] & 0xFF) << 8) | (mCurrBlock[off + 1] & 0xFF));
+        }
+        return (short) (((readByte() & 0xFF) << 8) | (readByte() & 0xFF));
+    }
+
+    @Override
+    public int readInt() {
+        if (remainingInCurrentBlock() >= 4) {
+            final int off = (int) (mPosition - mCurrBlockStart);
+            mPosition += 4;
+            return ((mCurrBlock[off] & 0xFF) << 24) | ((mCurrBlock[off + 1] & 0xFF) << 16)
+                    | ((mCurrBlock[off + 2] & 0xFF) << 8) | (mCurrBlock[off + 3] & 0xFF);
+        }
+        return ((readByte() & 0xFF) << 24) | ((readByte() & 0xFF) << 16)
+                | ((readByte() & 0xFF) << 8) | (readByte() & 0xFF);
+    }
+
+    @Override
+    public long readLong() {
+        return ((long) readInt() << 32) | (readInt() & 0xFFFFFFFFL);
+    }
+
+    @Override
+    public float readFloat() {
+        return Float.intBitsToFloat(readInt());
+    }
+
+    @Override
+    public double readDouble() {
+        return Double.longBitsToDouble(readLong());
+    }
+
+    @Override
+    public void setPosition(long position) {
+        mPosition = position;
+    }
+
+    @Override
+    public long position() {
+        return mPosition;
+    }
+
+    @Override
+    public boolean hasRemaining() {
+        return mPosition < mLength;
+    }
+
+    @Override
+    public long remaining() {
+        return mLength - mPosition;
+    }
+
+    private void readBytes(byte[] b, int off, int len) {
+        while (len > 0) {
+            ensureCurrentBlock();
+            final int blockOff = (int) (mPosition - mCurrBlockStart);
+            final int count = Math.min(len, mCurrBlock.length - blockOff);
+            System.arraycopy(mCurrBlock, blockOff, b, off, count);
+            mPosition += count;
+            off += count;
+            len -= count;
+        }
+    }
+
+    private int remainingInCurrentBlock() {
+        if (mCurrBlock == null || mPosition < mCurrBlockStart) {
+            return 0;
+        }
+        final long remaining = mCurrBlockStart + mCurrBlock.length - mPosition;
+        return remaining > 0 ? (int) remaining : 0;
+    }
+
+    private void ensureCurrentBlock() {
+        if (remainingInCurrentBlock() > 0) {
+            return;
+        }
+        if (mPosition < 0 || mPosition >= mLength) {
+            throw new IndexOutOfBoundsException("position " + mPosition + " is out of [0, " + mLength + ").");
+        }
+        final int index = (int) (mPosition / mBlockSize);
+        final boolean sequential = (index == mCurrBlockIndex + 1);
+        mCurrBlock = getBlock(index);
+        mCurrBlockIndex = index;
+        mCurrBlockStart = (long) index * mBlockSize;
+        if (sequential) {
+            final int lastIndex = Math.min(index + READ_AHEAD_BLOCK_COUNT, mFile.getBlockCount() - 1);
+            for (int i = index + 1; i <= lastIndex; ++i) {
+                requestBlock(i);
+            }
+        }
+    }
+
+    private Future<byte[]> requestBlock(final int index) {
+        Future<byte[]> block = mBlockCache.get(index);
+        if (block == null) {
+            block = sInflateExecutor.submit(new Callable<byte[]>() {
+                @Override
+                public byte[] call() throws Exception {
+                    return mFile.readBlock(index);
+                }
+            });
+            mBlockCache.put(index, block);
+        }
+        return block;
+    }
+
+    private byte[] getBlock(int index) {
+        final Future<byte[]> block = requestBlock(index);
+        try {
+            return block.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            mBlockCache.remove(index);
+            throw new RuntimeException("failed to inflate block " + index, e.getCause());
+        }
+    }
+}
@@ -25,6 +25,7 @@ import com.squareup.haha.perflib.RootObj;
 import com.squareup.haha.perflib.RootType;
 import com.squareup.haha.perflib.Snapshot;
 import com.squareup.haha.perflib.Type;
+import com.squareup.haha.trove.TIntObjectHashMap;
 import com.tencent.matrix.resource.analyzer.model.ExcludedRefs;
 import com.tencent.matrix.resource.analyzer.model.Exclusion;
 import com.tencent.matrix.resource.analyzer.model.ReferenceChain;
@@ -32,14 +33,13 @@ import com.tencent.matrix.resource.analyzer.model.ReferenceNode;
 import com.tencent.matrix.resource.analyzer.model.ReferenceTraceElement;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Queue;
 import java.util.Set;
 
 import static com.squareup.haha.perflib.HahaHelper.extendsThread;
@@ -68,21 +68,40 @@ import static com.tencent.matrix.resource.analyzer.model.ReferenceTraceElement.T
 public final class ShortestPathFinder {
     private static final String ANONYMOUS_CLASS_NAME_PATTERN = "^.+\\$\\d+$";
 
+    private static final int NO_PARENT = -1;
+    private static final int NO_ARRAY_INDEX = -1;
+
+    private static final byte STATE_TO_VISIT = 0;
+    private static final byte STATE_TO_VISIT_IF_NO_PATH = 1;
+    private static final byte STATE_VISITED = 2;
+
+    private static final ReferenceTraceElement.Type[] REFERENCE_TYPES = ReferenceTraceElement.Type.values();
+
+    private static final int INITIAL_NODE_CAPACITY = 1024;
+
     private final ExcludedRefs excludedRefs;
-    private final Queue<ReferenceNode> toVisitQueue;
-    private final Queue<ReferenceNode> toVisitIfNoPathQueue;
-    private final Set<Instance> toVisitSet;
-    private final Set<Instance> toVisitIfNoPathSet;
-    private final Set<Instance> visitedSet;
+    private final IntQueue toVisitQueue;
+    private final IntQueue toVisitIfNoPathQueue;
+    private final LongIntMap nodeIndexByInstanceId;
+    private final TIntObjectHashMap<Exclusion> nodeExclusions;
     private boolean canIgnoreStrings;
 
+    // Every instance that has been enqueued gets a node index, and the BFS tree is kept in the
+    // following parallel arrays instead of one ReferenceNode object per visited instance.
+    private Instance[] nodeInstances;
+    private int[] nodeParents;
+    private byte[] nodeStates;
+    private byte[] nodeReferenceTypes;
+    private String[] nodeReferenceNames;
+    private int[] nodeArrayIndices;
+    private int nodeCount;
+
     public ShortestPathFinder(ExcludedRefs excludedRefs) {
         this.excludedRefs = excludedRefs;
-        toVisitQueue = new LinkedList<>();
-        toVisitIfNoPathQueue = new LinkedList<>();
-        toVisitSet = new HashSet<>();
-        toVisitIfNoPathSet = new HashSet<>();
-        visitedSet = new HashSet<>();
+        toVisitQueue = new IntQueue();
+        toVisitIfNoPathQueue = new IntQueue();
+        nodeIndexByInstanceId = new LongIntMap();
+        nodeExclusions = new TIntObjectHashMap<>();
     }
 
     public static final class Result {
@@ -229,6 +248,10 @@ public final class ShortestPathFinder {
         }
     }
 
+    /**
+     * Finds the shortest paths to all of {@code targetReferences} with a single traversal from
+     * the gc roots, which stops as soon as every target has been reached.
+     */
     public Map<Instance, Result> findPath(Snapshot snapshot, Collection<Instance> targetReferences) {
         final Map<Instance, Result> results = new HashMap<>();
 
@@ -248,52 +271,95 @@ public final class ShortestPathFinder {
         }
 
         final Set<Instance> targetRefSet = new HashSet<>(targetReferences);
+        final TIntObjectHashMap<ReferenceNode> builtNodes = new TIntObjectHashMap<>();
 
         while (!toVisitQueue.isEmpty() || !toVisitIfNoPathQueue.isEmpty()) {
-            ReferenceNode node;
-            if (!toVisitQueue.isEmpty()) {
-                node = toVisitQueue.poll();
-            } else {
-                node = toVisitIfNoPathQueue.poll();
-                if (node.exclusion == null) {
-                    throw new IllegalStateException("Expected node to have an exclusion " + node);
-                }
+            final boolean visitNow = !toVisitQueue.isEmpty();
+            final int node = visitNow ? toVisitQueue.poll() : toVisitIfNoPathQueue.poll();
+            if (nodeStates[node] == STATE_VISITED) {
+                // Reached again without exclusion and visited already.
+                continue;
+            }
+            final Exclusion exclusion = nodeExclusions.get(node);
+            if (!visitNow && exclusion == null) {
+                throw new IllegalStateException("Expected node to have an exclusion " + nodeInstances[node]);
             }
 
             // Termination
-            if (targetRefSet.contains(node.instance)) {
-                results.put(node.instance, new Result(node, node.exclusion != null));
-                targetRefSet.remove(node.instance);
+            final Instance instance = nodeInstances[node];
+            if (targetRefSet.contains(instance)) {
+                results.put(instance, new Result(buildReferenceNode(node, builtNodes), exclusion != null));
+                targetRefSet.remove(instance);
                 if (targetRefSet.isEmpty()) {
                     break;
                 }
             }
 
-            if (checkSeen(node)) {
-                continue;
-            }
+            nodeStates[node] = STATE_VISITED;
 
-            if (node.instance instanceof RootObj) {
+            if (instance instanceof RootObj) {
                 visitRootObj(node);
-            } else if (node.instance instanceof ClassObj) {
+            } else if (instance instanceof ClassObj) {
                 visitClassObj(node);
-            } else if (node.instance instanceof ClassInstance) {
+            } else if (instance instanceof ClassInstance) {
                 visitClassInstance(node);
-            } else if (node.instance instanceof ArrayInstance) {
+            } else if (instance instanceof ArrayInstance) {
                 visitArrayInstance(node);
             } else {
-                throw new IllegalStateException("Unexpected type for " + node.instance);
+                throw new IllegalStateException("Unexpected type for " + instance);
             }
         }
+
+        // Drop references to the heap so that the finder can be kept around cheaply.
+        clearState();
         return results;
     }
 
     private void clearState() {
         toVisitQueue.clear();
         toVisitIfNoPathQueue.clear();
-        toVisitSet.clear();
-        toVisitIfNoPathSet.clear();
-        visitedSet.clear();
+        nodeIndexByInstanceId.clear();
+        nodeExclusions.clear();
+        nodeInstances = new Instance[INITIAL_NODE_CAPACITY];
+        nodeParents = new int[INITIAL_NODE_CAPACITY];
+        nodeStates = new byte[INITIAL_NODE_CAPACITY];
+        nodeReferenceTypes = new byte[INITIAL_NODE_CAPACITY];
+        nodeReferenceNames = new String[INITIAL_NODE_CAPACITY];
+        nodeArrayIndices = new int[INITIAL_NODE_CAPACITY];
+        nodeCount = 0;
+    }
+
+    /**
+     * Materializes the {@link ReferenceNode} chain of a node, sharing the common prefixes of
+     * every chain built during one traversal. Walks the parents iteratively, a reference chain
+     * may be as long as a linked list in the heap.
+     */
+    private ReferenceNode buildReferenceNode(int node, TIntObjectHashMap<ReferenceNode> builtNodes) {
+        int[] pending = new int[16];
+        int pendingCount = 0;
+        ReferenceNode parent = null;
+        while (node != NO_PARENT) {
+            parent = builtNodes.get(node);
+            if (parent != null) {
+                break;
+            }
+            if (pendingCount == pending.length) {
+                pending = Arrays.copyOf(pending, pendingCount * 2);
+            }
+            pending[pendingCount++] = node;
+            node = nodeParents[node];
+        }
+        // Build from the one nearest to the root down to the given node.
+        for (int i = pendingCount - 1; i >= 0; i--) {
+            final int current = pending[i];
+            final int referenceType = nodeReferenceTypes[current];
+            final String referenceName = nodeArrayIndices[current] != NO_ARRAY_INDEX
+                    ? "[" + nodeArrayIndices[current] + "]" : nodeReferenceNames[current];
+            parent = new ReferenceNode(nodeExclusions.get(current), nodeInstances[current], parent, referenceName,
+                    referenceType == 0 ? null : REFERENCE_TYPES[referenceType - 1]);
+            builtNodes.put(current, parent);
+        }
+        return parent;
     }
 
     private void enqueueGcRoots(Snapshot snapshot) {
@@ -304,7 +370,7 @@ public final class ShortestPathFinder {
                     String threadName = threadName(thread);
                     Exclusion params = excludedRefs.threadNames.get(threadName);
                     if (params == null || !params.alwaysExclude) {
-                        enqueue(params, null, rootObj, null, null);
+                        enqueueRoot(params, rootObj);
                     }
                     break;
                 case INTERNED_STRING:
@@ -331,7 +397,7 @@ public final class ShortestPathFinder {
                     // Input or output parameters in native code.
                 case NATIVE_STACK:
                 case JAVA_STATIC:
-                    enqueue(null, null, rootObj, null, null);
+                    enqueueRoot(null, rootObj);
                     break;
                 default:
                     throw new UnsupportedOperationException("Unknown root type:" + rootObj.getRootType());
@@ -339,31 +405,24 @@ public final class ShortestPathFinder {
         }
     }
 
-    private boolean checkSeen(ReferenceNode node) {
-        return !visitedSet.add(node.instance);
-    }
-
-    private void visitRootObj(ReferenceNode node) {
-        RootObj rootObj = (RootObj) node.instance;
+    private void visitRootObj(int node) {
+        RootObj rootObj = (RootObj) nodeInstances[node];
         Instance child = rootObj.getReferredInstance();
 
         if (rootObj.getRootType() == RootType.JAVA_LOCAL) {
             Instance holder = HahaSpy.allocatingThread(rootObj);
             // We switch the parent node with the thread instance that holds
             // the local reference.
-            Exclusion exclusion = null;
-            if (node.exclusion != null) {
-                exclusion = node.exclusion;
-            }
-            ReferenceNode parent = new ReferenceNode(null, holder, null, null, null);
-            enqueue(exclusion, parent, child, "<Java Local>", LOCAL);
+            Exclusion exclusion = nodeExclusions.get(node);
+            int parent = newNode(holder, NO_PARENT, null, NO_ARRAY_INDEX, null, null, STATE_VISITED);
+            enqueue(exclusion, parent, child, "<Java Local>", NO_ARRAY_INDEX, LOCAL);
         } else {
-            enqueue(null, node, child, null, null);
+            enqueue(null, node, child, null, NO_ARRAY_INDEX, null);
         }
     }
 
-    private void visitClassObj(ReferenceNode node) {
-        ClassObj classObj = (ClassObj) node.instance;
+    private void visitClassObj(int node) {
+        ClassObj classObj = (ClassObj) nodeInstances[node];
         Map<String, Exclusion> ignoredStaticFields =
                 excludedRefs.staticFieldNameByClassName.get(classObj.getClassName());
         for (Map.Entry<Field, Object> entry : classObj.getStaticFieldValues().entrySet()) {
@@ -382,18 +441,18 @@ public final class ShortestPathFinder {
                 if (params != null) {
                     visit = false;
                     if (!params.alwaysExclude) {
-                        enqueue(params, node, child, fieldName, STATIC_FIELD);
+                        enqueue(params, node, child, fieldName, NO_ARRAY_INDEX, STATIC_FIELD);
                     }
                 }
             }
             if (visit) {
-                enqueue(null, node, child, fieldName, STATIC_FIELD);
+                enqueue(null, node, child, fieldName, NO_ARRAY_INDEX, STATIC_FIELD);
             }
         }
     }
 
-    private void visitClassInstance(ReferenceNode node) {
-        ClassInstance classInstance = (ClassInstance) node.instance;
+    private void visitClassInstance(int node) {
+        ClassInstance classInstance = (ClassInstance) nodeInstances[node];
         Map<String, Exclusion> ignoredFields = new LinkedHashMap<>();
         ClassObj superClassObj = classInstance.getClassObj();
         Exclusion classExclusion = null;
@@ -429,23 +488,34 @@ public final class ShortestPathFinder {
                     && !fieldExclusion.alwaysExclude))) {
                 fieldExclusion = params;
             }
-            enqueue(fieldExclusion, node, child, fieldName, INSTANCE_FIELD);
+            enqueue(fieldExclusion, node, child, fieldName, NO_ARRAY_INDEX, INSTANCE_FIELD);
         }
     }
 
-    private void visitArrayInstance(ReferenceNode node) {
-        ArrayInstance arrayInstance = (ArrayInstance) node.instance;
+    private void visitArrayInstance(int node) {
+        ArrayInstance arrayInstance = (ArrayInstance) nodeInstances[node];
         Type arrayType = arrayInstance.getArrayType();
         if (arrayType == Type.OBJECT) {
             Object[] values = arrayInstance.getValues();
             for (int i = 0; i < values.length; i++) {
                 Instance child = (Instance) values[i];
-                enqueue(null, node, child, "[" + i + "]", ARRAY_ENTRY);
+                enqueue(null, node, child, null, i, ARRAY_ENTRY);
             }
         }
     }
 
-    private void enqueue(Exclusion exclusion, ReferenceNode parent, Instance child, String referenceName,
+    private void enqueueRoot(Exclusion exclusion, RootObj rootObj) {
+        // Roots share ids with the instances they refer to, so they are never indexed by id.
+        final byte state = exclusion == null ? STATE_TO_VISIT : STATE_TO_VISIT_IF_NO_PATH;
+        final int node = newNode(rootObj, NO_PARENT, null, NO_ARRAY_INDEX, null, exclusion, state);
+        if (state == STATE_TO_VISIT) {
+            toVisitQueue.add(node);
+        } else {
+            toVisitIfNoPathQueue.add(node);
+        }
+    }
+
+    private void enqueue(Exclusion exclusion, int parent, Instance child, String referenceName, int arrayIndex,
                          ReferenceTraceElement.Type referenceType) {
         if (child == null) {
             return;
@@ -453,27 +523,59 @@ public final class ShortestPathFinder {
         if (isPrimitiveOrWrapperArray(child) || isPrimitiveWrapper(child)) {
             return;
         }
-        // Whether we want to visit now or later, we should skip if this is already to visit.
-        if (toVisitSet.contains(child)) {
-            return;
-        }
         boolean visitNow = exclusion == null;
-        if (!visitNow && toVisitIfNoPathSet.contains(child)) {
+        final int existing = nodeIndexByInstanceId.get(child.getId());
+        if (existing != LongIntMap.NOT_FOUND) {
+            // Whether we want to visit now or later, we should skip if this is already to visit
+            // or visited. A node waiting to be visited if no path is found is taken over by a
+            // path without exclusion, which can only happen before it is visited.
+            if (!visitNow || nodeStates[existing] != STATE_TO_VISIT_IF_NO_PATH) {
+                return;
+            }
+            setNode(existing, child, parent, referenceName, arrayIndex, referenceType, null, STATE_TO_VISIT);
+            toVisitQueue.add(existing);
             return;
         }
         if (canIgnoreStrings && isString(child)) {
             return;
         }
-        if (visitedSet.contains(child)) {
-            return;
-        }
-        ReferenceNode childNode = new ReferenceNode(exclusion, child, parent, referenceName, referenceType);
+        final int node = newNode(child, parent, referenceName, arrayIndex, referenceType, exclusion,
+                visitNow ? STATE_TO_VISIT : STATE_TO_VISIT_IF_NO_PATH);
+        nodeIndexByInstanceId.put(child.getId(), node);
         if (visitNow) {
-            toVisitSet.add(child);
-            toVisitQueue.add(childNode);
+            toVisitQueue.add(node);
         } else {
-            toVisitIfNoPathSet.add(child);
-            toVisitIfNoPathQueue.add(childNode);
+            toVisitIfNoPathQueue.add(node);
+        }
+    }
+
+    private int newNode(Instance instance, int parent, String referenceName, int arrayIndex,
+                        ReferenceTraceElement.Type referenceType, Exclusion exclusion, byte state) {
+        if (nodeCount == nodeInstances.length) {
+            final int newCapacity = nodeCount + (nodeCount >> 1);
+            nodeInstances = Arrays.copyOf(nodeInstances, newCapacity);
+            nodeParents = Arrays.copyOf(nodeParents, newCapacity);
+            nodeStates = Arrays.copyOf(nodeStates, newCapacity);
+            nodeReferenceTypes = Arrays.copyOf(nodeReferenceTypes, newCapacity);
+            nodeReferenceNames = Arrays.copyOf(nodeReferenceNames, newCapacity);
+            nodeArrayIndices = Arrays.copyOf(nodeArrayIndices, newCapacity);
+        }
+        final int node = nodeCount++;
+        setNode(node, instance, parent, referenceName, arrayIndex, referenceType, exclusion, state);
+        return node;
+    }
+
+    private void setNode(int node, Instance instance, int parent, String referenceName, int arrayIndex,
+                         ReferenceTraceElement.Type referenceType, Exclusion exclusion, byte state) {
+        nodeInstances[node] = instance;
+        nodeParents[node] = parent;
+        nodeReferenceNames[node] = referenceName;
+        nodeArrayIndices[node] = arrayIndex;
+        nodeReferenceTypes[node] = (byte) (referenceType == null ? 0 : referenceType.ordinal() + 1);
+        nodeStates[node] = state;
+        // Exclusions are rare, keep them in a sparse map.
+        if (exclusion != null || nodeExclusions.get(node) != null) {
+            nodeExclusions.put(node, exclusion);
         }
     }
 
@@ -482,4 +584,114 @@ public final class ShortestPathFinder {
                 .getClassName()
                 .equals(String.class.getName());
     }
+
+    /**
+     * FIFO queue of node indices backed by a growable ring buffer.
+     */
+    private static final class IntQueue {
+        private int[] elements = new int[INITIAL_NODE_CAPACITY];
+        private int head = 0;
+        private int size = 0;
+
+        void add(int element) {
+            if (size == elements.length) {
+                final int[] newElements = new int[elements.length << 1];
+                final int firstPart = elements.length - head;
+                System.arraycopy(elements, head, newElements, 0, firstPart);
+                System.arraycopy(elements, 0, newElements, firstPart, head);
+                elements = newElements;
+                head = 0;
+            }
+            elements[(head + size) % elements.length] = element;
+            ++size;
+        }
+
+        int poll() {
+            final int element = elements[head];
+            head = (head + 1) % elements.length;
+            --size;
+            return element;
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        void clear() {
+            elements = new int[INITIAL_NODE_CAPACITY];
+            head = 0;
+            size = 0;
+        }
+    }
+
+    /**
+     * Open addressing map from instance id to node index, which avoids boxing both of them.
+     */
+    private static final class LongIntMap {
+        static final int NOT_FOUND = -1;
+
+        private long[] keys;
+        private int[] values;
+        private int size;
+
+        LongIntMap() {
+            clear();
+        }
+
+        int get(long key) {
+            final int mask = keys.length - 1;
+            int slot = hash(key) & mask;
+            while (values[slot] != NOT_FOUND) {
+                if (keys[slot] == key) {
+                    return values[slot];
+                }
+                slot = (slot + 1) & mask;
+            }
+            return NOT_FOUND;
+        }
+
+        void put(long key, int value) {
+            if ((size + 1) * 4 > keys.length * 3) {
+                rehash(keys.length << 1);
+            }
+            final int mask = keys.length - 1;
+            int slot = hash(key) & mask;
+            while (values[slot] != NOT_FOUND) {
+                if (keys[slot] == key) {
+                    values[slot] = value;
+                    return;
+                }
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            values[slot] = value;
+            ++size;
+        }
+
+        void clear() {
+            keys = new long[INITIAL_NODE_CAPACITY];
+            values = new int[INITIAL_NODE_CAPACITY];
+            Arrays.fill(values, NOT_FOUND);
+            size = 0;
+        }
+
+        private void rehash(int newCapacity) {
+            final long[] oldKeys = keys;
+            final int[] oldValues = values;
+            keys = new long[newCapacity];
+            values = new int[newCapacity];
+            Arrays.fill(values, NOT_FOUND);
+            size = 0;
+            for (int i = 0; i < oldKeys.length; ++i) {
+                if (oldValues[i] != NOT_FOUND) {
+                    put(oldKeys[i], oldValues[i]);
+                }
+            }
+        }
+
+        private static int hash(long key) {
+            final long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+    }
 }
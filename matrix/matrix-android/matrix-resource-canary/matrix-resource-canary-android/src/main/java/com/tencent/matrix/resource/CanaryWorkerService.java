@@ -25,6 +25,7 @@ import android.os.Build;
 
 import com.tencent.matrix.Matrix;
 import com.tencent.matrix.resource.analyzer.model.HeapDump;
+import com.tencent.matrix.resource.common.utils.ChunkedHprofOutputStream;
 import com.tencent.matrix.resource.hproflib.HprofBufferShrinker;
 import com.tencent.matrix.util.MatrixLog;
 
@@ -32,12 +33,15 @@ import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.nio.charset.Charset;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Locale;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
@@ -81,15 +85,18 @@ public class CanaryWorkerService extends MatrixJobIntentService {
 
     private void doShrinkHprofAndReport(HeapDump heapDump) {
         final File hprofDir = heapDump.getHprofFile().getParentFile();
-        final File shrinkedHProfFile = new File(hprofDir, getShrinkHprofName(heapDump.getHprofFile()));
-        final File zipResFile = new File(hprofDir, getResultZipName("dump_result_" + android.os.Process.myPid()));
         final File hprofFile = heapDump.getHprofFile();
+        final File shrinkedHProfFile = heapDump.isShrunk() ? hprofFile : new File(hprofDir, getShrinkHprofName(hprofFile));
+        final File chunkedHprofFile = new File(hprofDir, shrinkedHProfFile.getName() + ".chunked");
+        final File zipResFile = new File(hprofDir, getResultZipName("dump_result_" + android.os.Process.myPid()));
         ZipOutputStream zos = null;
         try {
             long startTime = System.currentTimeMillis();
-            new HprofBufferShrinker().shrink(hprofFile, shrinkedHProfFile);
-            MatrixLog.i(TAG, "shrink hprof file %s, size: %dk to %s, size: %dk, use time:%d",
-                    hprofFile.getPath(), hprofFile.length() / 1024, shrinkedHProfFile.getPath(), shrinkedHProfFile.length() / 1024, (System.currentTimeMillis() - startTime));
+            if (!heapDump.isShrunk()) {
+                new HprofBufferShrinker().shrink(hprofFile, shrinkedHProfFile);
+                MatrixLog.i(TAG, "shrink hprof file %s, size: %dk to %s, size: %dk, use time:%d",
+                        hprofFile.getPath(), hprofFile.length() / 1024, shrinkedHProfFile.getPath(), shrinkedHProfFile.length() / 1024, (System.currentTimeMillis() - startTime));
+            }
 
             zos = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(zipResFile)));
 
@@ -106,10 +113,29 @@ public class CanaryWorkerService extends MatrixJobIntentService {
             pw.flush();
             zos.closeEntry();
 
+            // Store the hprof as independently deflated blocks without zip compression on top, so the
+            // analyzer can read it in place instead of inflating the whole entry to a temporary file.
+            final CRC32 crc = new CRC32();
+            OutputStream chunkedOs = null;
+            try {
+                chunkedOs = new ChunkedHprofOutputStream(
+                        new CheckedOutputStream(new BufferedOutputStream(new FileOutputStream(chunkedHprofFile)), crc));
+                copyFileToStream(shrinkedHProfFile, chunkedOs);
+                // Writes the block index, so do not let errors pass silently here.
+                chunkedOs.close();
+            } finally {
+                closeQuietly(chunkedOs);
+            }
+            shrinkedHProfEntry.setMethod(ZipEntry.STORED);
+            shrinkedHProfEntry.setSize(chunkedHprofFile.length());
+            shrinkedHProfEntry.setCompressedSize(chunkedHprofFile.length());
+            shrinkedHProfEntry.setCrc(crc.getValue());
+
             zos.putNextEntry(shrinkedHProfEntry);
-            copyFileToStream(shrinkedHProfFile, zos);
+            copyFileToStream(chunkedHprofFile, zos);
             zos.closeEntry();
 
+            chunkedHprofFile.delete();
             shrinkedHProfFile.delete();
             hprofFile.delete();
 
@@ -120,6 +146,7 @@ public class CanaryWorkerService extends MatrixJobIntentService {
             MatrixLog.printErrStackTrace(TAG, e, "");
         } finally {
             closeQuietly(zos);
+            chunkedHprofFile.delete();
         }
     }
 
@@ -33,12 +33,21 @@ public class HeapDump implements Serializable {
     private final File mHprofFile;
     private final String mRefKey;
     private final String mActivityName;
+    private final boolean mIsShrunk;
 
 
     public HeapDump(File hprofFile, String refKey, String activityName) {
+        this(hprofFile, refKey, activityName, false);
+    }
+
+    /**
+     * @param isShrunk whether the hprof file was already shrunk while dumping.
+     */
+    public HeapDump(File hprofFile, String refKey, String activityName, boolean isShrunk) {
         mHprofFile = Preconditions.checkNotNull(hprofFile, "hprofFile");
         mRefKey = Preconditions.checkNotNull(refKey, "refKey");
         mActivityName = Preconditions.checkNotNull(activityName, "activityName");
+        mIsShrunk = isShrunk;
     }
 
     public File getHprofFile() {
@@ -53,4 +62,8 @@ public class HeapDump implements Serializable {
         return mActivityName;
     }
 
+    public boolean isShrunk() {
+        return mIsShrunk;
+    }
+
 }
@@ -0,0 +1,423 @@
+/*
+ * Tencent is pleased to support the open source community by making wechat-matrix available.
+ * Copyright (C) 2018 THL A29 Limited, a Tencent company. All rights reserved.
+ * Licensed under the BSD 3-Clause License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.matrix.resource.hproflib;
+
+import com.tencent.matrix.resource.common.utils.DigestUtil;
+import com.tencent.matrix.resource.hproflib.model.Field;
+import com.tencent.matrix.resource.hproflib.model.ID;
+import com.tencent.matrix.resource.hproflib.model.Type;
+import com.tencent.matrix.resource.hproflib.utils.IOUtil;
+import com.tencent.matrix.util.MatrixUtil;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Single pass version of {@link HprofBufferShrinker}.
+ *
+ * The hprof is consumed once from a stream (e.g. a fifo the dumping process writes into), so the
+ * full dump never lands on disk. Since a bitmap and its buffer may come in any order, bitmap
+ * instances are held back and written with the kept buffers in an extra heap dump segment before
+ * HEAP_DUMP_END. Byte arrays that may turn out to be bitmap buffers are spilled to a side file,
+ * one copy per distinct content, until then.
+ */
+public class HprofStreamShrinker {
+    public static final String TAG = "Matrix.HprofStreamShrinker";
+
+    private final File    mSpillFile;
+    private final boolean mKeepBitmapBuffers;
+
+    private final List<DeferredInstance>     mDeferredBmpInstances  = new ArrayList<>();
+    private final Set<ID>                    mPendingStringValueIds = new HashSet<>();
+    private final Map<ID, String>            mBufferIdToMd5Map      = new HashMap<>();
+    private final Map<String, SpilledBuffer> mMd5ToSpilledBufferMap = new HashMap<>();
+
+    private ID mBitmapClassNameStringId    = null;
+    private ID mBmpClassId                 = null;
+    private ID mMBufferFieldNameStringId   = null;
+    private ID mMRecycledFieldNameStringId = null;
+
+    private ID mStringClassNameStringId = null;
+    private ID mStringClassId           = null;
+    private ID mValueFieldNameStringId  = null;
+
+    private int     mIdSize                    = 0;
+    private ID      mNullBufferId              = null;
+    private Field[] mBmpClassInstanceFields    = null;
+    private Field[] mStringClassInstanceFields = null;
+
+    private int mCurrHeapId     = 0;
+    private ID  mCurrHeapNameId = null;
+
+    private volatile OutputStream mOut        = null;
+    private volatile OutputStream mSpillOut   = null;
+    private long                  mSpillLength = 0;
+    private volatile boolean      mCanceled    = false;
+
+    /**
+     * @param spillFile         side file holding candidate bitmap buffers until their bitmaps show up.
+     * @param keepBitmapBuffers whether bitmap pixels live in java byte arrays (before Android O) and should be
+     *                          kept deduplicated. If false no byte array is ever spilled.
+     */
+    public HprofStreamShrinker(File spillFile, boolean keepBitmapBuffers) {
+        mSpillFile = spillFile;
+        mKeepBitmapBuffers = keepBitmapBuffers;
+    }
+
+    public void shrink(InputStream hprofIn, File hprofOut) throws IOException {
+        OutputStream os = null;
+        try {
+            os = new BufferedOutputStream(new FileOutputStream(hprofOut));
+            mOut = os;
+            checkCanceled();
+            new HprofReader(hprofIn).accept(new HprofStreamShrinkVisitor(new HprofWriter(os)));
+        } catch (RuntimeException e) {
+            // Visitors wrap io errors since they cannot throw checked exceptions.
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw e;
+        } finally {
+            MatrixUtil.closeQuietly(os);
+            MatrixUtil.closeQuietly(mSpillOut);
+            mSpillFile.delete();
+        }
+    }
+
+    /**
+     * Aborts a running {@link #shrink} from another thread by closing its outputs, so it fails on the next write
+     * instead of going on. The caller closes the input stream of the shrink itself.
+     */
+    public void cancel() {
+        mCanceled = true;
+        MatrixUtil.closeQuietly(mOut);
+        MatrixUtil.closeQuietly(mSpillOut);
+    }
+
+    private void checkCanceled() throws IOException {
+        if (mCanceled) {
+            throw new IOException("shrink has been canceled");
+        }
+    }
+
+    private void spillBuffer(int tag, ID id, int stackId, int numElements, int typeId, byte[] elements) throws IOException {
+        final String md5 = DigestUtil.getMD5String(elements);
+        mBufferIdToMd5Map.put(id, md5);
+        if (mMd5ToSpilledBufferMap.containsKey(md5)) {
+            return;
+        }
+        if (mSpillOut == null) {
+            mSpillOut = new BufferedOutputStream(new FileOutputStream(mSpillFile));
+            checkCanceled();
+        }
+        mSpillOut.write(elements);
+        mMd5ToSpilledBufferMap.put(md5, new SpilledBuffer(tag, stackId, numElements, typeId,
+                mCurrHeapId, mCurrHeapNameId, mSpillLength, elements.length));
+        mSpillLength += elements.length;
+    }
+
+    private static class DeferredInstance {
+        final ID     id;
+        final int    stackId;
+        final ID     typeId;
+        final byte[] instanceData;
+        final int    heapId;
+        final ID     heapNameId;
+
+        DeferredInstance(ID id, int stackId, ID typeId, byte[] instanceData, int heapId, ID heapNameId) {
+            this.id = id;
+            this.stackId = stackId;
+            this.typeId = typeId;
+            this.instanceData = instanceData;
+            this.heapId = heapId;
+            this.heapNameId = heapNameId;
+        }
+    }
+
+    private static class SpilledBuffer {
+        final int  tag;
+        final int  stackId;
+        final int  numElements;
+        final int  typeId;
+        final int  heapId;
+        final ID   heapNameId;
+        final long offset;
+        final int  length;
+
+        SpilledBuffer(int tag, int stackId, int numElements, int typeId, int heapId, ID heapNameId, long offset, int length) {
+            this.tag = tag;
+            this.stackId = stackId;
+            this.numElements = numElements;
+            this.typeId = typeId;
+            this.heapId = heapId;
+            this.heapNameId = heapNameId;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    private class HprofStreamShrinkVisitor extends HprofVisitor {
+        private boolean mDeferredRecordsWritten = false;
+        private int     mLastHeapDumpTimestamp  = 0;
+
+        HprofStreamShrinkVisitor(HprofWriter hprofWriter) {
+            super(hprofWriter);
+        }
+
+        @Override
+        public void visitHeader(String text, int idSize, long timestamp) {
+            mIdSize = idSize;
+            mNullBufferId = ID.createNullID(idSize);
+            super.visitHeader(text, idSize, timestamp);
+        }
+
+        @Override
+        public void visitStringRecord(ID id, String text, int timestamp, long length) {
+            if (mBitmapClassNameStringId == null && "android.graphics.Bitmap".equals(text)) {
+                mBitmapClassNameStringId = id;
+            } else if (mMBufferFieldNameStringId == null && "mBuffer".equals(text)) {
+                mMBufferFieldNameStringId = id;
+            } else if (mMRecycledFieldNameStringId == null && "mRecycled".equals(text)) {
+                mMRecycledFieldNameStringId = id;
+            } else if (mStringClassNameStringId == null && "java.lang.String".equals(text)) {
+                mStringClassNameStringId = id;
+            } else if (mValueFieldNameStringId == null && "value".equals(text)) {
+                mValueFieldNameStringId = id;
+            }
+            super.visitStringRecord(id, text, timestamp, length);
+        }
+
+        @Override
+        public void visitLoadClassRecord(int serialNumber, ID classObjectId, int stackTraceSerial, ID classNameStringId, int timestamp, long length) {
+            if (mBmpClassId == null && mBitmapClassNameStringId != null && mBitmapClassNameStringId.equals(classNameStringId)) {
+                mBmpClassId = classObjectId;
+            } else if (mStringClassId == null && mStringClassNameStringId != null && mStringClassNameStringId.equals(classNameStringId)) {
+                mStringClassId = classObjectId;
+            }
+            super.visitLoadClassRecord(serialNumber, classObjectId, stackTraceSerial, classNameStringId, timestamp, length);
+        }
+
+        @Override
+        public HprofHeapDumpVisitor visitHeapDumpRecord(int tag, int timestamp, long length) {
+            mLastHeapDumpTimestamp = timestamp;
+            return new HprofHeapDumpVisitor(super.visitHeapDumpRecord(tag, timestamp, length)) {
+                @Override
+                public void visitHeapDumpInfo(int heapId, ID heapNameId) {
+                    mCurrHeapId = heapId;
+                    mCurrHeapNameId = heapNameId;
+                    super.visitHeapDumpInfo(heapId, heapNameId);
+                }
+
+                @Override
+                public void visitHeapDumpClass(ID id, int stackSerialNumber, ID superClassId, ID classLoaderId, int instanceSize, Field[] staticFields, Field[] instanceFields) {
+                    if (mBmpClassInstanceFields == null && mBmpClassId != null && mBmpClassId.equals(id)) {
+                        mBmpClassInstanceFields = instanceFields;
+                    } else if (mStringClassInstanceFields == null && mStringClassId != null && mStringClassId.equals(id)) {
+                        mStringClassInstanceFields = instanceFields;
+                    }
+                    super.visitHeapDumpClass(id, stackSerialNumber, superClassId, classLoaderId, instanceSize, staticFields, instanceFields);
+                }
+
+                @Override
+                public void visitHeapDumpInstance(ID id, int stackId, ID typeId, byte[] instanceData) {
+                    if (mBmpClassId != null && mBmpClassId.equals(typeId)) {
+                        // Written at the end, once we know which buffer it should point to.
+                        mDeferredBmpInstances.add(new DeferredInstance(id, stackId, typeId, instanceData, mCurrHeapId, mCurrHeapNameId));
+                        return;
+                    }
+                    if (mStringClassId != null && mStringClassId.equals(typeId)) {
+                        // String class lives in the boot image, so its layout is known before app strings show up.
+                        final ID strValueId = readStringValueId(instanceData);
+                        if (strValueId != null && !strValueId.equals(mNullBufferId)) {
+                            mPendingStringValueIds.add(strValueId);
+                        }
+                    }
+                    super.visitHeapDumpInstance(id, stackId, typeId, instanceData);
+                }
+
+                @Override
+                public void visitHeapDumpPrimitiveArray(int tag, ID id, int stackId, int numElements, int typeId, byte[] elements) {
+                    if (mPendingStringValueIds.remove(id) || typeId == Type.CHAR.getTypeId()) {
+                        // Char arrays are kept as a whole since a string may come after its value.
+                        super.visitHeapDumpPrimitiveArray(tag, id, stackId, numElements, typeId, elements);
+                    } else if (mKeepBitmapBuffers && typeId == Type.BYTE.getTypeId()) {
+                        try {
+                            spillBuffer(tag, id, stackId, numElements, typeId, elements);
+                        } catch (IOException e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                    // Discard other primitive arrays.
+                }
+            };
+        }
+
+        @Override
+        public void visitUnconcernedRecord(int tag, int timestamp, long length, byte[] data) {
+            if (tag == HprofConstants.RECORD_TAG_HEAP_DUMP_END) {
+                writeDeferredRecords();
+            }
+            super.visitUnconcernedRecord(tag, timestamp, length, data);
+        }
+
+        @Override
+        public void visitEnd() {
+            writeDeferredRecords();
+            super.visitEnd();
+        }
+
+        private ID readStringValueId(byte[] instanceData) {
+            if (mStringClassInstanceFields == null || mValueFieldNameStringId == null) {
+                return null;
+            }
+            try {
+                final ByteArrayInputStream bais = new ByteArrayInputStream(instanceData);
+                for (Field field : mStringClassInstanceFields) {
+                    final Type fieldType = Type.getType(field.typeId);
+                    if (fieldType == null) {
+                        throw new IllegalStateException("visit string instance failed, lost type def of typeId: " + field.typeId);
+                    }
+                    if (mValueFieldNameStringId.equals(field.nameId)) {
+                        return (ID) IOUtil.readValue(bais, fieldType, mIdSize);
+                    }
+                    IOUtil.skipValue(bais, fieldType, mIdSize);
+                }
+                return null;
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        private void writeDeferredRecords() {
+            if (mDeferredRecordsWritten) {
+                return;
+            }
+            mDeferredRecordsWritten = true;
+            if (mDeferredBmpInstances.isEmpty()) {
+                return;
+            }
+            RandomAccessFile spillIn = null;
+            try {
+                final Map<String, ID> md5ToKeptBufferIdMap = new LinkedHashMap<>();
+                for (DeferredInstance instance : mDeferredBmpInstances) {
+                    dedupBitmapBuffer(instance, md5ToKeptBufferIdMap);
+                }
+
+                if (mSpillOut != null) {
+                    mSpillOut.close();
+                    mSpillOut = null;
+                    spillIn = new RandomAccessFile(mSpillFile, "r");
+                }
+
+                final HprofHeapDumpVisitor hdv = super.visitHeapDumpRecord(HprofConstants.RECORD_TAG_HEAP_DUMP_SEGMENT,
+                        mLastHeapDumpTimestamp, 0);
+                int lastHeapId = -1;
+                for (Map.Entry<String, ID> keptBuffer : md5ToKeptBufferIdMap.entrySet()) {
+                    final SpilledBuffer spilled = mMd5ToSpilledBufferMap.get(keptBuffer.getKey());
+                    lastHeapId = switchHeap(hdv, lastHeapId, spilled.heapId, spilled.heapNameId);
+                    final byte[] elements = new byte[spilled.length];
+                    spillIn.seek(spilled.offset);
+                    spillIn.readFully(elements);
+                    hdv.visitHeapDumpPrimitiveArray(spilled.tag, keptBuffer.getValue(), spilled.stackId,
+                            spilled.numElements, spilled.typeId, elements);
+                }
+                for (DeferredInstance instance : mDeferredBmpInstances) {
+                    lastHeapId = switchHeap(hdv, lastHeapId, instance.heapId, instance.heapNameId);
+                    hdv.visitHeapDumpInstance(instance.id, instance.stackId, instance.typeId, instance.instanceData);
+                }
+                hdv.visitEnd();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            } finally {
+                MatrixUtil.closeQuietly(spillIn);
+                mDeferredBmpInstances.clear();
+                mBufferIdToMd5Map.clear();
+                mMd5ToSpilledBufferMap.clear();
+            }
+        }
+
+        private int switchHeap(HprofHeapDumpVisitor hdv, int lastHeapId, int heapId, ID heapNameId) {
+            if (heapNameId != null && heapId != lastHeapId) {
+                hdv.visitHeapDumpInfo(heapId, heapNameId);
+                return heapId;
+            }
+            return lastHeapId;
+        }
+
+        /**
+         * Points the instance to the first kept buffer with the same content, and marks that buffer as kept.
+         */
+        private void dedupBitmapBuffer(DeferredInstance instance, Map<String, ID> md5ToKeptBufferIdMap) throws IOException {
+            if (mBmpClassInstanceFields == null || mMBufferFieldNameStringId == null) {
+                return;
+            }
+            ID bufferId = null;
+            int bufferIdPos = -1;
+            Boolean isRecycled = null;
+            int pos = 0;
+            final ByteArrayInputStream bais = new ByteArrayInputStream(instance.instanceData);
+            for (Field field : mBmpClassInstanceFields) {
+                final Type fieldType = Type.getType(field.typeId);
+                if (fieldType == null) {
+                    throw new IllegalStateException("visit bmp instance failed, lost type def of typeId: " + field.typeId);
+                }
+                if (mMBufferFieldNameStringId.equals(field.nameId)) {
+                    bufferId = (ID) IOUtil.readValue(bais, fieldType, mIdSize);
+                    bufferIdPos = pos;
+                    pos += fieldType.getSize(mIdSize);
+                } else if (mMRecycledFieldNameStringId != null && mMRecycledFieldNameStringId.equals(field.nameId)) {
+                    isRecycled = (Boolean) IOUtil.readValue(bais, fieldType, mIdSize);
+                    pos += fieldType.getSize(mIdSize);
+                } else if (bufferId == null || isRecycled == null) {
+                    pos += IOUtil.skipValue(bais, fieldType, mIdSize);
+                } else {
+                    break;
+                }
+            }
+            final boolean reguardAsNotRecycledBmp = (isRecycled == null || !isRecycled);
+            if (bufferId == null || !reguardAsNotRecycledBmp || bufferId.equals(mNullBufferId)) {
+                return;
+            }
+            final String md5 = mBufferIdToMd5Map.get(bufferId);
+            if (md5 == null) {
+                return;
+            }
+            final ID keptBufferId = md5ToKeptBufferIdMap.get(md5);
+            if (keptBufferId == null) {
+                md5ToKeptBufferIdMap.put(md5, bufferId);
+            } else if (!keptBufferId.equals(bufferId)) {
+                final ByteBuffer bBuf = ByteBuffer.wrap(instance.instanceData);
+                bBuf.position(bufferIdPos);
+                bBuf.put(keptBufferId.getBytes());
+            }
+        }
+    }
+}
@@ -18,12 +18,19 @@ import com.tencent.matrix.resource.config.SharePluginInfo;
 import com.tencent.matrix.resource.dumper.AndroidHeapDumper;
 import com.tencent.matrix.resource.watcher.ActivityRefWatcher;
 import com.tencent.matrix.util.MatrixLog;
+import com.tencent.matrix.util.MatrixUtil;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Created by Yves on 2021/2/25
@@ -81,20 +88,58 @@ public abstract class BaseLeakProcessor {
     }
 
     protected ActivityLeakResult analyze(File hprofFile, String referenceKey) {
+        return analyze(hprofFile, Collections.singletonList(referenceKey)).get(referenceKey);
+    }
+
+    /**
+     * Checks all the given activities by a single shortest path search over the heap dump.
+     *
+     * @return analyze results keyed by referenceKeys, in the same order.
+     */
+    protected Map<String, ActivityLeakResult> analyze(File hprofFile, Collection<String> referenceKeys) {
         setAnalyzing(true);
-        final HeapSnapshot heapSnapshot;
-        ActivityLeakResult result;
+        HeapSnapshot heapSnapshot = null;
+        Map<String, ActivityLeakResult> results;
         String manufacture = Matrix.with().getPluginByClass(ResourcePlugin.class).getConfig().getManufacture();
         final ExcludedRefs excludedRefs = AndroidExcludedRefs.createAppDefaults(Build.VERSION.SDK_INT, manufacture).build();
         try {
             heapSnapshot = new HeapSnapshot(hprofFile);
-            result = new ActivityLeakAnalyzer(referenceKey, excludedRefs).analyze(heapSnapshot);
+            results = new ActivityLeakAnalyzer(null, excludedRefs).analyze(heapSnapshot, referenceKeys);
         } catch (IOException e) {
-            result = ActivityLeakResult.failure(e, 0);
+            results = new LinkedHashMap<>();
+            for (String referenceKey : referenceKeys) {
+                results.put(referenceKey, ActivityLeakResult.failure(e, 0));
+            }
+        } finally {
+            MatrixUtil.closeQuietly(heapSnapshot);
         }
         getWatcher().triggerGc();
         setAnalyzing(false);
-        return result;
+        return results;
+    }
+
+    /**
+     * @return the destroyed activities still pending in the watcher besides the one being processed, whose
+     * activities have not been recycled yet. They are analyzed from the same heap dump.
+     */
+    protected List<DestroyedActivityInfo> getPendingDestroyedActivities(String processingKey) {
+        final List<DestroyedActivityInfo> pending = new ArrayList<>();
+        for (DestroyedActivityInfo info : getWatcher().getDestroyedActivityInfos()) {
+            if (!info.mKey.equals(processingKey) && info.mActivityRef.get() != null
+                    && !getWatcher().isPublished(info.mActivityName)) {
+                pending.add(info);
+            }
+        }
+        return pending;
+    }
+
+    /**
+     * Marks a pending destroyed activity found leaked from the heap dump of another as done, so the watcher
+     * does not dump once more for it.
+     */
+    protected void onPendingLeakPublished(DestroyedActivityInfo info) {
+        getWatcher().markPublished(info.mActivityName, false);
+        getWatcher().getDestroyedActivityInfos().remove(info);
     }
 
     final protected void publishIssue(int issueType, ResourceConfig.DumpMode dumpMode, String activity, String refKey, String detail, String cost) {
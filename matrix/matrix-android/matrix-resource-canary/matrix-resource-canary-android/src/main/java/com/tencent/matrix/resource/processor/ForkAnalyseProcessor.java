@@ -13,6 +13,9 @@ import com.tencent.matrix.util.MatrixLog;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 
 /**
  * HPROF file analysis processor using fork dump.
@@ -93,21 +96,25 @@ public class ForkAnalyseProcessor extends BaseLeakProcessor {
         try {
             final long analyseStart = System.currentTimeMillis();
 
-            final ActivityLeakResult leaks = analyze(hprof, key);
-            MatrixLog.i(TAG, String.format("analyze cost=%sms refString=%s",
-                    System.currentTimeMillis() - analyseStart, key));
-
-            if (leaks.mLeakFound) {
-                final String leakChain = leaks.toString();
-                publishIssue(
-                        SharePluginInfo.IssueType.LEAK_FOUND,
-                        ResourceConfig.DumpMode.FORK_ANALYSE,
-                        activity, key, leakChain,
-                        String.valueOf(System.currentTimeMillis() - dumpStart));
-                MatrixLog.i(TAG, leakChain);
-            } else {
+            // Check the other destroyed activities pending in the watcher from the same dump.
+            final List<DestroyedActivityInfo> pending = getPendingDestroyedActivities(key);
+            final List<String> keys = new ArrayList<>(pending.size() + 1);
+            keys.add(key);
+            for (DestroyedActivityInfo info : pending) {
+                keys.add(info.mKey);
+            }
+            final Map<String, ActivityLeakResult> leaks = analyze(hprof, keys);
+            MatrixLog.i(TAG, String.format("analyze cost=%sms refString=%s pending=%s",
+                    System.currentTimeMillis() - analyseStart, key, pending.size()));
+
+            if (!publishLeak(activity, key, leaks.get(key), dumpStart)) {
                 MatrixLog.i(TAG, "leak not found");
             }
+            for (DestroyedActivityInfo info : pending) {
+                if (publishLeak(info.mActivityName, info.mKey, leaks.get(info.mKey), dumpStart)) {
+                    onPendingLeakPublished(info);
+                }
+            }
 
         } catch (OutOfMemoryError error) {
             publishIssue(
@@ -125,4 +132,18 @@ public class ForkAnalyseProcessor extends BaseLeakProcessor {
 
         return true;
     }
+
+    private boolean publishLeak(String activity, String key, ActivityLeakResult leaks, long dumpStart) {
+        if (leaks == null || !leaks.mLeakFound) {
+            return false;
+        }
+        final String leakChain = leaks.toString();
+        publishIssue(
+                SharePluginInfo.IssueType.LEAK_FOUND,
+                ResourceConfig.DumpMode.FORK_ANALYSE,
+                activity, key, leakChain,
+                String.valueOf(System.currentTimeMillis() - dumpStart));
+        MatrixLog.i(TAG, leakChain);
+        return true;
+    }
 }
@@ -1,6 +1,10 @@
 package com.tencent.matrix.resource.processor;
 
+import android.annotation.TargetApi;
 import android.os.Build;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
 
 import com.tencent.matrix.resource.MemoryUtil;
 import com.tencent.matrix.resource.analyzer.model.DestroyedActivityInfo;
@@ -8,11 +12,17 @@ import com.tencent.matrix.resource.analyzer.model.HeapDump;
 import com.tencent.matrix.resource.config.ResourceConfig;
 import com.tencent.matrix.resource.config.SharePluginInfo;
 import com.tencent.matrix.resource.dumper.HprofFileManager;
+import com.tencent.matrix.resource.hproflib.HprofStreamShrinker;
 import com.tencent.matrix.resource.watcher.ActivityRefWatcher;
 import com.tencent.matrix.util.MatrixLog;
+import com.tencent.matrix.util.MatrixUtil;
 
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.InputStream;
 
 /**
  * HPROF file dump processor using fork dump.
@@ -24,6 +34,10 @@ public class ForkDumpProcessor extends BaseLeakProcessor {
 
     private static final String TAG = "Matrix.LeakProcessor.ForkDump";
 
+    private static final long SHRINK_JOIN_TIMEOUT_MILLIS   = 120 * 1000L;
+    private static final long SHRINK_ABORT_TIMEOUT_MILLIS  = 10 * 1000L;
+    private static final long FIFO_WAKE_UP_INTERVAL_MILLIS = 100L;
+
     public ForkDumpProcessor(ActivityRefWatcher watcher) {
         super(watcher);
     }
@@ -51,21 +65,182 @@ public class ForkDumpProcessor extends BaseLeakProcessor {
             return true;
         }
 
-        if (!MemoryUtil.dump(hprof.getPath(), 600)) {
+        // Let the dump process write into a fifo and shrink on the fly, so the full hprof never lands on disk.
+        final boolean streamShrink = Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP && createFifo(hprof);
+        final File resultHprof = streamShrink ? getShrinkHprofFile(hprof) : hprof;
+        final boolean dumped = streamShrink ? dumpAndShrink(hprof, resultHprof) : MemoryUtil.dump(hprof.getPath(), 600);
+        if (!dumped) {
             MatrixLog.e(TAG, String.format("heap dump for further analyzing activity with key [%s] was failed, just ignore.",
                     destroyedActivityInfo.mKey));
+            if (!streamShrink) {
+                // The shrunk hprof has been cleaned up by dumpAndShrink if it is safe to.
+                resultHprof.delete();
+            }
             return true;
         }
 
         MatrixLog.i(TAG, String.format("dump cost=%sms refString=%s path=%s",
-                System.currentTimeMillis() - dumpStart, destroyedActivityInfo.mKey, hprof.getPath()));
+                System.currentTimeMillis() - dumpStart, destroyedActivityInfo.mKey, resultHprof.getPath()));
 
         getWatcher().markPublished(destroyedActivityInfo.mActivityName);
         getWatcher().triggerGc();
 
         getHeapDumpHandler().process(
-                new HeapDump(hprof, destroyedActivityInfo.mKey, destroyedActivityInfo.mActivityName));
+                new HeapDump(resultHprof, destroyedActivityInfo.mKey, destroyedActivityInfo.mActivityName, streamShrink));
 
         return true;
     }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private static boolean createFifo(File fifo) {
+        try {
+            Os.mkfifo(fifo.getPath(), OsConstants.S_IRUSR | OsConstants.S_IWUSR);
+            return true;
+        } catch (ErrnoException e) {
+            MatrixLog.printErrStackTrace(TAG, e, "failed to create fifo, fallback to dump into file.");
+            return false;
+        }
+    }
+
+    private static File getShrinkHprofFile(File hprof) {
+        final String name = hprof.getName();
+        return new File(hprof.getParentFile(), name.substring(0, name.indexOf(".hprof")) + "_shrink.hprof");
+    }
+
+    /**
+     * Dumps into the fifo while a shrink thread reads it. Neither end is held open across the fork, so the dump process
+     * fails with EPIPE as soon as the shrink thread closes the read end. Only returns once the shrink thread is over,
+     * and deletes the shrunk hprof itself if it failed.
+     */
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private static boolean dumpAndShrink(final File fifo, final File shrunkHprof) {
+        final ShrinkTask task = new ShrinkTask(fifo, shrunkHprof);
+        final Thread shrinkThread = new Thread(task, "matrix_hprof_shrink");
+        shrinkThread.start();
+
+        final boolean dumped = MemoryUtil.dump(fifo.getPath(), 600);
+
+        final long deadline = System.currentTimeMillis() + SHRINK_JOIN_TIMEOUT_MILLIS;
+        try {
+            long remaining;
+            while (shrinkThread.isAlive() && (remaining = deadline - System.currentTimeMillis()) > 0) {
+                if (task.isOpened()) {
+                    shrinkThread.join(remaining);
+                } else {
+                    // The dump process is gone without opening the fifo, the shrink thread is (or will soon be)
+                    // blocking in opening it.
+                    wakeUpFifo(fifo);
+                    shrinkThread.join(Math.min(remaining, FIFO_WAKE_UP_INTERVAL_MILLIS));
+                }
+            }
+        } catch (InterruptedException e) {
+            MatrixLog.printErrStackTrace(TAG, e, "");
+        }
+
+        if (shrinkThread.isAlive()) {
+            MatrixLog.e(TAG, "shrink hprof stream timeout, abort it.");
+            task.abort();
+            wakeUpFifo(fifo);
+            try {
+                shrinkThread.join(SHRINK_ABORT_TIMEOUT_MILLIS);
+            } catch (InterruptedException e) {
+                MatrixLog.printErrStackTrace(TAG, e, "");
+            }
+            if (shrinkThread.isAlive()) {
+                // Still writing, leave the files to the hprof manager instead of deleting them under its feet.
+                MatrixLog.e(TAG, "shrink thread is still alive after abort, keep %s", shrunkHprof.getPath());
+                return false;
+            }
+        }
+
+        fifo.delete();
+        final boolean succeeded = dumped && task.isSucceeded();
+        if (!succeeded) {
+            shrunkHprof.delete();
+        }
+        return succeeded;
+    }
+
+    /**
+     * Opening a fifo for both reading and writing never blocks on Linux, and wakes up whoever is blocking in opening
+     * the other end of it.
+     */
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private static void wakeUpFifo(File fifo) {
+        try {
+            final FileDescriptor fd = Os.open(fifo.getPath(), OsConstants.O_RDWR | OsConstants.O_NONBLOCK, 0);
+            Os.close(fd);
+        } catch (ErrnoException e) {
+            MatrixLog.printErrStackTrace(TAG, e, "failed to wake up fifo.");
+        }
+    }
+
+    private static class ShrinkTask implements Runnable {
+
+        private final File                mFifo;
+        private final File                mShrunkHprof;
+        private final HprofStreamShrinker mShrinker;
+
+        private InputStream      mInput     = null;
+        private boolean          mAborted   = false;
+        private volatile boolean mOpened    = false;
+        private volatile boolean mSucceeded = false;
+
+        ShrinkTask(File fifo, File shrunkHprof) {
+            mFifo = fifo;
+            mShrunkHprof = shrunkHprof;
+            // Bitmap pixels are not kept in java heap since Android O.
+            mShrinker = new HprofStreamShrinker(new File(shrunkHprof.getPath() + ".spill"),
+                    Build.VERSION.SDK_INT < Build.VERSION_CODES.O);
+        }
+
+        @Override
+        public void run() {
+            InputStream is = null;
+            try {
+                // Blocks until the dump process (or wakeUpFifo) opens the fifo for writing.
+                is = new FileInputStream(mFifo);
+                synchronized (this) {
+                    if (mAborted) {
+                        return;
+                    }
+                    mInput = is;
+                }
+                mOpened = true;
+                final long shrinkStart = System.currentTimeMillis();
+                mShrinker.shrink(new BufferedInputStream(is), mShrunkHprof);
+                mSucceeded = true;
+                MatrixLog.i(TAG, "stream shrink hprof to %s, size: %dk, use time:%d",
+                        mShrunkHprof.getPath(), mShrunkHprof.length() / 1024, (System.currentTimeMillis() - shrinkStart));
+            } catch (Throwable thr) {
+                MatrixLog.printErrStackTrace(TAG, thr, "failed to shrink hprof stream.");
+                if (is == null) {
+                    // Never became the reader, release the dump process in case it is blocking in opening the fifo.
+                    wakeUpFifo(mFifo);
+                }
+            } finally {
+                // Closing the read end fails the dump process with EPIPE instead of blocking it forever.
+                MatrixUtil.closeQuietly(is);
+            }
+        }
+
+        boolean isOpened() {
+            return mOpened;
+        }
+
+        boolean isSucceeded() {
+            return mSucceeded;
+        }
+
+        /**
+         * Closes the streams of the shrink, so it fails at once wherever it is blocking.
+         */
+        void abort() {
+            synchronized (this) {
+                mAborted = true;
+                MatrixUtil.closeQuietly(mInput);
+            }
+            mShrinker.cancel();
+        }
+    }
 }
@@ -13,6 +13,9 @@ import com.tencent.matrix.resource.watcher.ActivityRefWatcher;
 import com.tencent.matrix.util.MatrixLog;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Created by Yves on 2021/2/25
@@ -92,7 +95,6 @@ public class SilenceAnalyseProcessor extends BaseLeakProcessor {
     }
 
     // todo analyse Service
-    // todo batch analyse
     private boolean dumpAndAnalyse(String activity, String refString) {
 
         long dumpBegin = System.currentTimeMillis();
@@ -110,18 +112,25 @@ public class SilenceAnalyseProcessor extends BaseLeakProcessor {
 
         long analyseBegin = System.currentTimeMillis();
         try {
-            final ActivityLeakResult result = analyze(file, refString);
-            MatrixLog.i(TAG, String.format("analyze cost=%sms refString=%s",
-                    System.currentTimeMillis() - analyseBegin, refString));
-
-            String refChain = result.toString();
-            if (result.mLeakFound) {
-                publishIssue(SharePluginInfo.IssueType.LEAK_FOUND, activity, refString, refChain, String.valueOf(
-                        System.currentTimeMillis() - dumpBegin));
-                MatrixLog.i(TAG, refChain);
-            } else {
+            // Check the other destroyed activities pending in the watcher from the same dump.
+            final List<DestroyedActivityInfo> pending = getPendingDestroyedActivities(refString);
+            final List<String> keys = new ArrayList<>(pending.size() + 1);
+            keys.add(refString);
+            for (DestroyedActivityInfo info : pending) {
+                keys.add(info.mKey);
+            }
+            final Map<String, ActivityLeakResult> results = analyze(file, keys);
+            MatrixLog.i(TAG, String.format("analyze cost=%sms refString=%s pending=%s",
+                    System.currentTimeMillis() - analyseBegin, refString, pending.size()));
+
+            if (!publishLeak(activity, refString, results.get(refString), dumpBegin)) {
                 MatrixLog.i(TAG, "leak not found");
             }
+            for (DestroyedActivityInfo info : pending) {
+                if (publishLeak(info.mActivityName, info.mKey, results.get(info.mKey), dumpBegin)) {
+                    onPendingLeakPublished(info);
+                }
+            }
         } catch (OutOfMemoryError error) {
             publishIssue(SharePluginInfo.IssueType.ERR_ANALYSE_OOM, activity, refString, "OutOfMemoryError", "0");
             MatrixLog.printErrStackTrace(TAG, error.getCause(), "");
@@ -131,6 +140,17 @@ public class SilenceAnalyseProcessor extends BaseLeakProcessor {
         return true;
     }
 
+    private boolean publishLeak(String activity, String refString, ActivityLeakResult result, long dumpBegin) {
+        if (result == null || !result.mLeakFound) {
+            return false;
+        }
+        String refChain = result.toString();
+        publishIssue(SharePluginInfo.IssueType.LEAK_FOUND, activity, refString, refChain, String.valueOf(
+                System.currentTimeMillis() - dumpBegin));
+        MatrixLog.i(TAG, refChain);
+        return true;
+    }
+
     private void publishIssue(int issueType, String activity, String refKey, String detail, String cost) {
         publishIssue(issueType, ResourceConfig.DumpMode.SILENCE_ANALYSE, activity, refKey, detail, cost);
     }
@@ -0,0 +1,336 @@
+/*
+ * Tencent is pleased to support the open source community by making wechat-matrix available.
+ * Copyright (C) 2018 THL A29 Limited, a Tencent company. All rights reserved.
+ * Licensed under the BSD 3-Clause License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.matrix.resource.common.utils;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Random access reader of chunked hprof containers written by {@link ChunkedHprofOutputStream}.
+ *
+ * Layout (big endian):
+ * <pre>
+ *   header:  magic(8) version(4) blockSize(4)
+ *   blocks:  zlib stream of each blockSize bytes of the hprof, the last one may be shorter
+ *   index:   [offset(8) compressedLength(4)] * blockCount
+ *   trailer: uncompressedLength(8) blockCount(4) indexOffset(8) magic(8)
+ * </pre>
+ *
+ * Every block can be inflated on its own, so readers may seek and decompress blocks in parallel.
+ * {@link #readBlock(int)} is thread safe.
+ */
+public class ChunkedHprofFile implements Closeable {
+    static final byte[] MAGIC = {'M', 'H', 'P', 'R', 'O', 'F', 'C', 'K'};
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = MAGIC.length + 4 + 4;
+    static final int TRAILER_SIZE = 8 + 4 + 8 + MAGIC.length;
+    static final int INDEX_ENTRY_SIZE = 8 + 4;
+
+    public static final int DEFAULT_BLOCK_SIZE = 256 * 1024;
+
+    private final Source mSource;
+    private final int mBlockSize;
+    private final long mLength;
+    private final long[] mBlockOffsets;
+    private final int[] mBlockCompressedLengths;
+
+    public ChunkedHprofFile(File file) throws IOException {
+        this(new FileSource(file));
+    }
+
+    /**
+     * Reads the container in place from a zip entry, which must be stored without compression.
+     */
+    public ChunkedHprofFile(ZipFile zipFile, ZipEntry entry) throws IOException {
+        this(new ZipEntrySource(zipFile, entry));
+    }
+
+    private ChunkedHprofFile(Source source) throws IOException {
+        mSource = source;
+        try {
+            final ByteBuffer header = ByteBuffer.wrap(readFully(0, HEADER_SIZE));
+            if (!hasMagic(header.array(), 0)) {
+                throw new IOException("not a chunked hprof.");
+            }
+            header.position(MAGIC.length);
+            final int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException("unsupported chunked hprof version: " + version);
+            }
+            mBlockSize = header.getInt();
+
+            final long sourceLength = source.length();
+            final ByteBuffer trailer = ByteBuffer.wrap(readFully(sourceLength - TRAILER_SIZE, TRAILER_SIZE));
+            if (!hasMagic(trailer.array(), TRAILER_SIZE - MAGIC.length)) {
+                throw new IOException("chunked hprof is truncated.");
+            }
+            mLength = trailer.getLong();
+            final int blockCount = trailer.getInt();
+            final long indexOffset = trailer.getLong();
+
+            final ByteBuffer index = ByteBuffer.wrap(readFully(indexOffset, blockCount * INDEX_ENTRY_SIZE));
+            mBlockOffsets = new long[blockCount];
+            mBlockCompressedLengths = new int[blockCount];
+            for (int i = 0; i < blockCount; ++i) {
+                mBlockOffsets[i] = index.getLong();
+                mBlockCompressedLengths[i] = index.getInt();
+            }
+        } catch (IOException e) {
+            StreamUtil.closeQuietly(source);
+            throw e;
+        }
+    }
+
+    public static boolean isChunkedHprof(File file) {
+        InputStream is = null;
+        try {
+            is = new FileInputStream(file);
+            return hasMagic(is);
+        } catch (IOException e) {
+            return false;
+        } finally {
+            StreamUtil.closeQuietly(is);
+        }
+    }
+
+    public static boolean isChunkedHprof(ZipFile zipFile, ZipEntry entry) {
+        InputStream is = null;
+        try {
+            is = zipFile.getInputStream(entry);
+            return hasMagic(is);
+        } catch (IOException e) {
+            return false;
+        } finally {
+            StreamUtil.closeQuietly(is);
+        }
+    }
+
+    private static boolean hasMagic(InputStream is) throws IOException {
+        final byte[] head = new byte[MAGIC.length];
+        int total = 0;
+        while (total < head.length) {
+            final int count = is.read(head, total, head.length - total);
+            if (count < 0) {
+                return false;
+            }
+            total += count;
+        }
+        return hasMagic(head, 0);
+    }
+
+    private static boolean hasMagic(byte[] buf, int off) {
+        return Arrays.equals(MAGIC, Arrays.copyOfRange(buf, off, off + MAGIC.length));
+    }
+
+    /**
+     * @return length of the original hprof.
+     */
+    public long length() {
+        return mLength;
+    }
+
+    public int getBlockSize() {
+        return mBlockSize;
+    }
+
+    public int getBlockCount() {
+        return mBlockOffsets.length;
+    }
+
+    /**
+     * Inflates block {@code index}, which holds hprof bytes starting at {@code index * getBlockSize()}.
+     */
+    public byte[] readBlock(int index) throws IOException {
+        final long blockStart = (long) index * mBlockSize;
+        final byte[] block = new byte[(int) Math.min(mBlockSize, mLength - blockStart)];
+        final byte[] compressed = readFully(mBlockOffsets[index], mBlockCompressedLengths[index]);
+        final Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            int total = 0;
+            while (total < block.length) {
+                final int count = inflater.inflate(block, total, block.length - total);
+                if (count == 0 && (inflater.finished() || inflater.needsInput())) {
+                    throw new EOFException("block " + index + " is truncated.");
+                }
+                total += count;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("block " + index + " is corrupted.", e);
+        } finally {
+            inflater.end();
+        }
+        return block;
+    }
+
+    /**
+     * Sequential view of the original hprof, e.g. for HprofReader.
+     */
+    public InputStream newInputStream() {
+        return new InputStream() {
+            private int mNextBlockIndex = 0;
+            private byte[] mBlock = new byte[0];
+            private int mBlockPos = 0;
+
+            @Override
+            public int read() throws IOException {
+                if (!ensureBlock()) {
+                    return -1;
+                }
+                return mBlock[mBlockPos++] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (len == 0) {
+                    return 0;
+                }
+                if (!ensureBlock()) {
+                    return -1;
+                }
+                final int count = Math.min(len, mBlock.length - mBlockPos);
+                System.arraycopy(mBlock, mBlockPos, b, off, count);
+                mBlockPos += count;
+                return count;
+            }
+
+            private boolean ensureBlock() throws IOException {
+                while (mBlockPos == mBlock.length) {
+                    if (mNextBlockIndex >= getBlockCount()) {
+                        return false;
+                    }
+                    mBlock = readBlock(mNextBlockIndex++);
+                    mBlockPos = 0;
+                }
+                return true;
+            }
+        };
+    }
+
+    @Override
+    public void close() throws IOException {
+        mSource.close();
+    }
+
+    private byte[] readFully(long offset, int length) throws IOException {
+        if (offset < 0 || length < 0) {
+            throw new IOException("bad range, offset: " + offset + ", length: " + length);
+        }
+        final byte[] buf = new byte[length];
+        mSource.read(offset, buf);
+        return buf;
+    }
+
+    private interface Source extends Closeable {
+        long length() throws IOException;
+
+        void read(long offset, byte[] dest) throws IOException;
+    }
+
+    private static final class FileSource implements Source {
+        private final RandomAccessFile mFile;
+        private final FileChannel mChannel;
+
+        FileSource(File file) throws IOException {
+            mFile = new RandomAccessFile(file, "r");
+            mChannel = mFile.getChannel();
+        }
+
+        @Override
+        public long length() throws IOException {
+            return mChannel.size();
+        }
+
+        @Override
+        public void read(long offset, byte[] dest) throws IOException {
+            final ByteBuffer buf = ByteBuffer.wrap(dest);
+            while (buf.hasRemaining()) {
+                // Positional reads keep concurrent callers independent.
+                if (mChannel.read(buf, offset + buf.position()) < 0) {
+                    throw new EOFException();
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            mFile.close();
+        }
+    }
+
+    private static final class ZipEntrySource implements Source {
+        private final ZipFile mZipFile;
+        private final ZipEntry mEntry;
+
+        ZipEntrySource(ZipFile zipFile, ZipEntry entry) throws IOException {
+            if (entry.getMethod() != ZipEntry.STORED) {
+                throw new IOException("chunked hprof entry " + entry.getName() + " must be stored without compression.");
+            }
+            mZipFile = zipFile;
+            mEntry = entry;
+        }
+
+        @Override
+        public long length() {
+            return mEntry.getSize();
+        }
+
+        @Override
+        public void read(long offset, byte[] dest) throws IOException {
+            // Skipping in a stored entry only moves the position, so this is a positional read as well.
+            InputStream is = null;
+            try {
+                is = mZipFile.getInputStream(mEntry);
+                long toSkip = offset;
+                while (toSkip > 0) {
+                    final long skipped = is.skip(toSkip);
+                    if (skipped <= 0) {
+                        throw new EOFException();
+                    }
+                    toSkip -= skipped;
+                }
+                int total = 0;
+                while (total < dest.length) {
+                    final int count = is.read(dest, total, dest.length - total);
+                    if (count < 0) {
+                        throw new EOFException();
+                    }
+                    total += count;
+                }
+            } finally {
+                StreamUtil.closeQuietly(is);
+            }
+        }
+
+        @Override
+        public void close() {
+            // The zip file is owned by the caller.
+        }
+    }
+}
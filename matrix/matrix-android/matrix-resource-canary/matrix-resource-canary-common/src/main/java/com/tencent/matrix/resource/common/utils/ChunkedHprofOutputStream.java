@@ -0,0 +1,159 @@
+/*
+ * Tencent is pleased to support the open source community by making wechat-matrix available.
+ * Copyright (C) 2018 THL A29 Limited, a Tencent company. All rights reserved.
+ * Licensed under the BSD 3-Clause License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.matrix.resource.common.utils;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+
+/**
+ * Writes an hprof as independently deflated fixed-size blocks followed by a block index,
+ * see {@link ChunkedHprofFile} for the layout.
+ */
+public class ChunkedHprofOutputStream extends OutputStream {
+    private final DataOutputStream mOut;
+    private final int mBlockSize;
+    private final byte[] mBlock;
+    private final Deflater mDeflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+
+    private byte[] mDeflateBuffer;
+    private int mBlockLength = 0;
+    private long mUncompressedLength = 0;
+    private long[] mBlockOffsets = new long[64];
+    private int[] mBlockCompressedLengths = new int[64];
+    private int mBlockCount = 0;
+    private boolean mClosed = false;
+
+    public ChunkedHprofOutputStream(OutputStream out) throws IOException {
+        this(out, ChunkedHprofFile.DEFAULT_BLOCK_SIZE);
+    }
+
+    public ChunkedHprofOutputStream(OutputStream out, int blockSize) throws IOException {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("bad blockSize: " + blockSize);
+        }
+        mOut = new DataOutputStream(out);
+        mBlockSize = blockSize;
+        mBlock = new byte[blockSize];
+        mDeflateBuffer = new byte[blockSize + (blockSize >> 3) + 64];
+        mOut.write(ChunkedHprofFile.MAGIC);
+        mOut.writeInt(ChunkedHprofFile.VERSION);
+        mOut.writeInt(blockSize);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        mBlock[mBlockLength++] = (byte) b;
+        if (mBlockLength == mBlockSize) {
+            flushBlock();
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            final int count = Math.min(len, mBlockSize - mBlockLength);
+            System.arraycopy(b, off, mBlock, mBlockLength, count);
+            mBlockLength += count;
+            off += count;
+            len -= count;
+            if (mBlockLength == mBlockSize) {
+                flushBlock();
+            }
+        }
+    }
+
+    private void flushBlock() throws IOException {
+        if (mBlockLength == 0) {
+            return;
+        }
+        mDeflater.reset();
+        mDeflater.setInput(mBlock, 0, mBlockLength);
+        mDeflater.finish();
+        int compressedLength = 0;
+        while (!mDeflater.finished()) {
+            if (compressedLength == mDeflateBuffer.length) {
+                final byte[] newBuffer = new byte[mDeflateBuffer.length << 1];
+                System.arraycopy(mDeflateBuffer, 0, newBuffer, 0, compressedLength);
+                mDeflateBuffer = newBuffer;
+            }
+            compressedLength += mDeflater.deflate(mDeflateBuffer, compressedLength, mDeflateBuffer.length - compressedLength);
+        }
+
+        if (mBlockCount == mBlockOffsets.length) {
+            final long[] newOffsets = new long[mBlockCount << 1];
+            final int[] newLengths = new int[mBlockCount << 1];
+            System.arraycopy(mBlockOffsets, 0, newOffsets, 0, mBlockCount);
+            System.arraycopy(mBlockCompressedLengths, 0, newLengths, 0, mBlockCount);
+            mBlockOffsets = newOffsets;
+            mBlockCompressedLengths = newLengths;
+        }
+        mBlockOffsets[mBlockCount] = ChunkedHprofFile.HEADER_SIZE + currentBodyLength();
+        mBlockCompressedLengths[mBlockCount] = compressedLength;
+        ++mBlockCount;
+
+        mOut.write(mDeflateBuffer, 0, compressedLength);
+        mUncompressedLength += mBlockLength;
+        mBlockLength = 0;
+    }
+
+    private long currentBodyLength() {
+        if (mBlockCount == 0) {
+            return 0;
+        }
+        final int last = mBlockCount - 1;
+        return mBlockOffsets[last] + mBlockCompressedLengths[last] - ChunkedHprofFile.HEADER_SIZE;
+    }
+
+    /**
+     * Flushes the pending block and writes the block index and trailer. Nothing can be written afterwards.
+     */
+    public void finish() throws IOException {
+        if (mClosed) {
+            return;
+        }
+        mClosed = true;
+        flushBlock();
+        final long indexOffset = ChunkedHprofFile.HEADER_SIZE + currentBodyLength();
+        for (int i = 0; i < mBlockCount; ++i) {
+            mOut.writeLong(mBlockOffsets[i]);
+            mOut.writeInt(mBlockCompressedLengths[i]);
+        }
+        mOut.writeLong(mUncompressedLength);
+        mOut.writeInt(mBlockCount);
+        mOut.writeLong(indexOffset);
+        mOut.write(ChunkedHprofFile.MAGIC);
+        mOut.flush();
+        mDeflater.end();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        // Blocks are only emitted once full, so there is nothing to flush but the underlying stream.
+        mOut.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            mOut.close();
+        }
+    }
+}